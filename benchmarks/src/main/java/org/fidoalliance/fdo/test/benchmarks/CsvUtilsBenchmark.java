@@ -0,0 +1,80 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.fidoalliance.fdo.test.common.CsvUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of loading a device matrix through {@link CsvUtils#getDataArray(String)}, and of
+ * streaming it through {@link CsvUtils#getDataIterator(String)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvUtilsBenchmark {
+
+  @Param({"100", "10000"})
+  public int rows;
+
+  private Path csv;
+
+  /**
+   * Write a device matrix with the same columns as priTest.csv.
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    csv = Files.createTempFile("bench-matrix", ".csv");
+    List<String> lines = new ArrayList<>(rows + 1);
+    lines.add("testName,enabled,deviceType,sviEnabled");
+    for (int i = 0; i < rows; i++) {
+      lines.add("aio-test-" + i + "," + (i % 2 == 0) + ",component-sample," + (i % 3 == 0));
+    }
+    Files.write(csv, lines);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(csv);
+  }
+
+  @Benchmark
+  public String[][] getDataArray() throws Exception {
+    return CsvUtils.getDataArray(csv.toString());
+  }
+
+  /**
+   * Stream every row, as a TestNG data provider would.
+   */
+  @Benchmark
+  public void getDataIterator(Blackhole blackhole) throws Exception {
+    Iterator<Object[]> it = CsvUtils.getDataIterator(csv.toString());
+    while (it.hasNext()) {
+      blackhole.consume(it.next());
+    }
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.fidoalliance.fdo.test.common.TestLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link TestLogger} through the log4j2 appenders configured in common's
+ * log4j2.xml. The file appender writes to TESTNG_LOG_DIR, or to logs in the working directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TestLoggerBenchmark {
+
+  private int exitValue = 0;
+
+  /**
+   * A typical process-outcome message from a single thread.
+   */
+  @Benchmark
+  public void infoSingleThread() {
+    TestLogger.info("Device TO completed successfully.Exit value: {}", exitValue);
+  }
+
+  /**
+   * The same message concatenated by the caller, as before TestLogger took parameters.
+   */
+  @Benchmark
+  public void infoConcatenated() {
+    TestLogger.info("Device TO completed successfully.Exit value: " + exitValue);
+  }
+
+  /**
+   * The same message from many threads, as when a fleet of devices is running.
+   */
+  @Benchmark
+  @Threads(16)
+  public void infoContended() {
+    TestLogger.info("Device TO completed successfully.Exit value: {}", exitValue);
+  }
+
+  /**
+   * A debug message, which only the console appender accepts.
+   */
+  @Benchmark
+  public void debugSingleThread() {
+    TestLogger.debug("Device TO completed successfully.Exit value: {}", exitValue);
+  }
+}
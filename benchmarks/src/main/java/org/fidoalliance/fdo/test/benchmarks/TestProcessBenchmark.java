@@ -0,0 +1,57 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.benchmarks;
+
+import com.sun.jna.Platform;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.fidoalliance.fdo.test.common.TestProcess;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of spawning a trivial child through {@link TestProcess#start()} and reaping it with
+ * {@link TestProcess.Handle#close()}, i.e. the harness overhead paid per device step.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TestProcessBenchmark {
+
+  private static final Path workDir = Paths.get(System.getProperty("java.io.tmpdir"));
+  private static final String[] command = Platform.isWindows()
+      ? new String[]{"cmd", "/c", "exit", "0"}
+      : new String[]{"true"};
+
+  /**
+   * Spawn, wait for exit and reap.
+   */
+  @Benchmark
+  public int spawnAndReap() throws Exception {
+    TestProcess process = new TestProcess(workDir, command);
+    try (TestProcess.Handle handle = process.start()) {
+      handle.waitFor(5, TimeUnit.SECONDS);
+      return handle.exitValue();
+    }
+  }
+
+  /**
+   * Spawn and reap without waiting, i.e. the cost of killing a child that is still running.
+   */
+  @Benchmark
+  public void spawnAndKill() throws Exception {
+    new TestProcess(workDir, command).start().close();
+  }
+}
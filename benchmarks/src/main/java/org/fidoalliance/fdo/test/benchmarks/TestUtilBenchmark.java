@@ -0,0 +1,91 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.fidoalliance.fdo.test.common.LogScanner;
+import org.fidoalliance.fdo.test.common.TestUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of checking a device log for the onboarding marker with
+ * {@link TestUtil#fileContainsString(String, String, boolean)}. The marker is on the last line,
+ * which is the common case after a successful TO. {@link LogScanner} is measured alongside,
+ * looking for the marker together with a set of error signatures in one pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TestUtilBenchmark {
+
+  private static final String MARKER = "Device onboarded successfully.";
+  private static final String[] SIGNATURES = {
+      "ServiceInfo file transmission failed.", "Exception", "ERROR", "Connection refused",
+      "TO2 failed", "TO1 failed", "DI failed", "Invalid ownership voucher", "timed out",
+      "Message body error", "Resource not found", "Invalid signature"};
+
+  @Param({"1000", "100000"})
+  public int lines;
+
+  private Path log;
+  private LogScanner scanner;
+
+  /**
+   * Write a device log with the marker on its last line.
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    log = Files.createTempFile("bench-result", ".txt");
+    try (BufferedWriter writer = Files.newBufferedWriter(log)) {
+      for (int i = 0; i < lines; i++) {
+        writer.write("12:00:00.000 [main] INFO  o.f.fdo.protocol.DeviceTo2 - message " + i);
+        writer.newLine();
+      }
+      writer.write(MARKER);
+      writer.newLine();
+    }
+    scanner = new LogScanner().addLiteral(MARKER);
+    for (String signature : SIGNATURES) {
+      scanner.addLiteral(signature);
+    }
+    scanner.addRegex("Exit value: [1-9]");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(log);
+  }
+
+  @Benchmark
+  public boolean fileContainsString() throws Exception {
+    return TestUtil.fileContainsString(log.toString(), MARKER, true);
+  }
+
+  /**
+   * Scan for the marker and the error signatures in one pass.
+   */
+  @Benchmark
+  public LogScanner.Result logScanner() throws Exception {
+    return scanner.scan(log);
+  }
+}
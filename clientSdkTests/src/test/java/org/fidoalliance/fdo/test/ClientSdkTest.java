@@ -3,21 +3,37 @@
 
 package org.fidoalliance.fdo.test;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import static org.fidoalliance.fdo.test.common.LatencyRecorder.PHASE_DI;
+import static org.fidoalliance.fdo.test.common.LatencyRecorder.PHASE_SVI_UPLOAD;
+import static org.fidoalliance.fdo.test.common.LatencyRecorder.PHASE_TO;
+import static org.fidoalliance.fdo.test.common.LatencyRecorder.PHASE_TO0_WAIT;
+import static org.fidoalliance.fdo.test.common.LatencyRecorder.PHASE_VOUCHER_GET;
+import static org.fidoalliance.fdo.test.common.LatencyRecorder.PHASE_VOUCHER_POST;
+
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.net.URL;
+import java.time.Duration;
+import java.util.Iterator;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
+import org.fidoalliance.fdo.test.common.AioStack;
+import org.fidoalliance.fdo.test.common.ArtifactStore;
 import org.fidoalliance.fdo.test.common.CsvUtils;
+import org.fidoalliance.fdo.test.common.DockerStack;
+import org.fidoalliance.fdo.test.common.FdoRestClient;
+import org.fidoalliance.fdo.test.common.LatencyRecorder;
+import org.fidoalliance.fdo.test.common.LogWatcher;
 import org.fidoalliance.fdo.test.common.PropertiesUtils;
 import org.fidoalliance.fdo.test.common.TestCase;
 import org.fidoalliance.fdo.test.common.TestLogger;
 import org.fidoalliance.fdo.test.common.TestProcess;
-import org.fidoalliance.fdo.test.common.TestUtil;
+import org.fidoalliance.fdo.test.common.TimeoutPolicy;
+import org.fidoalliance.fdo.test.common.To0Wait;
 import org.testng.Assert;
 import org.testng.SkipException;
 import org.testng.annotations.*;
@@ -30,75 +46,33 @@ import org.testng.annotations.Test;
 public class ClientSdkTest extends TestCase {
 
   @DataProvider(name = "FdoClientSdkTestData")
-  public static Object[][] getData() throws Exception {
+  public static Iterator<Object[]> getData() throws Exception {
     TestLogger.info("=====> Reading csv data file.");
     String dataFile = "ClientSdkTest.csv";
     URL resource = ClientSdkTest.class.getClassLoader().getResource(dataFile);
     Assert.assertNotNull(resource, "File " + dataFile + " does not exist;");
     String resourcePath = Paths.get(resource.toURI()).toString();
     TestLogger.info("=====> resourcePath: " + Paths.get(resource.toURI()));
-    return CsvUtils.getDataArray(resourcePath);
+    return CsvUtils.getDataIterator(resourcePath);
   }
 
   /**
-   * This method is used to start docker container for PRI-FIDO components.
+   * This method is used to start docker container for PRI-FIDO components, unless they are
+   * already running.
    */
-  @BeforeGroups("fdo_clientsdk_smoketest")
-  public void startFdoDockerService() throws IOException, InterruptedException {
-    TestLogger.info("=====> Starting FDO Docker Services");
-
-    // try {
-    //   mfgApiPass = PropertiesUtils.getProperty(
-    //       testDir + "/binaries/pri-fidoiot/manufacturer/creds.env",
-    //       "manufacturer_api_password");
-
-    //   ownerApiPass = PropertiesUtils.getProperty(
-    //       testDir + "/binaries/pri-fidoiot/owner/creds.env",
-    //       "owner_api_password");
-    // } catch (IOException ex) {
-    //   Assert.fail("Couldn't read API Password.");
-    //   throw ex;
-    // }
-
-    Path mfgDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/manufacturer");
-    Path ownerDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/owner");
-    Path rvDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/rv");
-    Path aioDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/aio");
-    Path dbDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/db");
-
-    try {
-      //TestProcess.execute_dockerCmd(mfgDockerPath.toString(), runDockerService);
-      //TestProcess.execute_dockerCmd(rvDockerPath.toString(), runDockerService);
-      //TestProcess.execute_dockerCmd(ownerDockerPath.toString(), runDockerService);
-      TestProcess.execute_dockerCmd(aioDockerPath.toString(), runDockerService);
-      TestProcess.execute_dockerCmd(dbDockerPath.toString(), runDockerService);
-      Thread.sleep(fdoDockerUpTimeout.toMillis());
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+  private void startFdoDockerService() throws Exception {
+    // Start db before aio and wait until each answers rather than sleeping a fixed time.
+    requireStacks(DockerStack.db(testDir), DockerStack.aio(testDir));
   }
 
   /**
-   * This method is used to stop docker container for PRI-FIDO components.
+   * This method is used to stop docker container for PRI-FIDO components once no other test
+   * class or test run uses them.
    */
-  @AfterGroups("fdo_clientsdk_smoketest")
+  @AfterGroups(value = "fdo_clientsdk_smoketest", alwaysRun = true)
   public void stopFdoDockerService() {
-    TestLogger.info("=====> Stopping FDO Docker Services");
-    Path mfgDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/manufacturer");
-    Path ownerDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/owner");
-    Path rvDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/rv");
-    Path aioDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/aio");
-    Path dbDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/db");
-    try {
-      //TestProcess.execute_dockerCmd(mfgDockerPath.toString(), downDockerService);
-      //TestProcess.execute_dockerCmd(ownerDockerPath.toString(), downDockerService);
-      //TestProcess.execute_dockerCmd(rvDockerPath.toString(), downDockerService);
-      TestProcess.execute_dockerCmd(aioDockerPath.toString(), downDockerService);
-      TestProcess.execute_dockerCmd(dbDockerPath.toString(), downDockerService);
-      Thread.sleep(dockerDownTimeout.toMillis());
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+    TestLogger.info("=====> Releasing FDO Docker Services");
+    releaseStacks();
   }
 
   private void fdoClientSdkTest(String sviEnabled) throws Exception {
@@ -113,18 +87,24 @@ public class ClientSdkTest extends TestCase {
 
     TestProcess deviceDi = new TestProcess(testPath, deviceDiCmd);
     int deviceResultDi = -1;
-    try (TestProcess.Handle hDeviceDi = deviceDi.start()) {
-      if (hDeviceDi.waitFor(longTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+    try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_DI);
+        TestProcess.Handle hDeviceDi = deviceDi.start()) {
+      TimeoutPolicy.Deadline deadline =
+          timeoutPolicy.start(TimeoutPolicy.CLIENT_SDK, PHASE_DI, longTimeout);
+      if (hDeviceDi.waitFor(deadline.remaining().toMillis(), TimeUnit.MILLISECONDS)) {
         deviceResultDi = hDeviceDi.exitValue();
+        deadline.complete(deviceResultDi == 0);
+      } else {
+        deadline.expire();
       }
     }
 
     if (deviceResultDi != 0) {
       TestLogger.error(
-          "Device DI did not complete successfully.Most likely cause is a timeout.Exit value: "
-              + deviceResultDi);
+          "Device DI did not complete successfully.Most likely cause is a timeout.Exit value: {}",
+              deviceResultDi);
     } else {
-      TestLogger.info("Device DI completed successfully.Exit value: " + deviceResultDi);
+      TestLogger.info("Device DI completed successfully.Exit value: {}", deviceResultDi);
     }
     // Confirm device completed successfully.
     Assert.assertEquals(deviceResultDi, 0,
@@ -132,90 +112,89 @@ public class ClientSdkTest extends TestCase {
 
     Thread.sleep(shortTimeout.toMillis());
 
-    String[] shellCmdVoucher = {"bash", "-cx",
-        "curl -D - --digest -u apiUser:" + mfgApiPass + " "
-            + "-XGET http://localhost:8039/api/v1/vouchers/abcdef -o ext_voucher"};
-    TestProcess shellVoucher = new TestProcess(testPath, shellCmdVoucher);
-    try (TestProcess.Handle hShellCmd = shellVoucher.start()) {
-      hShellCmd.waitFor(1000, TimeUnit.MILLISECONDS);
+    FdoRestClient mfgClient = new FdoRestClient(mfgApiUrl, apiUser, mfgApiPass);
+    FdoRestClient ownerClient = new FdoRestClient(ownerApiUrl, apiUser, ownerApiPass);
+
+    // Serial number the device was built with, for the manufacturer; the shared store keys the
+    // device by invocation, since parallel rows onboard devices with the same serial number
+    String serial = "abcdef";
+    String device = serial + "-" + context().getId();
+    FdoRestClient.Response voucher;
+    try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_VOUCHER_GET)) {
+      voucher = mfgClient.getVoucher(serial);
     }
+    assertSuccess(voucher, "Voucher fetch from manufacturer");
+    artifactStore.put(device, ArtifactStore.Kind.EXTENDED_VOUCHER, voucher.getBody());
 
-    String[] shellCmdTo = {"bash", "-cx",
-        "curl -D - --digest -u apiUser:" + ownerApiPass + " "
-            + "--header \"Content-Type: application/cbor\" "
-            + "--data-binary @ext_voucher http://localhost:8042/api/v1/owner/vouchers/ -o guid"};
-    TestProcess shellTo = new TestProcess(testPath, shellCmdTo);
-    try (TestProcess.Handle hShellCmdTo = shellTo.start()) {
-      hShellCmdTo.waitFor(1000, TimeUnit.MILLISECONDS);
+    FdoRestClient.Response guidResponse;
+    try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_VOUCHER_POST)) {
+      guidResponse = ownerClient.uploadVoucher(voucher.getBody());
     }
+    assertSuccess(guidResponse, "Voucher upload to owner");
+    artifactStore.putGuid(device, guidResponse.getBodyAsString().trim());
 
     if (sviEnabled.toLowerCase().equals("true")) {
-      BufferedReader br = new BufferedReader(new FileReader(Paths.get(testDir + "/guid").toFile()));
-      String guid = br.readLine();
-
-      String[] shellCmdServiceInfoActivate = {"bash", "-cx",
-          "curl --location --digest -u apiUser:" + ownerApiPass + " "
-              + "--request PUT 'http://localhost:8042/api/v1/device/svi?module=fdo_sys&"
-              + "var=active&priority=0&bytes=F5' --header 'Content-Type: application/octet-stream'"};
-      TestProcess shellServiceInfo = new TestProcess(testPath, shellCmdServiceInfoActivate);
-      try (TestProcess.Handle hShellCmd = shellServiceInfo.start()) {
-        hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
-      }
-
-      String[] shellCmdServiceInfoFileTransfer = {"bash", "-cx",
-          "curl --location --digest -u apiUser:" + ownerApiPass + " "
-              + "--request PUT 'http://localhost:8042/api/v1/device/svi?module=fdo_sys&"
-              + "var=filedesc&priority=1&filename=linux64.sh&guid=" + guid
-              + "' --header 'Content-Type: application/octet-stream' --data-binary "
-              + "'@common/src/main/resources/linux64.sh'"};
-
-      TestProcess shellServiceInfoFileTransfer = new TestProcess(testPath,
-          shellCmdServiceInfoFileTransfer);
-      try (TestProcess.Handle hShellCmd = shellServiceInfoFileTransfer.start()) {
-        hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
+      String guid = artifactStore.getGuid(device);
+
+      try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_SVI_UPLOAD)) {
+        assertSuccess(ownerClient.putDeviceSvi(
+            "module=fdo_sys&var=active&priority=0&bytes=F5", new byte[0]),
+            "ServiceInfo activate");
+
+        assertSuccess(ownerClient.putDeviceSvi(
+            "module=fdo_sys&var=filedesc&priority=1&filename=linux64.sh&guid=" + guid,
+            Files.readAllBytes(Paths.get(testDir, "common/src/main/resources/linux64.sh"))),
+            "ServiceInfo file transfer");
+
+        assertSuccess(ownerClient.putDeviceSvi(
+            "module=fdo_sys&var=exec&guid=" + guid + "&priority=2&"
+                + "bytes=82672F62696E2F73686A6C696E757836342E7368", new byte[0]),
+            "ServiceInfo exec");
       }
+    }
 
-      String[] shellCmdServiceInfoExec = {"bash", "-cx",
-          "curl --location --digest -u apiUser:" + ownerApiPass + " "
-              + "--request PUT 'http://localhost:8042/api/v1/device/svi?module=fdo_sys&"
-              + "var=exec&guid=" + guid + "&priority=2&"
-              + "bytes=82672F62696E2F73686A6C696E757836342E7368' "
-              + "--header 'Content-Type: application/octet-stream'"};
-      TestProcess shellServiceInfoExec = new TestProcess(testPath, shellCmdServiceInfoExec);
-      try (TestProcess.Handle hShellCmd = shellServiceInfoExec.start()) {
-        hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
+    // Start TO as soon as the owner has registered the device with the RV server
+    try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_TO0_WAIT)) {
+      if (!new To0Wait(ownerClient).await(artifactStore.getGuid(device),
+          timeoutPolicy.start(TimeoutPolicy.CLIENT_SDK, PHASE_TO0_WAIT, fdoToWait))) {
+        TestLogger.warn("=====> TO0 of device {} not confirmed; starting TO anyway", device);
       }
-
     }
 
-    Thread.sleep(fdoToWait.toMillis());
-
     String[] deviceToCmd = {"bash", "-cx", "./binaries/client-sdk-fidoiot/linux-client"};
 
+    CompletableFuture<LogWatcher.Match> sviResult = null;
+    if (sviEnabled.toLowerCase().equals("true")) {
+      sviResult = watchServiceInfoResult(Paths.get(testDir, resultFile));
+    }
+
     TestProcess deviceTo = new TestProcess(testPath, deviceToCmd);
     int deviceResultTo = -1;
-    try (TestProcess.Handle hDeviceTo = deviceTo.start()) {
-      if (hDeviceTo.waitFor(longTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+    try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_TO);
+        TestProcess.Handle hDeviceTo = deviceTo.start()) {
+      TimeoutPolicy.Deadline deadline =
+          timeoutPolicy.start(TimeoutPolicy.CLIENT_SDK, PHASE_TO, longTimeout);
+      if (waitForDevice(hDeviceTo, sviResult, deadline.remaining())) {
         deviceResultTo = hDeviceTo.exitValue();
+        deadline.complete(deviceResultTo == 0);
+      } else {
+        deadline.expire();
       }
     }
 
     if (deviceResultTo != 0) {
       TestLogger.error(
-          "Device TO did not complete successfully.Most likely cause is a timeout.Exit value: "
-              + deviceResultTo);
+          "Device TO did not complete successfully.Most likely cause is a timeout.Exit value: {}",
+              deviceResultTo);
     } else {
-      TestLogger.info("Device TO completed successfully.Exit value: " + deviceResultTo);
+      TestLogger.info("Device TO completed successfully.Exit value: {}", deviceResultTo);
     }
 
     Assert.assertEquals(deviceResultTo, 0,
         "ERROR: Device TO did not exit properly. Exit value: " + deviceResultTo + "; ");
 
-    if (sviEnabled.toLowerCase().equals("true")) {
-      String logFileDevice = Paths.get(testDir, resultFile).toString();
-      Assert.assertTrue(
-          TestUtil.fileContainsString(logFileDevice, "Device onboarded successfully.", true),
-          "ERROR: Device: ServiceInfo not processed successfully.");
+    if (sviResult != null) {
+      assertServiceInfoResult(sviResult);
     }
   }
 
@@ -227,112 +206,105 @@ public class ClientSdkTest extends TestCase {
     Path testPath = Paths.get(testDir);
     Path testDevicePath = Paths.get(testDir + "binaries/client-sdk-fidoiot");
     boolean updateRVinfo = true;
+    // The C device is configured for the standard ports, so it always uses the standard stack.
+    AioStack aio = AioStack.standard(testDir);
+    FdoRestClient aioClient = new FdoRestClient(aio.getApiUrl(), apiUser, "");
     if (updateRVinfo) {
-      String[] shellCmdRvInfo = {"bash", "-cx", "curl --location --request " +
-            " POST 'http://localhost:8080/api/v1/rvinfo' --header 'Content-Type: text/plain' " +
-            " --data-raw '[[[5, \"127.0.0.1\"], [3, 8080], [12, 1], [2, \"127.0.0.1\"], [4, 8443]]]' "};
-
-
-      TestProcess shellRvInfProcess = new TestProcess(testPath,
-                shellCmdRvInfo);
-      try (TestProcess.Handle hShellCmd = shellRvInfProcess.start()) {
-        hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
-      }
-
-      String[] shellCmdOwnerRedirect = {"bash", "-cx", "curl -D - --digest -u apiUser: " +
-      "--location --request POST 'http://localhost:8080/api/v1/owner/redirect' " +
-      "--header 'Content-Type: text/plain' " +
-      "--data-raw '[[\"127.0.0.1\",\"127.0.0.1\",8080,3]]' "};
-
-      TestProcess shellOwnerRedirect = new TestProcess(testPath,
-            shellCmdOwnerRedirect);
-      try (TestProcess.Handle hShellCmd = shellOwnerRedirect.start()) {
-      hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
-      }
+      assertSuccess(aioClient.postRvInfo(aio.getRvInfo()), "rvinfo update");
 
+      assertSuccess(aioClient.postOwnerRedirect(aio.getOwnerRedirect()),
+          "Owner redirect update");
     }
 
     String[] deviceDiCmd = {"bash", "-cx", "./binaries/client-sdk-fidoiot/linux-client"};
 
     TestProcess deviceDi = new TestProcess(testPath, deviceDiCmd);
     int deviceResultDi = -1;
-    try (TestProcess.Handle hDeviceDi = deviceDi.start()) {
-      if (hDeviceDi.waitFor(longTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+    try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_DI);
+        TestProcess.Handle hDeviceDi = deviceDi.start()) {
+      TimeoutPolicy.Deadline deadline =
+          timeoutPolicy.start(TimeoutPolicy.CLIENT_SDK, PHASE_DI, longTimeout);
+      if (hDeviceDi.waitFor(deadline.remaining().toMillis(), TimeUnit.MILLISECONDS)) {
         deviceResultDi = hDeviceDi.exitValue();
+        deadline.complete(deviceResultDi == 0);
+      } else {
+        deadline.expire();
       }
     }
 
     if (deviceResultDi != 0) {
       TestLogger.error(
-              "Device DI did not complete successfully.Most likely cause is a timeout.Exit value: "
-                      + deviceResultDi);
+              "Device DI did not complete successfully.Most likely cause is a timeout."
+                      + "Exit value: {}", deviceResultDi);
     } else {
-      TestLogger.info("Device DI completed successfully.Exit value: " + deviceResultDi);
+      TestLogger.info("Device DI completed successfully.Exit value: {}", deviceResultDi);
     }
     // Confirm device completed successfully.
     Assert.assertEquals(deviceResultDi, 0,
             "ERROR: Device DI did not exit properly. Exit value: " + deviceResultDi + "; ");
 
+    // The AIO server runs TO0 itself and the row has no GUID to poll its state with, so this
+    // stays a fixed pause; it is not a TO0 wait latency.
     Thread.sleep(shortTimeout.toMillis());
 
 
+    FdoRestClient.Response payloadUpload = null;
     if (sviEnabled.toLowerCase().equals("true")) {
 
-      String[] shellCmdServiceInfoFileTransfer1 = {"bash", "-cx", "curl -D - --digest -u apiUser: " +
-              "--location --request POST 'http://localhost:8080/api/v1/owner/resource?filename=payload.bin' " +
-              "--header 'Content-Type: text/plain' --data-binary '@common/src/main/resources/payload.bin'"};
-
-      TestProcess shellServiceInfoFileTransfer1 = new TestProcess(testPath,
-              shellCmdServiceInfoFileTransfer1);
-      try (TestProcess.Handle hShellCmd = shellServiceInfoFileTransfer1.start()) {
-        hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
-      }
-
-      String[] shellCmdServiceInfoFileTransfer2 = {"bash", "-cx", "curl -D - --digest -u apiUser: " +
-              "--location --request POST 'http://localhost:8080/api/v1/owner/resource?filename=linux64.sh' " +
-              "--header 'Content-Type: text/plain' --data-binary '@common/src/main/resources/linux64.sh'"};
-
-      TestProcess shellServiceInfoFileTransfer2 = new TestProcess(testPath,
-              shellCmdServiceInfoFileTransfer2);
-      try (TestProcess.Handle hShellCmd = shellServiceInfoFileTransfer2.start()) {
-        hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
-      }
+      try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_SVI_UPLOAD)) {
+        // Streamed from disk, so the payload can be as large as -Dfdo.svi.payloadSize asks for.
+        Path payload = sviPayload();
+        payloadUpload = aioClient.uploadResource("payload.bin", payload);
+        assertSuccess(payloadUpload, "Resource upload payload.bin");
 
-      String[] shellCmdServiceInfoExec = {"bash", "-cx","curl --location --request POST 'http://localhost:8080/api/v1/owner/svi' --header 'Content-Type: text/plain' --data-raw '[{\"filedesc\" : \"payload.bin\",\"resource\" : \"payload.bin\"},{\"filedesc\" : \"linux64.sh\",\"resource\" : \"linux64.sh\"},{\"exec\" : [\"/bin/bash\",\"linux64.sh\"]}]'"};
+        assertSuccess(aioClient.uploadResource("linux64.sh", sviScript(payload)),
+            "Resource upload linux64.sh");
 
-      TestProcess shellServiceInfoExec = new TestProcess(testPath, shellCmdServiceInfoExec);
-      try (TestProcess.Handle hShellCmd = shellServiceInfoExec.start()) {
-        hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
+        assertSuccess(aioClient.postSvi(
+            "[{\"filedesc\" : \"payload.bin\",\"resource\" : \"payload.bin\"},"
+            + "{\"filedesc\" : \"linux64.sh\",\"resource\" : \"linux64.sh\"},"
+            + "{\"exec\" : [\"/bin/bash\",\"linux64.sh\"]}]"),
+            "ServiceInfo update");
       }
 
     }
 
     String[] deviceToCmd = {"bash", "-cx", "./binaries/client-sdk-fidoiot/linux-client"};
 
+    CompletableFuture<LogWatcher.Match> sviResult = null;
+    if (sviEnabled.toLowerCase().equals("true")) {
+      sviResult = watchServiceInfoResult(Paths.get(testDir, resultFile));
+    }
+
     TestProcess deviceTo = new TestProcess(testPath, deviceToCmd);
     int deviceResultTo = -1;
-    try (TestProcess.Handle hDeviceTo = deviceTo.start()) {
-      if (hDeviceTo.waitFor(longTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+    long toStart = System.nanoTime();
+    try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_TO);
+        TestProcess.Handle hDeviceTo = deviceTo.start()) {
+      TimeoutPolicy.Deadline deadline =
+          timeoutPolicy.start(TimeoutPolicy.CLIENT_SDK, PHASE_TO, longTimeout);
+      if (waitForDevice(hDeviceTo, sviResult, deadline.remaining())) {
         deviceResultTo = hDeviceTo.exitValue();
+        deadline.complete(deviceResultTo == 0);
+      } else {
+        deadline.expire();
       }
     }
 
     if (deviceResultTo != 0) {
       TestLogger.error(
-              "Device TO did not complete successfully.Most likely cause is a timeout.Exit value: "
-                      + deviceResultTo);
+              "Device TO did not complete successfully.Most likely cause is a timeout."
+                      + "Exit value: {}", deviceResultTo);
     } else {
-      TestLogger.info("Device TO completed successfully.Exit value: " + deviceResultTo);
+      TestLogger.info("Device TO completed successfully.Exit value: {}", deviceResultTo);
     }
 
     Assert.assertEquals(deviceResultTo, 0,
             "ERROR: Device TO did not exit properly. Exit value: " + deviceResultTo + "; ");
 
-    if (sviEnabled.toLowerCase().equals("true")) {
-      String logFileDevice = Paths.get(testDir, resultFile).toString();
-      Assert.assertTrue(
-              TestUtil.fileContainsString(logFileDevice, "Device onboarded successfully.", true),
-              "ERROR: Device: ServiceInfo not processed successfully.");
+    if (sviResult != null) {
+      assertServiceInfoResult(sviResult);
+      reportSviTransfer(payloadUpload, Duration.ofNanos(System.nanoTime() - toStart));
     }
   }
 
@@ -348,6 +320,7 @@ public class ClientSdkTest extends TestCase {
     if (enabled.toLowerCase().equals("false")) {
       throw new SkipException("Skipping disabled test.");
     }
+    startFdoDockerService();
 
     TestLogger.info("Test Name:" + testName);
 
@@ -0,0 +1,258 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * One AIO server with its database: the docker stacks to start, the ports they listen on, and
+ * the RVInfo and owner redirect that point devices at them.
+ *
+ * <p>The standard stack uses the ports of the docker-compose files. An isolated stack runs its
+ * db and aio as compose projects of their own, named fdo-N-db and fdo-N-aio, on ports taken
+ * from a {@link PortAllocator.PortRange}. The docker-compose files are used as they are, with a
+ * generated override file on top that replaces their host ports and container names. The
+ * override also puts db and aio on a network of their own, fdo-N, where the db answers as db
+ * and as host.docker.internal, so an aio that reaches its database by either name gets the db
+ * of its own stack. The override needs docker compose 2.24 or later. The compose service names
+ * are taken from -Dfdo.db.service and -Dfdo.aio.service, by default db and aio.
+ */
+public class AioStack {
+
+  public static final int HTTP_PORT = 8080;
+  public static final int HTTPS_PORT = 8443;
+  public static final int DB_PORT = 3306;
+  // Ports of an isolated stack, in the order they are taken from its range
+  public static final int PORT_COUNT = 3;
+
+  private static final String HOST = "127.0.0.1";
+  private static final String LOCALHOST = "localhost";
+  private static final String HEALTH = "/health";
+  private static final String DB_SERVICE_PROPERTY = "fdo.db.service";
+  private static final String AIO_SERVICE_PROPERTY = "fdo.aio.service";
+  // Server addresses in device configuration files, rewritten for an isolated stack
+  private static final Pattern SERVER_ADDRESS =
+      Pattern.compile("\\b(localhost|127\\.0\\.0\\.1):(" + HTTP_PORT + "|" + HTTPS_PORT + ")\\b");
+  private static final List<String> CONFIG_SUFFIXES =
+      Arrays.asList(".yml", ".yaml", ".properties", ".conf", ".cfg", ".json", ".xml", ".txt");
+  private static final long MAX_CONFIG_SIZE = 1024 * 1024;
+  private static final String APP_DATA = "app-data";
+
+  private final String name;
+  private final int httpPort;
+  private final int httpsPort;
+  private final int dbPort;
+  private final List<DockerStack> stacks;
+  // Held for as long as the stack exists, so no other test run takes its ports
+  private final PortAllocator.PortRange ports;
+
+  private AioStack(String name, int httpPort, int httpsPort, int dbPort,
+      List<DockerStack> stacks, PortAllocator.PortRange ports) {
+    this.name = name;
+    this.httpPort = httpPort;
+    this.httpsPort = httpsPort;
+    this.dbPort = dbPort;
+    this.stacks = Collections.unmodifiableList(stacks);
+    this.ports = ports;
+  }
+
+  /**
+   * The stack of the docker-compose files as they are, on their own ports.
+   *
+   * @param testDir : directory holding the executables being tested
+   * @return the stack
+   */
+  public static AioStack standard(String testDir) {
+    return new AioStack("aio", HTTP_PORT, HTTPS_PORT, DB_PORT,
+        Arrays.asList(DockerStack.db(testDir), DockerStack.aio(testDir)), null);
+  }
+
+  /**
+   * A stack that can run next to others on the same host.
+   *
+   * @param testDir : directory holding the executables being tested
+   * @param index   : number of the stack, used in its name and compose project names
+   * @param ports   : at least {@link #PORT_COUNT} ports for HTTP, HTTPS and the database
+   * @return the stack
+   */
+  public static AioStack isolated(String testDir, int index, PortAllocator.PortRange ports) {
+    int httpPort = ports.get(0);
+    int httpsPort = ports.get(1);
+    int dbPort = ports.get(2);
+    String db = "db-" + index;
+    String aio = "aio-" + index;
+    return new AioStack(aio, httpPort, httpsPort, dbPort, Arrays.asList(
+        new DockerStack(db, DockerStack.db(testDir).getDirectory(),
+            Arrays.asList(ReadinessProbe.tcp(db, LOCALHOST, dbPort)),
+            "fdo-" + index + "-db", dbOverride(index, dbPort)),
+        new DockerStack(aio, DockerStack.aio(testDir).getDirectory(),
+            Arrays.asList(ReadinessProbe.http(aio, LOCALHOST, httpPort, HEALTH)),
+            "fdo-" + index + "-aio", aioOverride(index, httpPort, httpsPort))), ports);
+  }
+
+  /**
+   * Compose override of the db project of isolated stack N: its database port, and the network
+   * fdo-N, created here, on which the db answers to the names the aio may use for it.
+   */
+  static String dbOverride(int index, int dbPort) {
+    return service(index, System.getProperty(DB_SERVICE_PROPERTY, "db"), "db",
+        dbPort + ":" + DB_PORT)
+        + "    networks:\n"
+        + "      stack:\n"
+        + "        aliases:\n"
+        + "          - db\n"
+        + "          - host.docker.internal\n"
+        + network(index, false);
+  }
+
+  /**
+   * Compose override of the aio project of isolated stack N: its HTTP and HTTPS ports, and the
+   * network fdo-N instead of extra hosts, so host.docker.internal is the db of the stack.
+   */
+  static String aioOverride(int index, int httpPort, int httpsPort) {
+    return service(index, System.getProperty(AIO_SERVICE_PROPERTY, "aio"), "aio",
+        httpPort + ":" + HTTP_PORT, httpsPort + ":" + HTTPS_PORT)
+        + "    extra_hosts: !reset []\n"
+        + "    networks:\n"
+        + "      - stack\n"
+        + network(index, true);
+  }
+
+  private static String service(int index, String service, String kind, String... ports) {
+    StringBuilder yaml = new StringBuilder()
+        .append("# Generated for isolated AIO stack ").append(index).append("\n")
+        .append("services:\n")
+        .append("  ").append(service).append(":\n")
+        .append("    container_name: fdo-").append(index).append('-').append(kind).append("\n")
+        .append("    ports: !override\n");
+    for (String port : ports) {
+      yaml.append("      - \"").append(port).append("\"\n");
+    }
+    return yaml.toString();
+  }
+
+  private static String network(int index, boolean external) {
+    return "networks:\n"
+        + "  stack:\n"
+        + "    name: fdo-" + index + "\n"
+        + (external ? "    external: true\n" : "");
+  }
+
+  /**
+   * This stack as reached through another HTTP port, e.g. of an {@link HttpRecorder} in front
+   * of it: the API URL, RVInfo, owner redirect and device configuration use that port. The docker
+   * stacks and their ports stay the same.
+   *
+   * @param port : port forwarding to {@link #getHttpPort()}
+   * @return the copy
+   */
+  public AioStack withHttpPort(int port) {
+    return new AioStack(name, port, httpsPort, dbPort, stacks, ports);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getHttpPort() {
+    return httpPort;
+  }
+
+  public int getHttpsPort() {
+    return httpsPort;
+  }
+
+  public int getDbPort() {
+    return dbPort;
+  }
+
+  /**
+   * Docker stacks to start, in dependency order.
+   */
+  public List<DockerStack> getStacks() {
+    return stacks;
+  }
+
+  /**
+   * URL of the REST API, e.g. "http://localhost:8080".
+   */
+  public String getApiUrl() {
+    return "http://" + LOCALHOST + ":" + httpPort;
+  }
+
+  /**
+   * RVInfo pointing devices at this stack, for {@link FdoRestClient#postRvInfo(String)}.
+   */
+  public String getRvInfo() {
+    return String.format("[[[5, \"%s\"], [3, %d], [12, 1], [2, \"%s\"], [4, %d]]]",
+        HOST, httpPort, HOST, httpsPort);
+  }
+
+  /**
+   * Owner redirect pointing devices at this stack, for
+   * {@link FdoRestClient#postOwnerRedirect(String)}.
+   */
+  public String getOwnerRedirect() {
+    return String.format("[[\"%s\",\"%s\",%d,3]]", HOST, HOST, httpPort);
+  }
+
+  /**
+   * Point a device at this stack by rewriting the server addresses in the configuration files
+   * of its working directory, e.g. a DI URL of localhost:8080. Linked files such as jars are
+   * left alone; nothing changes for a stack on the standard ports.
+   *
+   * @param deviceDir : working directory of the device, see
+   *                  {@link TestUtil#copyDeviceDirectory(Path, Path)}
+   * @return number of files rewritten
+   */
+  public int configureDevice(Path deviceDir) throws IOException {
+    if (httpPort == HTTP_PORT && httpsPort == HTTPS_PORT) {
+      return 0;
+    }
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(deviceDir)) {
+      files = walk
+          .filter(file -> !deviceDir.relativize(file).startsWith(APP_DATA))
+          .filter(file -> Files.isRegularFile(file) && !Files.isSymbolicLink(file))
+          .filter(file -> CONFIG_SUFFIXES.stream()
+              .anyMatch(suffix -> file.getFileName().toString().endsWith(suffix)))
+          .collect(Collectors.toList());
+    }
+    int rewritten = 0;
+    for (Path file : files) {
+      if (Files.size(file) > MAX_CONFIG_SIZE) {
+        continue;
+      }
+      String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+      Matcher matcher = SERVER_ADDRESS.matcher(text);
+      StringBuffer replaced = new StringBuffer();
+      while (matcher.find()) {
+        int port = Integer.parseInt(matcher.group(2)) == HTTP_PORT ? httpPort : httpsPort;
+        matcher.appendReplacement(replaced, matcher.group(1) + ":" + port);
+      }
+      if (replaced.length() > 0) {
+        matcher.appendTail(replaced);
+        Files.write(file, replaced.toString().getBytes(StandardCharsets.UTF_8));
+        rewritten++;
+      }
+    }
+    TestLogger.debug("AioStack: pointed {} files of {} at {}", rewritten, deviceDir, name);
+    return rewritten;
+  }
+
+  @Override
+  public String toString() {
+    return name + " (" + getApiUrl() + ")";
+  }
+}
@@ -0,0 +1,69 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The AIO stacks a test run spreads its devices over; -Dfdo.aio.stacks=K runs K isolated stacks
+ * on allocated ports, the default is the one standard stack. Stacks are handed out round-robin
+ * and only started when a test requires them, see {@link TestCase#requireAioStack()}.
+ */
+public class AioStackPool {
+
+  private static final String STACKS_PROPERTY = "fdo.aio.stacks";
+
+  private static AioStackPool instance;
+
+  private final List<AioStack> stacks;
+  private final AtomicInteger next = new AtomicInteger();
+
+  private AioStackPool(List<AioStack> stacks) {
+    this.stacks = Collections.unmodifiableList(stacks);
+  }
+
+  /**
+   * Pool shared by all tests in the JVM, created on first use.
+   *
+   * @param testDir : directory holding the executables being tested
+   * @return the pool
+   * @throws IOException if the ports for the stacks cannot be allocated
+   */
+  public static synchronized AioStackPool getInstance(String testDir) throws IOException {
+    if (instance == null) {
+      int count = Math.max(1, Integer.getInteger(STACKS_PROPERTY, 1));
+      List<AioStack> stacks = new ArrayList<>();
+      if (count == 1) {
+        stacks.add(AioStack.standard(testDir));
+      } else {
+        for (int i = 1; i <= count; i++) {
+          stacks.add(AioStack.isolated(testDir, i,
+              PortAllocator.getInstance().allocate(AioStack.PORT_COUNT)));
+        }
+      }
+      TestLogger.info("=====> AIO stacks: {}", stacks);
+      instance = new AioStackPool(stacks);
+    }
+    return instance;
+  }
+
+  /**
+   * The next stack, round-robin.
+   */
+  public AioStack next() {
+    return stacks.get(Math.floorMod(next.getAndIncrement(), stacks.size()));
+  }
+
+  public List<AioStack> getStacks() {
+    return stacks;
+  }
+
+  public int size() {
+    return stacks.size();
+  }
+}
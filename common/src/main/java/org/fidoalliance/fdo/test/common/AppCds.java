@@ -0,0 +1,223 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application class-data sharing (AppCDS) archive for an executable jar.
+ *
+ * <p>The first launch of a jar is a training run that records the classes it loads; once it
+ * exits successfully the archive is written, and later launches map the classes from the
+ * archive instead of loading and verifying them again. Launches made while the training run is
+ * still going start without the archive. A failed training run is discarded and the next launch
+ * trains again.
+ *
+ * <p>Archives are kept in the directory given by the fdo.appcds.dir system property (default
+ * fdo-appcds in the temporary directory), keyed by jar and JVM, so they survive between test
+ * runs. The jar must be launched from the same path it was archived from; copies of it are not
+ * recognised by the JVM.
+ */
+public class AppCds {
+
+  private static final String ENABLED_PROPERTY = "fdo.appcds";
+  private static final String DIR_PROPERTY = "fdo.appcds.dir";
+  // JDK 13 added dynamic archiving at exit; older JVMs need a class list and a dump step.
+  private static final int DYNAMIC_ARCHIVE_VERSION = 13;
+  private static final long DUMP_TIMEOUT_SECONDS = 120;
+
+  private static final Map<Path, AppCds> archives = new ConcurrentHashMap<>();
+
+  private final Path jar;
+  private final Path archive;
+  private boolean training = false;
+
+  private AppCds(Path jar, Path archive) {
+    this.jar = jar;
+    this.archive = archive;
+  }
+
+  /**
+   * Whether launches should use AppCDS archives; set with -Dfdo.appcds=true.
+   */
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(ENABLED_PROPERTY);
+  }
+
+  /**
+   * The java executable of the JVM running the tests, which the archives are made for.
+   */
+  public static Path javaExecutable() {
+    return Paths.get(System.getProperty("java.home"), "bin", "java");
+  }
+
+  /**
+   * Archive for a jar, shared by all launches of that jar in this JVM.
+   *
+   * @param jar executable jar
+   * @return the archive, which may not have been created yet
+   * @throws IOException if the jar cannot be read
+   */
+  public static AppCds forJar(Path jar) throws IOException {
+    Path absolute = jar.toAbsolutePath().normalize();
+    Path dir = Paths.get(System.getProperty(DIR_PROPERTY,
+        Paths.get(System.getProperty("java.io.tmpdir"), "fdo-appcds").toString()));
+    String name = absolute.getFileName().toString().replaceFirst("\\.jar$", "");
+    Path archive = dir.resolve(name + "-" + key(absolute) + ".jsa");
+    return archives.computeIfAbsent(archive, a -> new AppCds(absolute, a));
+  }
+
+  public Path getJar() {
+    return jar;
+  }
+
+  public Path getArchive() {
+    return archive;
+  }
+
+  public boolean isReady() {
+    return Files.isRegularFile(archive);
+  }
+
+  /**
+   * JVM options for the next launch. If the archive does not exist and no other launch is
+   * creating it, this launch becomes the training run.
+   *
+   * @return options for the launch and what to do when it exits
+   */
+  public synchronized Launch prepare() throws IOException {
+    if (isReady()) {
+      return new Launch(null, Arrays.asList("-XX:SharedArchiveFile=" + archive, "-Xshare:auto"));
+    }
+    if (training) {
+      return new Launch(null, Collections.emptyList());
+    }
+    training = true;
+    Files.createDirectories(archive.getParent());
+    if (Runtime.version().feature() >= DYNAMIC_ARCHIVE_VERSION) {
+      Path output = temp(".jsa");
+      return new Launch(output, Collections.singletonList("-XX:ArchiveClassesAtExit=" + output));
+    }
+    Path classList = temp(".classlist");
+    return new Launch(classList, Collections.singletonList("-XX:DumpLoadedClassList="
+        + classList));
+  }
+
+  private Path temp(String suffix) {
+    return archive.resolveSibling(archive.getFileName() + "." + ProcessHandle.current().pid()
+        + suffix);
+  }
+
+  private void trained(Launch launch, boolean success) {
+    try {
+      if (success) {
+        Path output = launch.trainingOutput;
+        if (output.toString().endsWith(".classlist")) {
+          output = dump(output);
+        }
+        if (output != null && Files.isRegularFile(output)) {
+          Files.move(output, archive, StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+          TestLogger.info("=====> AppCDS archive created: {}", archive);
+        }
+      }
+    } catch (IOException | InterruptedException e) {
+      TestLogger.warn("=====> AppCDS archive not created for {}: {}", jar, e.getMessage());
+    } finally {
+      try {
+        Files.deleteIfExists(launch.trainingOutput);
+      } catch (IOException e) {
+        TestLogger.debug("AppCDS: cannot delete {}", launch.trainingOutput);
+      }
+      synchronized (this) {
+        training = false;
+      }
+    }
+  }
+
+  /**
+   * Turn a class list into an archive, for JVMs without dynamic archiving.
+   */
+  private Path dump(Path classList) throws IOException, InterruptedException {
+    Path output = temp(".jsa");
+    Process dump = new ProcessBuilder(javaExecutable().toString(), "-Xshare:dump",
+        "-XX:SharedClassListFile=" + classList, "-XX:SharedArchiveFile=" + output,
+        "-cp", jar.toString())
+        .redirectErrorStream(true)
+        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+        .start();
+    if (!dump.waitFor(DUMP_TIMEOUT_SECONDS, TimeUnit.SECONDS) || dump.exitValue() != 0) {
+      dump.destroyForcibly();
+      Files.deleteIfExists(output);
+      throw new IOException("-Xshare:dump failed");
+    }
+    return output;
+  }
+
+  /**
+   * The archive must match both the jar and the JVM, so both go into its name.
+   */
+  private static String key(Path jar) throws IOException {
+    String identity = jar + "|" + Files.size(jar) + "|" + Files.getLastModifiedTime(jar) + "|"
+        + System.getProperty("java.home") + "|" + Runtime.version();
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256")
+          .digest(identity.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (int i = 0; i < 8; i++) {
+        hex.append(String.format("%02x", digest[i]));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * JVM options for one launch.
+   */
+  public class Launch {
+
+    private final Path trainingOutput;
+    private final List<String> options;
+
+    private Launch(Path trainingOutput, List<String> options) {
+      this.trainingOutput = trainingOutput;
+      this.options = new ArrayList<>(options);
+    }
+
+    public List<String> getOptions() {
+      return Collections.unmodifiableList(options);
+    }
+
+    public boolean isTraining() {
+      return trainingOutput != null;
+    }
+
+    /**
+     * Report that the launched JVM has exited. After a training run this writes the archive.
+     *
+     * @param exitValue exit value of the JVM
+     */
+    public void exited(int exitValue) {
+      if (trainingOutput != null) {
+        trained(this, exitValue == 0);
+      }
+    }
+  }
+}
@@ -0,0 +1,242 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Empties the directories devices and servers write their artifacts to between tests.
+ *
+ * <p>The files are first moved to a trash directory, all directories in parallel; on the same
+ * file system that only renames them. The ownership credentials (.oc) and vouchers (.op) among
+ * them are then written to a zip archive for the test, or to the log if no archive is given, and
+ * the trash is deleted. By default that happens on a background thread so the next test can
+ * start at once; -Dfdo.cleanup.background=false does it before {@link #clean} returns.
+ */
+public class ArtifactCleaner {
+
+  private static final String BACKGROUND_PROPERTY = "fdo.cleanup.background";
+  private static final String ARCHIVE_PROPERTY = "fdo.cleanup.archive";
+  private static final String TRASH_DIR = ".trash";
+  private static final List<String> CREDENTIAL_SUFFIXES = Arrays.asList(".oc", ".op");
+
+  private static final AtomicLong sequence = new AtomicLong();
+  private static final AtomicInteger threadCount = new AtomicInteger();
+  private static final ExecutorService background = Executors.newCachedThreadPool(r -> {
+    Thread thread = new Thread(r, "artifact-cleaner-" + threadCount.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+  private static final Set<CompletableFuture<Void>> pending = ConcurrentHashMap.newKeySet();
+
+  private final Path trashRoot;
+  private final List<Path> directories;
+  private boolean inBackground =
+      Boolean.parseBoolean(System.getProperty(BACKGROUND_PROPERTY, "true"));
+
+  /**
+   * Parameterized constructor for ArtifactCleaner.
+   *
+   * @param trashRoot   : directory for the trash; on the same file system as the directories
+   * @param directories : directories to empty; subdirectories are left in place
+   */
+  public ArtifactCleaner(Path trashRoot, List<Path> directories) {
+    this.trashRoot = trashRoot;
+    this.directories = new ArrayList<>(directories);
+  }
+
+  /**
+   * Whether credentials are archived rather than logged; -Dfdo.cleanup.archive=false logs them.
+   */
+  public static boolean isArchiveEnabled() {
+    return Boolean.parseBoolean(System.getProperty(ARCHIVE_PROPERTY, "true"));
+  }
+
+  /**
+   * Archive and delete the moved files on a background thread (the default), or before
+   * {@link #clean} returns.
+   */
+  public ArtifactCleaner setBackground(boolean inBackground) {
+    this.inBackground = inBackground;
+    return this;
+  }
+
+  /**
+   * Empty the directories.
+   *
+   * @param archive : zip file for the credentials, or null to write them to the log
+   * @return future completed once the credentials are archived and the files deleted
+   * @throws IOException if a file could not be moved out of its directory
+   */
+  public CompletableFuture<Void> clean(Path archive) throws IOException {
+    long start = System.nanoTime();
+    Path trash = trashRoot.resolve(TRASH_DIR)
+        .resolve(ProcessHandle.current().pid() + "-" + sequence.incrementAndGet());
+    List<Path> moved;
+    try {
+      moved = IntStream.range(0, directories.size()).parallel()
+          .mapToObj(i -> moveToTrash(directories.get(i),
+              trash.resolve(i + "-" + directories.get(i).getFileName())))
+          .flatMap(List::stream)
+          .sorted()
+          .collect(Collectors.toList());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    TestLogger.info("=====> Moved {} test artifacts to {}", moved.size(), trash);
+    EventStream.getInstance().event(EventStream.CLEANUP).since(start).field("step", "move")
+        .field("files", moved.size()).emit();
+
+    if (!inBackground) {
+      dispose(trash, moved, archive);
+      return CompletableFuture.completedFuture(null);
+    }
+    return inBackground(trash, () -> dispose(trash, moved, archive));
+  }
+
+  /**
+   * Delete a directory tree on a background thread. The tree is first renamed into the trash,
+   * so its path can be used again at once.
+   *
+   * @param trashRoot : directory for the trash; on the same file system as the tree
+   * @param tree      : directory to delete
+   * @return future completed once the tree is deleted
+   * @throws IOException if the tree could not be moved to the trash
+   */
+  public static CompletableFuture<Void> discard(Path trashRoot, Path tree) throws IOException {
+    if (!Files.exists(tree)) {
+      return CompletableFuture.completedFuture(null);
+    }
+    Path trash = trashRoot.resolve(TRASH_DIR)
+        .resolve(ProcessHandle.current().pid() + "-" + sequence.incrementAndGet());
+    Files.createDirectories(trash.getParent());
+    Files.move(tree, trash);
+    return inBackground(trash, () -> dispose(trash, Collections.emptyList(), null));
+  }
+
+  private static CompletableFuture<Void> inBackground(Path trash, Runnable work) {
+    CompletableFuture<Void> future = CompletableFuture.runAsync(work, background);
+    pending.add(future);
+    future.whenComplete((v, e) -> {
+      pending.remove(future);
+      if (e != null) {
+        TestLogger.warn("=====> Cleaning up {} failed: {}", trash, e.getMessage());
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Wait for background clean-ups still running, e.g. at the end of the suite.
+   *
+   * @param timeout : how long to wait
+   * @return true if all clean-ups finished in time
+   */
+  public static boolean awaitPending(Duration timeout) throws InterruptedException {
+    try {
+      CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+          .get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+      return true;
+    } catch (TimeoutException e) {
+      return false;
+    } catch (ExecutionException e) {
+      return true; // already logged by the failed clean-up
+    }
+  }
+
+  private static List<Path> moveToTrash(Path directory, Path trash) {
+    List<Path> moved = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return moved;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+        file -> !Files.isDirectory(file))) {
+      for (Path file : files) {
+        if (moved.isEmpty()) {
+          Files.createDirectories(trash);
+        }
+        moved.add(Files.move(file, trash.resolve(file.getFileName())));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return moved;
+  }
+
+  private static void dispose(Path trash, List<Path> files, Path archive) {
+    long start = System.nanoTime();
+    List<Path> credentials = files.stream()
+        .filter(file -> CREDENTIAL_SUFFIXES.stream()
+            .anyMatch(suffix -> file.getFileName().toString().endsWith(suffix)))
+        .collect(Collectors.toList());
+    try {
+      if (!credentials.isEmpty()) {
+        if (archive != null) {
+          archive(trash, credentials, archive);
+        } else {
+          for (Path file : credentials) {
+            TestLogger.info("== {} ==\n{}", originalName(trash, file),
+                new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+          }
+        }
+      }
+      if (Files.exists(trash)) {
+        TestUtil.deleteRecursively(trash);
+      }
+      EventStream.getInstance().event(EventStream.CLEANUP).device(null).phase(null)
+          .since(start).field("step", "dispose").field("credentials", credentials.size())
+          .emit();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void archive(Path trash, List<Path> credentials, Path archive)
+      throws IOException {
+    Files.createDirectories(archive.toAbsolutePath().getParent());
+    try (OutputStream out = Files.newOutputStream(archive);
+        ZipOutputStream zip = new ZipOutputStream(out)) {
+      for (Path file : credentials) {
+        zip.putNextEntry(new ZipEntry(originalName(trash, file)));
+        Files.copy(file, zip);
+        zip.closeEntry();
+      }
+    }
+    TestLogger.info("=====> Archived {} credentials to {}", credentials.size(), archive);
+  }
+
+  /**
+   * Name of a moved file under the directory it came from, e.g. deviceOutputDir/x.oc.
+   */
+  private static String originalName(Path trash, Path file) {
+    Path relative = trash.relativize(file);
+    return relative.getParent().toString().replaceFirst("^\\d+-", "") + "/"
+        + relative.getFileName();
+  }
+}
@@ -0,0 +1,349 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-device store for the artifacts of an onboarding: vouchers, GUIDs and credentials, keyed
+ * by device serial number and found by GUID as well.
+ *
+ * <p>Each artifact is a file of its own under the device's directory, written to a temporary
+ * file and renamed into place, so writers of different devices never touch the same file and a
+ * reader never sees half an artifact. What the store holds is recorded in an append-only index
+ * of one short line per write, which is read into memory when the store is opened; lookups do
+ * not touch the disk. The index is compacted in place when it is opened if most of its lines
+ * have been superseded. Appends and the compaction are serialized within the JVM and locked
+ * against other JVMs; writes made by another JVM are seen when the store is next opened.
+ */
+public class ArtifactStore {
+
+  private static final String INDEX_FILE = "index";
+  private static final String DEVICES_DIR = "devices";
+  private static final String GUID = "guid";
+  private static final char SEPARATOR = '\t';
+
+  // Open stores by directory; a directory has one store per JVM
+  private static final Map<Path, ArtifactStore> stores = new HashMap<>();
+
+  /**
+   * Kinds of artifacts kept for a device.
+   */
+  public enum Kind {
+    VOUCHER("voucher"),
+    EXTENDED_VOUCHER("ext_voucher"),
+    CREDENTIAL("credential");
+
+    private final String fileName;
+
+    Kind(String fileName) {
+      this.fileName = fileName;
+    }
+
+    public String getFileName() {
+      return fileName;
+    }
+
+    static Kind forFileName(String fileName) {
+      for (Kind kind : values()) {
+        if (kind.fileName.equals(fileName)) {
+          return kind;
+        }
+      }
+      return null;
+    }
+  }
+
+  private final Path dir;
+  private final Map<String, Device> devices = new ConcurrentHashMap<>();
+  private final Map<String, String> serialsByGuid = new ConcurrentHashMap<>();
+  private final AtomicLong tempCount = new AtomicLong();
+  private FileChannel index;
+
+  private ArtifactStore(Path dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * Open the store in a directory, creating it if needed, and load its index. Opening a
+   * directory again returns the same store.
+   *
+   * @param dir : directory of the store
+   * @return the store
+   * @throws IOException if the index cannot be read or created
+   */
+  public static synchronized ArtifactStore open(Path dir) throws IOException {
+    Path absolute = dir.toAbsolutePath().normalize();
+    ArtifactStore store = stores.get(absolute);
+    if (store == null) {
+      store = openUnshared(absolute);
+      stores.put(absolute, store);
+    }
+    return store;
+  }
+
+  /**
+   * A new store on a directory, as another JVM would open it.
+   */
+  static ArtifactStore openUnshared(Path dir) throws IOException {
+    ArtifactStore store = new ArtifactStore(dir);
+    Files.createDirectories(dir.resolve(DEVICES_DIR));
+    store.load();
+    return store;
+  }
+
+  /**
+   * Store an artifact of a device, replacing an earlier one of the same kind.
+   *
+   * @param serial : device serial number
+   * @param kind   : kind of artifact
+   * @param data   : content of the artifact
+   */
+  public void put(String serial, Kind kind, byte[] data) throws IOException {
+    Path file = file(serial, kind);
+    Files.createDirectories(file.getParent());
+    Path temp = file.resolveSibling(file.getFileName() + "." + tempCount.incrementAndGet()
+        + ".tmp");
+    Files.write(temp, data);
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    append(serial, kind.getFileName(), Integer.toString(data.length));
+    device(serial).kinds.add(kind);
+  }
+
+  /**
+   * Artifact of a device.
+   *
+   * @param serial : device serial number
+   * @param kind   : kind of artifact
+   * @return the content, or null if the store holds no such artifact
+   */
+  public byte[] get(String serial, Kind kind) throws IOException {
+    Device device = devices.get(serial);
+    if (device == null || !device.kinds.contains(kind)) {
+      return null;
+    }
+    try {
+      return Files.readAllBytes(file(serial, kind));
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Path of an artifact of a device, e.g. to pass to a tool; the file may not exist.
+   */
+  public Path getPath(String serial, Kind kind) {
+    return file(serial, kind);
+  }
+
+  /**
+   * Record the GUID the owner assigned to a device.
+   *
+   * @param serial : device serial number
+   * @param guid   : device GUID
+   */
+  public void putGuid(String serial, String guid) throws IOException {
+    Device device = device(serial);
+    synchronized (device) {
+      append(serial, GUID, guid);
+      setGuid(device, serial, guid);
+    }
+  }
+
+  /**
+   * GUID of a device, or null if it is not known.
+   */
+  public String getGuid(String serial) {
+    Device device = devices.get(serial);
+    return device == null ? null : device.guid;
+  }
+
+  /**
+   * Serial number of the device with a GUID, or null if it is not known.
+   */
+  public String findSerial(String guid) {
+    return serialsByGuid.get(guid);
+  }
+
+  /**
+   * Whether the store holds an artifact of a device.
+   */
+  public boolean contains(String serial, Kind kind) {
+    Device device = devices.get(serial);
+    return device != null && device.kinds.contains(kind);
+  }
+
+  /**
+   * Serial numbers of all devices in the store.
+   */
+  public Set<String> getSerials() {
+    return Collections.unmodifiableSet(devices.keySet());
+  }
+
+  public Path getDirectory() {
+    return dir;
+  }
+
+  private Device device(String serial) {
+    return devices.computeIfAbsent(serial, s -> new Device());
+  }
+
+  private void setGuid(Device device, String serial, String guid) {
+    String previous;
+    synchronized (device) {
+      previous = device.guid;
+      device.guid = guid;
+    }
+    if (previous != null && !previous.equals(guid)) {
+      serialsByGuid.remove(previous, serial);
+    }
+    serialsByGuid.put(guid, serial);
+  }
+
+  private Path file(String serial, Kind kind) {
+    return dir.resolve(DEVICES_DIR).resolve(escape(serial)).resolve(kind.getFileName());
+  }
+
+  /**
+   * Replay the index into memory, and rewrite it without superseded lines if they are most of
+   * it. Both happen under the index lock, and the index is rewritten in place: another JVM that
+   * has the store open keeps appending to the same file, so none of its lines are lost.
+   */
+  private void load() throws IOException {
+    index = FileChannel.open(dir.resolve(INDEX_FILE), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try (FileLock lock = index.lock()) {
+      long lines = 0;
+      // Not closed: that would close the index
+      BufferedReader reader = new BufferedReader(new InputStreamReader(
+          Channels.newInputStream(index.position(0)), StandardCharsets.UTF_8));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+        if (fields.length != 3) {
+          continue; // a line cut short by a crash
+        }
+        lines++;
+        String serial = unescape(fields[0]);
+        if (fields[1].equals(GUID)) {
+          setGuid(device(serial), serial, fields[2]);
+        } else {
+          Kind kind = Kind.forFileName(fields[1]);
+          if (kind != null) {
+            device(serial).kinds.add(kind);
+          }
+        }
+      }
+      long live = devices.values().stream()
+          .mapToLong(d -> d.kinds.size() + (d.guid != null ? 1 : 0)).sum();
+      if (lines > 2 * live) {
+        compact();
+      }
+    }
+  }
+
+  /**
+   * Rewrite the index with one line per artifact and GUID held. Called with the index locked.
+   */
+  private void compact() throws IOException {
+    StringBuilder lines = new StringBuilder();
+    for (Map.Entry<String, Device> e : devices.entrySet()) {
+      Device device = e.getValue();
+      if (device.guid != null) {
+        lines.append(line(e.getKey(), GUID, device.guid));
+      }
+      for (Kind kind : device.kinds) {
+        Path file = file(e.getKey(), kind);
+        lines.append(line(e.getKey(), kind.getFileName(),
+            Long.toString(Files.exists(file) ? Files.size(file) : 0)));
+      }
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+    index.truncate(0);
+    while (buffer.hasRemaining()) {
+      index.write(buffer, buffer.position());
+    }
+    index.force(false);
+    TestLogger.debug("ArtifactStore: compacted {} for {} devices", dir.resolve(INDEX_FILE),
+        devices.size());
+  }
+
+  private synchronized void append(String serial, String field, String value)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(line(serial, field, value)
+        .getBytes(StandardCharsets.UTF_8));
+    // Written at the end as it is under the lock, which may be past where this JVM last wrote
+    try (FileLock lock = index.lock()) {
+      long end = index.size();
+      while (buffer.hasRemaining()) {
+        end += index.write(buffer, end);
+      }
+    }
+  }
+
+  private static String line(String serial, String field, String value) {
+    return escape(serial) + SEPARATOR + field + SEPARATOR + value + "\n";
+  }
+
+  /**
+   * Serial numbers are used as directory names and index fields, so anything but letters,
+   * digits, '-', '_' and '.' is written as %XX, as is a leading '.'.
+   */
+  static String escape(String serial) {
+    StringBuilder escaped = new StringBuilder();
+    byte[] bytes = serial.getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i < bytes.length; i++) {
+      char c = (char) (bytes[i] & 0xff);
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+          || c == '-' || c == '_' || (c == '.' && i > 0)) {
+        escaped.append(c);
+      } else {
+        escaped.append(String.format("%%%02X", (int) c));
+      }
+    }
+    return escaped.toString();
+  }
+
+  static String unescape(String escaped) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (int i = 0; i < escaped.length(); i++) {
+      char c = escaped.charAt(i);
+      if (c == '%' && i + 2 < escaped.length()) {
+        bytes.write(Integer.parseInt(escaped.substring(i + 1, i + 3), 16));
+        i += 2;
+      } else {
+        bytes.write(c);
+      }
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * What the store holds for one device.
+   */
+  private static class Device {
+
+    private final Set<Kind> kinds = ConcurrentHashMap.newKeySet();
+    private volatile String guid;
+  }
+}
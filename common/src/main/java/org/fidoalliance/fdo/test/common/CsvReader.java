@@ -0,0 +1,155 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming RFC 4180 CSV parser. Records are read one at a time, so only the current record is
+ * held in memory.
+ *
+ * <p>Fields may be quoted with double quotes; a quoted field may contain commas, line breaks and
+ * doubled quotes. Records end with CRLF or LF. Blank lines are skipped.
+ */
+public class CsvReader implements Iterator<String[]>, Closeable {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Reader reader;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int position;
+  private int limit;
+  private long lineNumber = 1;
+  private String[] next;
+  private boolean done;
+
+  /**
+   * Parameterized constructor for CsvReader.
+   *
+   * @param reader : source of the CSV text; closed when this reader is closed
+   */
+  public CsvReader(Reader reader) {
+    this.reader = reader;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null && !done) {
+      try {
+        next = readRecord();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      done = next == null;
+    }
+    return next != null;
+  }
+
+  @Override
+  public String[] next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    String[] record = next;
+    next = null;
+    return record;
+  }
+
+  /**
+   * Line number at which the next record starts, counting from 1.
+   */
+  public long getLineNumber() {
+    return lineNumber;
+  }
+
+  @Override
+  public void close() throws IOException {
+    done = true;
+    next = null;
+    reader.close();
+  }
+
+  private int read() throws IOException {
+    if (position == limit) {
+      limit = reader.read(buffer, 0, buffer.length);
+      position = 0;
+      if (limit <= 0) {
+        limit = 0;
+        return -1;
+      }
+    }
+    return buffer[position++];
+  }
+
+  private int peek() throws IOException {
+    int c = read();
+    if (c != -1) {
+      position--;
+    }
+    return c;
+  }
+
+  private String[] readRecord() throws IOException {
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    boolean fieldStarted = false;
+    long startLine = lineNumber;
+    while (true) {
+      int c = read();
+      if (c == -1) {
+        if (quoted) {
+          throw new IOException("Unterminated quoted field starting on line " + startLine);
+        }
+        if (fields.isEmpty() && !fieldStarted) {
+          return null;
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+      }
+      if (quoted) {
+        if (c == '"') {
+          if (peek() == '"') {
+            read();
+            field.append('"');
+          } else {
+            quoted = false;
+          }
+        } else {
+          if (c == '\n') {
+            lineNumber++;
+          }
+          field.append((char) c);
+        }
+      } else if (c == '"' && field.length() == 0) {
+        quoted = true;
+        fieldStarted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+        fieldStarted = true;
+      } else if (c == '\r' && peek() == '\n') {
+        continue;
+      } else if (c == '\n') {
+        lineNumber++;
+        if (fields.isEmpty() && !fieldStarted) {
+          startLine = lineNumber; // blank line
+          continue;
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+      } else {
+        field.append((char) c);
+        fieldStarted = true;
+      }
+    }
+  }
+}
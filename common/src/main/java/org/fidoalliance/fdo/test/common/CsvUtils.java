@@ -1,49 +1,115 @@
 package org.fidoalliance.fdo.test.common;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
 
 public class CsvUtils {
 
   /**
-   * Returns the CSV data in String[][] format.
+   * Returns the CSV data of this JVM's shard in String[][] format, see {@link Shard}.
    */
   public static String[][] getDataArray(String filePath) throws Exception {
+    List<String[]> rows = new ArrayList<>();
+    Iterator<Object[]> it = getDataIterator(filePath);
+    while (it.hasNext()) {
+      rows.add((String[]) it.next());
+    }
+    return rows.toArray(new String[0][]);
+  }
 
-    String line = "";
-    BufferedReader br = new BufferedReader(new FileReader(filePath));
-
-    int rows = countLines(filePath);
-    int columns = br.readLine().split(",").length;
+  /**
+   * Returns the CSV data rows of this JVM's shard one at a time, see {@link Shard#current()}.
+   */
+  public static Iterator<Object[]> getDataIterator(String filePath) throws IOException {
+    return getDataIterator(filePath, Shard.current());
+  }
 
-    String[][] dataArray = new String[rows - 1][columns];
-    Arrays.stream(dataArray).forEach(dataRow -> Arrays.fill(dataRow, ""));
+  /**
+   * Returns the CSV data rows of a shard one at a time, skipping the header. Rows are parsed as
+   * they are requested, so a TestNG data provider can hand out large matrices without loading
+   * them first. Short rows are padded with empty strings to the width of the header. The file
+   * is closed once the last row has been returned.
+   */
+  public static Iterator<Object[]> getDataIterator(String filePath, Shard shard)
+      throws IOException {
+    CsvReader reader = new CsvReader(
+        Files.newBufferedReader(Paths.get(filePath), Charset.defaultCharset()));
+    if (!reader.hasNext()) {
+      reader.close();
+      throw new IOException("CSV file " + filePath + " has no header row.");
+    }
+    int columns = reader.next().length;
+    TestLogger.info("numCols: {}; reading rows from {}", columns, filePath);
 
-    TestLogger.info("numRows: " + rows + "; numCols: " + columns);
-    int row = 0;
+    return new Iterator<Object[]>() {
+      private long rows = 0;
+      private long skipped = 0;
+      private String[] pending = null; // next row of the shard, read ahead by hasNext()
 
-    while ((line = br.readLine()) != null) {
+      @Override
+      public boolean hasNext() {
+        while (pending == null && reader.hasNext()) {
+          String[] record = reader.next();
+          if (record.length < columns) {
+            String[] padded = Arrays.copyOf(record, columns);
+            Arrays.fill(padded, record.length, columns, "");
+            record = padded;
+          }
+          if (shard.contains(record)) {
+            pending = record;
+          } else {
+            skipped++;
+          }
+        }
+        if (pending != null) {
+          return true;
+        }
+        try {
+          reader.close();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        if (rows >= 0) {
+          if (shard.isSharded()) {
+            TestLogger.info("numRows: {} of {} in shard {}; numCols: {}", rows, rows + skipped,
+                shard, columns);
+          } else {
+            TestLogger.info("numRows: {}; numCols: {}", rows, columns);
+          }
+          rows = -1;
+        }
+        return false;
+      }
 
-      String[] data = line.split(",");
-      int col;
-      for (col = 0; col < data.length; col++) {
-        String element = data[col];
-        dataArray[row][col] = element;
-        TestLogger.info(element);
+      @Override
+      public Object[] next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        String[] record = pending;
+        pending = null;
+        rows++;
+        return record;
       }
-      row++;
-      TestLogger.info("");
-    }
-    return dataArray;
+    };
   }
 
+  /**
+   * Returns the number of lines in a file.
+   */
   public static int countLines(String filepath) throws IOException {
-    return (int) Files.lines(Paths.get(filepath), Charset.defaultCharset()).count();
+    try (Stream<String> lines = Files.lines(Paths.get(filepath), Charset.defaultCharset())) {
+      return (int) lines.count();
+    }
   }
 
 }
@@ -0,0 +1,353 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Onboard many devices concurrently, each from its own copy of the device directory. The output
+ * of each protocol step is written to DI.log or TO.log in the device directory.
+ */
+public class DeviceFleet {
+
+  private static final String APP_DATA = "app-data";
+  private static final MetricsRegistry.Gauge devicesInFlight = MetricsRegistry.getInstance()
+      .gauge("fdo_devices_in_flight", "Devices being onboarded: data rows and fleet devices",
+          "scope");
+
+  private final Path deviceDir;
+  private final Path fleetDir;
+  private final List<String> command;
+  private final Path jar;
+
+  private int concurrency = Runtime.getRuntime().availableProcessors();
+  private Duration protocolTimeout = Duration.of(70, ChronoUnit.SECONDS);
+  private Duration toDelay = Duration.ZERO;
+  private String successMarker = null;
+  private LogScanner successScanner = null;
+  private String resultFile = "result.txt";
+  private List<AioStack> stacks = Collections.emptyList();
+
+  /**
+   * Parameterized constructor for DeviceFleet.
+   *
+   * @param deviceDir : directory holding the device executable and its configuration
+   * @param fleetDir  : directory under which each device gets its own working directory
+   * @param command   : command that runs one protocol step (DI or TO) in a device directory
+   */
+  public DeviceFleet(Path deviceDir, Path fleetDir, List<String> command) {
+    this.deviceDir = deviceDir;
+    this.fleetDir = fleetDir;
+    this.command = new ArrayList<>(command);
+    this.jar = null;
+  }
+
+  /**
+   * Parameterized constructor for a fleet of Java devices, started with
+   * {@link TestProcess#javaJar}: JVM startup is recorded separately, and with -Dfdo.appcds=true
+   * all devices share one AppCDS archive. Every device runs the jar from deviceDir.
+   *
+   * @param deviceDir  : directory holding the device jar and its configuration
+   * @param fleetDir   : directory under which each device gets its own working directory
+   * @param jarName    : name of the device jar in deviceDir
+   * @param jvmOptions : options for the device JVM
+   */
+  public DeviceFleet(Path deviceDir, Path fleetDir, String jarName, List<String> jvmOptions) {
+    this.deviceDir = deviceDir;
+    this.fleetDir = fleetDir;
+    this.command = new ArrayList<>(jvmOptions);
+    this.jar = deviceDir.resolve(jarName);
+  }
+
+  /**
+   * Set the maximum number of devices running at the same time.
+   */
+  public DeviceFleet setConcurrency(int concurrency) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("concurrency must be at least 1");
+    }
+    this.concurrency = concurrency;
+    return this;
+  }
+
+  public DeviceFleet setProtocolTimeout(Duration protocolTimeout) {
+    this.protocolTimeout = protocolTimeout;
+    return this;
+  }
+
+  public DeviceFleet setToDelay(Duration toDelay) {
+    this.toDelay = toDelay;
+    return this;
+  }
+
+  /**
+   * Spread the devices over AIO stacks: device i is pointed at stack i mod n, see
+   * {@link AioStack#configureDevice(Path)}. By default devices keep their configuration.
+   */
+  public DeviceFleet setStacks(List<AioStack> stacks) {
+    this.stacks = new ArrayList<>(stacks);
+    return this;
+  }
+
+  /**
+   * Require the device result file to contain the given string after TO.
+   *
+   * @param resultFile    : name of the result file below app-data
+   * @param successMarker : string that marks a successful onboarding
+   */
+  public DeviceFleet setSuccessMarker(String resultFile, String successMarker) {
+    this.resultFile = resultFile;
+    this.successMarker = successMarker;
+    this.successScanner = new LogScanner().addLiteral(successMarker);
+    return this;
+  }
+
+  /**
+   * Run DI and then TO for the given number of devices, at most {@code concurrency} at a time.
+   *
+   * @param devices number of devices to onboard
+   * @return per-device outcomes and overall throughput
+   * @throws IOException          if a device directory could not be prepared
+   * @throws InterruptedException when another thread interrupts (not caught)
+   */
+  public Result run(int devices) throws IOException, InterruptedException {
+    TestLogger.info("=====> Fleet: onboarding {} devices, concurrency {}", devices, concurrency);
+    List<Path> workDirs = new ArrayList<>();
+    for (int i = 0; i < devices; i++) {
+      workDirs.add(prepare(i));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    long start = System.nanoTime();
+    List<Future<DeviceResult>> futures = new ArrayList<>();
+    try {
+      for (int i = 0; i < devices; i++) {
+        final int index = i;
+        futures.add(executor.submit(() -> onboard(index, workDirs.get(index))));
+      }
+      List<DeviceResult> results = new ArrayList<>();
+      for (Future<DeviceResult> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          throw new IllegalStateException("Fleet device failed unexpectedly", e.getCause());
+        }
+      }
+      Result result = new Result(results, Duration.ofNanos(System.nanoTime() - start));
+      TestLogger.info("=====> Fleet: {}", result);
+      return result;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Create a fresh working directory for one device, see
+   * {@link TestUtil#copyDeviceDirectory(Path, Path)}.
+   */
+  Path prepare(int index) throws IOException {
+    Path workDir = fleetDir.resolve("device-" + index);
+    if (Files.exists(workDir)) {
+      TestUtil.deleteRecursively(workDir);
+    }
+    TestUtil.copyDeviceDirectory(deviceDir, workDir);
+    if (!stacks.isEmpty()) {
+      stack(index).configureDevice(workDir);
+    }
+    return workDir;
+  }
+
+  /**
+   * Run DI and then TO for one device prepared by {@link #prepare(int)}.
+   */
+  DeviceResult onboard(int index, Path workDir) throws Exception {
+    EventStream.getInstance().setDevice("device-" + index);
+    devicesInFlight.inc("fleet");
+    try {
+      return onboardDevice(index, workDir);
+    } finally {
+      devicesInFlight.dec("fleet");
+      EventStream.getInstance().setDevice(null);
+    }
+  }
+
+  private DeviceResult onboardDevice(int index, Path workDir) throws Exception {
+    long start = System.nanoTime();
+    int diResult = runStep(workDir, LatencyRecorder.PHASE_DI);
+    int toResult = -1;
+    boolean onboarded = false;
+    if (diResult == 0) {
+      Thread.sleep(toDelay.toMillis());
+      toResult = runStep(workDir, LatencyRecorder.PHASE_TO);
+      onboarded = toResult == 0;
+      if (onboarded && successMarker != null) {
+        Path result = workDir.resolve(APP_DATA).resolve(resultFile);
+        onboarded = Files.exists(result) && successScanner.scan(result).contains(successMarker);
+      }
+    }
+    DeviceResult result = new DeviceResult(index, workDir, diResult, toResult, onboarded,
+        Duration.ofNanos(System.nanoTime() - start),
+        stacks.isEmpty() ? null : stack(index).getName());
+    if (onboarded) {
+      TestLogger.info("=====> Fleet: {}", result);
+    } else {
+      TestLogger.error("=====> Fleet: {}; device output in {}", result, workDir);
+    }
+    return result;
+  }
+
+  private AioStack stack(int index) {
+    return stacks.get(index % stacks.size());
+  }
+
+  private int runStep(Path workDir, String phase) throws IOException, InterruptedException {
+    // Each device writes to its own log file instead of interleaving on the console.
+    TestProcess step = jar == null ? new TestProcess(workDir, command)
+        : TestProcess.javaJar(workDir, jar, command, Collections.emptyList());
+    step.captureOutput(workDir.resolve(phase + ".log"));
+    try (LatencyRecorder.Sample sample = LatencyRecorder.getInstance().start(phase);
+        TestProcess.Handle handle = step.start()) {
+      if (handle.waitFor(protocolTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        return handle.exitValue();
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Outcome of onboarding one device.
+   */
+  public static class DeviceResult {
+
+    private final int index;
+    private final Path workDir;
+    private final int diExitValue;
+    private final int toExitValue;
+    private final boolean onboarded;
+    private final Duration duration;
+    private final String stack;
+
+    DeviceResult(int index, Path workDir, int diExitValue, int toExitValue, boolean onboarded,
+        Duration duration, String stack) {
+      this.index = index;
+      this.workDir = workDir;
+      this.diExitValue = diExitValue;
+      this.toExitValue = toExitValue;
+      this.onboarded = onboarded;
+      this.duration = duration;
+      this.stack = stack;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public Path getWorkDir() {
+      return workDir;
+    }
+
+    public int getDiExitValue() {
+      return diExitValue;
+    }
+
+    public int getToExitValue() {
+      return toExitValue;
+    }
+
+    public boolean isOnboarded() {
+      return onboarded;
+    }
+
+    public Duration getDuration() {
+      return duration;
+    }
+
+    /**
+     * Name of the AIO stack the device was pointed at, or null if it kept its configuration.
+     */
+    public String getStack() {
+      return stack;
+    }
+
+    @Override
+    public String toString() {
+      return "device-" + index + (stack != null ? "@" + stack : "")
+          + (onboarded ? " onboarded" : " FAILED") + " in " + duration.toMillis()
+          + " ms (DI exit " + diExitValue + ", TO exit " + toExitValue + ")";
+    }
+  }
+
+  /**
+   * Outcome of a fleet run.
+   */
+  public static class Result {
+
+    private final List<DeviceResult> devices;
+    private final Duration elapsed;
+
+    Result(List<DeviceResult> devices, Duration elapsed) {
+      this.devices = Collections.unmodifiableList(devices);
+      this.elapsed = elapsed;
+    }
+
+    public List<DeviceResult> getDevices() {
+      return devices;
+    }
+
+    public Duration getElapsed() {
+      return elapsed;
+    }
+
+    public long getOnboardedCount() {
+      return devices.stream().filter(DeviceResult::isOnboarded).count();
+    }
+
+    /**
+     * Successful onboardings per second of wall-clock time.
+     */
+    public double getOnboardingsPerSecond() {
+      double seconds = elapsed.toNanos() / 1e9;
+      return seconds > 0 ? getOnboardedCount() / seconds : 0;
+    }
+
+    /**
+     * Write one line per device to a CSV file.
+     *
+     * @param file destination file
+     */
+    public void writeCsv(Path file) {
+      List<String> lines = new ArrayList<>();
+      lines.add("device,onboarded,diExitValue,toExitValue,durationMs,stack");
+      for (DeviceResult d : devices) {
+        lines.add("device-" + d.index + "," + d.onboarded + "," + d.diExitValue + ","
+            + d.toExitValue + "," + d.duration.toMillis() + ","
+            + (d.stack != null ? d.stack : ""));
+      }
+      try {
+        Files.write(file, lines);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d/%d devices onboarded in %d ms (%.2f onboardings/s)",
+          getOnboardedCount(), devices.size(), elapsed.toMillis(), getOnboardingsPerSecond());
+    }
+  }
+}
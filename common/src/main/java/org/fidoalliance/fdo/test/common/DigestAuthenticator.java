@@ -0,0 +1,162 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP digest authentication (RFC 7616) that keeps the server nonce between requests, so only
+ * the first request to a server, or one after the nonce goes stale, needs a 401 round trip.
+ */
+class DigestAuthenticator {
+
+  private static final Pattern PARAM = Pattern.compile(
+      "(\\w+)\\s*=\\s*(?:\"([^\"]*)\"|([^,\\s]*))");
+  private static final SecureRandom random = new SecureRandom();
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final String user;
+  private final String password;
+  private volatile Challenge challenge;
+
+  DigestAuthenticator(String user, String password) {
+    this.user = user;
+    this.password = password == null ? "" : password;
+  }
+
+  /**
+   * Remember the challenge from a WWW-Authenticate header.
+   *
+   * @param header value of the WWW-Authenticate header
+   * @return true if the header held a digest challenge
+   * @throws IllegalStateException if the challenge only offers qop=auth-int, which is not
+   *                               supported
+   */
+  boolean update(String header) {
+    if (header == null || !header.regionMatches(true, 0, "Digest", 0, 6)) {
+      return false;
+    }
+    Map<String, String> params = new HashMap<>();
+    Matcher m = PARAM.matcher(header.substring(6));
+    while (m.find()) {
+      params.put(m.group(1).toLowerCase(), m.group(2) != null ? m.group(2) : m.group(3));
+    }
+    if (params.get("nonce") == null) {
+      return false;
+    }
+    challenge = new Challenge(params);
+    return true;
+  }
+
+  boolean hasChallenge() {
+    return challenge != null;
+  }
+
+  /**
+   * Build the Authorization header for a request using the cached nonce.
+   *
+   * @param method request method
+   * @param uri    request path and query
+   * @return the header value, or null when no challenge has been received yet
+   */
+  String authorization(String method, String uri) {
+    Challenge c = challenge;
+    if (c == null) {
+      return null;
+    }
+    String nc = String.format("%08x", c.nonceCount.incrementAndGet());
+    byte[] cnonceBytes = new byte[8];
+    random.nextBytes(cnonceBytes);
+    String cnonce = hex(cnonceBytes);
+
+    String ha1 = c.hash(user + ":" + c.realm + ":" + password);
+    if (c.algorithm.toUpperCase().endsWith("-SESS")) {
+      ha1 = c.hash(ha1 + ":" + c.nonce + ":" + cnonce);
+    }
+    String ha2 = c.hash(method + ":" + uri);
+    String response = c.qop == null
+        ? c.hash(ha1 + ":" + c.nonce + ":" + ha2)
+        : c.hash(ha1 + ":" + c.nonce + ":" + nc + ":" + cnonce + ":" + c.qop + ":" + ha2);
+
+    StringBuilder sb = new StringBuilder("Digest username=\"").append(user)
+        .append("\", realm=\"").append(c.realm)
+        .append("\", nonce=\"").append(c.nonce)
+        .append("\", uri=\"").append(uri)
+        .append("\", algorithm=").append(c.algorithm)
+        .append(", response=\"").append(response).append('"');
+    if (c.qop != null) {
+      sb.append(", qop=").append(c.qop).append(", nc=").append(nc)
+          .append(", cnonce=\"").append(cnonce).append('"');
+    }
+    if (c.opaque != null) {
+      sb.append(", opaque=\"").append(c.opaque).append('"');
+    }
+    return sb.toString();
+  }
+
+  private static String hex(byte[] bytes) {
+    char[] out = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      out[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      out[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(out);
+  }
+
+  /**
+   * Server challenge parameters and the nonce count used with them.
+   */
+  private static class Challenge {
+
+    final String realm;
+    final String nonce;
+    final String opaque;
+    final String algorithm;
+    final String qop;
+    final AtomicInteger nonceCount = new AtomicInteger();
+
+    Challenge(Map<String, String> params) {
+      realm = params.getOrDefault("realm", "");
+      nonce = params.get("nonce");
+      opaque = params.get("opaque");
+      algorithm = params.getOrDefault("algorithm", "MD5");
+      qop = qop(params.get("qop"));
+    }
+
+    /**
+     * The qop to answer with: "auth" if offered, none if the server offers none.
+     */
+    private static String qop(String offered) {
+      if (offered == null) {
+        return null;
+      }
+      for (String option : offered.split(",")) {
+        if (option.trim().equalsIgnoreCase("auth")) {
+          return "auth";
+        }
+      }
+      // auth-int would need a hash of the body, which a streamed body does not allow
+      throw new IllegalStateException("Digest challenge offers qop=\"" + offered
+          + "\" but only auth is supported");
+    }
+
+    String hash(String value) {
+      String name = algorithm.toUpperCase().startsWith("SHA-256") ? "SHA-256" : "MD5";
+      try {
+        return hex(MessageDigest.getInstance(name)
+            .digest(value.getBytes(StandardCharsets.ISO_8859_1)));
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
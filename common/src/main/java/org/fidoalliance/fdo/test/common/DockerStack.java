@@ -0,0 +1,105 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A docker compose stack of FDO components together with the endpoints that tell when it is
+ * ready.
+ */
+public class DockerStack {
+
+  private static final String LOCALHOST = "localhost";
+  private static final String HEALTH = "/health";
+
+  private final String name;
+  private final Path directory;
+  private final List<ReadinessProbe> probes;
+  private final String project;
+  private final String composeOverride;
+
+  /**
+   * Parameterized constructor for DockerStack.
+   *
+   * @param name      : name of the stack
+   * @param directory : directory holding the docker-compose file
+   * @param probes    : endpoints that must answer before the stack is ready
+   */
+  public DockerStack(String name, Path directory, List<ReadinessProbe> probes) {
+    this(name, directory, probes, null, null);
+  }
+
+  /**
+   * Parameterized constructor for a stack that runs as its own compose project, so that several
+   * copies of the same docker-compose file can run at once. An override file given with the
+   * docker-compose file changes what would collide with the other copies, e.g. host ports and
+   * container names, see {@link AioStack}.
+   *
+   * @param name            : name of the stack; unique among the stacks of a test run
+   * @param directory       : directory holding the docker-compose file
+   * @param probes          : endpoints that must answer before the stack is ready
+   * @param project         : compose project name, or null for the default (the directory name)
+   * @param composeOverride : content of a compose file applied on top of the docker-compose
+   *                        file, or null for none
+   */
+  public DockerStack(String name, Path directory, List<ReadinessProbe> probes, String project,
+      String composeOverride) {
+    this.name = name;
+    this.directory = directory;
+    this.probes = Collections.unmodifiableList(probes);
+    this.project = project;
+    this.composeOverride = composeOverride;
+  }
+
+  /**
+   * Database stack; ready once the database port accepts connections.
+   */
+  public static DockerStack db(String testDir) {
+    return new DockerStack("db", Paths.get(testDir, "binaries/pri-fidoiot/db"),
+        Arrays.asList(
+            ReadinessProbe.tcp("db", LOCALHOST, Integer.getInteger("fdo.db.port", 3306))));
+  }
+
+  /**
+   * All-in-one stack; ready once its REST port and the manufacturer and owner API ports it
+   * serves all answer, since the component sample and client SDK flows call those right away.
+   */
+  public static DockerStack aio(String testDir) {
+    return new DockerStack("aio", Paths.get(testDir, "binaries/pri-fidoiot/aio"),
+        Arrays.asList(ReadinessProbe.http("aio", LOCALHOST, 8080, HEALTH),
+            ReadinessProbe.http("manufacturer", LOCALHOST, 8039, HEALTH),
+            ReadinessProbe.http("owner", LOCALHOST, 8042, HEALTH)));
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  public List<ReadinessProbe> getProbes() {
+    return probes;
+  }
+
+  /**
+   * Compose project name, or null if the stack runs under the default project.
+   */
+  public String getProject() {
+    return project;
+  }
+
+  /**
+   * Content of the compose file applied on top of the docker-compose file, or null for none.
+   */
+  public String getComposeOverride() {
+    return composeOverride;
+  }
+}
@@ -0,0 +1,333 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Structured record of every step of the harness, written as one JSON object per line to
+ * events.jsonl in the log directory: process spawns and exits, HTTP calls, waits, assertions,
+ * clean-ups and timed phases. Summarise a file with {@link EventSummary}.
+ *
+ * <p>Every event has its type, a monotonic time "t" in nanoseconds since the stream started,
+ * and, where known, the device, the phase and a duration in nanoseconds. The first line of the
+ * file gives the wall-clock time at which t was 0. The device and phase default to those set
+ * for the calling thread, see {@link #setDevice(String)} and {@link LatencyRecorder#start}.
+ *
+ * <p>Callers only format their line and queue it; a writer thread writes the queue through a
+ * large buffer and flushes it once a second. A caller waits at most a second for room in a full
+ * queue and then drops its event; dropped events are counted in the last line of the file.
+ * -Dfdo.events=false turns the stream off.
+ */
+public class EventStream {
+
+  public static final String EVENTS_FILE = "events.jsonl";
+  // Event types
+  public static final String SPAWN = "spawn";
+  public static final String EXIT = "exit";
+  public static final String HTTP = "http";
+  public static final String WAIT = "wait";
+  public static final String ASSERT = "assert";
+  public static final String CLEANUP = "cleanup";
+  public static final String PHASE = "phase";
+  public static final String RESULT = "result";
+
+  private static final String ENABLED_PROPERTY = "fdo.events";
+  private static final int QUEUE_CAPACITY = 1 << 16;
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final long FLUSH_INTERVAL_MILLIS = 1000;
+  private static final long OFFER_TIMEOUT_MILLIS = 1000;
+
+  private static final EventStream instance = new EventStream();
+
+  private final long origin = System.nanoTime();
+  private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final ThreadLocal<String> device = new ThreadLocal<>();
+  private final ThreadLocal<String> phase = new ThreadLocal<>();
+  private final AtomicLong emitted = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final Set<Path> opened = new HashSet<>();
+  private volatile Path file;
+  private volatile boolean closing;
+  private Thread writer;
+
+  /**
+   * Stream shared by all tests in the JVM.
+   */
+  public static EventStream getInstance() {
+    return instance;
+  }
+
+  /**
+   * Whether events are recorded; -Dfdo.events=false turns them off.
+   */
+  public static boolean isEnabled() {
+    return Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+  }
+
+  /**
+   * Start writing events to a file. Events emitted before the stream is opened are dropped.
+   * Opening the stream again with the same file does nothing.
+   *
+   * @param target : the events file, usually events.jsonl in the log directory
+   * @throws IOException if the file cannot be created
+   */
+  public synchronized void open(Path target) throws IOException {
+    if (target.equals(file)) {
+      return;
+    }
+    close();
+    Files.createDirectories(target.toAbsolutePath().getParent());
+    // A file is started afresh by the first suite of the JVM and continued by later ones
+    BufferedWriter out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(target,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, opened.add(target)
+            ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND),
+        StandardCharsets.UTF_8), BUFFER_SIZE);
+    long now = System.nanoTime();
+    out.write(new Event("start").field("epochMs", System.currentTimeMillis()
+        - TimeUnit.NANOSECONDS.toMillis(now - origin))
+        .field("pid", ProcessHandle.current().pid()).toJson());
+    out.newLine();
+    closing = false;
+    writer = new Thread(() -> drain(out), "event-stream");
+    writer.setDaemon(true);
+    writer.start();
+    file = target;
+    TestLogger.info("=====> Writing events to {}", target);
+  }
+
+  /**
+   * Write the events still queued and close the file.
+   */
+  public synchronized void close() {
+    if (file == null) {
+      return;
+    }
+    file = null;
+    closing = true;
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(30));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    writer = null;
+  }
+
+  private void drain(BufferedWriter out) {
+    List<String> batch = new ArrayList<>();
+    try {
+      while (true) {
+        String line = queue.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        if (line == null) {
+          if (closing) {
+            break;
+          }
+          out.flush();
+          continue;
+        }
+        batch.add(line);
+        queue.drainTo(batch);
+        for (String l : batch) {
+          out.write(l);
+          out.newLine();
+        }
+        batch.clear();
+      }
+      out.write(new Event("end").field("events", emitted.get())
+          .field("dropped", dropped.get()).toJson());
+      out.newLine();
+    } catch (IOException e) {
+      TestLogger.error("=====> Cannot write events: {}", e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      try {
+        out.close();
+      } catch (IOException e) {
+        TestLogger.error("=====> Cannot close events file: {}", e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Whether events are being written.
+   */
+  public boolean isOpen() {
+    return file != null;
+  }
+
+  /**
+   * New event, emitted once its fields are set.
+   *
+   * @param type : type of the event, e.g. {@link #SPAWN}
+   * @return the event
+   */
+  public Event event(String type) {
+    return new Event(type);
+  }
+
+  /**
+   * Device the calling thread works for, recorded with its events; null to clear it.
+   */
+  public void setDevice(String deviceId) {
+    if (deviceId == null) {
+      device.remove();
+    } else {
+      device.set(deviceId);
+    }
+  }
+
+  public String getDevice() {
+    return device.get();
+  }
+
+  /**
+   * Phase the calling thread is in, recorded with its events; null to clear it.
+   */
+  public void setPhase(String phaseName) {
+    if (phaseName == null) {
+      phase.remove();
+    } else {
+      phase.set(phaseName);
+    }
+  }
+
+  public String getPhase() {
+    return phase.get();
+  }
+
+  private void enqueue(String line) {
+    if (file == null) {
+      return;
+    }
+    try {
+      if (queue.offer(line, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        emitted.incrementAndGet();
+      } else {
+        dropped.incrementAndGet();
+      }
+    } catch (InterruptedException e) {
+      dropped.incrementAndGet();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * One event being built.
+   */
+  public class Event {
+
+    private final long time = System.nanoTime();
+    private final String type;
+    private String deviceId = device.get();
+    private String phaseName = phase.get();
+    private long durationNanos = -1;
+    private final StringBuilder fields = new StringBuilder();
+
+    private Event(String type) {
+      this.type = type;
+    }
+
+    public Event device(String deviceId) {
+      this.deviceId = deviceId;
+      return this;
+    }
+
+    public Event phase(String phaseName) {
+      this.phaseName = phaseName;
+      return this;
+    }
+
+    public Event duration(Duration duration) {
+      this.durationNanos = duration.toNanos();
+      return this;
+    }
+
+    /**
+     * Duration from a {@link System#nanoTime()} start to now.
+     */
+    public Event since(long startNanos) {
+      this.durationNanos = System.nanoTime() - startNanos;
+      return this;
+    }
+
+    /**
+     * Add a string field; null values are left out.
+     */
+    public Event field(String name, String value) {
+      if (value != null) {
+        fields.append(",\"").append(name).append("\":");
+        quote(fields, value);
+      }
+      return this;
+    }
+
+    public Event field(String name, long value) {
+      fields.append(",\"").append(name).append("\":").append(value);
+      return this;
+    }
+
+    public Event field(String name, boolean value) {
+      fields.append(",\"").append(name).append("\":").append(value);
+      return this;
+    }
+
+    /**
+     * Queue the event for writing.
+     */
+    public void emit() {
+      if (file != null) {
+        enqueue(toJson());
+      }
+    }
+
+    String toJson() {
+      StringBuilder json = new StringBuilder(64 + fields.length());
+      json.append("{\"t\":").append(time - origin).append(",\"type\":");
+      quote(json, type);
+      if (deviceId != null) {
+        json.append(",\"device\":");
+        quote(json, deviceId);
+      }
+      if (phaseName != null) {
+        json.append(",\"phase\":");
+        quote(json, phaseName);
+      }
+      if (durationNanos >= 0) {
+        json.append(",\"durationNs\":").append(durationNanos);
+      }
+      return json.append(fields).append('}').toString();
+    }
+  }
+
+  private static void quote(StringBuilder json, String value) {
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+}
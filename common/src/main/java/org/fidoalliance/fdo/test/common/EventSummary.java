@@ -0,0 +1,264 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summary of one or more events files written by {@link EventStream}: count, failures and
+ * duration percentiles for every event type and phase, HTTP calls by status class, and the
+ * devices with the most failures. Files are read one line at a time, so they can be far larger
+ * than memory.
+ *
+ * <pre>
+ * java -cp &lt;classpath&gt; org.fidoalliance.fdo.test.common.EventSummary events.jsonl...
+ * </pre>
+ */
+public class EventSummary {
+
+  private static final int TOP_DEVICES = 20;
+
+  private final Map<String, Group> groups = new TreeMap<>();
+  private final Map<String, Long> httpStatusClasses = new TreeMap<>();
+  private final Map<String, Long> deviceFailures = new HashMap<>();
+  private long events;
+  private long malformed;
+
+  /**
+   * Add the events of a file.
+   *
+   * @param file : an events file
+   * @throws IOException if the file cannot be read
+   */
+  public void add(Path file) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        try {
+          Map<String, String> event = parse(line);
+          if (event == null) {
+            malformed++;
+          } else {
+            add(event);
+          }
+        } catch (NumberFormatException e) {
+          malformed++;
+        }
+      }
+    }
+  }
+
+  private void add(Map<String, String> event) {
+    String type = event.get("type");
+    if (type == null || type.equals("start") || type.equals("end")) {
+      return;
+    }
+    events++;
+    String phase = event.get("phase");
+    Group group = groups.computeIfAbsent(type + (phase != null ? " " + phase : ""),
+        k -> new Group());
+    group.count++;
+    String duration = event.get("durationNs");
+    if (duration != null) {
+      group.durations.record(TimeUnit.NANOSECONDS.toMicros(Long.parseLong(duration)));
+    }
+    if (type.equals(EventStream.HTTP) && event.containsKey("status")) {
+      httpStatusClasses.merge(event.get("status").charAt(0) + "xx", 1L, Long::sum);
+    }
+    if (isFailure(type, event)) {
+      group.failures++;
+      String device = event.get("device");
+      if (device != null) {
+        deviceFailures.merge(device, 1L, Long::sum);
+      }
+    }
+  }
+
+  /**
+   * Whether an event records something that went wrong: a non-zero exit, an HTTP error, a
+   * timed-out wait, a failed assertion or row, or any event with an error field.
+   */
+  static boolean isFailure(String type, Map<String, String> event) {
+    if (event.containsKey("error")) {
+      return true;
+    }
+    switch (type) {
+      case EventStream.EXIT:
+        return !"0".equals(event.get("exitValue"));
+      case EventStream.HTTP:
+        return event.containsKey("status") && event.get("status").compareTo("400") >= 0;
+      case EventStream.WAIT:
+        return "timeout".equals(event.get("outcome"));
+      case EventStream.ASSERT:
+        return "fail".equals(event.get("outcome"));
+      case EventStream.RESULT:
+        return "FAIL".equals(event.get("status"));
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Print the summary.
+   *
+   * @param out : destination, e.g. System.out
+   */
+  public void print(PrintStream out) {
+    out.printf(Locale.ROOT, "%d events%s%n", events,
+        malformed > 0 ? " (" + malformed + " malformed lines skipped)" : "");
+    out.printf(Locale.ROOT, "%-32s %10s %8s %10s %10s %10s%n", "type/phase", "count",
+        "failed", "p50Ms", "p99Ms", "maxMs");
+    groups.forEach((name, g) -> out.printf(Locale.ROOT, "%-32s %10d %8d %10s %10s %10s%n",
+        name, g.count, g.failures, ms(g, 50), ms(g, 99), ms(g, 100)));
+    if (!httpStatusClasses.isEmpty()) {
+      out.println("HTTP status classes: " + httpStatusClasses);
+    }
+    if (!deviceFailures.isEmpty()) {
+      List<Map.Entry<String, Long>> worst = new ArrayList<>(deviceFailures.entrySet());
+      worst.sort(Map.Entry.<String, Long>comparingByValue().reversed()
+          .thenComparing(Map.Entry.comparingByKey()));
+      out.println("Devices with failures: " + deviceFailures.size());
+      for (Map.Entry<String, Long> e : worst.subList(0, Math.min(TOP_DEVICES, worst.size()))) {
+        out.printf(Locale.ROOT, "  %-30s %d%n", e.getKey(), e.getValue());
+      }
+    }
+  }
+
+  private static String ms(Group g, double percentile) {
+    if (g.durations.getTotalCount() == 0) {
+      return "-";
+    }
+    long micros = percentile >= 100 ? g.durations.getMax()
+        : g.durations.getValueAtPercentile(percentile);
+    return String.format(Locale.ROOT, "%.1f", micros / 1000.0);
+  }
+
+  /**
+   * Fields of a flat JSON object as written by {@link EventStream}, with numbers and booleans
+   * as text.
+   *
+   * @param line : one line of an events file
+   * @return the fields, or null if the line is not a flat JSON object
+   */
+  static Map<String, String> parse(String line) {
+    Map<String, String> fields = new HashMap<>();
+    int[] pos = {skipSpace(line, 0)};
+    if (pos[0] >= line.length() || line.charAt(pos[0]) != '{') {
+      return null;
+    }
+    pos[0] = skipSpace(line, pos[0] + 1);
+    if (pos[0] < line.length() && line.charAt(pos[0]) == '}') {
+      return fields;
+    }
+    while (pos[0] < line.length()) {
+      String name = string(line, pos);
+      pos[0] = skipSpace(line, pos[0]);
+      if (name == null || pos[0] >= line.length() || line.charAt(pos[0]) != ':') {
+        return null;
+      }
+      pos[0] = skipSpace(line, pos[0] + 1);
+      String value;
+      if (pos[0] < line.length() && line.charAt(pos[0]) == '"') {
+        value = string(line, pos);
+        if (value == null) {
+          return null;
+        }
+      } else {
+        int start = pos[0];
+        while (pos[0] < line.length() && ",} ".indexOf(line.charAt(pos[0])) < 0) {
+          pos[0]++;
+        }
+        value = line.substring(start, pos[0]);
+      }
+      fields.put(name, value);
+      pos[0] = skipSpace(line, pos[0]);
+      if (pos[0] >= line.length()) {
+        return null;
+      }
+      char c = line.charAt(pos[0]++);
+      if (c == '}') {
+        return fields;
+      }
+      if (c != ',') {
+        return null;
+      }
+      pos[0] = skipSpace(line, pos[0]);
+    }
+    return null;
+  }
+
+  private static String string(String line, int[] pos) {
+    if (pos[0] >= line.length() || line.charAt(pos[0]) != '"') {
+      return null;
+    }
+    StringBuilder value = new StringBuilder();
+    for (int i = pos[0] + 1; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '"') {
+        pos[0] = i + 1;
+        return value.toString();
+      }
+      if (c == '\\' && i + 1 < line.length()) {
+        char escaped = line.charAt(++i);
+        if (escaped == 'u' && i + 4 < line.length()) {
+          value.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+          i += 4;
+        } else {
+          value.append(escaped == 'n' ? '\n' : escaped == 't' ? '\t' : escaped);
+        }
+      } else {
+        value.append(c);
+      }
+    }
+    return null;
+  }
+
+  private static int skipSpace(String line, int pos) {
+    while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  /**
+   * Events of one type and phase.
+   */
+  private static class Group {
+
+    private long count;
+    private long failures;
+    private final LatencyHistogram durations = new LatencyHistogram();
+  }
+
+  /**
+   * Summarise the events files given on the command line.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("usage: EventSummary <events.jsonl>...");
+      System.exit(2);
+    }
+    EventSummary summary = new EventSummary();
+    for (String arg : args) {
+      summary.add(Paths.get(arg));
+    }
+    summary.print(System.out);
+  }
+}
@@ -0,0 +1,319 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * REST client for the FDO manufacturer, owner, RV and all-in-one management APIs.
+ *
+ * <p>All instances share one HTTP client, so connections are pooled and kept alive across
+ * requests and test cases. Digest credentials are answered with the last nonce received from
+ * the server, so the 401 round trip is only paid once per server.
+ */
+public class FdoRestClient {
+
+  public static final String TEXT_PLAIN = "text/plain";
+  public static final String APPLICATION_CBOR = "application/cbor";
+  public static final String OCTET_STREAM = "application/octet-stream";
+
+  // How long to wait for the server to answer a single request
+  private static final Duration requestTimeout = Duration.of(30, ChronoUnit.SECONDS);
+  // Larger bodies wait for the server to accept them before they are sent, and get
+  // requestTimeout plus a second per MIN_UPLOAD_RATE bytes
+  static final long LARGE_BODY = 1 << 20;
+  private static final long MIN_UPLOAD_RATE = 1 << 20;
+
+  private static final HttpClient httpClient = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .followRedirects(HttpClient.Redirect.NORMAL)
+      .connectTimeout(Duration.of(5, ChronoUnit.SECONDS))
+      .build();
+
+  private static final MetricsRegistry.Counter responses = MetricsRegistry.getInstance()
+      .counter("fdo_http_responses", "HTTP calls by status class; \"error\" if none came back",
+          "method", "class");
+  private static final MetricsRegistry.Histogram durations = MetricsRegistry.getInstance()
+      .histogram("fdo_http_duration_seconds", "Time from request to complete response",
+          "method");
+
+  private final String baseUrl;
+  private final DigestAuthenticator digest;
+
+  /**
+   * Client without credentials.
+   *
+   * @param baseUrl : server URL, e.g. "http://localhost:8080"
+   */
+  public FdoRestClient(String baseUrl) {
+    this(baseUrl, null, null);
+  }
+
+  /**
+   * Client that answers digest challenges with the given credentials.
+   *
+   * @param baseUrl  : server URL, e.g. "http://localhost:8080"
+   * @param user     : API user name
+   * @param password : API password; null is treated as empty
+   */
+  public FdoRestClient(String baseUrl, String user, String password) {
+    this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    this.digest = user == null ? null : new DigestAuthenticator(user, password);
+  }
+
+  public String getBaseUrl() {
+    return baseUrl;
+  }
+
+  /**
+   * Fetch an ownership voucher from the manufacturer.
+   *
+   * @param serial device serial number
+   * @return the response; the body holds the voucher
+   */
+  public Response getVoucher(String serial) throws IOException, InterruptedException {
+    return get("/api/v1/vouchers/" + serial);
+  }
+
+  /**
+   * Upload an extended ownership voucher to the owner.
+   *
+   * @param voucher the voucher as returned by {@link #getVoucher(String)}
+   * @return the response; the body holds the device GUID
+   */
+  public Response uploadVoucher(byte[] voucher) throws IOException, InterruptedException {
+    return post("/api/v1/owner/vouchers/", APPLICATION_CBOR, voucher);
+  }
+
+  /**
+   * Fetch the owner's state of a device, e.g. when its TO0 registration expires.
+   *
+   * @param guid device GUID, as returned by {@link #uploadVoucher(byte[])}
+   * @return the response; the body holds the state as a JSON object
+   */
+  public Response getOwnerState(String guid) throws IOException, InterruptedException {
+    return get("/api/v1/owner/state/" + guid);
+  }
+
+  /**
+   * Replace the rendezvous info used during DI.
+   *
+   * @param rvInfo rvinfo in its JSON text form
+   */
+  public Response postRvInfo(String rvInfo) throws IOException, InterruptedException {
+    return post("/api/v1/rvinfo", TEXT_PLAIN, rvInfo.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Replace the owner redirect (TO2 address) used during TO0.
+   *
+   * @param redirect redirect entries in their JSON text form
+   */
+  public Response postOwnerRedirect(String redirect) throws IOException, InterruptedException {
+    return post("/api/v1/owner/redirect", TEXT_PLAIN, redirect.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Upload a resource that service info instructions may refer to.
+   *
+   * @param filename name of the resource on the owner
+   * @param content  resource content
+   */
+  public Response uploadResource(String filename, byte[] content)
+      throws IOException, InterruptedException {
+    return post("/api/v1/owner/resource?filename=" + filename, TEXT_PLAIN, content);
+  }
+
+  /**
+   * Upload a resource from a file. The file is streamed from disk, so it can be larger than the
+   * heap, and the upload rate is logged.
+   *
+   * @param filename name of the resource on the owner
+   * @param file     file holding the resource content
+   */
+  public Response uploadResource(String filename, Path file)
+      throws IOException, InterruptedException {
+    Response response = send("POST", "/api/v1/owner/resource?filename=" + filename, TEXT_PLAIN,
+        BodyPublishers.ofFile(file));
+    TestLogger.info("=====> Uploaded {} ({}) in {} ms ({})", filename,
+        PayloadGenerator.format(response.getSentBytes()), response.getElapsed().toMillis(),
+        PayloadGenerator.rate(response.getSentBytes(), response.getElapsed()));
+    return response;
+  }
+
+  /**
+   * Replace the owner service info instructions.
+   *
+   * @param svi service info instructions in their JSON text form
+   */
+  public Response postSvi(String svi) throws IOException, InterruptedException {
+    return post("/api/v1/owner/svi", TEXT_PLAIN, svi.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Add a per-device service info entry.
+   *
+   * @param query   query string selecting module, variable, priority and device
+   * @param content entry content; may be empty
+   */
+  public Response putDeviceSvi(String query, byte[] content)
+      throws IOException, InterruptedException {
+    return send("PUT", "/api/v1/device/svi?" + query, OCTET_STREAM,
+        BodyPublishers.ofByteArray(content));
+  }
+
+  public Response get(String path) throws IOException, InterruptedException {
+    return send("GET", path, null, BodyPublishers.noBody());
+  }
+
+  public Response post(String path, String contentType, byte[] body)
+      throws IOException, InterruptedException {
+    return send("POST", path, contentType, BodyPublishers.ofByteArray(body));
+  }
+
+  /**
+   * Send a request and wait for the complete response.
+   *
+   * @param method      request method
+   * @param path        request path and query
+   * @param contentType content type of the body; null when there is none
+   * @param body        request body
+   * @return the response
+   * @throws IOException           if the request could not be sent or the response read
+   * @throws InterruptedException  when another thread interrupts (not caught)
+   * @throws IllegalStateException if the server's digest challenge cannot be answered
+   */
+  public Response send(String method, String path, String contentType, BodyPublisher body)
+      throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    // Queries carry GUIDs and file names, so events only record the path
+    EventStream.Event event = EventStream.getInstance().event(EventStream.HTTP)
+        .field("method", method).field("path", path.split("\\?", 2)[0]);
+    if (body.contentLength() > 0) {
+      event.field("bytes", body.contentLength());
+    }
+    HttpResponse<byte[]> response;
+    long attempt = start;
+    try {
+      if (body.contentLength() > LARGE_BODY && digest != null && !digest.hasChallenge()) {
+        // Get the challenge without a body: a server that answers Expect: 100-continue before
+        // it checks credentials may reset the connection it refused while the body is still
+        // being sent. HEAD, so an existing resource at the path is not downloaded.
+        HttpResponse<Void> challenge = httpClient.send(
+            request("HEAD", path, null, BodyPublishers.noBody()), BodyHandlers.discarding());
+        digest.update(challenge.headers().firstValue("WWW-Authenticate").orElse(null));
+        attempt = System.nanoTime();
+      }
+      response = httpClient.send(
+          request(method, path, contentType, body), BodyHandlers.ofByteArray());
+      if (response.statusCode() == 401 && digest != null
+          && digest.update(response.headers().firstValue("WWW-Authenticate").orElse(null))) {
+        // First contact with the server, or the cached nonce went stale.
+        attempt = System.nanoTime();
+        response = httpClient.send(request(method, path, contentType, body),
+            BodyHandlers.ofByteArray());
+      }
+    } catch (IOException e) {
+      responses.inc(method, "error");
+      event.since(start).field("error", e.toString()).emit();
+      throw e;
+    }
+    responses.inc(method, response.statusCode() / 100 + "xx");
+    durations.observe(Duration.ofNanos(System.nanoTime() - start), method);
+    event.since(start).field("status", response.statusCode()).emit();
+    TestLogger.info("=====> {} {}{} : {}", method, baseUrl, path, response.statusCode());
+    return new Response(response.statusCode(), response.headers(), response.body(),
+        Math.max(0, body.contentLength()), Duration.ofNanos(System.nanoTime() - attempt));
+  }
+
+  private HttpRequest request(String method, String path, String contentType,
+      BodyPublisher body) {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path))
+        .timeout(requestTimeout.plusSeconds(Math.max(0, body.contentLength()) / MIN_UPLOAD_RATE))
+        .method(method, body);
+    if (body.contentLength() > LARGE_BODY) {
+      // A digest challenge or an error then costs a round trip instead of the whole body
+      builder.expectContinue(true);
+    }
+    if (contentType != null) {
+      builder.header("Content-Type", contentType);
+    }
+    if (digest != null && digest.hasChallenge()) {
+      builder.header("Authorization", digest.authorization(method, path));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Status, headers and body of a completed request.
+   */
+  public static class Response {
+
+    private final int status;
+    private final HttpHeaders headers;
+    private final byte[] body;
+    private final long sentBytes;
+    private final Duration elapsed;
+
+    Response(int status, HttpHeaders headers, byte[] body, long sentBytes, Duration elapsed) {
+      this.status = status;
+      this.headers = headers;
+      this.body = body;
+      this.sentBytes = sentBytes;
+      this.elapsed = elapsed;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    public HttpHeaders getHeaders() {
+      return headers;
+    }
+
+    public byte[] getBody() {
+      return body;
+    }
+
+    public String getBodyAsString() {
+      return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Size of the request body.
+     */
+    public long getSentBytes() {
+      return sentBytes;
+    }
+
+    /**
+     * Time from sending the request that got this response to the end of the response, without
+     * a digest challenge before it.
+     */
+    public Duration getElapsed() {
+      return elapsed;
+    }
+
+    public boolean isSuccess() {
+      return status >= 200 && status < 300;
+    }
+
+    @Override
+    public String toString() {
+      return "HTTP " + status + " (" + body.length + " bytes)";
+    }
+  }
+}
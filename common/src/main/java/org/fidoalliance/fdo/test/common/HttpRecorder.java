@@ -0,0 +1,210 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recording reverse proxy: forwards every HTTP request to a server and appends the exchange to
+ * an {@link HttpTrace}, for replaying later with {@link HttpReplayer}.
+ *
+ * <p>Put it in front of a server by pointing both the devices and the management client at its
+ * port, see {@link AioStack#withHttpPort(int)}; then DI, TO1 and TO2 messages as well as the
+ * harness's own REST calls are recorded. FDO protocol messages are grouped into sessions by the
+ * authorization token the server hands out with its first reply; management calls form the
+ * session "api". With -Dfdo.record=true the smoke tests record each AIO row to
+ * {@value HttpTrace#TRACE_FILE} in the row's log directory.
+ */
+public class HttpRecorder implements AutoCloseable {
+
+  public static final String API_SESSION = "api";
+  private static final String RECORD_PROPERTY = "fdo.record";
+  private static final Duration requestTimeout = Duration.of(60, ChronoUnit.SECONDS);
+  // Headers that describe one connection, or that the HTTP client sets itself
+  private static final Set<String> skippedHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+  static {
+    skippedHeaders.addAll(Arrays.asList("Connection", "Content-Length", "Expect", "Host",
+        "Keep-Alive", "Proxy-Connection", "TE", "Trailer", "Transfer-Encoding", "Upgrade"));
+  }
+
+  private static final HttpClient httpClient = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .followRedirects(HttpClient.Redirect.NEVER)
+      .connectTimeout(Duration.of(5, ChronoUnit.SECONDS))
+      .build();
+
+  private final String target;
+  private final Path traceFile;
+  // Session of each authorization token handed out by the server
+  private final Map<String, String> sessions = new ConcurrentHashMap<>();
+  private final AtomicInteger sessionCount = new AtomicInteger();
+  private HttpTrace.Writer trace;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  /**
+   * Parameterized constructor for HttpRecorder.
+   *
+   * @param target    : URL of the server, e.g. "http://localhost:8080"
+   * @param traceFile : trace to write, replaced if it exists
+   */
+  public HttpRecorder(String target, Path traceFile) {
+    this.target = target.endsWith("/") ? target.substring(0, target.length() - 1) : target;
+    this.traceFile = traceFile;
+  }
+
+  /**
+   * Whether the smoke tests record their traffic; -Dfdo.record=true turns it on.
+   */
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(RECORD_PROPERTY);
+  }
+
+  /**
+   * Start forwarding and recording on the loopback interface.
+   *
+   * @param port : port to listen on; 0 picks a free port
+   * @return the port listened on
+   * @throws IOException if the port cannot be bound or the trace created
+   */
+  public synchronized int start(int port) throws IOException {
+    trace = HttpTrace.create(traceFile);
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/", this::forward);
+    AtomicInteger threads = new AtomicInteger();
+    executor = Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "http-recorder-" + threads.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    server.setExecutor(executor);
+    server.start();
+    TestLogger.info("=====> Recording {} through port {} to {}", target, getPort(), traceFile);
+    return getPort();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * URL to use instead of the server's, e.g. "http://localhost:20123".
+   */
+  public String getUrl() {
+    return "http://localhost:" + getPort();
+  }
+
+  /**
+   * Stop forwarding and finish the trace file.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (server != null) {
+      server.stop(0);
+      executor.shutdown();
+      server = null;
+      trace.close();
+      TestLogger.info("=====> Recorded {} exchanges in {} sessions to {}", trace.getCount(),
+          sessionCount.get(), traceFile);
+    }
+  }
+
+  private void forward(HttpExchange exchange) throws IOException {
+    long start = System.nanoTime();
+    HttpTrace.Exchange e = new HttpTrace.Exchange();
+    try (InputStream in = exchange.getRequestBody()) {
+      e.method = exchange.getRequestMethod();
+      URI uri = exchange.getRequestURI();
+      e.path = uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+      e.contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+      e.authorization = exchange.getRequestHeaders().getFirst("Authorization");
+      e.body = in.readAllBytes();
+
+      HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(target + e.path))
+          .timeout(requestTimeout)
+          .method(e.method, e.body.length > 0 ? BodyPublishers.ofByteArray(e.body)
+              : BodyPublishers.noBody());
+      exchange.getRequestHeaders().forEach((name, values) -> {
+        if (!skippedHeaders.contains(name)) {
+          values.forEach(value -> request.header(name, value));
+        }
+      });
+      HttpResponse<byte[]> response;
+      try {
+        response = httpClient.send(request.build(), BodyHandlers.ofByteArray());
+      } catch (IOException ex) {
+        TestLogger.warn("=====> Recorder cannot reach {}: {}", target, ex.getMessage());
+        e.status = 502;
+        exchange.sendResponseHeaders(502, -1);
+        return;
+      }
+
+      e.status = response.statusCode();
+      e.responseAuthorization = response.headers().firstValue("Authorization").orElse(null);
+      response.headers().map().forEach((name, values) -> {
+        if (!skippedHeaders.contains(name) && !name.startsWith(":")) {
+          exchange.getResponseHeaders().put(name, values);
+        }
+      });
+      byte[] body = response.body();
+      exchange.sendResponseHeaders(e.status, body.length == 0 ? -1 : body.length);
+      if (body.length > 0) {
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      exchange.sendResponseHeaders(503, -1);
+      e.status = 503;
+    } finally {
+      exchange.close();
+      e.durationNanos = System.nanoTime() - start;
+      e.session = session(e);
+      trace.write(e, start);
+    }
+  }
+
+  /**
+   * Session of an exchange: the session of the token it carries, else a new session that the
+   * token handed out in its response will name.
+   */
+  private String session(HttpTrace.Exchange e) {
+    if (e.path.startsWith("/api/") || e.path.startsWith("/health")) {
+      return API_SESSION;
+    }
+    String session = e.authorization != null ? sessions.get(e.authorization) : null;
+    if (session == null) {
+      session = "s" + sessionCount.incrementAndGet();
+    }
+    if (e.responseAuthorization != null) {
+      sessions.putIfAbsent(e.responseAuthorization, session);
+    }
+    return session;
+  }
+}
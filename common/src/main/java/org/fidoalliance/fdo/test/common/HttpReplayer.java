@@ -0,0 +1,381 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Replays the sessions of an {@link HttpTrace} against a server, faster than they were recorded
+ * and as many times as wanted, to load the server with more devices than can be run as
+ * processes on one host.
+ *
+ * <p>Each session of the trace, i.e. one device's DI, TO1 or TO2, is replayed in order with the
+ * gaps between its requests divided by the rate. Sessions start at their recorded offset divided
+ * by the rate; every repetition of the trace starts one scaled trace length after the previous
+ * one, so a trace of one device onboarding in 10 s replayed at rate 100 starts 10 sessions a
+ * second. The authorization token a session carries is replaced by the one the server hands out
+ * to the replayed session. Management API calls are left out unless asked for, since their
+ * digest credentials do not survive a replay.
+ *
+ * <p>The server cannot tell a replayed session from a real one until a message needs a fresh
+ * nonce or signature, so later messages of a session may be rejected; they still load the
+ * request path and are counted by status. Latencies are measured from the time a request was
+ * due, not from when it was sent, so a server falling behind shows as latency instead of a
+ * lower rate. Sessions run on a fixed pool of daemon threads, see {@link #setConcurrency(int)}.
+ *
+ * <pre>
+ * java -cp &lt;classpath&gt; org.fidoalliance.fdo.test.common.HttpReplayer \
+ *     &lt;trace&gt; &lt;url&gt; [rate] [repeat] [concurrency] [outputDir]
+ * </pre>
+ */
+public class HttpReplayer {
+
+  public static final int DEFAULT_CONCURRENCY = 200;
+
+  private static final Duration requestTimeout = Duration.of(60, ChronoUnit.SECONDS);
+  // Path segments naming one device, e.g. a GUID or serial, so requests group by endpoint
+  private static final Pattern ID_SEGMENT = Pattern.compile("/[0-9A-Fa-f-]{8,}(?=/|$)");
+
+  private static final HttpClient httpClient = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .followRedirects(HttpClient.Redirect.NEVER)
+      .connectTimeout(Duration.of(5, ChronoUnit.SECONDS))
+      .build();
+
+  private final String target;
+  private double rate = 1;
+  private int repeat = 1;
+  private int concurrency = DEFAULT_CONCURRENCY;
+  private boolean includeApi;
+
+  /**
+   * Parameterized constructor for HttpReplayer.
+   *
+   * @param target : URL of the server, e.g. "http://localhost:8080"
+   */
+  public HttpReplayer(String target) {
+    this.target = target.endsWith("/") ? target.substring(0, target.length() - 1) : target;
+  }
+
+  /**
+   * Replay this many times faster than recorded.
+   */
+  public HttpReplayer setRate(double rate) {
+    if (rate <= 0) {
+      throw new IllegalArgumentException("rate must be positive: " + rate);
+    }
+    this.rate = rate;
+    return this;
+  }
+
+  /**
+   * Replay the trace this many times, one after the other.
+   */
+  public HttpReplayer setRepeat(int repeat) {
+    this.repeat = Math.max(1, repeat);
+    return this;
+  }
+
+  /**
+   * Run at most this many sessions at the same time. Sessions due while all threads are busy
+   * wait, and the wait counts towards their latency. Java 11 has no virtual threads, so every
+   * running session holds a platform thread.
+   */
+  public HttpReplayer setConcurrency(int concurrency) {
+    this.concurrency = Math.max(1, concurrency);
+    return this;
+  }
+
+  /**
+   * Also replay the calls to the management API.
+   */
+  public HttpReplayer setIncludeApi(boolean includeApi) {
+    this.includeApi = includeApi;
+    return this;
+  }
+
+  /**
+   * Replay a trace file.
+   *
+   * @param traceFile : a file written by {@link HttpRecorder}
+   * @return what the server answered and how fast
+   * @throws IOException          if the trace cannot be read
+   * @throws InterruptedException when another thread interrupts (not caught)
+   */
+  public Result replay(Path traceFile) throws IOException, InterruptedException {
+    return replay(HttpTrace.read(traceFile));
+  }
+
+  /**
+   * Replay recorded exchanges.
+   *
+   * @param exchanges : exchanges, e.g. from {@link HttpTrace#read(Path)}
+   * @return what the server answered and how fast
+   * @throws InterruptedException when another thread interrupts (not caught)
+   */
+  public Result replay(List<HttpTrace.Exchange> exchanges) throws InterruptedException {
+    Map<String, List<HttpTrace.Exchange>> sessions = new LinkedHashMap<>();
+    for (HttpTrace.Exchange e : exchanges) {
+      if (includeApi || !e.session.equals(HttpRecorder.API_SESSION)) {
+        sessions.computeIfAbsent(e.session, s -> new ArrayList<>()).add(e);
+      }
+    }
+    List<List<HttpTrace.Exchange>> ordered = new ArrayList<>(sessions.values());
+    ordered.forEach(s -> s.sort(Comparator.comparingLong(e -> e.offsetNanos)));
+    ordered.sort(Comparator.comparingLong(s -> s.get(0).offsetNanos));
+
+    Result result = new Result();
+    if (ordered.isEmpty()) {
+      TestLogger.warn("=====> Nothing to replay");
+      return result;
+    }
+    long origin = ordered.get(0).get(0).offsetNanos;
+    long end = origin;
+    for (List<HttpTrace.Exchange> session : ordered) {
+      for (HttpTrace.Exchange e : session) {
+        end = Math.max(end, e.offsetNanos + e.durationNanos);
+      }
+    }
+    long length = (long) ((end - origin) / rate);
+    TestLogger.info("=====> Replaying {} sessions {} times to {} at rate {} ({} ms per pass)",
+        ordered.size(), repeat, target, rate, TimeUnit.NANOSECONDS.toMillis(length));
+
+    AtomicInteger threads = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency, r -> {
+      Thread thread = new Thread(r, "http-replayer-" + threads.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    long start = System.nanoTime();
+    try {
+      for (int pass = 0; pass < repeat; pass++) {
+        for (List<HttpTrace.Exchange> session : ordered) {
+          long due = start + pass * length
+              + (long) ((session.get(0).offsetNanos - origin) / rate);
+          sleepUntil(due);
+          result.startLag(System.nanoTime() - due);
+          executor.execute(() -> replaySession(session, due, result));
+        }
+      }
+      executor.shutdown();
+      while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+        TestLogger.debug("HttpReplayer: {} requests sent", result.getRequests());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    result.elapsedNanos = System.nanoTime() - start;
+    result.log();
+    return result;
+  }
+
+  private void replaySession(List<HttpTrace.Exchange> session, long due, Result result) {
+    long first = session.get(0).offsetNanos;
+    // Recorded token -> token the server handed out to this replay
+    Map<String, String> tokens = new HashMap<>();
+    result.sessionStarted();
+    for (HttpTrace.Exchange e : session) {
+      long requestDue = due + (long) ((e.offsetNanos - first) / rate);
+      try {
+        sleepUntil(requestDue);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(target + e.path))
+          .timeout(requestTimeout)
+          .method(e.method, e.body.length > 0 ? BodyPublishers.ofByteArray(e.body)
+              : BodyPublishers.noBody());
+      if (e.contentType != null) {
+        request.header("Content-Type", e.contentType);
+      }
+      if (e.authorization != null) {
+        request.header("Authorization", tokens.getOrDefault(e.authorization, e.authorization));
+      }
+      int status;
+      try {
+        HttpResponse<Void> response = httpClient.send(request.build(),
+            BodyHandlers.discarding());
+        status = response.statusCode();
+        String token = response.headers().firstValue("Authorization").orElse(null);
+        if (token != null && e.responseAuthorization != null) {
+          tokens.put(e.responseAuthorization, token);
+        }
+      } catch (IOException ex) {
+        TestLogger.debug("HttpReplayer: {} {} failed: {}", e.method, e.path, ex.getMessage());
+        status = 0;
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      result.record(e, status, System.nanoTime() - requestDue);
+    }
+  }
+
+  private static void sleepUntil(long nanoTime) throws InterruptedException {
+    long wait = nanoTime - System.nanoTime();
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+
+  /**
+   * Request name for grouping latencies: method and path, with device identifiers and the query
+   * left out.
+   */
+  static String endpoint(String method, String path) {
+    int query = path.indexOf('?');
+    String p = query < 0 ? path : path.substring(0, query);
+    return method + " " + ID_SEGMENT.matcher(p).replaceAll("/*");
+  }
+
+  /**
+   * Outcome of a replay.
+   */
+  public static class Result {
+
+    // Latency of each endpoint, measured from the time its requests were due
+    private final Map<String, LatencyHistogram> latencies = new TreeMap<>();
+    // Responses by status class, e.g. "2xx"; "error" for requests that got no response
+    private final Map<String, Long> statuses = new TreeMap<>();
+    private long requests;
+    private long mismatches;
+    private int sessions;
+    private long maxStartLagNanos;
+    private long elapsedNanos;
+
+    private synchronized void sessionStarted() {
+      sessions++;
+    }
+
+    private synchronized void startLag(long nanos) {
+      maxStartLagNanos = Math.max(maxStartLagNanos, nanos);
+    }
+
+    private synchronized void record(HttpTrace.Exchange e, int status, long latencyNanos) {
+      requests++;
+      statuses.merge(status == 0 ? "error" : status / 100 + "xx", 1L, Long::sum);
+      if (status != e.status) {
+        mismatches++;
+      }
+      latencies.computeIfAbsent(endpoint(e.method, e.path), k -> new LatencyHistogram())
+          .record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    public synchronized long getRequests() {
+      return requests;
+    }
+
+    public synchronized int getSessions() {
+      return sessions;
+    }
+
+    /**
+     * Number of responses with a different status than recorded.
+     */
+    public synchronized long getMismatches() {
+      return mismatches;
+    }
+
+    /**
+     * Number of responses by status class, e.g. "2xx"; "error" counts requests that got no
+     * response.
+     */
+    public synchronized Map<String, Long> getStatuses() {
+      return new TreeMap<>(statuses);
+    }
+
+    /**
+     * Latency of each endpoint, e.g. "POST /fdo/101/msg/10".
+     */
+    public synchronized Map<String, LatencyHistogram> getLatencies() {
+      Map<String, LatencyHistogram> copy = new TreeMap<>();
+      latencies.forEach((endpoint, h) -> {
+        LatencyHistogram c = new LatencyHistogram();
+        c.add(h);
+        copy.put(endpoint, c);
+      });
+      return copy;
+    }
+
+    public synchronized Duration getElapsed() {
+      return Duration.ofNanos(elapsedNanos);
+    }
+
+    /**
+     * Latest a session started after it was due; a large lag means the replayer itself could
+     * not keep up and the rate was lower than asked for.
+     */
+    public synchronized Duration getMaxStartLag() {
+      return Duration.ofNanos(maxStartLagNanos);
+    }
+
+    /**
+     * Requests per second over the whole replay.
+     */
+    public synchronized double getThroughput() {
+      return elapsedNanos > 0 ? requests * 1e9 / elapsedNanos : 0;
+    }
+
+    /**
+     * Write p50/p90/p99/max of every endpoint to latency.csv and latency.json in a directory.
+     *
+     * @param directory : output directory
+     * @throws IOException if a file could not be written
+     */
+    public void write(Path directory) throws IOException {
+      LatencyRecorder.writeSummary(getLatencies(), directory);
+    }
+
+    private synchronized void log() {
+      TestLogger.info("=====> Replayed {} requests in {} sessions in {} ms: {} req/s, statuses {},"
+          + " {} differ from the recording, start lag up to {} ms", requests, sessions,
+          TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+          String.format(Locale.ROOT, "%.1f", getThroughput()), statuses, mismatches,
+          TimeUnit.NANOSECONDS.toMillis(maxStartLagNanos));
+    }
+  }
+
+  /**
+   * Replay a trace file against a server.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 2) {
+      System.err.println("usage: HttpReplayer <trace> <url> [rate] [repeat] [concurrency]"
+          + " [outputDir]");
+      System.exit(2);
+    }
+    HttpReplayer replayer = new HttpReplayer(args[1])
+        .setRate(args.length > 2 ? Double.parseDouble(args[2]) : 1)
+        .setRepeat(args.length > 3 ? Integer.parseInt(args[3]) : 1)
+        .setConcurrency(args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_CONCURRENCY);
+    Result result = replayer.replay(Paths.get(args[0]));
+    if (args.length > 5) {
+      result.write(Paths.get(args[5]));
+    }
+  }
+}
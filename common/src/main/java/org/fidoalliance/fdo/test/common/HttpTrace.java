@@ -0,0 +1,188 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * File of recorded HTTP exchanges, written by {@link HttpRecorder} and replayed by
+ * {@link HttpReplayer}.
+ *
+ * <p>The file is gzip-compressed binary: a header, then one record per exchange with its
+ * session, its start time, the request (method, path and query, content type, authorization and
+ * body) and the response (status, authorization and duration).
+ * Response bodies are not kept. Records are in the order their responses completed; times are
+ * relative to the creation of the file.
+ */
+public class HttpTrace {
+
+  public static final String TRACE_FILE = "http.trace.gz";
+  private static final String MAGIC = "FDOTRACE";
+  private static final int VERSION = 1;
+
+  /**
+   * Write a new trace file.
+   *
+   * @param file : the file, replaced if it exists
+   * @return the writer; close it to finish the file
+   * @throws IOException if the file cannot be created
+   */
+  public static Writer create(Path file) throws IOException {
+    Files.createDirectories(file.toAbsolutePath().getParent());
+    return new Writer(new DataOutputStream(new BufferedOutputStream(
+        new GZIPOutputStream(Files.newOutputStream(file), 1 << 16))));
+  }
+
+  /**
+   * Read all exchanges of a trace file.
+   *
+   * @param file : a file written by {@link #create(Path)}
+   * @return the exchanges in file order
+   * @throws IOException if the file cannot be read or is not a trace
+   */
+  public static List<Exchange> read(Path file) throws IOException {
+    List<Exchange> exchanges = new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new GZIPInputStream(Files.newInputStream(file), 1 << 16)))) {
+      if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+        throw new IOException(file + " is not a version " + VERSION + " HTTP trace");
+      }
+      while (true) {
+        Exchange e = new Exchange();
+        try {
+          e.session = in.readUTF();
+        } catch (EOFException end) {
+          break;
+        }
+        e.offsetNanos = in.readLong();
+        e.method = in.readUTF();
+        e.path = in.readUTF();
+        e.contentType = readNullable(in);
+        e.authorization = readNullable(in);
+        e.body = new byte[in.readInt()];
+        in.readFully(e.body);
+        e.status = in.readInt();
+        e.responseAuthorization = readNullable(in);
+        e.durationNanos = in.readLong();
+        exchanges.add(e);
+      }
+    }
+    return exchanges;
+  }
+
+  private static String readNullable(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeNullable(DataOutputStream out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      out.writeUTF(s);
+    }
+  }
+
+  /**
+   * Appends exchanges to a trace file; safe to use from several threads.
+   */
+  public static class Writer implements Closeable {
+
+    private final DataOutputStream out;
+    private final long origin = System.nanoTime();
+    private int count;
+
+    private Writer(DataOutputStream out) throws IOException {
+      this.out = out;
+      out.writeUTF(MAGIC);
+      out.writeInt(VERSION);
+    }
+
+    /**
+     * Append an exchange. Its offset is the time from the creation of the file to its
+     * {@link System#nanoTime()} start.
+     */
+    public synchronized void write(Exchange e, long startNanos) throws IOException {
+      out.writeUTF(e.session);
+      out.writeLong(Math.max(0, startNanos - origin));
+      out.writeUTF(e.method);
+      out.writeUTF(e.path);
+      writeNullable(out, e.contentType);
+      writeNullable(out, e.authorization);
+      out.writeInt(e.body.length);
+      out.write(e.body);
+      out.writeInt(e.status);
+      writeNullable(out, e.responseAuthorization);
+      out.writeLong(e.durationNanos);
+      count++;
+    }
+
+    public synchronized int getCount() {
+      return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      out.close();
+    }
+  }
+
+  /**
+   * One recorded request and the outline of its response.
+   */
+  public static class Exchange {
+
+    String session;
+    long offsetNanos;
+    String method;
+    String path;
+    String contentType;
+    String authorization;
+    byte[] body = new byte[0];
+    int status;
+    String responseAuthorization;
+    long durationNanos;
+
+    /**
+     * Session the exchange belongs to: an FDO protocol session, or "api" for the management
+     * API.
+     */
+    public String getSession() {
+      return session;
+    }
+
+    /**
+     * Start of the exchange in nanoseconds after the trace file was created.
+     */
+    public long getOffsetNanos() {
+      return offsetNanos;
+    }
+
+    public String getMethod() {
+      return method;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    public long getDurationNanos() {
+      return durationNanos;
+    }
+  }
+}
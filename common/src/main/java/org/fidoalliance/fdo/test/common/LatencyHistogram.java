@@ -0,0 +1,179 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+/**
+ * Log-linear histogram of latencies in microseconds.
+ *
+ * <p>Values below 128 us are counted exactly. Above that, every power of two is split into 64
+ * buckets, so any reported percentile is within 1/64 (about 1.6%) of the recorded value. The
+ * histogram is not synchronized: callers that record and merge from different threads hold a
+ * lock of their own, see {@link LatencyRecorder}.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // 64 per power of two
+  private static final int LINEAR_BUCKETS = SUB_BUCKETS * 2; // exact below 128 us
+  // Values are clamped to 2^36 us, a little over 19 hours.
+  private static final int MAX_BITS = 36;
+  private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+  private static final int BUCKETS =
+      LINEAR_BUCKETS + (MAX_BITS - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+  private final long[] counts = new long[BUCKETS];
+  private long totalCount;
+  private long sum;
+  private long min = Long.MAX_VALUE;
+  private long max;
+
+  /**
+   * Record one latency.
+   *
+   * @param micros latency in microseconds; negative values are recorded as 0
+   */
+  public void record(long micros) {
+    long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+    counts[bucketIndex(value)]++;
+    totalCount++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Record a latency and correct for coordinated omission. When a measurement took longer than
+   * the interval at which requests were meant to be issued, the requests that could not be
+   * issued in the meantime are recorded too, with the latency they would have seen.
+   *
+   * @param micros         latency in microseconds
+   * @param intervalMicros expected interval between requests in microseconds; 0 disables the
+   *                       correction
+   */
+  public void recordWithExpectedInterval(long micros, long intervalMicros) {
+    record(micros);
+    if (intervalMicros <= 0) {
+      return;
+    }
+    for (long missing = micros - intervalMicros; missing >= intervalMicros;
+        missing -= intervalMicros) {
+      record(missing);
+    }
+  }
+
+  /**
+   * Add all values recorded in another histogram to this one.
+   *
+   * @param other histogram to merge
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  public long getMin() {
+    return totalCount == 0 ? 0 : min;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  public double getMean() {
+    return totalCount == 0 ? 0 : (double) sum / totalCount;
+  }
+
+  /**
+   * Value at the given percentile, e.g. 99.0 for p99.
+   *
+   * @param percentile percentile between 0 and 100
+   * @return latency in microseconds; the upper bound of the bucket holding the percentile, but
+   *     never more than the largest recorded value
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (totalCount == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * totalCount));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(i), max);
+      }
+    }
+    return max;
+  }
+
+  /**
+   * The histogram as one line of text, for merging histograms recorded by other JVMs: the
+   * count, sum, min and max followed by index:count for every bucket that is not empty.
+   */
+  public String encode() {
+    StringBuilder text = new StringBuilder();
+    text.append(totalCount).append(' ').append(sum).append(' ').append(getMin()).append(' ')
+        .append(max);
+    for (int i = 0; i < BUCKETS; i++) {
+      if (counts[i] != 0) {
+        text.append(' ').append(i).append(':').append(counts[i]);
+      }
+    }
+    return text.toString();
+  }
+
+  /**
+   * Histogram written by {@link #encode()}.
+   *
+   * @param text the encoded histogram
+   * @return the histogram
+   * @throws IllegalArgumentException if the text is not an encoded histogram
+   */
+  public static LatencyHistogram decode(String text) {
+    String[] fields = text.trim().split(" ");
+    if (fields.length < 4) {
+      throw new IllegalArgumentException("not an encoded histogram: " + text);
+    }
+    LatencyHistogram h = new LatencyHistogram();
+    try {
+      h.totalCount = Long.parseLong(fields[0]);
+      h.sum = Long.parseLong(fields[1]);
+      h.min = h.totalCount == 0 ? Long.MAX_VALUE : Long.parseLong(fields[2]);
+      h.max = Long.parseLong(fields[3]);
+      for (int i = 4; i < fields.length; i++) {
+        int colon = fields[i].indexOf(':');
+        h.counts[Integer.parseInt(fields[i].substring(0, colon))] +=
+            Long.parseLong(fields[i].substring(colon + 1));
+      }
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("not an encoded histogram: " + text, e);
+    }
+    return h;
+  }
+
+  static int bucketIndex(long value) {
+    if (value < LINEAR_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >> shift) - SUB_BUCKETS;
+  }
+
+  static long bucketUpperBound(int index) {
+    if (index < LINEAR_BUCKETS) {
+      return index;
+    }
+    int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+    long sub = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((sub + 1) << shift) - 1;
+  }
+}
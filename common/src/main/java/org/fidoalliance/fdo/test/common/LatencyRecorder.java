@@ -0,0 +1,257 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records per-phase latencies of the onboarding flows.
+ *
+ * <p>Each thread records into its own histograms, under a lock that only a snapshot or a reset
+ * takes besides that thread, so recording threads do not contend with each other. The
+ * histograms of all threads are merged when a snapshot is taken, normally once at the end of
+ * the suite, but a snapshot may also be taken while threads are still recording. A timed phase
+ * is also written to the {@link EventStream}, and tags the events of its thread while it runs.
+ */
+public class LatencyRecorder {
+
+  // Onboarding phases recorded by the smoke tests
+  public static final String PHASE_DI = "DI";
+  public static final String PHASE_VOUCHER_GET = "voucher-get";
+  public static final String PHASE_VOUCHER_POST = "voucher-post";
+  public static final String PHASE_SVI_UPLOAD = "svi-upload";
+  public static final String PHASE_TO0_WAIT = "to0-wait";
+  public static final String PHASE_TO = "TO";
+  // Spawn to first line of output of a JVM started with TestProcess.javaJar
+  public static final String PHASE_JVM_STARTUP = "jvm-startup";
+  // Scheduled arrival to end of TO of a device in a LoadScenario, including any queueing
+  public static final String PHASE_ONBOARDING = "onboarding";
+
+  // Histograms of a run, for merging with other runs
+  private static final String HISTOGRAM_FILE = "latency.hist";
+
+  private static final LatencyRecorder instance = new LatencyRecorder();
+
+  // Live view of the same latencies, see MetricsRegistry
+  private static final MetricsRegistry.Histogram phaseDurations = MetricsRegistry.getInstance()
+      .histogram("fdo_phase_duration_seconds", "Duration of onboarding phases", "phase");
+
+  private final Queue<Map<String, LatencyHistogram>> threadHistograms =
+      new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<Map<String, LatencyHistogram>> histograms =
+      ThreadLocal.withInitial(() -> {
+        Map<String, LatencyHistogram> map = new HashMap<>();
+        threadHistograms.add(map);
+        return map;
+      });
+
+  /**
+   * Recorder shared by all tests in the JVM.
+   */
+  public static LatencyRecorder getInstance() {
+    return instance;
+  }
+
+  /**
+   * Record the latency of a phase.
+   *
+   * @param phase   name of the phase
+   * @param latency measured latency
+   */
+  public void record(String phase, Duration latency) {
+    long micros = TimeUnit.NANOSECONDS.toMicros(latency.toNanos());
+    Map<String, LatencyHistogram> map = histograms.get();
+    synchronized (map) {
+      histogram(map, phase).record(micros);
+    }
+    phaseDurations.observe(latency, phase);
+  }
+
+  /**
+   * Record the latency of a phase, correcting for coordinated omission.
+   *
+   * @param phase            name of the phase
+   * @param latency          measured latency
+   * @param expectedInterval interval at which the phase was meant to start
+   * @see LatencyHistogram#recordWithExpectedInterval(long, long)
+   */
+  public void record(String phase, Duration latency, Duration expectedInterval) {
+    long micros = TimeUnit.NANOSECONDS.toMicros(latency.toNanos());
+    long intervalMicros = TimeUnit.NANOSECONDS.toMicros(expectedInterval.toNanos());
+    Map<String, LatencyHistogram> map = histograms.get();
+    synchronized (map) {
+      histogram(map, phase).recordWithExpectedInterval(micros, intervalMicros);
+    }
+    phaseDurations.observe(latency, phase);
+  }
+
+  /**
+   * Start timing a phase. The latency is recorded when the sample is closed, so a phase can be
+   * timed with try-with-resources.
+   *
+   * @param phase name of the phase
+   * @return the running sample
+   */
+  public Sample start(String phase) {
+    return new Sample(phase);
+  }
+
+  /**
+   * Merge the histograms of all threads.
+   *
+   * @return merged histogram for each phase, sorted by phase name
+   */
+  public Map<String, LatencyHistogram> snapshot() {
+    Map<String, LatencyHistogram> merged = new TreeMap<>();
+    for (Map<String, LatencyHistogram> map : threadHistograms) {
+      synchronized (map) {
+        map.forEach((phase, h) ->
+            merged.computeIfAbsent(phase, p -> new LatencyHistogram()).add(h));
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Write p50/p90/p99/max of every phase to latency.csv and latency.json in the given directory,
+   * and the histograms to latency.hist so that runs of several JVMs can be merged, see
+   * {@link ShardReport}.
+   *
+   * @param directory output directory, usually the test log directory
+   * @throws IOException if a file could not be written
+   */
+  public void export(Path directory) throws IOException {
+    Map<String, LatencyHistogram> merged = snapshot();
+    writeSummary(merged, directory);
+    List<String> lines = new ArrayList<>();
+    merged.forEach((phase, h) -> lines.add(phase + "\t" + h.encode()));
+    Files.write(directory.resolve(HISTOGRAM_FILE), lines);
+  }
+
+  /**
+   * Write p50/p90/p99/max of every phase to latency.csv and latency.json in the given directory.
+   *
+   * @param histograms histogram of each phase, in the order to write them
+   * @param directory  output directory
+   * @throws IOException if a file could not be written
+   */
+  public static void writeSummary(Map<String, LatencyHistogram> histograms, Path directory)
+      throws IOException {
+    List<String> csv = new ArrayList<>();
+    csv.add("phase,count,minMs,p50Ms,p90Ms,p99Ms,maxMs,meanMs");
+    StringBuilder json = new StringBuilder("{");
+    for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+      LatencyHistogram h = e.getValue();
+      csv.add(String.join(",", e.getKey(), Long.toString(h.getTotalCount()), ms(h.getMin()),
+          ms(h.getValueAtPercentile(50)), ms(h.getValueAtPercentile(90)),
+          ms(h.getValueAtPercentile(99)), ms(h.getMax()), ms(h.getMean())));
+      if (json.length() > 1) {
+        json.append(',');
+      }
+      json.append("\n  \"").append(e.getKey()).append("\": {\"count\": ").append(h.getTotalCount())
+          .append(", \"minMs\": ").append(ms(h.getMin()))
+          .append(", \"p50Ms\": ").append(ms(h.getValueAtPercentile(50)))
+          .append(", \"p90Ms\": ").append(ms(h.getValueAtPercentile(90)))
+          .append(", \"p99Ms\": ").append(ms(h.getValueAtPercentile(99)))
+          .append(", \"maxMs\": ").append(ms(h.getMax()))
+          .append(", \"meanMs\": ").append(ms(h.getMean())).append('}');
+    }
+    json.append("\n}\n");
+
+    Files.createDirectories(directory);
+    Files.write(directory.resolve("latency.csv"), csv);
+    Files.write(directory.resolve("latency.json"), json.toString().getBytes());
+    TestLogger.info("=====> Latency summary written to " + directory.resolve("latency.csv"));
+    for (String line : csv) {
+      TestLogger.info(line);
+    }
+  }
+
+  /**
+   * Read the histograms written to latency.hist by {@link #export(Path)}.
+   *
+   * @param directory directory holding latency.hist
+   * @return histogram of each phase; empty if the directory has no latency.hist
+   * @throws IOException if the file could not be read or is not a histogram file
+   */
+  public static Map<String, LatencyHistogram> readHistograms(Path directory) throws IOException {
+    Map<String, LatencyHistogram> histograms = new TreeMap<>();
+    Path file = directory.resolve(HISTOGRAM_FILE);
+    if (!Files.exists(file)) {
+      return histograms;
+    }
+    for (String line : Files.readAllLines(file)) {
+      int tab = line.indexOf('\t');
+      if (line.isEmpty()) {
+        continue;
+      }
+      try {
+        histograms.put(line.substring(0, tab), LatencyHistogram.decode(line.substring(tab + 1)));
+      } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+        throw new IOException("Bad line in " + file + ": " + line, e);
+      }
+    }
+    return histograms;
+  }
+
+  /**
+   * Discard everything recorded so far.
+   */
+  public void reset() {
+    for (Map<String, LatencyHistogram> map : threadHistograms) {
+      synchronized (map) {
+        map.clear();
+      }
+    }
+  }
+
+  /**
+   * Histogram of a phase in a thread's map; the caller holds the map's lock.
+   */
+  private static LatencyHistogram histogram(Map<String, LatencyHistogram> map, String phase) {
+    return map.computeIfAbsent(phase, p -> new LatencyHistogram());
+  }
+
+  private static String ms(double micros) {
+    return String.format(Locale.ROOT, "%.3f", micros / 1000.0);
+  }
+
+  /**
+   * A phase being timed.
+   */
+  public class Sample implements AutoCloseable {
+
+    private final String phase;
+    private final String outerPhase;
+    private final long start = System.nanoTime();
+
+    private Sample(String phase) {
+      this.phase = phase;
+      // Events of the thread are tagged with the phase while it is timed
+      this.outerPhase = EventStream.getInstance().getPhase();
+      EventStream.getInstance().setPhase(phase);
+    }
+
+    @Override
+    public void close() {
+      Duration latency = Duration.ofNanos(System.nanoTime() - start);
+      record(phase, latency);
+      EventStream events = EventStream.getInstance();
+      events.setPhase(outerPhase);
+      events.event(EventStream.PHASE).phase(phase).duration(latency).emit();
+    }
+  }
+}
@@ -0,0 +1,278 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Open-model load: devices arrive at a given rate whether or not earlier devices have finished,
+ * so a server that cannot keep up builds a queue instead of slowing the arrivals down.
+ *
+ * <p>The arrival rate grows linearly from 0 to {@link #setRate(double)} devices per second over
+ * the ramp-up, then stays there for the steady-state duration. Arrivals are evenly spaced, or
+ * with -Dfdo.scenario.arrivals=poisson follow a Poisson process of the same rate, seeded so
+ * every run gets the same schedule. Each device is of one entry of the mix, a device type and
+ * whether it takes ServiceInfo, picked in proportion to the entry weights.
+ *
+ * <p>{@link #fromProperties(String, boolean)} reads a scenario from system properties:
+ *
+ * <pre>
+ * -Dfdo.scenario.rate=50 -Dfdo.scenario.rampUp=30 -Dfdo.scenario.steady=120 \
+ * -Dfdo.scenario.mix=component-sample:true:3,client-sdk:false:1
+ * </pre>
+ *
+ * <p>Durations are in seconds. See {@link ScenarioRunner} for running a scenario.
+ */
+public class LoadScenario {
+
+  private static final String PROPERTY = "fdo.scenario.";
+
+  private final List<Mix> mix = new ArrayList<>();
+  private double rate = 1;
+  private Duration rampUp = Duration.ZERO;
+  private Duration steady = Duration.ofSeconds(60);
+  private boolean poisson;
+  private long seed = 1;
+
+  /**
+   * Scenario of the -Dfdo.scenario.* properties.
+   *
+   * @param deviceType : device type of the mix if -Dfdo.scenario.mix is not set
+   * @param sviEnabled : whether that device type takes ServiceInfo
+   * @return the scenario
+   * @throws IllegalArgumentException if a property is not valid
+   */
+  public static LoadScenario fromProperties(String deviceType, boolean sviEnabled) {
+    LoadScenario scenario = new LoadScenario()
+        .setRate(Double.parseDouble(System.getProperty(PROPERTY + "rate", "1")))
+        .setRampUp(seconds("rampUp", 0))
+        .setSteady(seconds("steady", 60))
+        .setPoisson(System.getProperty(PROPERTY + "arrivals", "uniform")
+            .equalsIgnoreCase("poisson"))
+        .setSeed(Long.getLong(PROPERTY + "seed", 1));
+    String mix = System.getProperty(PROPERTY + "mix");
+    if (mix == null || mix.trim().isEmpty()) {
+      return scenario.addMix(deviceType, sviEnabled, 1);
+    }
+    for (String entry : mix.split(",")) {
+      String[] fields = entry.trim().split(":");
+      if (fields.length < 2 || fields.length > 3) {
+        throw new IllegalArgumentException("Mix entry is not deviceType:sviEnabled[:weight]: "
+            + entry);
+      }
+      scenario.addMix(fields[0], Boolean.parseBoolean(fields[1]),
+          fields.length > 2 ? Double.parseDouble(fields[2]) : 1);
+    }
+    return scenario;
+  }
+
+  /**
+   * Arrivals per second once ramped up.
+   */
+  public LoadScenario setRate(double rate) {
+    if (!(rate > 0)) {
+      throw new IllegalArgumentException("rate must be positive: " + rate);
+    }
+    this.rate = rate;
+    return this;
+  }
+
+  /**
+   * Time over which the arrival rate grows from 0 to the rate.
+   */
+  public LoadScenario setRampUp(Duration rampUp) {
+    this.rampUp = rampUp;
+    return this;
+  }
+
+  /**
+   * Time the arrival rate stays at the rate after the ramp-up.
+   */
+  public LoadScenario setSteady(Duration steady) {
+    this.steady = steady;
+    return this;
+  }
+
+  /**
+   * Whether arrivals follow a Poisson process instead of being evenly spaced.
+   */
+  public LoadScenario setPoisson(boolean poisson) {
+    this.poisson = poisson;
+    return this;
+  }
+
+  public LoadScenario setSeed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  /**
+   * Add an entry to the mix of devices.
+   *
+   * @param deviceType : e.g. "component-sample" or "client-sdk"
+   * @param sviEnabled : whether the device takes ServiceInfo
+   * @param weight     : share of the arrivals relative to the other entries
+   */
+  public LoadScenario addMix(String deviceType, boolean sviEnabled, double weight) {
+    if (!(weight > 0)) {
+      throw new IllegalArgumentException("weight must be positive: " + weight);
+    }
+    mix.add(new Mix(deviceType, sviEnabled, weight));
+    return this;
+  }
+
+  public double getRate() {
+    return rate;
+  }
+
+  public Duration getRampUp() {
+    return rampUp;
+  }
+
+  public Duration getSteady() {
+    return steady;
+  }
+
+  public List<Mix> getMix() {
+    return Collections.unmodifiableList(mix);
+  }
+
+  /**
+   * Ramp-up and steady state together.
+   */
+  public Duration getDuration() {
+    return rampUp.plus(steady);
+  }
+
+  /**
+   * The arrivals of the scenario in time order. Mix entries are interleaved as evenly as their
+   * weights allow.
+   *
+   * @return the arrivals
+   * @throws IllegalStateException if the mix is empty
+   */
+  public List<Arrival> arrivals() {
+    if (mix.isEmpty()) {
+      throw new IllegalStateException("The scenario has no devices in its mix");
+    }
+    double end = getDuration().toNanos() / 1e9;
+    Random random = new Random(seed);
+    double[] credit = new double[mix.size()];
+    double totalWeight = mix.stream().mapToDouble(m -> m.weight).sum();
+    List<Arrival> arrivals = new ArrayList<>();
+    double expected = 0;
+    while (true) {
+      // Time at which the expected number of arrivals reaches this many
+      double t = time(expected);
+      if (t >= end) {
+        return arrivals;
+      }
+      // Smooth weighted round robin over the mix
+      int pick = 0;
+      for (int i = 0; i < credit.length; i++) {
+        credit[i] += mix.get(i).weight;
+        if (credit[i] > credit[pick]) {
+          pick = i;
+        }
+      }
+      credit[pick] -= totalWeight;
+      arrivals.add(new Arrival(arrivals.size(), (long) (t * 1e9), mix.get(pick)));
+      expected += poisson ? -Math.log(1 - random.nextDouble()) : 1;
+    }
+  }
+
+  /**
+   * Inverse of the expected number of arrivals by time t: R t^2 / 2T during a ramp-up of T
+   * seconds, then R T / 2 + R (t - T).
+   */
+  private double time(double arrivals) {
+    double ramp = rampUp.toNanos() / 1e9;
+    double rampArrivals = rate * ramp / 2;
+    if (arrivals < rampArrivals) {
+      return Math.sqrt(2 * ramp * arrivals / rate);
+    }
+    return ramp + (arrivals - rampArrivals) / rate;
+  }
+
+  private static Duration seconds(String name, double defaultSeconds) {
+    double seconds = Double.parseDouble(System.getProperty(PROPERTY + name,
+        Double.toString(defaultSeconds)));
+    return Duration.ofMillis((long) (seconds * 1000));
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "%.2f devices/s, ramp-up %d s, steady %d s, %s arrivals,"
+        + " mix %s", rate, rampUp.getSeconds(), steady.getSeconds(),
+        poisson ? "poisson" : "uniform",
+        mix.stream().map(Mix::toString).collect(Collectors.joining(",")));
+  }
+
+  /**
+   * One kind of device in the mix.
+   */
+  public static class Mix {
+
+    private final String deviceType;
+    private final boolean sviEnabled;
+    private final double weight;
+
+    Mix(String deviceType, boolean sviEnabled, double weight) {
+      this.deviceType = deviceType;
+      this.sviEnabled = sviEnabled;
+      this.weight = weight;
+    }
+
+    public String getDeviceType() {
+      return deviceType;
+    }
+
+    public boolean isSviEnabled() {
+      return sviEnabled;
+    }
+
+    public double getWeight() {
+      return weight;
+    }
+
+    @Override
+    public String toString() {
+      return deviceType + ":" + sviEnabled + ":" + weight;
+    }
+  }
+
+  /**
+   * A device due to start at a time after the start of the scenario.
+   */
+  public static class Arrival {
+
+    private final int index;
+    private final long offsetNanos;
+    private final Mix mix;
+
+    Arrival(int index, long offsetNanos, Mix mix) {
+      this.index = index;
+      this.offsetNanos = offsetNanos;
+      this.mix = mix;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public Duration getOffset() {
+      return Duration.ofNanos(offsetNanos);
+    }
+
+    public Mix getMix() {
+      return mix;
+    }
+  }
+}
@@ -0,0 +1,443 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Searches log files for many literal and regex patterns in a single pass.
+ *
+ * <p>Literal patterns are matched on the raw bytes with an Aho-Corasick automaton, so their cost
+ * does not grow with the number of patterns. Regex patterns are matched line by line against
+ * patterns from a shared compile cache. Files larger than {@value #MAP_THRESHOLD} bytes are
+ * memory-mapped; smaller ones are read in one go, which is cheaper than mapping.
+ *
+ * <p>Add all patterns first and then scan; a scanner is immutable once the first scan has
+ * started and may then be used from several threads.
+ */
+public class LogScanner {
+
+  private static final int MAP_THRESHOLD = 64 * 1024;
+  private static final long MAP_CHUNK = 1L << 30;
+  private static final int DEFAULT_MAX_OFFSETS = 100;
+
+  private static final Map<String, Pattern> patternCache = new ConcurrentHashMap<>();
+
+  private final List<String> literals = new ArrayList<>();
+  private final List<String> regexes = new ArrayList<>();
+  private int maxOffsets = DEFAULT_MAX_OFFSETS;
+  private volatile Automaton automaton;
+  private Pattern[] compiled;
+
+  /**
+   * Compile a regular expression, or return the pattern compiled for it earlier.
+   *
+   * @param regex regular expression
+   * @return the compiled pattern
+   */
+  public static Pattern compile(String regex) {
+    return patternCache.computeIfAbsent(regex, Pattern::compile);
+  }
+
+  /**
+   * Search for a string exactly as written.
+   */
+  public LogScanner addLiteral(String literal) {
+    if (literal.isEmpty()) {
+      throw new IllegalArgumentException("empty literal");
+    }
+    checkUnique(literal);
+    literals.add(literal);
+    return this;
+  }
+
+  /**
+   * Search for a regular expression, matched against each line.
+   */
+  public LogScanner addRegex(String regex) {
+    checkUnique(regex);
+    compile(regex);
+    regexes.add(regex);
+    return this;
+  }
+
+  /**
+   * Set how many match offsets are kept per pattern; counts are always exact.
+   */
+  public LogScanner setMaxOffsets(int maxOffsets) {
+    checkMutable();
+    this.maxOffsets = maxOffsets;
+    return this;
+  }
+
+  /**
+   * Scan one file.
+   *
+   * @param file file to scan
+   * @return match counts and offsets for every pattern
+   * @throws IOException if the file could not be read
+   */
+  public Result scan(Path file) throws IOException {
+    Automaton a = automaton();
+    Result result = new Result(file, literals, regexes, maxOffsets);
+    Scan scan = new Scan(a, result);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size <= MAP_THRESHOLD) {
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+          // read until full; the file may shrink while it is being read
+        }
+        buffer.flip();
+        scan.feed(buffer, 0);
+      } else {
+        for (long start = 0; start < size; start += MAP_CHUNK) {
+          long length = Math.min(MAP_CHUNK, size - start);
+          scan.feed(channel.map(FileChannel.MapMode.READ_ONLY, start, length), start);
+        }
+      }
+    }
+    scan.finish();
+    return result;
+  }
+
+  /**
+   * Scan many files in parallel. Files that do not exist are left out of the result.
+   *
+   * @param files files to scan
+   * @return results by file, in the order given
+   * @throws IOException if a file could not be read
+   */
+  public Map<Path, Result> scanAll(Collection<Path> files) throws IOException {
+    automaton();
+    Map<Path, Result> results = new ConcurrentHashMap<>();
+    try {
+      files.parallelStream().forEach(file -> {
+        try {
+          results.put(file, scan(file));
+        } catch (NoSuchFileException e) {
+          TestLogger.debug("LogScanner: {} does not exist", file);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    Map<Path, Result> ordered = new LinkedHashMap<>();
+    for (Path file : files) {
+      if (results.containsKey(file)) {
+        ordered.put(file, results.get(file));
+      }
+    }
+    return ordered;
+  }
+
+  /**
+   * Add up the match counts of several results.
+   *
+   * @param results results of {@link #scan(Path)} or {@link #scanAll(Collection)}
+   * @return total count for every pattern, in the order the patterns were added
+   */
+  public Map<String, Long> totals(Collection<Result> results) {
+    Map<String, Long> totals = new LinkedHashMap<>();
+    literals.forEach(p -> totals.put(p, 0L));
+    regexes.forEach(p -> totals.put(p, 0L));
+    for (Result result : results) {
+      result.getCounts().forEach((p, n) -> totals.merge(p, n, Long::sum));
+    }
+    return totals;
+  }
+
+  private void checkUnique(String pattern) {
+    checkMutable();
+    if (literals.contains(pattern) || regexes.contains(pattern)) {
+      throw new IllegalArgumentException("duplicate pattern: " + pattern);
+    }
+  }
+
+  private void checkMutable() {
+    if (automaton != null) {
+      throw new IllegalStateException("patterns cannot change once scanning has started");
+    }
+  }
+
+  private Automaton automaton() {
+    Automaton a = automaton;
+    if (a == null) {
+      synchronized (this) {
+        if (automaton == null) {
+          compiled = regexes.stream().map(LogScanner::compile).toArray(Pattern[]::new);
+          automaton = new Automaton(literals);
+        }
+        a = automaton;
+      }
+    }
+    return a;
+  }
+
+  /**
+   * Aho-Corasick automaton over UTF-8 bytes, stored as a full transition table.
+   */
+  private static class Automaton {
+
+    private final int[] delta; // state * 256 + byte -> next state
+    private final int[][] outputs; // literals ending in each state, including suffixes
+    private final int[] lengths; // byte length of each literal
+
+    Automaton(List<String> literals) {
+      List<int[]> next = new ArrayList<>();
+      List<List<Integer>> out = new ArrayList<>();
+      next.add(newState());
+      out.add(new ArrayList<>());
+      lengths = new int[literals.size()];
+      for (int p = 0; p < literals.size(); p++) {
+        byte[] bytes = literals.get(p).getBytes(StandardCharsets.UTF_8);
+        lengths[p] = bytes.length;
+        int state = 0;
+        for (byte b : bytes) {
+          int c = b & 0xff;
+          if (next.get(state)[c] < 0) {
+            next.get(state)[c] = next.size();
+            next.add(newState());
+            out.add(new ArrayList<>());
+          }
+          state = next.get(state)[c];
+        }
+        out.get(state).add(p);
+      }
+
+      // Breadth-first: fill missing transitions from the failure state and merge its outputs.
+      int states = next.size();
+      delta = new int[states * 256];
+      int[] fail = new int[states];
+      Queue<Integer> queue = new ArrayDeque<>();
+      for (int c = 0; c < 256; c++) {
+        int s = next.get(0)[c];
+        delta[c] = Math.max(s, 0);
+        if (s > 0) {
+          queue.add(s);
+        }
+      }
+      while (!queue.isEmpty()) {
+        int state = queue.remove();
+        out.get(state).addAll(out.get(fail[state]));
+        for (int c = 0; c < 256; c++) {
+          int s = next.get(state)[c];
+          if (s >= 0) {
+            fail[s] = delta[fail[state] * 256 + c];
+            delta[state * 256 + c] = s;
+            queue.add(s);
+          } else {
+            delta[state * 256 + c] = delta[fail[state] * 256 + c];
+          }
+        }
+      }
+      outputs = new int[states][];
+      for (int s = 0; s < states; s++) {
+        outputs[s] = out.get(s).stream().mapToInt(Integer::intValue).toArray();
+      }
+    }
+
+    private static int[] newState() {
+      int[] transitions = new int[256];
+      Arrays.fill(transitions, -1);
+      return transitions;
+    }
+  }
+
+  /**
+   * State of one scan: automaton state, and the current line for the regex patterns.
+   */
+  private class Scan {
+
+    private final Automaton automaton;
+    private final Result result;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private byte[] scratch = new byte[256];
+    private int state;
+    private long lineStart;
+
+    Scan(Automaton automaton, Result result) {
+      this.automaton = automaton;
+      this.result = result;
+    }
+
+    void feed(ByteBuffer buffer, long base) {
+      int[] delta = automaton.delta;
+      int[][] outputs = automaton.outputs;
+      boolean lines = compiled.length > 0;
+      int limit = buffer.limit();
+      int from = 0;
+      for (int i = 0; i < limit; i++) {
+        int c = buffer.get(i) & 0xff;
+        state = delta[state * 256 + c];
+        for (int p : outputs[state]) {
+          result.add(p, base + i + 1 - automaton.lengths[p]);
+        }
+        if (lines && c == '\n') {
+          matchLine(buffer, from, i);
+          from = i + 1;
+          lineStart = base + from;
+        }
+      }
+      if (lines && from < limit) {
+        carry(buffer, from, limit);
+      }
+    }
+
+    void finish() {
+      if (line.size() > 0) {
+        match(new String(line.toByteArray(), StandardCharsets.UTF_8));
+        line.reset();
+      }
+    }
+
+    private void matchLine(ByteBuffer buffer, int from, int to) {
+      if (line.size() == 0) {
+        copy(buffer, from, to);
+        match(new String(scratch, 0, to - from, StandardCharsets.UTF_8));
+      } else {
+        // The line started in the previous buffer.
+        carry(buffer, from, to);
+        match(new String(line.toByteArray(), StandardCharsets.UTF_8));
+        line.reset();
+      }
+    }
+
+    private void carry(ByteBuffer buffer, int from, int to) {
+      copy(buffer, from, to);
+      line.write(scratch, 0, to - from);
+    }
+
+    private void copy(ByteBuffer buffer, int from, int to) {
+      int length = to - from;
+      if (length > scratch.length) {
+        scratch = new byte[Math.max(length, scratch.length * 2)];
+      }
+      ByteBuffer slice = buffer.duplicate();
+      slice.position(from);
+      slice.get(scratch, 0, length);
+    }
+
+    private void match(String text) {
+      for (int r = 0; r < compiled.length; r++) {
+        Matcher m = compiled[r].matcher(text);
+        while (m.find()) {
+          long offset = lineStart
+              + text.substring(0, m.start()).getBytes(StandardCharsets.UTF_8).length;
+          result.add(literals.size() + r, offset);
+        }
+      }
+    }
+  }
+
+  /**
+   * Matches found in one file.
+   */
+  public static class Result {
+
+    private final Path file;
+    private final String[] patterns;
+    private final long[] counts;
+    private final long[][] offsets;
+    private final int maxOffsets;
+
+    Result(Path file, List<String> literals, List<String> regexes, int maxOffsets) {
+      this.file = file;
+      List<String> all = new ArrayList<>(literals);
+      all.addAll(regexes);
+      this.patterns = all.toArray(new String[0]);
+      this.counts = new long[patterns.length];
+      this.offsets = new long[patterns.length][];
+      this.maxOffsets = maxOffsets;
+    }
+
+    void add(int pattern, long offset) {
+      long n = counts[pattern]++;
+      if (n >= maxOffsets) {
+        return;
+      }
+      long[] kept = offsets[pattern];
+      if (kept == null || n == kept.length) {
+        // Most patterns match rarely, so grow on demand instead of reserving maxOffsets.
+        kept = Arrays.copyOf(kept == null ? new long[0] : kept,
+            (int) Math.min(maxOffsets, Math.max(4, n * 2)));
+        offsets[pattern] = kept;
+      }
+      kept[(int) n] = offset;
+    }
+
+    public Path getFile() {
+      return file;
+    }
+
+    /**
+     * Number of matches of a pattern.
+     */
+    public long getCount(String pattern) {
+      return counts[index(pattern)];
+    }
+
+    public boolean contains(String pattern) {
+      return getCount(pattern) > 0;
+    }
+
+    /**
+     * Byte offsets at which the first matches of a pattern start, in file order.
+     */
+    public long[] getOffsets(String pattern) {
+      int i = index(pattern);
+      if (offsets[i] == null) {
+        return new long[0];
+      }
+      return Arrays.copyOf(offsets[i], (int) Math.min(counts[i], maxOffsets));
+    }
+
+    /**
+     * Number of matches of every pattern, in the order the patterns were added.
+     */
+    public Map<String, Long> getCounts() {
+      Map<String, Long> map = new LinkedHashMap<>();
+      for (int i = 0; i < patterns.length; i++) {
+        map.put(patterns[i], counts[i]);
+      }
+      return Collections.unmodifiableMap(map);
+    }
+
+    private int index(String pattern) {
+      for (int i = 0; i < patterns.length; i++) {
+        if (patterns[i].equals(pattern)) {
+          return i;
+        }
+      }
+      throw new IllegalArgumentException("not a scanned pattern: " + pattern);
+    }
+
+    @Override
+    public String toString() {
+      return file + " " + getCounts();
+    }
+  }
+}
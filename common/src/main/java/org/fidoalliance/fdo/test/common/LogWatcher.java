@@ -0,0 +1,371 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Follows log files and completes a future as soon as a pattern first appears in one of them.
+ *
+ * <p>Each watched file keeps its read position, so new output is read once instead of rescanning
+ * the whole file. Changes are picked up from file system notifications, with a periodic rescan
+ * as a fallback for missed events and for directories that could not be registered (not created
+ * yet, or out of inotify watches). A file that is replaced or truncated is read again from the
+ * start.
+ *
+ * <p>One thread and one {@link WatchService} serve all watched files: directories are registered
+ * once however many files they hold, and files are only open while new output is read, so
+ * thousands of files can be watched at once.
+ */
+public class LogWatcher implements Closeable {
+
+  private static final long RESCAN_INTERVAL_MS = 1000;
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private static final LogWatcher instance = new LogWatcher();
+
+  // Watched files by directory and file name, guarded by this
+  private final Map<Path, Map<Path, List<Tail>>> tails = new HashMap<>();
+  private final Map<Path, WatchKey> keys = new HashMap<>();
+  private WatchService watchService;
+  private Thread thread;
+  private volatile boolean closed;
+
+  /**
+   * Watcher shared by all tests in the JVM.
+   */
+  public static LogWatcher getInstance() {
+    return instance;
+  }
+
+  /**
+   * Watch a file for the first line matching any of the given patterns. The file does not need
+   * to exist yet. Output already in the file is searched too.
+   *
+   * <p>The future never completes if no pattern appears, so callers wait with a timeout. Cancel
+   * the future to stop watching.
+   *
+   * @param file     file to follow
+   * @param patterns regular expressions, e.g. a success and a failure marker
+   * @return future completed with the first matching line
+   */
+  public CompletableFuture<Match> watch(Path file, String... patterns) {
+    if (patterns.length == 0) {
+      throw new IllegalArgumentException("at least one pattern is required");
+    }
+    Path absolute = file.toAbsolutePath().normalize();
+    Tail tail = new Tail(absolute, patterns);
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("LogWatcher is closed");
+      }
+      start();
+      tails.computeIfAbsent(absolute.getParent(), d -> new HashMap<>())
+          .computeIfAbsent(absolute.getFileName(), f -> new ArrayList<>()).add(tail);
+      register(absolute.getParent());
+    }
+    tail.future.whenComplete((match, error) -> remove(tail));
+    tail.check();
+    return tail.future;
+  }
+
+  /**
+   * Stop the watcher thread and cancel all pending watches.
+   */
+  @Override
+  public void close() throws IOException {
+    List<Tail> pending = new ArrayList<>();
+    synchronized (this) {
+      closed = true;
+      tails.values().forEach(files -> files.values().forEach(pending::addAll));
+      if (watchService != null) {
+        watchService.close();
+      }
+    }
+    for (Tail tail : pending) {
+      tail.future.cancel(false);
+    }
+  }
+
+  private void start() {
+    if (thread != null) {
+      return;
+    }
+    try {
+      watchService = FileSystems.getDefault().newWatchService();
+    } catch (IOException e) {
+      TestLogger.warn("=====> LogWatcher: no file notifications, polling only: " + e.getMessage());
+    }
+    thread = new Thread(this::run, "log-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void register(Path directory) {
+    if (watchService == null || keys.containsKey(directory) || !Files.isDirectory(directory)) {
+      return;
+    }
+    try {
+      keys.put(directory, directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY));
+    } catch (IOException e) {
+      // Typically the inotify watch limit; the periodic rescan still covers this directory.
+      TestLogger.debug("LogWatcher: cannot register {}: {}", directory, e.getMessage());
+    }
+  }
+
+  private synchronized void remove(Tail tail) {
+    Path directory = tail.file.getParent();
+    Map<Path, List<Tail>> files = tails.get(directory);
+    if (files == null) {
+      return;
+    }
+    List<Tail> list = files.get(tail.file.getFileName());
+    if (list != null && list.remove(tail) && list.isEmpty()) {
+      files.remove(tail.file.getFileName());
+    }
+    if (files.isEmpty()) {
+      tails.remove(directory);
+      WatchKey key = keys.remove(directory);
+      if (key != null) {
+        key.cancel();
+      }
+    }
+  }
+
+  private void run() {
+    long nextRescan = System.nanoTime();
+    while (!closed) {
+      try {
+        long wait = TimeUnit.NANOSECONDS.toMillis(nextRescan - System.nanoTime());
+        WatchKey key = null;
+        if (wait > 0) {
+          if (watchService != null) {
+            key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+          } else {
+            Thread.sleep(wait);
+          }
+        }
+        if (key == null) {
+          rescan();
+          nextRescan = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESCAN_INTERVAL_MS);
+          continue;
+        }
+        for (; key != null; key = watchService.poll()) {
+          dispatch(key);
+        }
+      } catch (ClosedWatchServiceException | InterruptedException e) {
+        return;
+      } catch (RuntimeException e) {
+        TestLogger.error("LogWatcher: " + e);
+      }
+    }
+  }
+
+  private void dispatch(WatchKey key) {
+    Path directory = (Path) key.watchable();
+    Set<Path> changed = new HashSet<>();
+    boolean overflow = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        overflow = true;
+      } else {
+        changed.add((Path) event.context());
+      }
+    }
+    key.reset();
+
+    List<Tail> affected = new ArrayList<>();
+    synchronized (this) {
+      Map<Path, List<Tail>> files = tails.get(directory);
+      if (files == null) {
+        return;
+      }
+      for (Map.Entry<Path, List<Tail>> e : files.entrySet()) {
+        if (overflow || changed.contains(e.getKey())) {
+          affected.addAll(e.getValue());
+        }
+      }
+    }
+    affected.forEach(Tail::check);
+  }
+
+  private void rescan() {
+    List<Tail> all = new ArrayList<>();
+    synchronized (this) {
+      for (Map.Entry<Path, Map<Path, List<Tail>>> e : tails.entrySet()) {
+        register(e.getKey());
+        e.getValue().values().forEach(all::addAll);
+      }
+    }
+    all.forEach(Tail::check);
+  }
+
+  /**
+   * Read position and pattern state of one watched file.
+   */
+  private static class Tail {
+
+    private final Path file;
+    private final String[] patterns;
+    private final Pattern[] compiled;
+    private final CompletableFuture<Match> future = new CompletableFuture<>();
+    private final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+    private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private Object fileKey;
+    private long position;
+    private long lineNumber;
+
+    Tail(Path file, String[] patterns) {
+      this.file = file;
+      this.patterns = patterns.clone();
+      this.compiled = new Pattern[patterns.length];
+      for (int i = 0; i < patterns.length; i++) {
+        compiled[i] = Pattern.compile(patterns[i]);
+      }
+    }
+
+    synchronized void check() {
+      if (future.isDone()) {
+        return;
+      }
+      try {
+        BasicFileAttributes attrs;
+        try {
+          attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+          return; // not created yet, or rotated away and not yet replaced
+        }
+        Object key = attrs.fileKey();
+        if (attrs.size() < position || (fileKey != null && !Objects.equals(fileKey, key))) {
+          TestLogger.debug("LogWatcher: {} was rotated, reading from the start", file);
+          position = 0;
+          lineNumber = 0;
+          partial.reset();
+        }
+        fileKey = key;
+        if (attrs.size() > position) {
+          read();
+        }
+      } catch (IOException e) {
+        future.completeExceptionally(e);
+      }
+    }
+
+    private void read() throws IOException {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        channel.position(position);
+        int n;
+        while ((n = channel.read(buffer.clear())) > 0) {
+          byte[] bytes = buffer.array();
+          int start = 0;
+          for (int i = 0; i < n; i++) {
+            if (bytes[i] == '\n') {
+              partial.write(bytes, start, i - start);
+              start = i + 1;
+              lineNumber++;
+              if (match(false)) {
+                position += i + 1;
+                return;
+              }
+            }
+          }
+          partial.write(bytes, start, n - start);
+          position += n;
+        }
+      }
+      // The last line may still be written; match it so far but keep it for the next read.
+      match(true);
+    }
+
+    private boolean match(boolean incomplete) {
+      String line = new String(partial.toByteArray(), StandardCharsets.UTF_8);
+      if (!incomplete) {
+        partial.reset();
+      }
+      if (line.endsWith("\r")) {
+        line = line.substring(0, line.length() - 1);
+      }
+      for (int i = 0; i < compiled.length; i++) {
+        if (compiled[i].matcher(line).find()) {
+          long number = incomplete ? lineNumber + 1 : lineNumber;
+          TestLogger.info("String found in file:  {} in line containing: {}", file, line);
+          future.complete(new Match(file, patterns[i], line, number));
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * First line that matched a watched pattern.
+   */
+  public static class Match {
+
+    private final Path file;
+    private final String pattern;
+    private final String line;
+    private final long lineNumber;
+
+    Match(Path file, String pattern, String line, long lineNumber) {
+      this.file = file;
+      this.pattern = pattern;
+      this.line = line;
+      this.lineNumber = lineNumber;
+    }
+
+    public Path getFile() {
+      return file;
+    }
+
+    /**
+     * The pattern that matched, exactly as it was passed to {@link LogWatcher#watch}.
+     */
+    public String getPattern() {
+      return pattern;
+    }
+
+    public String getLine() {
+      return line;
+    }
+
+    public long getLineNumber() {
+      return lineNumber;
+    }
+
+    @Override
+    public String toString() {
+      return file + ":" + lineNumber + ": " + line;
+    }
+  }
+}
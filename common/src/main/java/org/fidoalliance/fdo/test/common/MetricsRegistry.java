@@ -0,0 +1,407 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters, gauges and histograms of the harness, in OpenMetrics text format.
+ *
+ * <p>The harness counts process spawns, non-zero exits, timed-out waits, HTTP responses by
+ * status class, finished rows, devices being onboarded and phase latencies. With
+ * -Dfdo.metrics.port=N the metrics are served at http://127.0.0.1:N/metrics while the suite runs
+ * (0 picks a free port, which is logged), so a long load run can be watched from Prometheus or
+ * curl. At the end of the suite they are also written to metrics.txt in the log directory.
+ *
+ * <p>Recording only updates striped adders, so it can be called from any thread at any rate;
+ * only rendering walks the series.
+ */
+public class MetricsRegistry {
+
+  public static final String METRICS_FILE = "metrics.txt";
+  public static final String CONTENT_TYPE =
+      "application/openmetrics-text; version=1.0.0; charset=utf-8";
+  private static final String PORT_PROPERTY = "fdo.metrics.port";
+  private static final String PATH = "/metrics";
+  // Seconds, from a fast HTTP call to a slow TO2 with a large ServiceInfo
+  private static final double[] DEFAULT_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1,
+      2.5, 5, 10, 25, 50, 100, 250, 500, 1000};
+
+  private static final MetricsRegistry instance = new MetricsRegistry();
+
+  // Families in name order, so the output is stable between scrapes
+  private final Map<String, Family<?>> families = new ConcurrentSkipListMap<>();
+  private HttpServer server;
+  private ExecutorService executor;
+
+  /**
+   * Registry shared by all tests in the JVM.
+   */
+  public static MetricsRegistry getInstance() {
+    return instance;
+  }
+
+  /**
+   * Counter family; registering a name again returns the existing family.
+   *
+   * @param name   : metric name without the _total suffix, e.g. "fdo_process_spawns"
+   * @param help   : one-line description
+   * @param labels : label names; values are given when counting
+   * @return the counter
+   */
+  public Counter counter(String name, String help, String... labels) {
+    return register(new Counter(name, help, labels));
+  }
+
+  /**
+   * Gauge family; registering a name again returns the existing family.
+   */
+  public Gauge gauge(String name, String help, String... labels) {
+    return register(new Gauge(name, help, labels));
+  }
+
+  /**
+   * Histogram family with buckets from 5 ms to 1000 s; registering a name again returns the
+   * existing family.
+   */
+  public Histogram histogram(String name, String help, String... labels) {
+    return register(new Histogram(name, help, DEFAULT_BUCKETS, labels));
+  }
+
+  /**
+   * Waits that ran out of time, labelled with what was waited for, e.g. "process" or "probe".
+   */
+  public Counter waitTimeouts() {
+    return counter("fdo_wait_timeouts", "Waits that ran out of time", "kind");
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends Family<?>> T register(T family) {
+    Family<?> existing = families.putIfAbsent(family.name, family);
+    if (existing == null) {
+      return family;
+    }
+    if (existing.getClass() != family.getClass()
+        || !Arrays.equals(existing.labels, family.labels)) {
+      throw new IllegalArgumentException("metric " + family.name + " already registered as "
+          + existing.type() + " " + Arrays.toString(existing.labels));
+    }
+    return (T) existing;
+  }
+
+  /**
+   * All metrics in OpenMetrics text format, ending with "# EOF".
+   */
+  public String render() {
+    StringBuilder out = new StringBuilder(4096);
+    for (Family<?> family : families.values()) {
+      out.append("# TYPE ").append(family.name).append(' ').append(family.type()).append('\n');
+      escape(out.append("# HELP ").append(family.name).append(' '), family.help).append('\n');
+      List<List<String>> keys = new ArrayList<>(family.series.keySet());
+      keys.sort(MetricsRegistry::compare);
+      for (List<String> key : keys) {
+        family.render(out, key);
+      }
+    }
+    return out.append("# EOF\n").toString();
+  }
+
+  /**
+   * Write all metrics to metrics.txt in a directory.
+   *
+   * @param directory : output directory, usually the log directory
+   * @throws IOException if the file could not be written
+   */
+  public void write(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    Files.write(directory.resolve(METRICS_FILE), render().getBytes(StandardCharsets.UTF_8));
+    TestLogger.info("=====> Metrics written to {}", directory.resolve(METRICS_FILE));
+  }
+
+  /**
+   * Serve the metrics on the loopback interface if -Dfdo.metrics.port is set. Does nothing if
+   * the endpoint is already running.
+   *
+   * @return the port served, or -1 if the endpoint is off
+   * @throws IOException if the port cannot be bound
+   */
+  public synchronized int start() throws IOException {
+    Integer port = Integer.getInteger(PORT_PROPERTY);
+    if (server == null && port != null) {
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+          0);
+      server.createContext(PATH, exchange -> {
+        byte[] body = render().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      });
+      executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "metrics-endpoint");
+        thread.setDaemon(true);
+        return thread;
+      });
+      server.setExecutor(executor);
+      server.start();
+      TestLogger.info("=====> Serving metrics at http://{}:{}{}",
+          server.getAddress().getHostString(), server.getAddress().getPort(), PATH);
+    }
+    return server != null ? server.getAddress().getPort() : -1;
+  }
+
+  /**
+   * Stop serving the metrics.
+   */
+  public synchronized void stop() {
+    if (server != null) {
+      server.stop(0);
+      executor.shutdown();
+      server = null;
+    }
+  }
+
+  private static StringBuilder escape(StringBuilder out, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\\' || c == '"') {
+        out.append('\\').append(c);
+      } else if (c == '\n') {
+        out.append("\\n");
+      } else {
+        out.append(c);
+      }
+    }
+    return out;
+  }
+
+  private static int compare(List<String> a, List<String> b) {
+    for (int i = 0; i < a.size(); i++) {
+      int c = a.get(i).compareTo(b.get(i));
+      if (c != 0) {
+        return c;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Metrics of one name, one series per combination of label values.
+   */
+  private abstract static class Family<S> {
+
+    final String name;
+    final String help;
+    final String[] labels;
+    final Map<List<String>, S> series = new ConcurrentHashMap<>();
+
+    Family(String name, String help, String[] labels) {
+      this.name = name;
+      this.help = help;
+      this.labels = labels;
+    }
+
+    abstract String type();
+
+    abstract S create();
+
+    abstract void render(StringBuilder out, List<String> key);
+
+    S series(String[] values) {
+      if (values.length != labels.length) {
+        throw new IllegalArgumentException(name + " takes labels " + Arrays.toString(labels));
+      }
+      List<String> key = Arrays.asList(values);
+      S s = series.get(key);
+      return s != null ? s : series.computeIfAbsent(
+          Collections.unmodifiableList(new ArrayList<>(key)), k -> create());
+    }
+
+    /**
+     * Append a sample line: name, labels with an optional extra label, and value.
+     */
+    void sample(StringBuilder out, String suffix, List<String> key, String extraLabel,
+        String extraValue, String value) {
+      out.append(name).append(suffix);
+      if (!key.isEmpty() || extraLabel != null) {
+        out.append('{');
+        for (int i = 0; i < key.size(); i++) {
+          label(out.append(i > 0 ? "," : ""), labels[i], key.get(i));
+        }
+        if (extraLabel != null) {
+          label(out.append(key.isEmpty() ? "" : ","), extraLabel, extraValue);
+        }
+        out.append('}');
+      }
+      out.append(' ').append(value).append('\n');
+    }
+
+    private static void label(StringBuilder out, String label, String value) {
+      escape(out.append(label).append("=\""), value != null ? value : "").append('"');
+    }
+  }
+
+  /**
+   * Monotonic count of events, e.g. process spawns.
+   */
+  public static class Counter extends Family<LongAdder> {
+
+    private Counter(String name, String help, String[] labels) {
+      super(name, help, labels);
+    }
+
+    public void inc(String... labelValues) {
+      series(labelValues).increment();
+    }
+
+    public long get(String... labelValues) {
+      return series(labelValues).sum();
+    }
+
+    @Override
+    String type() {
+      return "counter";
+    }
+
+    @Override
+    LongAdder create() {
+      return new LongAdder();
+    }
+
+    @Override
+    void render(StringBuilder out, List<String> key) {
+      sample(out, "_total", key, null, null, Long.toString(series.get(key).sum()));
+    }
+  }
+
+  /**
+   * Value that goes up and down, e.g. devices being onboarded.
+   */
+  public static class Gauge extends Family<AtomicLong> {
+
+    private Gauge(String name, String help, String[] labels) {
+      super(name, help, labels);
+    }
+
+    public void inc(String... labelValues) {
+      series(labelValues).incrementAndGet();
+    }
+
+    public void dec(String... labelValues) {
+      series(labelValues).decrementAndGet();
+    }
+
+    public void set(long value, String... labelValues) {
+      series(labelValues).set(value);
+    }
+
+    public long get(String... labelValues) {
+      return series(labelValues).get();
+    }
+
+    @Override
+    String type() {
+      return "gauge";
+    }
+
+    @Override
+    AtomicLong create() {
+      return new AtomicLong();
+    }
+
+    @Override
+    void render(StringBuilder out, List<String> key) {
+      sample(out, "", key, null, null, Long.toString(series.get(key).get()));
+    }
+  }
+
+  /**
+   * Distribution of durations in seconds over fixed buckets.
+   */
+  public static class Histogram extends Family<Histogram.Buckets> {
+
+    private final double[] bounds;
+
+    private Histogram(String name, String help, double[] bounds, String[] labels) {
+      super(name, help, labels);
+      this.bounds = bounds;
+    }
+
+    /**
+     * Record a duration.
+     */
+    public void observe(Duration duration, String... labelValues) {
+      observe(duration.toNanos() / 1e9, labelValues);
+    }
+
+    /**
+     * Record a value in seconds.
+     */
+    public void observe(double seconds, String... labelValues) {
+      Buckets b = series(labelValues);
+      int i = Arrays.binarySearch(bounds, seconds);
+      // Buckets are inclusive of their upper bound; the last one is +Inf
+      b.counts.incrementAndGet(i >= 0 ? i : -i - 1);
+      b.sum.add(seconds);
+    }
+
+    @Override
+    String type() {
+      return "histogram";
+    }
+
+    @Override
+    Buckets create() {
+      return new Buckets(bounds.length + 1);
+    }
+
+    @Override
+    void render(StringBuilder out, List<String> key) {
+      Buckets b = series.get(key);
+      long cumulative = 0;
+      for (int i = 0; i <= bounds.length; i++) {
+        cumulative += b.counts.get(i);
+        sample(out, "_bucket", key, "le", i < bounds.length ? Double.toString(bounds[i]) : "+Inf",
+            Long.toString(cumulative));
+      }
+      sample(out, "_count", key, null, null, Long.toString(cumulative));
+      sample(out, "_sum", key, null, null, Double.toString(b.sum.sum()));
+    }
+
+    /**
+     * Counts of one series, not cumulative.
+     */
+    static class Buckets {
+
+      private final AtomicLongArray counts;
+      private final DoubleAdder sum = new DoubleAdder();
+
+      Buckets(int size) {
+        counts = new AtomicLongArray(size);
+      }
+    }
+  }
+}
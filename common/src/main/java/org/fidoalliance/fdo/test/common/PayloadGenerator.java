@@ -0,0 +1,211 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates ServiceInfo payload files of a given size, from kilobytes to gigabytes, for
+ * measuring how transfer time scales with payload size.
+ *
+ * <p>The content is pseudo-random, so compression on the way does not flatter the transfer, and
+ * the same for the same size, so a generated file can be reused by later runs. It is written in
+ * chunks of {@value #CHUNK_SIZE} bytes and never held in the heap as a whole. Its POSIX cksum,
+ * which the ServiceInfo exec script checks on the device, is kept in a .cksum file next to it,
+ * see {@link #cksum(Path)}. Rates are in MB/s, i.e. 10^6 bytes per second.
+ *
+ * <pre>
+ * java -cp &lt;classpath&gt; org.fidoalliance.fdo.test.common.PayloadGenerator \
+ *     &lt;file&gt; &lt;size&gt;
+ * </pre>
+ */
+public class PayloadGenerator {
+
+  static final int CHUNK_SIZE = 1 << 20;
+  private static final String CKSUM_SUFFIX = ".cksum";
+  // CRC of the POSIX cksum command: polynomial 0x04C11DB7, most significant bit first
+  private static final int[] crcTable = new int[256];
+
+  static {
+    for (int i = 0; i < crcTable.length; i++) {
+      int c = i << 24;
+      for (int bit = 0; bit < 8; bit++) {
+        c = (c & 0x80000000) != 0 ? (c << 1) ^ 0x04C11DB7 : c << 1;
+      }
+      crcTable[i] = c;
+    }
+  }
+
+  private static final Pattern SIZE = Pattern.compile("(\\d+)\\s*([kmgt]?)(i?b?)",
+      Pattern.CASE_INSENSITIVE);
+
+  /**
+   * Create a payload file, or keep it if it already has the size.
+   *
+   * @param file : the file
+   * @param size : size in bytes
+   * @return the file
+   * @throws IOException if the file cannot be written
+   */
+  public static synchronized Path generate(Path file, long size) throws IOException {
+    Path cksumFile = cksumFile(file);
+    if (Files.isRegularFile(file) && Files.size(file) == size && Files.exists(cksumFile)) {
+      TestLogger.debug("PayloadGenerator: reusing {}", file);
+      return file;
+    }
+    Files.createDirectories(file.toAbsolutePath().getParent());
+    final long start = System.nanoTime();
+    SplittableRandom random = new SplittableRandom(size);
+    ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    int crc = 0;
+    // Written next to the file and moved, so a run stopped halfway leaves no short payload
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      for (long written = 0; written < size; ) {
+        chunk.clear();
+        while (chunk.remaining() >= Long.BYTES) {
+          chunk.putLong(random.nextLong());
+        }
+        chunk.flip();
+        chunk.limit((int) Math.min(chunk.limit(), size - written));
+        crc = crc(crc, chunk.array(), chunk.limit());
+        while (chunk.hasRemaining()) {
+          written += channel.write(chunk);
+        }
+      }
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    Files.write(cksumFile, Long.toString(finish(crc, size)).getBytes(StandardCharsets.US_ASCII));
+    Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+    TestLogger.info("=====> Generated {} payload {} in {} ms ({})", format(size), file,
+        elapsed.toMillis(), rate(size, elapsed));
+    return file;
+  }
+
+  /**
+   * POSIX cksum of a file, the number printed by the cksum command. A generated payload's is
+   * read from its .cksum file; other files are read through.
+   *
+   * @param file : the file
+   * @return the checksum
+   * @throws IOException if the file cannot be read
+   */
+  public static long cksum(Path file) throws IOException {
+    Path cksumFile = cksumFile(file);
+    if (Files.exists(cksumFile)
+        && Files.getLastModifiedTime(cksumFile).compareTo(Files.getLastModifiedTime(file)) >= 0) {
+      return Long.parseLong(new String(Files.readAllBytes(cksumFile),
+          StandardCharsets.US_ASCII).trim());
+    }
+    int crc = 0;
+    long size = 0;
+    byte[] buffer = new byte[CHUNK_SIZE];
+    try (InputStream in = Files.newInputStream(file)) {
+      for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+        crc = crc(crc, buffer, n);
+        size += n;
+      }
+    }
+    return finish(crc, size);
+  }
+
+  private static int crc(int crc, byte[] data, int length) {
+    for (int i = 0; i < length; i++) {
+      crc = (crc << 8) ^ crcTable[((crc >>> 24) ^ data[i]) & 0xff];
+    }
+    return crc;
+  }
+
+  /**
+   * Feed the length, least significant byte first and without trailing zero bytes, as cksum
+   * does, and complement.
+   */
+  private static long finish(int crc, long size) {
+    for (long n = size; n != 0; n >>>= 8) {
+      crc = (crc << 8) ^ crcTable[((crc >>> 24) ^ (int) n) & 0xff];
+    }
+    return ~crc & 0xffffffffL;
+  }
+
+  private static Path cksumFile(Path file) {
+    return file.resolveSibling(file.getFileName() + CKSUM_SUFFIX);
+  }
+
+  /**
+   * Parse a size such as "2048", "64k", "256MB", "1GiB" or "1g". Units are powers of 1024.
+   *
+   * @param text : the size
+   * @return size in bytes
+   * @throws IllegalArgumentException if the text is not a size
+   */
+  public static long parseSize(String text) {
+    Matcher matcher = SIZE.matcher(text.trim());
+    if (!matcher.matches()) {
+      throw new IllegalArgumentException("Not a size: " + text);
+    }
+    long value = Long.parseLong(matcher.group(1));
+    String unit = matcher.group(2).toLowerCase(Locale.ROOT);
+    int shift = unit.isEmpty() ? 0 : "kmgt".indexOf(unit) + 1;
+    return value << (10 * shift);
+  }
+
+  /**
+   * Size in the largest binary unit it is a whole multiple of, e.g. "256MiB".
+   */
+  public static String format(long size) {
+    String[] units = {"B", "KiB", "MiB", "GiB", "TiB"};
+    int unit = 0;
+    while (unit < units.length - 1 && size >= 1024 && size % 1024 == 0) {
+      size /= 1024;
+      unit++;
+    }
+    return size + units[unit];
+  }
+
+  /**
+   * Transfer rate in MB/s.
+   *
+   * @param bytes   : bytes transferred
+   * @param elapsed : time taken
+   * @return the rate; 0 if no time passed
+   */
+  public static double megabytesPerSecond(long bytes, Duration elapsed) {
+    long nanos = elapsed.toNanos();
+    return nanos > 0 ? bytes * 1e3 / nanos : 0;
+  }
+
+  /**
+   * Transfer rate for a log message, e.g. "112.35 MB/s".
+   */
+  public static String rate(long bytes, Duration elapsed) {
+    return String.format(Locale.ROOT, "%.2f MB/s", megabytesPerSecond(bytes, elapsed));
+  }
+
+  /**
+   * Generate a payload file.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("usage: PayloadGenerator <file> <size>");
+      System.exit(2);
+    }
+    generate(Paths.get(args[0]), parseSize(args[1]));
+  }
+}
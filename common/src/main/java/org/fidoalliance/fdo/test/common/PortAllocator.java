@@ -0,0 +1,184 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hands out ranges of consecutive free TCP ports, e.g. for the host ports of a docker stack.
+ *
+ * <p>Ranges are searched upwards from -Dfdo.ports.base (default 20000). A range is handed out if
+ * no port in it is held by this JVM or locked by another, and every port in it can be bound.
+ * Each port is locked with a file lock in java.io.tmpdir/fdo-ports, held until the range is
+ * closed or the JVM exits, so concurrent test runs on one host get different ports.
+ */
+public class PortAllocator {
+
+  private static final String BASE_PROPERTY = "fdo.ports.base";
+  private static final int MAX_PORT = 65535;
+  private static final Path LOCK_DIR = Paths.get(System.getProperty("java.io.tmpdir"),
+      "fdo-ports");
+
+  private static final PortAllocator instance = new PortAllocator();
+
+  // Ports of the ranges held by this JVM
+  private final Set<Integer> held = new HashSet<>();
+
+  /**
+   * Allocator shared by all tests in the JVM.
+   */
+  public static PortAllocator getInstance() {
+    return instance;
+  }
+
+  /**
+   * Reserve a range of free ports.
+   *
+   * @param size : number of consecutive ports
+   * @return the range; close it to hand the ports back
+   * @throws IOException if no free range is left
+   */
+  public synchronized PortRange allocate(int size) throws IOException {
+    if (size < 1) {
+      throw new IllegalArgumentException("size must be at least 1");
+    }
+    Files.createDirectories(LOCK_DIR);
+    int base = Integer.getInteger(BASE_PROPERTY, 20000);
+    int first = base;
+    while (first + size - 1 <= MAX_PORT) {
+      List<FileLock> locks = new ArrayList<>();
+      int port = first;
+      while (port < first + size && !held.contains(port)) {
+        FileLock lock = tryLock(port);
+        if (lock == null) {
+          break;
+        }
+        locks.add(lock);
+        port++;
+      }
+      if (port == first + size && canBind(first, size)) {
+        for (int p = first; p < first + size; p++) {
+          held.add(p);
+        }
+        PortRange range = new PortRange(first, size, locks);
+        TestLogger.info("=====> Allocated ports {}", range);
+        return range;
+      }
+      release(locks);
+      // Go on past the port that is taken, or past the range if one of its ports is bound
+      first = port < first + size ? port + 1 : first + size;
+    }
+    throw new IOException("No range of " + size + " free ports above " + base);
+  }
+
+  private synchronized void free(int first, int size) {
+    for (int port = first; port < first + size; port++) {
+      held.remove(port);
+    }
+  }
+
+  private static FileLock tryLock(int port) throws IOException {
+    FileChannel channel = FileChannel.open(LOCK_DIR.resolve(port + ".lock"),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    try {
+      FileLock lock = channel.tryLock();
+      if (lock != null) {
+        return lock;
+      }
+    } catch (OverlappingFileLockException e) {
+      // held by a range of this JVM that is being closed
+    }
+    channel.close();
+    return null;
+  }
+
+  private static void release(List<FileLock> locks) throws IOException {
+    for (FileLock lock : locks) {
+      try {
+        lock.release();
+      } finally {
+        lock.channel().close();
+      }
+    }
+  }
+
+  private static boolean canBind(int first, int size) {
+    for (int port = first; port < first + size; port++) {
+      try (ServerSocket socket = new ServerSocket()) {
+        socket.setReuseAddress(false);
+        socket.bind(new InetSocketAddress(InetAddress.getByName("0.0.0.0"), port));
+      } catch (IOException e) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Consecutive ports reserved by {@link #allocate(int)}.
+   */
+  public class PortRange implements Closeable {
+
+    private final int first;
+    private final int size;
+    private final List<FileLock> locks;
+    private boolean closed;
+
+    private PortRange(int first, int size, List<FileLock> locks) {
+      this.first = first;
+      this.size = size;
+      this.locks = locks;
+    }
+
+    /**
+     * Port at an offset in the range.
+     *
+     * @param offset : 0 for the first port
+     * @return the port number
+     */
+    public int get(int offset) {
+      if (offset < 0 || offset >= size) {
+        throw new IndexOutOfBoundsException("offset " + offset + " in range of " + size);
+      }
+      return first + offset;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        release(locks);
+      } finally {
+        free(first, size);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return first + "-" + (first + size - 1);
+    }
+  }
+}
@@ -0,0 +1,224 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Output captured from a child process: an optional log file, the last lines in memory, and
+ * listeners called for every line.
+ *
+ * <p>The output is read by a pump thread from a shared pool, so the process never blocks on a
+ * full pipe and concurrent processes do not contend for the console.
+ */
+public class ProcessOutput {
+
+  private static final AtomicInteger pumpCount = new AtomicInteger();
+  private static final ExecutorService pumps = Executors.newCachedThreadPool(r -> {
+    Thread thread = new Thread(r, "process-pump-" + pumpCount.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Path logFile;
+  private final String[] ring;
+  private final List<Consumer<String>> listeners;
+  private final List<LineMatch> matches = new ArrayList<>();
+  private final CompletableFuture<Void> end = new CompletableFuture<>();
+  private final CompletableFuture<Long> firstLine = new CompletableFuture<>();
+  private long lineCount;
+
+  ProcessOutput(Path logFile, int ringLines, List<Consumer<String>> listeners) {
+    this.logFile = logFile;
+    this.ring = new String[Math.max(0, ringLines)];
+    this.listeners = new ArrayList<>(listeners);
+  }
+
+  /**
+   * Start reading the stream on a pump thread until it ends.
+   */
+  void pump(InputStream stream) throws IOException {
+    BufferedWriter writer = null;
+    if (logFile != null) {
+      Files.createDirectories(logFile.toAbsolutePath().getParent());
+      writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8);
+    }
+    final BufferedWriter out = writer;
+    pumps.execute(() -> {
+      try (BufferedReader reader =
+          new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          accept(line, out);
+          if (out != null && !reader.ready()) {
+            out.flush(); // keep the file current whenever the process pauses
+          }
+        }
+      } catch (IOException e) {
+        TestLogger.debug("ProcessOutput: {}", e.getMessage());
+      } finally {
+        finish(out);
+      }
+    });
+  }
+
+  private void accept(String line, BufferedWriter out) throws IOException {
+    if (lineCount == 0) {
+      firstLine.complete(System.nanoTime());
+    }
+    synchronized (this) {
+      if (ring.length > 0) {
+        ring[(int) (lineCount % ring.length)] = line;
+      }
+      lineCount++;
+      for (Iterator<LineMatch> it = matches.iterator(); it.hasNext(); ) {
+        LineMatch match = it.next();
+        if (match.future.isDone() || match.test(line)) {
+          it.remove();
+        }
+      }
+    }
+    if (out != null) {
+      out.write(line);
+      out.newLine();
+    }
+    for (Consumer<String> listener : listeners) {
+      listener.accept(line);
+    }
+  }
+
+  private void finish(BufferedWriter out) {
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException e) {
+        TestLogger.debug("ProcessOutput: cannot close {}: {}", logFile, e.getMessage());
+      }
+    }
+    synchronized (this) {
+      for (LineMatch match : matches) {
+        match.future.completeExceptionally(
+            new IllegalStateException("output ended without a line matching " + match.pattern));
+      }
+      matches.clear();
+      end.complete(null);
+    }
+  }
+
+  /**
+   * Future completed with the {@link System#nanoTime()} at which the first line was read.
+   */
+  CompletableFuture<Long> firstLine() {
+    return firstLine;
+  }
+
+  /**
+   * File receiving the output, or null if it is only kept in memory.
+   */
+  public Path getLogFile() {
+    return logFile;
+  }
+
+  /**
+   * Number of lines read so far.
+   */
+  public synchronized long getLineCount() {
+    return lineCount;
+  }
+
+  /**
+   * The most recent lines, oldest first; at most the ring buffer size.
+   */
+  public synchronized List<String> getLastLines() {
+    int n = (int) Math.min(lineCount, ring.length);
+    List<String> lines = new ArrayList<>(n);
+    for (long i = lineCount - n; i < lineCount; i++) {
+      lines.add(ring[(int) (i % ring.length)]);
+    }
+    return lines;
+  }
+
+  /**
+   * Future completed with the first line matching a regular expression. Lines still in the ring
+   * buffer are searched first, so a marker printed just before this call is not missed. The
+   * future fails if the output ends without a match.
+   *
+   * @param regex regular expression, e.g. a protocol marker
+   * @return future completed with the matching line
+   */
+  public CompletableFuture<String> lineMatching(String regex) {
+    LineMatch match = new LineMatch(regex);
+    synchronized (this) {
+      for (String line : getLastLines()) {
+        if (match.test(line)) {
+          return match.future;
+        }
+      }
+      if (end.isDone()) {
+        match.future.completeExceptionally(
+            new IllegalStateException("output ended without a line matching " + regex));
+      } else {
+        matches.add(match);
+      }
+    }
+    return match.future;
+  }
+
+  /**
+   * Wait until the output has been read to the end and the log file is closed.
+   *
+   * @param timeout how long to wait
+   * @return true if the output ended within the timeout
+   */
+  public boolean awaitEnd(Duration timeout) throws InterruptedException {
+    try {
+      end.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+      return true;
+    } catch (TimeoutException e) {
+      return false;
+    } catch (ExecutionException e) {
+      return true;
+    }
+  }
+
+  private static class LineMatch {
+
+    private final String pattern;
+    private final Pattern compiled;
+    private final CompletableFuture<String> future = new CompletableFuture<>();
+
+    LineMatch(String pattern) {
+      this.pattern = pattern;
+      this.compiled = LogScanner.compile(pattern);
+    }
+
+    boolean test(String line) {
+      if (compiled.matcher(line).find()) {
+        future.complete(line);
+        return true;
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Polls a service endpoint with exponential backoff until it answers.
+ */
+public class ReadinessProbe {
+
+  // Backoff between attempts starts small and is capped so a ready service is seen quickly.
+  static final Duration initialBackoff = Duration.of(200, ChronoUnit.MILLIS);
+  static final Duration maxBackoff = Duration.of(5, ChronoUnit.SECONDS);
+  private static final Duration connectTimeout = Duration.of(2, ChronoUnit.SECONDS);
+
+  private static final HttpClient httpClient = HttpClient.newBuilder()
+      .connectTimeout(connectTimeout)
+      .build();
+
+  private static final MetricsRegistry.Counter waitTimeouts =
+      MetricsRegistry.getInstance().waitTimeouts();
+
+  private final String name;
+  private final String host;
+  private final int port;
+  private final String path; // null for a plain TCP probe
+
+  private ReadinessProbe(String name, String host, int port, String path) {
+    this.name = name;
+    this.host = host;
+    this.port = port;
+    this.path = path;
+  }
+
+  /**
+   * Probe that is ready once an HTTP server answers on the given port and path. Any response
+   * other than 502/503 counts, so endpoints protected by digest auth are ready when they
+   * reply with 401.
+   *
+   * @param name : name used when logging and reporting time-to-ready
+   * @param host : host name of the service
+   * @param port : REST port of the service
+   * @param path : request path, e.g. "/health"
+   * @return the probe
+   */
+  public static ReadinessProbe http(String name, String host, int port, String path) {
+    return new ReadinessProbe(name, host, port, path);
+  }
+
+  /**
+   * Probe that is ready once a TCP connection to the given port is accepted.
+   *
+   * @param name : name used when logging and reporting time-to-ready
+   * @param host : host name of the service
+   * @param port : port of the service
+   * @return the probe
+   */
+  public static ReadinessProbe tcp(String name, String host, int port) {
+    return new ReadinessProbe(name, host, port, null);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Check once whether the endpoint answers.
+   *
+   * @return true if the endpoint answered
+   */
+  public boolean isReady() {
+    if (path == null) {
+      try (Socket socket = new Socket()) {
+        socket.connect(new InetSocketAddress(host, port), (int) connectTimeout.toMillis());
+        return true;
+      } catch (IOException e) {
+        return false;
+      }
+    }
+    try {
+      HttpRequest request = HttpRequest.newBuilder(URI.create("http://" + host + ":" + port + path))
+          .timeout(connectTimeout)
+          .GET()
+          .build();
+      int status = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+      return status != 502 && status != 503;
+    } catch (IOException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Poll the endpoint with exponential backoff until it answers.
+   *
+   * @param timeout the maximum time to wait
+   * @return time taken until the endpoint answered
+   * @throws TimeoutException     if the endpoint did not answer in time
+   * @throws InterruptedException when another thread interrupts (not caught)
+   */
+  public Duration await(Duration timeout) throws TimeoutException, InterruptedException {
+    long start = System.nanoTime();
+    long deadline = start + timeout.toNanos();
+    long backoff = initialBackoff.toMillis();
+    int attempts = 0;
+    while (true) {
+      attempts++;
+      if (isReady()) {
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        TestLogger.info("=====> {} ready after {} ms ({} attempts)", name, elapsed.toMillis(),
+            attempts);
+        waitEvent(start, "ready", attempts);
+        return elapsed;
+      }
+      long remaining = (deadline - System.nanoTime()) / 1_000_000;
+      if (remaining <= 0) {
+        waitEvent(start, "timeout", attempts);
+        waitTimeouts.inc("probe");
+        throw new TimeoutException(name + " did not answer on port " + port + " within "
+            + timeout.toMillis() + " ms");
+      }
+      Thread.sleep(Math.min(backoff, remaining));
+      backoff = nextBackoff(backoff);
+    }
+  }
+
+  /**
+   * Backoff after the given one: doubled, up to the cap.
+   */
+  static long nextBackoff(long backoffMillis) {
+    return Math.min(backoffMillis * 2, maxBackoff.toMillis());
+  }
+
+  private void waitEvent(long start, String outcome, int attempts) {
+    EventStream.getInstance().event(EventStream.WAIT).since(start).field("probe", name)
+        .field("outcome", outcome).field("attempts", attempts).emit();
+  }
+
+  @Override
+  public String toString() {
+    return name + (path == null ? " tcp://" : " http://") + host + ":" + port
+        + (path == null ? "" : path);
+  }
+}
@@ -0,0 +1,296 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a {@link LoadScenario}: every device starts when it is due, however many earlier devices
+ * are still onboarding, with the {@link DeviceFleet} of its mix entry.
+ *
+ * <p>The latency of a device is taken from the time it was due to start, not from when it
+ * started, so time spent waiting for a thread or for the dispatcher counts against the server
+ * like any other queueing; it is recorded as {@link LatencyRecorder#PHASE_ONBOARDING}. The DI and
+ * TO phases still record how long each step took once started, so the difference between the
+ * two is the queueing. Device directories are prepared before the first arrival, so copying them
+ * does not delay the schedule.
+ */
+public class ScenarioRunner {
+
+  private final LoadScenario scenario;
+  private final Map<LoadScenario.Mix, DeviceFleet> fleets = new HashMap<>();
+  private int maxInFlight;
+
+  /**
+   * Parameterized constructor for ScenarioRunner.
+   *
+   * @param scenario : the load to run
+   */
+  public ScenarioRunner(LoadScenario scenario) {
+    this.scenario = scenario;
+  }
+
+  /**
+   * Set the fleet that onboards the devices of a mix entry. The fleet's concurrency is not used:
+   * its devices start when they are due.
+   *
+   * @param mix   : an entry of {@link LoadScenario#getMix()}
+   * @param fleet : fleet for the device type, checking for ServiceInfo if the entry takes it
+   */
+  public ScenarioRunner setFleet(LoadScenario.Mix mix, DeviceFleet fleet) {
+    fleets.put(mix, fleet);
+    return this;
+  }
+
+  /**
+   * Run at most this many devices at the same time; 0, the default, runs every device when it
+   * is due. Devices due while the limit is reached wait, and the wait counts towards their
+   * latency.
+   */
+  public ScenarioRunner setMaxInFlight(int maxInFlight) {
+    this.maxInFlight = Math.max(0, maxInFlight);
+    return this;
+  }
+
+  /**
+   * Prepare the devices, start each when it is due and wait for all to finish.
+   *
+   * @return per-device outcomes
+   * @throws IOException          if a device directory could not be prepared
+   * @throws InterruptedException when another thread interrupts (not caught)
+   */
+  public Result run() throws IOException, InterruptedException {
+    for (LoadScenario.Mix mix : scenario.getMix()) {
+      if (!fleets.containsKey(mix)) {
+        throw new IllegalStateException("No fleet for mix entry " + mix);
+      }
+    }
+    List<LoadScenario.Arrival> arrivals = scenario.arrivals();
+    TestLogger.info("=====> Scenario: {} devices over {} s ({})", arrivals.size(),
+        scenario.getDuration().getSeconds(), scenario);
+    List<Path> workDirs = new ArrayList<>();
+    for (LoadScenario.Arrival arrival : arrivals) {
+      workDirs.add(fleets.get(arrival.getMix()).prepare(arrival.getIndex()));
+    }
+
+    AtomicInteger threads = new AtomicInteger();
+    ExecutorService executor = maxInFlight > 0
+        ? Executors.newFixedThreadPool(maxInFlight, r -> thread(r, threads))
+        : Executors.newCachedThreadPool(r -> thread(r, threads));
+    ConcurrentLinkedQueue<Outcome> outcomes = new ConcurrentLinkedQueue<>();
+    long start = System.nanoTime();
+    try {
+      for (LoadScenario.Arrival arrival : arrivals) {
+        long due = start + arrival.getOffset().toNanos();
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+          TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        Path workDir = workDirs.get(arrival.getIndex());
+        executor.execute(() -> outcomes.add(onboard(arrival, workDir, due)));
+      }
+      executor.shutdown();
+      while (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+        TestLogger.info("=====> Scenario: {}/{} devices done", outcomes.size(),
+            arrivals.size());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    List<Outcome> sorted = new ArrayList<>(outcomes);
+    sorted.sort(Comparator.comparingInt(o -> o.arrival.getIndex()));
+    Result result = new Result(scenario, sorted, Duration.ofNanos(System.nanoTime() - start));
+    TestLogger.info("=====> Scenario: {}", result);
+    return result;
+  }
+
+  private Outcome onboard(LoadScenario.Arrival arrival, Path workDir, long due) {
+    long started = System.nanoTime();
+    DeviceFleet.DeviceResult device;
+    try {
+      device = fleets.get(arrival.getMix()).onboard(arrival.getIndex(), workDir);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      device = failed(arrival, workDir, started);
+    } catch (Exception e) {
+      TestLogger.error("=====> Scenario: device-{} failed: {}", arrival.getIndex(), e.toString());
+      device = failed(arrival, workDir, started);
+    }
+    long latency = System.nanoTime() - due;
+    LatencyRecorder.getInstance().record(LatencyRecorder.PHASE_ONBOARDING,
+        Duration.ofNanos(latency));
+    return new Outcome(arrival, device, started - due, latency);
+  }
+
+  private static DeviceFleet.DeviceResult failed(LoadScenario.Arrival arrival, Path workDir,
+      long started) {
+    return new DeviceFleet.DeviceResult(arrival.getIndex(), workDir, -1, -1, false,
+        Duration.ofNanos(System.nanoTime() - started), null);
+  }
+
+  private static Thread thread(Runnable r, AtomicInteger threads) {
+    Thread thread = new Thread(r, "scenario-" + threads.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /**
+   * Outcome of one device of a scenario.
+   */
+  public static class Outcome {
+
+    private final LoadScenario.Arrival arrival;
+    private final DeviceFleet.DeviceResult device;
+    private final long startLagNanos;
+    private final long latencyNanos;
+
+    Outcome(LoadScenario.Arrival arrival, DeviceFleet.DeviceResult device, long startLagNanos,
+        long latencyNanos) {
+      this.arrival = arrival;
+      this.device = device;
+      this.startLagNanos = startLagNanos;
+      this.latencyNanos = latencyNanos;
+    }
+
+    public LoadScenario.Arrival getArrival() {
+      return arrival;
+    }
+
+    public DeviceFleet.DeviceResult getDevice() {
+      return device;
+    }
+
+    /**
+     * Time from when the device was due to when it started.
+     */
+    public Duration getStartLag() {
+      return Duration.ofNanos(startLagNanos);
+    }
+
+    /**
+     * Time from when the device was due to the end of its TO.
+     */
+    public Duration getLatency() {
+      return Duration.ofNanos(latencyNanos);
+    }
+  }
+
+  /**
+   * Outcome of a scenario.
+   */
+  public static class Result {
+
+    private final LoadScenario scenario;
+    private final List<Outcome> outcomes;
+    private final Duration elapsed;
+
+    Result(LoadScenario scenario, List<Outcome> outcomes, Duration elapsed) {
+      this.scenario = scenario;
+      this.outcomes = Collections.unmodifiableList(outcomes);
+      this.elapsed = elapsed;
+    }
+
+    public List<Outcome> getOutcomes() {
+      return outcomes;
+    }
+
+    public Duration getElapsed() {
+      return elapsed;
+    }
+
+    public long getOnboardedCount() {
+      return outcomes.stream().filter(o -> o.device.isOnboarded()).count();
+    }
+
+    /**
+     * Latest a device started after it was due; more than a few milliseconds means the host
+     * could not start devices at the scenario's rate.
+     */
+    public Duration getMaxStartLag() {
+      return Duration.ofNanos(outcomes.stream().mapToLong(o -> o.startLagNanos).max()
+          .orElse(0));
+    }
+
+    /**
+     * Write one line per device to a CSV file.
+     *
+     * @param file destination file
+     * @throws IOException if the file could not be written
+     */
+    public void writeCsv(Path file) throws IOException {
+      List<String> lines = new ArrayList<>();
+      lines.add("device,deviceType,sviEnabled,dueMs,startLagMs,latencyMs,onboarded,diExitValue,"
+          + "toExitValue");
+      for (Outcome o : outcomes) {
+        DeviceFleet.DeviceResult d = o.device;
+        lines.add("device-" + o.arrival.getIndex() + "," + o.arrival.getMix().getDeviceType()
+            + "," + o.arrival.getMix().isSviEnabled() + "," + o.arrival.getOffset().toMillis()
+            + "," + TimeUnit.NANOSECONDS.toMillis(o.startLagNanos) + ","
+            + TimeUnit.NANOSECONDS.toMillis(o.latencyNanos) + "," + d.isOnboarded() + ","
+            + d.getDiExitValue() + "," + d.getToExitValue());
+      }
+      Files.write(file, lines);
+    }
+
+    /**
+     * Write arrivals, completions, failures and devices in flight per second of the scenario to
+     * a CSV file. Completions falling behind arrivals while devices in flight grow is the server
+     * queueing.
+     *
+     * @param file destination file
+     * @throws IOException if the file could not be written
+     */
+    public void writeTimeline(Path file) throws IOException {
+      int seconds = (int) Math.max(1, (elapsed.toMillis() + 999) / 1000);
+      long[] arrived = new long[seconds + 1];
+      long[] completed = new long[seconds + 1];
+      long[] failed = new long[seconds + 1];
+      for (Outcome o : outcomes) {
+        long due = o.arrival.getOffset().toNanos();
+        arrived[second(due, seconds)]++;
+        int end = second(due + o.latencyNanos, seconds);
+        if (o.device.isOnboarded()) {
+          completed[end]++;
+        } else {
+          failed[end]++;
+        }
+      }
+      List<String> lines = new ArrayList<>();
+      lines.add("second,arrivals,completions,failures,inFlight");
+      long inFlight = 0;
+      for (int s = 0; s <= seconds; s++) {
+        inFlight += arrived[s] - completed[s] - failed[s];
+        lines.add(s + "," + arrived[s] + "," + completed[s] + "," + failed[s] + "," + inFlight);
+      }
+      Files.write(file, lines);
+    }
+
+    private static int second(long nanos, int seconds) {
+      return (int) Math.min(seconds, TimeUnit.NANOSECONDS.toSeconds(nanos));
+    }
+
+    @Override
+    public String toString() {
+      double rate = outcomes.size() / Math.max(scenario.getDuration().toNanos() / 1e9, 1e-9);
+      return String.format(Locale.ROOT, "%d/%d devices onboarded in %d ms at %.2f arrivals/s,"
+          + " start lag up to %d ms", getOnboardedCount(), outcomes.size(), elapsed.toMillis(),
+          rate, getMaxStartLag().toMillis());
+    }
+  }
+}
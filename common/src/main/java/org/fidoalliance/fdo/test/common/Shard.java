@@ -0,0 +1,94 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One of several workers splitting the rows of the CSV data files, e.g. one per CI agent.
+ *
+ * <p>-Dfdo.shard.count=N splits the rows into N shards and -Dfdo.shard.index=I (0 to N-1) picks
+ * the shard this JVM runs. A row belongs to the shard given by a hash of its fields, so the
+ * split does not depend on row order, JVM or host, and adding a row does not move the others.
+ * Identical rows always land in the same shard.
+ */
+public class Shard {
+
+  private static final String INDEX_PROPERTY = "fdo.shard.index";
+  private static final String COUNT_PROPERTY = "fdo.shard.count";
+  // FNV-1a, 64 bit
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final byte FIELD_SEPARATOR = 0x1f;
+
+  private final int index;
+  private final int count;
+
+  /**
+   * Parameterized constructor for Shard.
+   *
+   * @param index : shard to run, from 0 to count - 1
+   * @param count : number of shards
+   */
+  public Shard(int index, int count) {
+    if (count < 1 || index < 0 || index >= count) {
+      throw new IllegalArgumentException("invalid shard " + index + " of " + count);
+    }
+    this.index = index;
+    this.count = count;
+  }
+
+  /**
+   * Shard of this JVM, from -Dfdo.shard.index and -Dfdo.shard.count; the whole matrix if they
+   * are not set.
+   */
+  public static Shard current() {
+    return new Shard(Integer.getInteger(INDEX_PROPERTY, 0), Integer.getInteger(COUNT_PROPERTY, 1));
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public boolean isSharded() {
+    return count > 1;
+  }
+
+  /**
+   * Name of the shard for directory names, e.g. "shard-2-of-4".
+   */
+  public String getName() {
+    return "shard-" + index + "-of-" + count;
+  }
+
+  /**
+   * Whether a row belongs to this shard.
+   */
+  public boolean contains(String[] row) {
+    return count == 1 || Long.remainderUnsigned(rowHash(row), count) == index;
+  }
+
+  /**
+   * Hash of the fields of a row, the same on every JVM.
+   */
+  static long rowHash(String[] row) {
+    long hash = FNV_OFFSET;
+    for (String field : row) {
+      for (byte b : field.getBytes(StandardCharsets.UTF_8)) {
+        hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+      }
+      hash = (hash ^ FIELD_SEPARATOR) * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return index + "/" + count;
+  }
+}
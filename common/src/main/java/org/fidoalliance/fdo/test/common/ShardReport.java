@@ -0,0 +1,205 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+/**
+ * Outcome of every data row run by a JVM, and the tool that merges the reports of several
+ * shards into one, see {@link Shard}.
+ *
+ * <p>At the end of the suite each JVM writes results.csv (one line per row: shard, name, status,
+ * duration and parameters) next to its latency files. Merging reads results.csv and
+ * latency.hist from each shard's log directory and writes the combined results.csv,
+ * latency.csv and latency.json, with the latencies of all shards merged bucket by bucket, so
+ * the merged percentiles are those of the whole matrix rather than an average of the shards.
+ *
+ * <pre>
+ * java -cp &lt;classpath&gt; org.fidoalliance.fdo.test.common.ShardReport \
+ *     &lt;out-dir&gt; &lt;dir&gt;...
+ * </pre>
+ *
+ * <p>Each dir is a shard log directory, or a directory holding shard-I-of-N subdirectories.
+ */
+public class ShardReport {
+
+  public static final String RESULTS_FILE = "results.csv";
+  private static final String HEADER = "shard,name,status,durationMs,parameters";
+  private static final String SHARD_PREFIX = "shard-";
+
+  private static final ShardReport instance = new ShardReport();
+
+  private final Queue<String> lines = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Report of the data rows run by this JVM.
+   */
+  public static ShardReport getInstance() {
+    return instance;
+  }
+
+  /**
+   * Record the outcome of a data row.
+   *
+   * @param name       : name of the row, e.g. its testName column
+   * @param parameters : all fields of the row
+   * @param status     : e.g. PASS, FAIL or SKIP
+   * @param duration   : how long the row ran
+   */
+  public void record(String name, List<Object> parameters, String status, Duration duration) {
+    String fields = parameters.stream().map(String::valueOf).collect(Collectors.joining(";"));
+    lines.add(String.join(",", quote(Shard.current().toString()), quote(name), quote(status),
+        Long.toString(duration.toMillis()), quote(fields)));
+  }
+
+  /**
+   * Write results.csv to the given directory.
+   *
+   * @param directory : output directory, usually the log directory of the shard
+   * @throws IOException if the file could not be written
+   */
+  public void write(Path directory) throws IOException {
+    List<String> csv = new ArrayList<>();
+    csv.add(HEADER);
+    csv.addAll(lines);
+    Files.createDirectories(directory);
+    Files.write(directory.resolve(RESULTS_FILE), csv);
+    TestLogger.info("=====> {} row results written to {}", lines.size(),
+        directory.resolve(RESULTS_FILE));
+  }
+
+  /**
+   * Merge the reports of several shards.
+   *
+   * @param output : directory for the merged report
+   * @param inputs : shard log directories, or directories holding shard-I-of-N subdirectories
+   * @return number of rows in the merged results
+   * @throws IOException if a report could not be read or written
+   */
+  public static int merge(Path output, List<Path> inputs) throws IOException {
+    List<Path> shardDirs = new ArrayList<>();
+    for (Path input : inputs) {
+      shardDirs.addAll(shardDirectories(input));
+    }
+    if (shardDirs.isEmpty()) {
+      throw new IOException("No shard reports found in " + inputs);
+    }
+
+    List<String> results = new ArrayList<>();
+    Map<String, Integer> statusCounts = new TreeMap<>();
+    Map<String, LatencyHistogram> latencies = new TreeMap<>();
+    TreeSet<String> shards = new TreeSet<>();
+    for (Path dir : shardDirs) {
+      Path file = dir.resolve(RESULTS_FILE);
+      if (Files.exists(file)) {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+            CsvReader csv = new CsvReader(reader)) {
+          if (csv.hasNext()) {
+            csv.next(); // header
+          }
+          while (csv.hasNext()) {
+            String[] row = csv.next();
+            if (row.length < 5) {
+              continue;
+            }
+            shards.add(row[0]);
+            statusCounts.merge(row[2], 1, Integer::sum);
+            results.add(Arrays.stream(row).map(ShardReport::quote)
+                .collect(Collectors.joining(",")));
+          }
+        }
+      }
+      LatencyRecorder.readHistograms(dir).forEach((phase, h) ->
+          latencies.computeIfAbsent(phase, p -> new LatencyHistogram()).add(h));
+    }
+
+    Collections.sort(results);
+    List<String> csv = new ArrayList<>();
+    csv.add(HEADER);
+    csv.addAll(results);
+    Files.createDirectories(output);
+    Files.write(output.resolve(RESULTS_FILE), csv);
+    LatencyRecorder.writeSummary(latencies, output);
+    TestLogger.info("=====> Merged {} rows from shards {}: {}", results.size(), shards,
+        statusCounts);
+    warnIfIncomplete(shards);
+    return results.size();
+  }
+
+  /**
+   * Warn if the merged shards are not all shards of one split.
+   */
+  private static void warnIfIncomplete(TreeSet<String> shards) {
+    TreeSet<Integer> counts = new TreeSet<>();
+    TreeSet<Integer> indexes = new TreeSet<>();
+    for (String shard : shards) {
+      String[] parts = shard.split("/");
+      if (parts.length == 2) {
+        indexes.add(Integer.parseInt(parts[0]));
+        counts.add(Integer.parseInt(parts[1]));
+      }
+    }
+    if (counts.size() > 1) {
+      TestLogger.warn("=====> Merged shards of different splits: {}", shards);
+    } else if (counts.size() == 1 && indexes.size() < counts.first()) {
+      TestLogger.warn("=====> Only {} of {} shards have results", indexes.size(), counts.first());
+    }
+  }
+
+  private static List<Path> shardDirectories(Path input) throws IOException {
+    List<Path> dirs = new ArrayList<>();
+    if (Files.isDirectory(input)) {
+      try (DirectoryStream<Path> children = Files.newDirectoryStream(input,
+          child -> Files.isDirectory(child)
+              && child.getFileName().toString().startsWith(SHARD_PREFIX))) {
+        children.forEach(dirs::add);
+      }
+    }
+    if (dirs.isEmpty() && Files.exists(input.resolve(RESULTS_FILE))) {
+      dirs.add(input);
+    }
+    Collections.sort(dirs);
+    return dirs;
+  }
+
+  private static String quote(String field) {
+    if (field.contains(",") || field.contains("\"") || field.contains("\n")) {
+      return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+    return field;
+  }
+
+  /**
+   * Merge shard reports from the command line: the output directory, then the shard
+   * directories.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("usage: ShardReport <out-dir> <shard-dir>...");
+      System.exit(2);
+    }
+    List<Path> inputs = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      inputs.add(Paths.get(args[i]));
+    }
+    merge(Paths.get(args[0]), inputs);
+  }
+}
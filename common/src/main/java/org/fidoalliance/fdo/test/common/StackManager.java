@@ -0,0 +1,462 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Starts docker compose stacks when a test first needs them and stops them when the last user
+ * is done, so test classes and modules share one running stack instead of each bringing it up
+ * and down.
+ *
+ * <p>Users are counted per stack within the JVM, and each JVM holding a stack leaves a holder
+ * file in the stack directory; a stack is only stopped when no other live JVM holds it. Stacks
+ * with a compose project name are counted apart from other projects of the same directory.
+ * Each stack is started, waited for and stopped under a lock of its own, so a stack that takes
+ * long to become ready does not hold up other stacks. With
+ * -Dfdo.docker.keep=true stacks are left running after the last user, and the next run reuses
+ * them if they are ready and their inputs are unchanged.
+ *
+ * <p>Images are only rebuilt when the files in the stack directory have changed since the last
+ * successful start; -Dfdo.docker.build=always or never overrides this. Stacks are started
+ * detached and every compose command is waited for and checked, with its output in the log
+ * directory. The docker executable is taken from -Dfdo.docker, e.g. a stub script for testing.
+ */
+public class StackManager {
+
+  private static final String DOCKER_PROPERTY = "fdo.docker";
+  private static final String BUILD_PROPERTY = "fdo.docker.build";
+  private static final String KEEP_PROPERTY = "fdo.docker.keep";
+  private static final String BUILD_ALWAYS = "always";
+  private static final String BUILD_NEVER = "never";
+  // State kept in each stack directory; hidden, so it is not part of the image inputs
+  private static final String STATE_DIR = ".fdo-stack";
+  private static final String HASH_FILE = "inputs.sha256";
+  private static final String LOCK_FILE = "lock";
+  private static final String HOLDERS_DIR = "holders";
+  private static final String OVERRIDE_SUFFIX = "-override.yml";
+  // Compose file names in the order docker compose looks for them
+  private static final List<String> COMPOSE_FILES = Arrays.asList("compose.yaml", "compose.yml",
+      "docker-compose.yaml", "docker-compose.yml");
+  private static final Duration COMPOSE_TIMEOUT = Duration.ofMinutes(15);
+
+  private static final StackManager instance = new StackManager();
+
+  // Users of each stack in this JVM, by stack directory and compose project
+  private final Map<String, Integer> references = new HashMap<>();
+  // Held while a stack is started and waited for, or stopped; by the same key
+  private final Map<String, Object> stackLocks = new ConcurrentHashMap<>();
+
+  /**
+   * Manager shared by all tests in the JVM.
+   */
+  public static StackManager getInstance() {
+    return instance;
+  }
+
+  /**
+   * Start the stacks one after the other unless they are already running, and wait for each to
+   * be ready before the next is started. The stacks must be listed in dependency order, e.g. db
+   * before aio. A stack that does not become ready is left running for inspection.
+   *
+   * @param stacks  : the stacks in dependency order
+   * @param logDir  : directory for the compose logs; null to keep them in the stack directories
+   * @param timeout : overall time allowed for all stacks to become ready
+   * @return lease to close when the stacks are no longer needed
+   * @throws IOException          if a compose command fails
+   * @throws TimeoutException     if a stack did not become ready in time
+   * @throws InterruptedException when another thread interrupts (not caught)
+   */
+  public Lease acquire(List<DockerStack> stacks, Path logDir, Duration timeout)
+      throws IOException, TimeoutException, InterruptedException {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    List<DockerStack> held = new ArrayList<>();
+    try {
+      for (DockerStack stack : stacks) {
+        acquireStack(stack, logDir, Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+        held.add(stack);
+      }
+    } catch (IOException | TimeoutException | InterruptedException | RuntimeException e) {
+      Collections.reverse(held);
+      held.forEach(stack -> release(stack, logDir));
+      throw e;
+    }
+    return new Lease(held, logDir);
+  }
+
+  /**
+   * Number of users of a stack in this JVM.
+   */
+  public synchronized int getReferences(DockerStack stack) {
+    return references.getOrDefault(key(stack), 0);
+  }
+
+  private void acquireStack(DockerStack stack, Path logDir, Duration timeout)
+      throws IOException, TimeoutException, InterruptedException {
+    Path dir = directory(stack);
+    String key = key(stack);
+    // Users of the same stack wait here until it is ready; other stacks are not held up
+    synchronized (lock(key)) {
+      if (getReferences(stack) == 0) {
+        long start = System.nanoTime();
+        try (State state = State.lock(dir, stack.getProject())) {
+          if (state.otherHolders() > 0) {
+            TestLogger.info("=====> {} stack is already held by another test run",
+                stack.getName());
+          } else {
+            start(stack, dir, logDir);
+          }
+          for (ReadinessProbe probe : stack.getProbes()) {
+            probe.await(Duration.ofNanos(
+                Math.max(0, start + timeout.toNanos() - System.nanoTime())));
+            TestLogger.info("=====> Time to ready: {} {} ms", probe.getName(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+          }
+          state.hold();
+        }
+      }
+      synchronized (this) {
+        references.merge(key, 1, Integer::sum);
+      }
+    }
+  }
+
+  private Object lock(String key) {
+    return stackLocks.computeIfAbsent(key, k -> new Object());
+  }
+
+  private void start(DockerStack stack, Path dir, Path logDir)
+      throws IOException, InterruptedException {
+    String inputs = inputHash(dir);
+    // Each compose project builds images of its own, so each keeps its own hash
+    Path hashFile = dir.resolve(STATE_DIR).resolve(stack.getProject() == null ? HASH_FILE
+        : stack.getProject() + "-" + HASH_FILE);
+    boolean unchanged = Files.isRegularFile(hashFile)
+        && inputs.equals(new String(Files.readAllBytes(hashFile), StandardCharsets.UTF_8).trim());
+    if (unchanged && stack.getProbes().stream().allMatch(ReadinessProbe::isReady)) {
+      TestLogger.info("=====> Reusing running {} stack", stack.getName());
+      return;
+    }
+
+    String buildMode = System.getProperty(BUILD_PROPERTY, "auto");
+    boolean build = buildMode.equals(BUILD_ALWAYS)
+        || (!unchanged && !buildMode.equals(BUILD_NEVER));
+    TestLogger.info("=====> Starting {} stack{}", stack.getName(),
+        build ? ", rebuilding images" : "");
+    List<String> up = new ArrayList<>(Arrays.asList("up", "--detach"));
+    if (build) {
+      up.add("--build");
+    }
+    compose(stack, dir, up, logFile(dir, logDir, stack.getName() + "-compose-up.log"));
+    Files.write(hashFile, inputs.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void release(DockerStack stack, Path logDir) {
+    String key = key(stack);
+    synchronized (lock(key)) {
+      synchronized (this) {
+        int count = references.getOrDefault(key, 0) - 1;
+        if (count > 0) {
+          references.put(key, count);
+          return;
+        }
+        references.remove(key);
+      }
+      stop(stack, logDir);
+    }
+  }
+
+  /**
+   * Stop a stack this JVM no longer uses, unless another test run holds it or it is kept.
+   */
+  private void stop(DockerStack stack, Path logDir) {
+    Path dir = directory(stack);
+    try (State state = State.lock(dir, stack.getProject())) {
+      state.release();
+      if (state.otherHolders() > 0) {
+        TestLogger.info("=====> Leaving {} stack running for another test run", stack.getName());
+      } else if (Boolean.getBoolean(KEEP_PROPERTY)) {
+        TestLogger.info("=====> Leaving {} stack running ({}=true)", stack.getName(),
+            KEEP_PROPERTY);
+      } else {
+        TestLogger.info("=====> Stopping {} stack", stack.getName());
+        compose(stack, dir, Arrays.asList("logs", "--no-color"),
+            logFile(dir, logDir, stack.getName() + "-containers.log"));
+        compose(stack, dir, Collections.singletonList("down"),
+            logFile(dir, logDir, stack.getName() + "-compose-down.log"));
+      }
+    } catch (IOException e) {
+      TestLogger.error("=====> Cannot stop {} stack: {}", stack.getName(), e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Run a docker compose command in the stack directory, under the project and with the compose
+   * override of the stack, and wait for it to succeed.
+   */
+  private static void compose(DockerStack stack, Path dir, List<String> args, Path logFile)
+      throws IOException, InterruptedException {
+    List<String> cmd = new ArrayList<>(Arrays.asList(docker(), "compose"));
+    if (stack.getProject() != null) {
+      cmd.addAll(Arrays.asList("--project-name", stack.getProject()));
+    }
+    if (stack.getComposeOverride() != null) {
+      cmd.addAll(Arrays.asList("-f", composeFile(dir), "-f", writeOverride(stack, dir)));
+    }
+    cmd.addAll(args);
+    TestProcess process = new TestProcess(dir, cmd).captureOutput(logFile);
+    try (TestProcess.Handle handle = process.start()) {
+      if (!handle.waitFor(COMPOSE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+        throw new IOException("docker compose " + String.join(" ", args) + " for "
+            + stack.getName() + " did not finish in " + COMPOSE_TIMEOUT + "; see " + logFile);
+      }
+      handle.getOutput().awaitEnd(COMPOSE_TIMEOUT);
+      if (handle.exitValue() != 0) {
+        List<String> lines = handle.getOutput().getLastLines();
+        throw new IOException("docker compose " + String.join(" ", args) + " for "
+            + stack.getName() + " failed with exit value " + handle.exitValue() + ": "
+            + String.join(System.lineSeparator(),
+                lines.subList(Math.max(0, lines.size() - 20), lines.size())));
+      }
+    }
+  }
+
+  /**
+   * Name of the compose file of a stack directory, as docker compose looks for it.
+   */
+  private static String composeFile(Path dir) {
+    for (String name : COMPOSE_FILES) {
+      if (Files.isRegularFile(dir.resolve(name))) {
+        return name;
+      }
+    }
+    return "docker-compose.yml";
+  }
+
+  /**
+   * Write the compose override of a stack to the state directory, where it is not part of the
+   * image inputs, and return its path relative to the stack directory.
+   */
+  private static String writeOverride(DockerStack stack, Path dir) throws IOException {
+    String name = (stack.getProject() != null ? stack.getProject() : stack.getName())
+        + OVERRIDE_SUFFIX;
+    Files.createDirectories(dir.resolve(STATE_DIR));
+    Files.write(dir.resolve(STATE_DIR).resolve(name),
+        stack.getComposeOverride().getBytes(StandardCharsets.UTF_8));
+    return STATE_DIR + "/" + name;
+  }
+
+  /**
+   * The docker executable; a docker found on PATH takes precedence over /usr/bin.
+   */
+  private static String docker() {
+    String docker = System.getProperty(DOCKER_PROPERTY);
+    if (docker != null) {
+      return docker;
+    }
+    String path = System.getenv("PATH");
+    if (path != null) {
+      for (String entry : path.split(File.pathSeparator)) {
+        if (!entry.isEmpty() && Files.isExecutable(Paths.get(entry, "docker"))) {
+          return "docker";
+        }
+      }
+    }
+    return Files.isExecutable(Paths.get("/usr/bin/docker")) ? "/usr/bin/docker" : "docker";
+  }
+
+  private static Path directory(DockerStack stack) {
+    return stack.getDirectory().toAbsolutePath().normalize();
+  }
+
+  private static String key(DockerStack stack) {
+    return directory(stack) + (stack.getProject() != null ? "#" + stack.getProject() : "");
+  }
+
+  private static Path logFile(Path dir, Path logDir, String name) {
+    return (logDir != null ? logDir : dir.resolve(STATE_DIR)).resolve(name);
+  }
+
+  /**
+   * Hash of the name, size and modification time of every file in the stack directory, which is
+   * the build context of its images. Hidden files and directories are left out.
+   */
+  static String inputHash(Path dir) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(dir)) {
+      files = walk
+          .filter(p -> dir.relativize(p).toString().isEmpty() || !isHidden(dir.relativize(p)))
+          .filter(Files::isRegularFile)
+          .sorted()
+          .collect(Collectors.toList());
+    }
+    for (Path file : files) {
+      BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+      String entry = dir.relativize(file) + "|" + attrs.size() + "|"
+          + attrs.lastModifiedTime().toMillis() + "\n";
+      digest.update(entry.getBytes(StandardCharsets.UTF_8));
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  private static boolean isHidden(Path relative) {
+    for (Path name : relative) {
+      if (name.toString().startsWith(".")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Holder files of a stack, locked against other JVMs while they are read or changed.
+   */
+  private static class State implements Closeable {
+
+    private final Path holders;
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private State(Path holders, FileChannel channel, FileLock lock) {
+      this.holders = holders;
+      this.channel = channel;
+      this.lock = lock;
+    }
+
+    static State lock(Path dir, String project) throws IOException {
+      Path stateDir = dir.resolve(STATE_DIR);
+      // Holders of a project stack are kept apart from those of the default one
+      Path holders = Files.createDirectories(project != null
+          ? stateDir.resolve(HOLDERS_DIR).resolve(project) : stateDir.resolve(HOLDERS_DIR));
+      // A lock file per project, so projects of one directory start and stop independently
+      FileChannel channel = FileChannel.open(stateDir.resolve(project != null
+          ? project + "-" + LOCK_FILE : LOCK_FILE),
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      try {
+        return new State(holders, channel, channel.lock());
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    void hold() throws IOException {
+      Path holder = holders.resolve(Long.toString(ProcessHandle.current().pid()));
+      if (!Files.exists(holder)) {
+        Files.createFile(holder);
+      }
+    }
+
+    void release() throws IOException {
+      Files.deleteIfExists(holders.resolve(Long.toString(ProcessHandle.current().pid())));
+    }
+
+    /**
+     * Number of other live JVMs holding the stack; files left by JVMs that died are removed.
+     */
+    int otherHolders() throws IOException {
+      long self = ProcessHandle.current().pid();
+      int count = 0;
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(holders)) {
+        for (Path file : files) {
+          long pid;
+          try {
+            pid = Long.parseLong(file.getFileName().toString());
+          } catch (NumberFormatException e) {
+            continue;
+          }
+          if (pid == self) {
+            continue;
+          }
+          if (ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)) {
+            count++;
+          } else {
+            Files.deleteIfExists(file);
+          }
+        }
+      }
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        lock.release();
+      } finally {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Stacks acquired together; closing the lease releases them in reverse order.
+   */
+  public class Lease implements Closeable {
+
+    private final List<DockerStack> stacks;
+    private final Path logDir;
+    private boolean closed;
+
+    private Lease(List<DockerStack> stacks, Path logDir) {
+      this.stacks = new ArrayList<>(stacks);
+      Collections.reverse(this.stacks);
+      this.logDir = logDir;
+    }
+
+    /**
+     * Names of the stacks held by this lease.
+     */
+    public List<String> getStackNames() {
+      return stacks.stream().map(DockerStack::getName).collect(Collectors.toList());
+    }
+
+    @Override
+    public void close() {
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+      }
+      stacks.forEach(stack -> release(stack, logDir));
+    }
+  }
+}
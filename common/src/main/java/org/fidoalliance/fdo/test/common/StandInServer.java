@@ -0,0 +1,329 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-JVM stand-in for the REST management API of the FDO manufacturer, owner and rendezvous
+ * servers, for running and timing the harness without docker.
+ *
+ * <p>It answers the calls of {@link FdoRestClient}: rvinfo and owner redirect updates, resource
+ * and ServiceInfo uploads, voucher fetch and upload, and owner state. Uploads are kept in memory.
+ * A voucher fetched for a serial is made of bytes derived from the serial; uploading it returns
+ * a GUID derived from the voucher, and the owner state of that GUID reports TO0 complete once
+ * the TO0 delay has passed. Every request is delayed by the configured latency plus a random
+ * jitter, so the harness can be measured against a server of known speed. Credentials are not
+ * checked.
+ *
+ * <p>Requests are handled on a cached pool of daemon threads, so a slow request does not hold
+ * up the others. It can also be run on its own:
+ *
+ * <pre>
+ * java -cp &lt;classpath&gt; org.fidoalliance.fdo.test.common.StandInServer \
+ *     [port] [latencyMs] [to0DelayMs]
+ * </pre>
+ */
+public class StandInServer implements AutoCloseable {
+
+  private static final String API = "/api/v1";
+  private static final String HEALTH = "/health";
+  private static final int VOUCHER_SIZE = 1024;
+
+  private final Map<String, Duration> pathLatencies = new ConcurrentHashMap<>();
+  private final Map<String, byte[]> resources = new ConcurrentHashMap<>();
+  private final Map<String, Instant> to0Complete = new ConcurrentHashMap<>();
+  private final List<String> deviceSvi = new CopyOnWriteArrayList<>();
+  private final AtomicLong requests = new AtomicLong();
+  private volatile String rvInfo;
+  private volatile String ownerRedirect;
+  private volatile String svi;
+  private Duration latency = Duration.ZERO;
+  private Duration jitter = Duration.ZERO;
+  private Duration to0Delay = Duration.ZERO;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  /**
+   * Delay every response by this long.
+   */
+  public StandInServer setLatency(Duration latency) {
+    this.latency = latency;
+    return this;
+  }
+
+  /**
+   * Delay the responses to paths starting with a prefix by this long instead of the default
+   * latency, e.g. "/api/v1/owner/vouchers" to model a slow voucher upload. The longest matching
+   * prefix wins.
+   */
+  public StandInServer setLatency(String pathPrefix, Duration latency) {
+    pathLatencies.put(pathPrefix, latency);
+    return this;
+  }
+
+  /**
+   * Add a random delay of up to this long to every response.
+   */
+  public StandInServer setJitter(Duration jitter) {
+    this.jitter = jitter;
+    return this;
+  }
+
+  /**
+   * Time from voucher upload until the owner state reports TO0 complete.
+   */
+  public StandInServer setTo0Delay(Duration to0Delay) {
+    this.to0Delay = to0Delay;
+    return this;
+  }
+
+  /**
+   * Start answering on the loopback interface.
+   *
+   * @param port : port to listen on; 0 picks a free port
+   * @return the port listened on
+   * @throws IOException if the port cannot be bound
+   */
+  public synchronized int start(int port) throws IOException {
+    if (server != null) {
+      throw new IllegalStateException("already started");
+    }
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/", this::handle);
+    AtomicInteger threads = new AtomicInteger();
+    executor = Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "stand-in-" + threads.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    server.setExecutor(executor);
+    server.start();
+    TestLogger.info("=====> Stand-in server at {}", getApiUrl());
+    return getPort();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * URL of the REST API, e.g. "http://localhost:8080", for {@link FdoRestClient}.
+   */
+  public String getApiUrl() {
+    return "http://localhost:" + getPort();
+  }
+
+  /**
+   * Number of requests answered so far.
+   */
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  public String getRvInfo() {
+    return rvInfo;
+  }
+
+  public String getOwnerRedirect() {
+    return ownerRedirect;
+  }
+
+  public String getSvi() {
+    return svi;
+  }
+
+  /**
+   * Content of an uploaded resource, or null.
+   */
+  public byte[] getResource(String filename) {
+    return resources.get(filename);
+  }
+
+  /**
+   * Queries of the per-device ServiceInfo entries added so far.
+   */
+  public List<String> getDeviceSvi() {
+    return deviceSvi;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (server != null) {
+      server.stop(0);
+      executor.shutdownNow();
+      server = null;
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      String method = exchange.getRequestMethod();
+      URI uri = exchange.getRequestURI();
+      String path = uri.getPath();
+      byte[] body = in.readAllBytes();
+      delay(path);
+      requests.incrementAndGet();
+
+      if (path.equals(HEALTH)) {
+        respond(exchange, 200, FdoRestClient.TEXT_PLAIN, new byte[0]);
+      } else if (path.equals(API + "/rvinfo") && method.equals("POST")) {
+        rvInfo = text(body);
+        respond(exchange, 200, FdoRestClient.TEXT_PLAIN, new byte[0]);
+      } else if (path.equals(API + "/owner/redirect") && method.equals("POST")) {
+        ownerRedirect = text(body);
+        respond(exchange, 200, FdoRestClient.TEXT_PLAIN, new byte[0]);
+      } else if (path.equals(API + "/owner/resource") && method.equals("POST")) {
+        String filename = query(uri, "filename");
+        if (filename == null) {
+          respond(exchange, 400, FdoRestClient.TEXT_PLAIN, text("filename missing"));
+        } else {
+          resources.put(filename, body);
+          respond(exchange, 200, FdoRestClient.TEXT_PLAIN, new byte[0]);
+        }
+      } else if (path.equals(API + "/owner/svi") && method.equals("POST")) {
+        svi = text(body);
+        respond(exchange, 200, FdoRestClient.TEXT_PLAIN, new byte[0]);
+      } else if (path.equals(API + "/device/svi") && method.equals("PUT")) {
+        deviceSvi.add(uri.getRawQuery());
+        respond(exchange, 200, FdoRestClient.TEXT_PLAIN, new byte[0]);
+      } else if (path.startsWith(API + "/vouchers/") && method.equals("GET")) {
+        String serial = path.substring((API + "/vouchers/").length());
+        respond(exchange, 200, FdoRestClient.TEXT_PLAIN, voucher(serial));
+      } else if (path.equals(API + "/owner/vouchers/") && method.equals("POST")) {
+        String guid = guid(body);
+        to0Complete.put(guid, Instant.now().plus(to0Delay));
+        respond(exchange, 200, FdoRestClient.TEXT_PLAIN, text(guid));
+      } else if (path.startsWith(API + "/owner/state/") && method.equals("GET")) {
+        Instant complete = to0Complete.get(path.substring((API + "/owner/state/").length()));
+        if (complete == null) {
+          respond(exchange, 404, FdoRestClient.TEXT_PLAIN, new byte[0]);
+        } else {
+          boolean registered = !Instant.now().isBefore(complete);
+          respond(exchange, 200, "application/json", text("{\"to2CompletedOn\":null,"
+              + "\"to0Expiry\":" + (registered ? "\"" + complete.plus(Duration.ofDays(1)) + "\""
+              : "null") + "}"));
+        }
+      } else {
+        respond(exchange, 404, FdoRestClient.TEXT_PLAIN, new byte[0]);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      exchange.sendResponseHeaders(503, -1);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void delay(String path) throws InterruptedException {
+    Duration d = latency;
+    int longest = -1;
+    for (Map.Entry<String, Duration> e : pathLatencies.entrySet()) {
+      if (path.startsWith(e.getKey()) && e.getKey().length() > longest) {
+        longest = e.getKey().length();
+        d = e.getValue();
+      }
+    }
+    long nanos = d.toNanos();
+    if (!jitter.isZero()) {
+      nanos += ThreadLocalRandom.current().nextLong(jitter.toNanos() + 1);
+    }
+    if (nanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, String contentType,
+      byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+    if (body.length > 0) {
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+  }
+
+  /**
+   * Voucher bytes for a serial: the same serial always gets the same voucher.
+   */
+  static byte[] voucher(String serial) {
+    byte[] voucher = new byte[VOUCHER_SIZE];
+    byte[] block = sha256(text("voucher:" + serial));
+    for (int i = 0; i < voucher.length; i += block.length) {
+      System.arraycopy(block, 0, voucher, i, Math.min(block.length, voucher.length - i));
+      block = sha256(block);
+    }
+    return voucher;
+  }
+
+  private static String guid(byte[] voucher) {
+    return UUID.nameUUIDFromBytes(voucher).toString().replace("-", "");
+  }
+
+  private static byte[] sha256(byte[] data) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(data);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String query(URI uri, String name) {
+    String query = uri.getRawQuery();
+    if (query == null) {
+      return null;
+    }
+    for (String pair : query.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq > 0 && pair.substring(0, eq).equals(name)) {
+        return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+      }
+    }
+    return null;
+  }
+
+  private static byte[] text(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String text(byte[] b) {
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Run the stand-in server until the JVM is stopped.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    StandInServer server = new StandInServer()
+        .setLatency(Duration.ofMillis(args.length > 1 ? Long.parseLong(args[1]) : 0))
+        .setTo0Delay(Duration.ofMillis(args.length > 2 ? Long.parseLong(args[2]) : 0));
+    server.start(args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+    Thread.currentThread().join();
+  }
+}
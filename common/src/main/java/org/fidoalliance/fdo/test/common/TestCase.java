@@ -10,13 +10,27 @@ import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.testng.Assert;
 import org.testng.ITestResult;
+import org.testng.Reporter;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.AfterSuite;
@@ -32,9 +46,12 @@ import org.testng.annotations.BeforeTest;
 public abstract class TestCase {
 
   protected static final String resultFile = "result.txt";
-  //Iot Platform SDK Docker commands
-  protected static final String runDockerService = "docker compose up --build";
-  protected static final String downDockerService = "docker compose down";
+  // Markers written to the result file by the ServiceInfo exec script, see linux64.sh
+  protected static final String sviSuccessMarker = "Device onboarded successfully.";
+  protected static final String sviFailureMarker = "ServiceInfo file transmission failed.";
+  // ServiceInfo resources, below TEST_DIR; -Dfdo.svi.payloadSize replaces payload.bin
+  private static final String SVI_RESOURCES = "common/src/main/resources";
+  private static final String SVI_PAYLOAD_SIZE = "fdo.svi.payloadSize";
   // Spring arguments
   protected static final String D_JAVA_LIBRARY_PATH = "-Djava.library.path=";
   // Environment constants
@@ -53,6 +70,22 @@ public abstract class TestCase {
   private static final String parentDir = Paths.get(System.getProperty(USER_DIR)).getParent()
       .toString();
   protected static final String keyDir = parentDir + KEY_FILES;
+  // Per-phase onboarding latencies, exported to the log directory at the end of the suite
+  protected static final LatencyRecorder latencyRecorder = LatencyRecorder.getInstance();
+  // Follows device result files so a ServiceInfo failure is seen as soon as it is written
+  protected static final LogWatcher logWatcher = LogWatcher.getInstance();
+  // Starts docker stacks on first use and shares them between test classes and modules
+  protected static final StackManager stackManager = StackManager.getInstance();
+  // Structured record of every harness step, written to events.jsonl in the log directory
+  protected static final EventStream eventStream = EventStream.getInstance();
+  // Live counters for long runs, served with -Dfdo.metrics.port and written to metrics.txt
+  protected static final MetricsRegistry metrics = MetricsRegistry.getInstance();
+  // Device timeouts learned from earlier runs, capped by the timeouts below
+  protected static final TimeoutPolicy timeoutPolicy = TimeoutPolicy.getInstance();
+  private static final MetricsRegistry.Counter rowsFinished = metrics.counter("fdo_rows",
+      "Data rows finished, by status", "status");
+  private static final MetricsRegistry.Gauge devicesInFlight = metrics.gauge(
+      "fdo_devices_in_flight", "Devices being onboarded: data rows and fleet devices", "scope");
   protected static final String serviceInfoDir = parentDir + SI_FILES;
   protected String logDir = null; // Directory for application logs.
   protected String testDir = null; // Directory holding executables being tested.
@@ -61,23 +94,39 @@ public abstract class TestCase {
   protected String deviceOutputDir2 = null; // Directory where device will save ownership proxy
   protected String mfgOutputDir = null; // Directory where manufacturer will save ownership proxy
   protected String ownerOutputDir = null; // Directory where owner will save ownership proxy
+  protected ArtifactStore artifactStore = null; // Vouchers and GUIDs of the onboarded devices
+
+  // Docker stacks held by this test class, see requireStacks()
+  private final List<StackManager.Lease> stackLeases = new ArrayList<>();
+  private final Set<String> heldStacks = new HashSet<>();
+  // Rows of a data provider that may run at the same time, see -Dfdo.parallel.rows
+  protected static final int rowConcurrency = Math.max(1, Integer.getInteger("fdo.parallel.rows",
+      1));
+  private static final Semaphore rowPermits = new Semaphore(rowConcurrency, true);
+  private static final String CONTEXT_ATTRIBUTE = TestContext.class.getName();
+  // Numbers the credential archives of tests that share a name
+  private static final AtomicInteger cleanupCount = new AtomicInteger();
 
   protected String mfgApiPass = null;
   protected String ownerApiPass = null;
 
+  // FDO REST API endpoints
+  protected static final String apiUser = "apiUser";
+  protected String mfgApiUrl = "http://localhost:8039";
+  protected String ownerApiUrl = "http://localhost:8042";
+  protected String aioApiUrl = "http://localhost:8080";
+
   // A very short wait to complete TO0 after it is scheduled
   protected Duration shortTimeout = Duration.of(15, ChronoUnit.SECONDS);
 
-  // How long to wait for the device to finish the protocol
+  // How long to wait for the device to finish the protocol; the ceiling of the learned
+  // timeouts, see TimeoutPolicy
   protected Duration longTimeout = Duration.of(70, ChronoUnit.SECONDS);
 
-  // How long to wait for Docker services to shut down
-  protected Duration dockerDownTimeout = Duration.of(20, ChronoUnit.SECONDS);
-
   // How long to wait for FIDO Docker services to start up
   protected Duration fdoDockerUpTimeout = Duration.of(120, ChronoUnit.SECONDS);
 
-  // How long to wait for PRI-FIDO T00
+  // How long to wait for PRI-FIDO T00 to complete, see To0Wait
   protected Duration fdoToWait = Duration.of(45, ChronoUnit.SECONDS);
 
   /**
@@ -92,6 +141,189 @@ public abstract class TestCase {
     }
   }
 
+  /**
+   * Fail the test if a REST call to an FDO server did not succeed.
+   *
+   * @param response : the server response
+   * @param step     : description of the call, used in the failure message
+   */
+  protected static void assertSuccess(FdoRestClient.Response response, String step) {
+    EventStream.getInstance().event(EventStream.ASSERT).field("step", step)
+        .field("status", response.getStatus())
+        .field("outcome", response.isSuccess() ? "pass" : "fail").emit();
+    Assert.assertTrue(response.isSuccess(),
+        "ERROR: " + step + " did not complete successfully. " + response + "; ");
+    TestLogger.info(step + " completed successfully. " + response);
+  }
+
+  /**
+   * Make sure the docker stacks a test needs are running, starting them if this is the first
+   * test that needs them. Called from enabled tests only, so nothing is started when every test
+   * is disabled. The stacks are held until {@link #releaseStacks()}.
+   *
+   * @param stacks : the stacks in dependency order, e.g. db before aio
+   */
+  protected void requireStacks(DockerStack... stacks) throws Exception {
+    synchronized (stackLeases) {
+      List<DockerStack> missing = new ArrayList<>();
+      for (DockerStack stack : stacks) {
+        if (!heldStacks.contains(stack.getName())) {
+          missing.add(stack);
+        }
+      }
+      if (!missing.isEmpty()) {
+        stackLeases.add(stackManager.acquire(missing,
+            logDir != null ? Paths.get(logDir) : null, fdoDockerUpTimeout));
+        missing.forEach(stack -> heldStacks.add(stack.getName()));
+      }
+    }
+  }
+
+  /**
+   * Take the next AIO stack of the run, see {@link AioStackPool}, and start it unless it is
+   * already running. With -Dfdo.aio.stacks=K, K stacks on allocated ports take turns.
+   *
+   * @return the stack, held until {@link #releaseStacks()}
+   */
+  protected AioStack requireAioStack() throws Exception {
+    AioStack aio = AioStackPool.getInstance(testDir).next();
+    requireStacks(aio.getStacks().toArray(new DockerStack[0]));
+    return aio;
+  }
+
+  /**
+   * Release the docker stacks held by this test class. A stack is stopped once no test class or
+   * other test run holds it any more.
+   */
+  protected void releaseStacks() {
+    synchronized (stackLeases) {
+      for (int i = stackLeases.size() - 1; i >= 0; i--) {
+        stackLeases.get(i).close();
+      }
+      stackLeases.clear();
+      heldStacks.clear();
+    }
+  }
+
+  /**
+   * ServiceInfo payload to upload as payload.bin: the one of the repository, or with
+   * -Dfdo.svi.payloadSize=SIZE (e.g. 256MB) a generated file of that size, see
+   * {@link PayloadGenerator}. Generated payloads are kept in TEST_DIR/tmp/payloads for later runs.
+   */
+  protected Path sviPayload() throws IOException {
+    String size = System.getProperty(SVI_PAYLOAD_SIZE);
+    if (size == null || size.trim().isEmpty()) {
+      return Paths.get(testDir, SVI_RESOURCES, "payload.bin");
+    }
+    long bytes = PayloadGenerator.parseSize(size);
+    return PayloadGenerator.generate(Paths.get(testDir, "tmp", "payloads",
+        "payload-" + PayloadGenerator.format(bytes) + ".bin"), bytes);
+  }
+
+  /**
+   * ServiceInfo exec script to upload as linux64.sh. The script checks the cksum of
+   * payload.bin, so for a generated payload it is rewritten to expect that payload's cksum.
+   *
+   * @param payload : payload from {@link #sviPayload()}
+   * @return the script
+   */
+  protected Path sviScript(Path payload) throws IOException {
+    Path script = Paths.get(testDir, SVI_RESOURCES, "linux64.sh");
+    if (payload.equals(Paths.get(testDir, SVI_RESOURCES, "payload.bin"))) {
+      return script;
+    }
+    String text = new String(Files.readAllBytes(script), StandardCharsets.UTF_8)
+        .replaceFirst("(?m)^cksum_tx=\\d+$", "cksum_tx=" + PayloadGenerator.cksum(payload));
+    Path rewritten = payload.resolveSibling(payload.getFileName() + ".sh");
+    Files.write(rewritten, text.getBytes(StandardCharsets.UTF_8));
+    return rewritten;
+  }
+
+  /**
+   * Report how fast a ServiceInfo payload travelled, in MB/s: its upload to the owner, and end to
+   * end, from the owner to the device in the TO that delivered it. The rates are also written
+   * to svi-transfer.csv in the log directory of the row.
+   *
+   * @param upload : response to the payload upload
+   * @param to     : duration of the TO
+   */
+  protected void reportSviTransfer(FdoRestClient.Response upload, Duration to)
+      throws IOException {
+    long bytes = upload.getSentBytes();
+    TestLogger.info("=====> ServiceInfo payload {}: upload {} ms ({}), TO {} ms ({})",
+        PayloadGenerator.format(bytes), upload.getElapsed().toMillis(),
+        PayloadGenerator.rate(bytes, upload.getElapsed()), to.toMillis(),
+        PayloadGenerator.rate(bytes, to));
+    Path csv = context().getLogDir().resolve("svi-transfer.csv");
+    List<String> lines = new ArrayList<>();
+    if (!Files.exists(csv)) {
+      lines.add("payloadBytes,uploadMs,uploadMBps,toMs,endToEndMBps");
+    }
+    lines.add(String.format(Locale.ROOT, "%d,%d,%.3f,%d,%.3f", bytes,
+        upload.getElapsed().toMillis(), PayloadGenerator.megabytesPerSecond(bytes,
+            upload.getElapsed()), to.toMillis(), PayloadGenerator.megabytesPerSecond(bytes, to)));
+    Files.createDirectories(csv.getParent());
+    Files.write(csv, lines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+  /**
+   * Start following the device result file for the ServiceInfo outcome. A result file left by an
+   * earlier run is deleted first so that it cannot be mistaken for this one.
+   *
+   * @param file : the device result file
+   * @return future completed with the first success or failure marker
+   */
+  protected static CompletableFuture<LogWatcher.Match> watchServiceInfoResult(Path file)
+      throws IOException {
+    Files.deleteIfExists(file);
+    return logWatcher.watch(file, sviSuccessMarker, sviFailureMarker);
+  }
+
+  /**
+   * Wait for the device to exit, failing at once if the ServiceInfo failure marker appears first.
+   *
+   * @param device    : the running device
+   * @param sviResult : future from {@link #watchServiceInfoResult(Path)}, or null without SVI
+   * @param timeout   : how long to wait for the device
+   * @return true if the device exited within the timeout
+   */
+  protected static boolean waitForDevice(TestProcess.Handle device,
+      CompletableFuture<LogWatcher.Match> sviResult, Duration timeout) throws Exception {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    if (sviResult != null) {
+      try {
+        CompletableFuture.anyOf(device.onExit(), sviResult)
+            .get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        return false;
+      }
+      if (sviResult.isDone() && !sviResult.isCompletedExceptionally()
+          && !sviResult.join().getPattern().equals(sviSuccessMarker)) {
+        Assert.fail("ERROR: Device: ServiceInfo not processed successfully. "
+            + sviResult.join() + "; ");
+      }
+    }
+    return device.waitFor(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Fail the test unless the ServiceInfo success marker was written to the result file.
+   *
+   * @param sviResult : future from {@link #watchServiceInfoResult(Path)}
+   */
+  protected void assertServiceInfoResult(CompletableFuture<LogWatcher.Match> sviResult)
+      throws Exception {
+    LogWatcher.Match match = null;
+    try {
+      // The device has exited, so the marker is on disk; allow the watcher to catch up.
+      match = sviResult.get(shortTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      sviResult.cancel(false);
+    }
+    Assert.assertTrue(match != null && match.getPattern().equals(sviSuccessMarker),
+        "ERROR: Device: ServiceInfo not processed successfully. " + match + "; ");
+  }
+
   /**
    * Write to log so call flow can be readily determined.
    */
@@ -115,9 +347,42 @@ public abstract class TestCase {
     TestLogger.info("Before Suite");
   }
 
+  /**
+   * Export the latencies and row results recorded during the suite.
+   */
   @AfterSuite(alwaysRun = true)
   public void afterSuite() {
     TestLogger.info("After Suite");
+    if (logDir != null) {
+      try {
+        latencyRecorder.export(Paths.get(logDir));
+        ShardReport.getInstance().write(Paths.get(logDir));
+        metrics.write(Paths.get(logDir));
+      } catch (IOException e) {
+        TestLogger.error("Cannot write latency summary: " + e.getMessage());
+      }
+    }
+    try {
+      timeoutPolicy.save();
+    } catch (IOException e) {
+      TestLogger.error("Cannot save phase durations: " + e.getMessage());
+    }
+    try {
+      if (rowConcurrency > 1 && testDir != null) {
+        sharedCleaner().clean(logDir != null ? Paths.get(logDir, "credentials", "suite.zip")
+            : null);
+      }
+      if (!ArtifactCleaner.awaitPending(longTimeout)) {
+        TestLogger.warn("Test artifacts are still being cleaned up.");
+      }
+    } catch (IOException e) {
+      TestLogger.error("Cannot clean up test artifacts: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    eventStream.close();
+    metrics.stop();
+    TestngAppender.flushAll();
   }
 
   /**
@@ -130,10 +395,12 @@ public abstract class TestCase {
     if (testDir != null) {
       testDir = testDir.replaceAll("\\\\", "/");
       TestLogger.info("Execution directory: " + testDir);
-      logDir = testDir + "/logs";
+      // Shards running on one host each log to a directory of their own, see Shard
+      Shard shard = Shard.current();
+      logDir = testDir + "/logs" + (shard.isSharded() ? "/" + shard.getName() : "");
       File directory = new File(logDir);
       if (!directory.exists()) {
-        directory.mkdir();
+        directory.mkdirs();
         TestLogger.info("Created directory: " + logDir);
       }
 
@@ -172,6 +439,25 @@ public abstract class TestCase {
         TestLogger.info("Created directory: " + ownerOutputDir);
       }
 
+      try {
+        artifactStore = ArtifactStore.open(Paths.get(testDir, "tmp", "artifacts"));
+      } catch (IOException e) {
+        TestLogger.error("Cannot open artifact store: " + e.getMessage());
+      }
+
+      if (EventStream.isEnabled()) {
+        try {
+          eventStream.open(Paths.get(logDir, EventStream.EVENTS_FILE));
+        } catch (IOException e) {
+          TestLogger.error("Cannot open events file: " + e.getMessage());
+        }
+      }
+      try {
+        metrics.start();
+      } catch (IOException e) {
+        TestLogger.error("Cannot serve metrics: " + e.getMessage());
+      }
+
       TestLogger.info("Application log directory:  " + logDir);
       TestLogger.info("proxyDir:  " + ownerProxyDir);
       TestLogger.info("deviceOutputDir:  " + deviceOutputDir);
@@ -197,7 +483,96 @@ public abstract class TestCase {
   }
 
   /**
-   * Clean up data left by the test methods. Used for all device types.
+   * Create the context of a data row, waiting while the maximum number of rows is running.
+   *
+   * @param params - the parameters
+   * @param result - the result descriptor of the test method about to run
+   */
+  @BeforeMethod(alwaysRun = true)
+  public void createContext(Object[] params, ITestResult result) throws InterruptedException {
+    if (params.length == 0 || testDir == null) {
+      return;
+    }
+    rowPermits.acquire();
+    TestContext context;
+    try {
+      context = new TestContext(testDir, logDir, String.valueOf(params[0]), params,
+          artifactStore);
+      result.setAttribute(CONTEXT_ATTRIBUTE, context);
+    } catch (RuntimeException | Error e) {
+      // Without a context closeContext has nothing to release, so the next row would wait forever
+      rowPermits.release();
+      throw e;
+    }
+    eventStream.setDevice(context.toString());
+    devicesInFlight.inc("row");
+    TestLogger.info("Context: {}", context);
+  }
+
+  /**
+   * Context of the running data row: its own directories, ports and logs. Only valid on the
+   * thread running the test method.
+   *
+   * @return the context
+   * @throws IllegalStateException if the test method has no parameters
+   */
+  protected TestContext context() {
+    ITestResult result = Reporter.getCurrentTestResult();
+    Object context = result != null ? result.getAttribute(CONTEXT_ATTRIBUTE) : null;
+    if (context == null) {
+      throw new IllegalStateException("no test context; is this a data provider test?");
+    }
+    return (TestContext) context;
+  }
+
+  /**
+   * Clean up the context of a data row and let the next row start.
+   *
+   * @param result - the result descriptor of the test method
+   */
+  @AfterMethod(alwaysRun = true)
+  public void closeContext(ITestResult result) {
+    TestContext context = (TestContext) result.removeAttribute(CONTEXT_ATTRIBUTE);
+    if (context == null) {
+      return;
+    }
+    Duration duration = Duration.ofMillis(System.currentTimeMillis() - result.getStartMillis());
+    ShardReport.getInstance().record(context.getName(), context.getParameters(),
+        status(result), duration);
+    eventStream.event(EventStream.RESULT).duration(duration).field("status", status(result))
+        .field("error", result.getThrowable() != null && result.getStatus() == ITestResult.FAILURE
+            ? String.valueOf(result.getThrowable().getMessage()) : null)
+        .emit();
+    eventStream.setDevice(null);
+    devicesInFlight.dec("row");
+    rowsFinished.inc(status(result));
+    try {
+      context.close();
+    } catch (IOException e) {
+      TestLogger.error("Cannot clean up {}: {}", context, e.getMessage());
+    } finally {
+      rowPermits.release();
+    }
+  }
+
+  private static String status(ITestResult result) {
+    switch (result.getStatus()) {
+      case ITestResult.SUCCESS:
+        return "PASS";
+      case ITestResult.FAILURE:
+        return "FAIL";
+      case ITestResult.SKIP:
+        return "SKIP";
+      default:
+        return "UNKNOWN";
+    }
+  }
+
+  /**
+   * Clean up data left by the test methods. Used for all device types. Every file is moved out
+   * of the output directories in parallel; the ownership credentials (.oc) and vouchers (.op)
+   * among them are archived to logs/credentials (or logged with -Dfdo.cleanup.archive=false)
+   * while the next test runs.
    */
   @AfterMethod(groups = {"fdo_pri_smoketest", "fdo_clientsdk_smoketest"})
   public void afterDeviceCleanup(Object[] parameters) throws IOException, InterruptedException {
@@ -207,93 +582,31 @@ public abstract class TestCase {
       String enabled = (String) parameters[ENABLED];
 
       if (enabled.equals("true")) {
-        Path testPath = Paths.get(testDir);
+        if (rowConcurrency > 1) {
+          // Other rows may still be using the shared directories; emptied after the suite.
+          return;
+        }
         TestLogger.info("Removing device test artifacts.");
-        TestLogger.info("Operating System: " + osName);
         TestLogger.info("enabled: " + enabled);
 
-        String[] winString = new String[]{"cmd",
-            "/c",
-            "ECHO ON && ECHO. && ECHO ===== Before ===== "
-                + " && ECHO deviceOutputDir && DIR tmp\\deviceOutputDir"
-                + " && ECHO deviceOutputDir2 && DIR tmp\\deviceOutputDir2"
-                + " && ECHO mfgOutputDir && DIR tmp\\mfgOutputDir"
-                + " && ECHO ownerOutputDir && DIR tmp\\ownerOutputDir"
-                + " && ECHO ownerProxyDir && DIR tmp\\ownerProxyDir"
-                + " && (IF EXIST tmp\\deviceOutputDir\\*.oc (ECHO === OWNERSHIP CREDENTIAL ==="
-                + " && TYPE tmp\\deviceOutputDir\\*.oc"
-                + " && DEL /F tmp\\deviceOutputDir\\*.oc))"
-                + " && (IF EXIST tmp\\deviceOutputDir2\\*.oc (ECHO === OWNERSHIP CREDENTIAL2 ==="
-                + " && TYPE tmp\\deviceOutputDir2\\*.oc"
-                + " && DEL /F tmp\\deviceOutputDir2\\*.oc))"
-                + " && (IF EXIST tmp\\mfgOutputDir\\*.op (ECHO === OWNERSHIP PROXY ==="
-                + " && TYPE tmp\\mfgOutputDir\\*.op"
-                + " && DEL /F tmp\\mfgOutputDir\\*.op))"
-                + " && (IF EXIST tmp\\ownerProxyDir\\*.op (ECHO === OWNERSHIP PROXY EXTENDED ==="
-                + " && TYPE tmp\\ownerProxyDir\\*.op"
-                + " && DEL /F tmp\\ownerProxyDir\\*.op))"
-                + " && ECHO. && ECHO ===== After ===== && DIR && ECHO."
-                + " && ECHO deviceOutputDir && DIR tmp\\deviceOutputDir"
-                + " && ECHO deviceOutputDir2 && DIR tmp\\deviceOutputDir2"
-                + " && ECHO mfgOutputDir && DIR tmp\\mfgOutputDir"
-                + " && ECHO ownerOutputDir && DIR tmp\\ownerOutputDir"
-                + " && ECHO ownerProxyDir && DIR tmp\\ownerProxyDir"};
-        String[] linuxString = new String[]{"/bin/bash",
-            "-c",
-            "printf \"\n== deviceOutputDir ==\n\" && ls -la " + deviceOutputDir
-                + " 2>/dev/null || true"
-                + " && printf \"\n== deviceOutputDir2 ==\n\" && ls -la "
-                + deviceOutputDir2 + " 2>/dev/null || true"
-                + " && printf \"\n== mfgOutputDir ==\n\" && ls -la " + mfgOutputDir
-                + " 2>/dev/null || true"
-                + " && printf \"\n== ownerOutputDir ==\n\" && ls -la " + ownerOutputDir
-                + " 2>/dev/null || true"
-                + " && printf \"\n== ownerProxyDir ==\n\" && ls -la " + ownerProxyDir
-                + " 2>/dev/null || true"
-                + " && if (test -a " + deviceOutputDir + "/*.oc);"
-                + "   then printf \"\n== OWNERSHIP CREDENTIAL ==\n\""
-                + "   && cat " + deviceOutputDir + "/*.oc && rm -f " + deviceOutputDir + "/*.oc; fi"
-                + " && if (test -a " + deviceOutputDir2 + "/*.oc);"
-                + "   then printf \"\n\n== OWNERSHIP CREDENTIAL2 ==\n\""
-                + "   && cat " + deviceOutputDir2 + "/*.oc && rm -f " + deviceOutputDir2
-                + "/*.oc; fi"
-                + " && if (test -a " + mfgOutputDir
-                + "/*.op); then printf \"\n\n== OWNERSHIP PROXY ==\n\""
-                + "   && cat " + mfgOutputDir + "/*.op && rm -f " + mfgOutputDir + "/*.op; fi"
-                + " && if (test -a " + ownerProxyDir + "/*.op);"
-                + "   then printf \"\n\n== OWNERSHIP PROXY EXTENDED ==\n\""
-                + "   && cat " + ownerProxyDir + "/*.op && rm -f " + ownerProxyDir + "/*.op; fi"
-                + " && rm -f " + deviceOutputDir + "/* && printf \"\n\n== deviceOutputDir ==\n\""
-                + " && ls -la " + deviceOutputDir + " 2>/dev/null || true"
-                + " && rm -f " + deviceOutputDir2 + "/* && printf \"\n== deviceOutputDir2 ==\n\""
-                + " && ls -la " + deviceOutputDir2 + " 2>/dev/null || true"
-                + " && rm -f " + mfgOutputDir + "/* && printf \"\n== manufacturerOutputDir ==\n\""
-                + " && ls -la " + mfgOutputDir + " 2>/dev/null || true"
-                + " && rm -f " + ownerOutputDir + "/* && printf \"\n== ownerOutputDir ==\n\""
-                + " && ls -la " + ownerOutputDir + " 2>/dev/null || true"
-                + " && rm -f " + ownerProxyDir + "/* && printf \"\n== ownerProxyDir ==\n\""
-                + " && ls -la " + ownerProxyDir + " 2>/dev/null || true"};
-
-        String[] cleanUpCmd = (osName.contains("Windows")) ? winString : linuxString;
-
-        TestProcess cleanUp = new TestProcess(testPath, cleanUpCmd);
-        int cleanUpResult = -1;
-        try (TestProcess.Handle hCleanUp = cleanUp.start()) {
-          if (hCleanUp.waitFor(longTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
-            cleanUpResult = hCleanUp.exitValue();
-          }
+        ArtifactCleaner cleaner = sharedCleaner();
+        Path archive = null;
+        if (ArtifactCleaner.isArchiveEnabled() && logDir != null) {
+          archive = Paths.get(logDir, "credentials",
+              parameters[0] + "-" + cleanupCount.incrementAndGet() + ".zip");
         }
-
-        // Confirm clean-up successfully completed.
-        Assert.assertEquals(
-            cleanUpResult,
-            0,
-            "ERROR: afterDeviceCleanUp did not exit properly. Exit value: " + cleanUpResult);
-        TestLogger.info("afterDeviceCleanUp completed successfully.  Exit value: " + cleanUpResult);
+        cleaner.clean(archive);
+        TestLogger.info("afterDeviceCleanUp completed successfully.");
       }
     }
   }
 
+  private ArtifactCleaner sharedCleaner() {
+    return new ArtifactCleaner(Paths.get(testDir, "tmp"),
+        Arrays.asList(Paths.get(deviceOutputDir), Paths.get(deviceOutputDir2),
+            Paths.get(mfgOutputDir), Paths.get(ownerOutputDir), Paths.get(ownerProxyDir)));
+  }
+
   /**
    * Log the completion of a Test method. This is somewhat redundant with the PASSED/FAILED/SKIPPED
    * message from TestNG, but this one appears in-line in the body of the log file rather than at
@@ -0,0 +1,202 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State of one invocation of a test method, i.e. one row of its CSV file. Each invocation gets
+ * its own working directory, log directory, output directories, device copies and ports, so
+ * rows can run at the same time. {@link TestCase} creates the context before the invocation and
+ * closes it afterwards, see {@link TestCase#context()}.
+ *
+ * <p>Directories are created when first asked for, so skipped rows cost nothing. Closing the
+ * context archives the credentials left in its output directories and deletes its working
+ * directory in the background.
+ */
+public class TestContext {
+
+  private static final AtomicInteger count = new AtomicInteger();
+
+  private final int id;
+  private final String name;
+  private final List<Object> parameters;
+  private final Path workDir;
+  private final Path logDir;
+  private final Path trashRoot;
+  private final ArtifactStore artifacts;
+  private final Map<String, Integer> ports = new ConcurrentHashMap<>();
+  private final List<AutoCloseable> resources = new CopyOnWriteArrayList<>();
+
+  /**
+   * Parameterized constructor for TestContext.
+   *
+   * @param testDir    : directory holding the executables being tested
+   * @param logDir     : directory for application logs; each context logs to a subdirectory
+   * @param name       : name of the invocation, e.g. the testName column of the CSV row
+   * @param parameters : parameters of the invocation
+   * @param artifacts  : store for the vouchers and GUIDs of the devices; may be null
+   */
+  public TestContext(String testDir, String logDir, String name, Object[] parameters,
+      ArtifactStore artifacts) {
+    this.id = count.incrementAndGet();
+    this.name = name;
+    this.parameters = Collections.unmodifiableList(Arrays.asList(parameters.clone()));
+    String dirName = name.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + id;
+    this.trashRoot = Paths.get(testDir, "tmp");
+    Shard shard = Shard.current();
+    Path runs = trashRoot.resolve("runs");
+    this.workDir = (shard.isSharded() ? runs.resolve(shard.getName()) : runs).resolve(dirName);
+    this.logDir = Paths.get(logDir != null ? logDir : testDir + "/logs", dirName);
+    this.artifacts = artifacts;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public List<Object> getParameters() {
+    return parameters;
+  }
+
+  /**
+   * Working directory of the invocation.
+   */
+  public Path getWorkDir() {
+    return directory(workDir);
+  }
+
+  /**
+   * Log directory of the invocation, below the suite log directory.
+   */
+  public Path getLogDir() {
+    return directory(logDir);
+  }
+
+  public Path getDeviceOutputDir() {
+    return directory(workDir.resolve("deviceOutputDir"));
+  }
+
+  public Path getDeviceOutputDir2() {
+    return directory(workDir.resolve("deviceOutputDir2"));
+  }
+
+  public Path getMfgOutputDir() {
+    return directory(workDir.resolve("mfgOutputDir"));
+  }
+
+  public Path getOwnerOutputDir() {
+    return directory(workDir.resolve("ownerOutputDir"));
+  }
+
+  public Path getOwnerProxyDir() {
+    return directory(workDir.resolve("ownerProxyDir"));
+  }
+
+  /**
+   * Store for the vouchers and GUIDs of the devices. The store is shared by all invocations;
+   * each device has its own entry, keyed by serial number.
+   */
+  public ArtifactStore getArtifacts() {
+    return artifacts;
+  }
+
+  /**
+   * Copy of a device directory for this invocation, created on first use, with an empty
+   * app-data directory. Jars are linked rather than copied; launch them from deviceDir so that
+   * the AppCDS archive is shared.
+   *
+   * @param deviceDir : directory holding the device executable and its configuration
+   * @return working directory for the device
+   */
+  public synchronized Path getDeviceCopy(Path deviceDir) throws IOException {
+    Path copy = getWorkDir().resolve("device-" + deviceDir.getFileName());
+    if (!Files.exists(copy)) {
+      TestUtil.copyDeviceDirectory(deviceDir, copy);
+    }
+    return copy;
+  }
+
+  /**
+   * A free local port for this invocation, reserved under a name so that the same name always
+   * gives the same port. The port is taken from {@link PortAllocator}, so other invocations and
+   * concurrent test runs do not get it, and handed back when the context is closed.
+   *
+   * @param portName : what the port is for, e.g. "owner"
+   * @return the port number
+   */
+  public int getPort(String portName) {
+    return ports.computeIfAbsent(portName, n -> {
+      try {
+        return register(PortAllocator.getInstance().allocate(1)).get(0);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  /**
+   * Close a resource together with the context, e.g. an {@link HttpRecorder} of the invocation.
+   *
+   * @param resource : the resource
+   * @return the resource
+   */
+  public <T extends AutoCloseable> T register(T resource) {
+    resources.add(resource);
+    return resource;
+  }
+
+  /**
+   * Close the registered resources, archive the credentials left in the output directories to
+   * the log directory and delete the working directory in the background.
+   */
+  public void close() throws IOException {
+    for (AutoCloseable resource : resources) {
+      try {
+        resource.close();
+      } catch (Exception e) {
+        TestLogger.warn("=====> Cannot close {} of {}: {}", resource, this, e.getMessage());
+      }
+    }
+    resources.clear();
+    if (!Files.exists(workDir)) {
+      return;
+    }
+    List<Path> outputs = Arrays.asList(workDir.resolve("deviceOutputDir"),
+        workDir.resolve("deviceOutputDir2"), workDir.resolve("mfgOutputDir"),
+        workDir.resolve("ownerOutputDir"), workDir.resolve("ownerProxyDir"));
+    Path archive = ArtifactCleaner.isArchiveEnabled()
+        ? logDir.resolve("credentials.zip") : null;
+    new ArtifactCleaner(trashRoot, outputs).clean(archive);
+    ArtifactCleaner.discard(trashRoot, workDir);
+  }
+
+  private static Path directory(Path dir) {
+    try {
+      return Files.createDirectories(dir);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return name + "-" + id;
+  }
+}
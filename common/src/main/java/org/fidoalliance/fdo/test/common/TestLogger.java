@@ -10,6 +10,10 @@ import org.apache.logging.log4j.Logger;
  * This module serves to isolate log4j from the rest of the test framework so another logging
  * library could be incorporated should the need arise.
  *
+ * <p>Besides plain messages, every level takes a format with {} placeholders, e.g.
+ * {@code TestLogger.info("Exit value: {}", exitValue)}. The message is only formatted if the
+ * event is logged, and the one and two parameter forms do not allocate a varargs array.
+ *
  * @author Karen Herrold
  */
 public class TestLogger {
@@ -20,23 +24,95 @@ public class TestLogger {
     logger.debug(message);
   }
 
+  public static void debug(String format, Object p0) {
+    logger.debug(format, p0);
+  }
+
+  public static void debug(String format, Object p0, Object p1) {
+    logger.debug(format, p0, p1);
+  }
+
+  public static void debug(String format, Object... params) {
+    logger.debug(format, params);
+  }
+
   public static void error(String message) {
     logger.error(message);
   }
 
+  public static void error(String format, Object p0) {
+    logger.error(format, p0);
+  }
+
+  public static void error(String format, Object p0, Object p1) {
+    logger.error(format, p0, p1);
+  }
+
+  public static void error(String format, Object... params) {
+    logger.error(format, params);
+  }
+
   public static void fatal(String message) {
     logger.fatal(message);
   }
 
+  public static void fatal(String format, Object p0) {
+    logger.fatal(format, p0);
+  }
+
+  public static void fatal(String format, Object p0, Object p1) {
+    logger.fatal(format, p0, p1);
+  }
+
+  public static void fatal(String format, Object... params) {
+    logger.fatal(format, params);
+  }
+
   public static void info(String message) {
     logger.info(message);
   }
 
+  public static void info(String format, Object p0) {
+    logger.info(format, p0);
+  }
+
+  public static void info(String format, Object p0, Object p1) {
+    logger.info(format, p0, p1);
+  }
+
+  public static void info(String format, Object... params) {
+    logger.info(format, params);
+  }
+
   public static void trace(String message) {
     logger.trace(message);
   }
 
+  public static void trace(String format, Object p0) {
+    logger.trace(format, p0);
+  }
+
+  public static void trace(String format, Object p0, Object p1) {
+    logger.trace(format, p0, p1);
+  }
+
+  public static void trace(String format, Object... params) {
+    logger.trace(format, params);
+  }
+
   public static void warn(String message) {
     logger.warn(message);
   }
+
+  public static void warn(String format, Object p0) {
+    logger.warn(format, p0);
+  }
+
+  public static void warn(String format, Object p0, Object p1) {
+    logger.warn(format, p0, p1);
+  }
+
+  public static void warn(String format, Object... params) {
+    logger.warn(format, params);
+  }
 }
@@ -4,16 +4,16 @@
 package org.fidoalliance.fdo.test.common;
 
 import com.sun.jna.Platform;
-import java.io.File;
 import java.io.IOException;
 import java.lang.ProcessBuilder.Redirect;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 
 /**
@@ -27,10 +27,29 @@ public class TestProcess extends TestCase {
   private static final String JAVACMD = "JAVACMD";
   private static final String D_LOGBACK_CONFIG = "-Dlogback.configurationFile=";
 
-  // How long to wait for servers to shut down
+  private static final MetricsRegistry.Counter spawns = MetricsRegistry.getInstance()
+      .counter("fdo_process_spawns", "Processes started", "program");
+  private static final MetricsRegistry.Counter failedExits = MetricsRegistry.getInstance()
+      .counter("fdo_process_nonzero_exits", "Processes that exited with a non-zero code",
+          "program");
+  private static final MetricsRegistry.Counter waitTimeouts =
+      MetricsRegistry.getInstance().waitTimeouts();
+
+  // How often close() kills a subprocess again while waiting for it to exit, and how long it
+  // lets the output drain. close() waits until the subprocess is gone however long that takes,
+  // so this is a retry interval rather than a timeout and is not taken from TimeoutPolicy.
   private Duration shortTimeout = Duration.of(5, ChronoUnit.SECONDS);
 
+  // Default number of output lines kept in memory in capture mode
+  private static final int CAPTURE_LINES = 1000;
+
   private ProcessBuilder builder;
+  private boolean capture = false;
+  private Path captureFile = null;
+  private int captureLines = CAPTURE_LINES;
+  private final List<Consumer<String>> lineListeners = new ArrayList<>();
+  private AppCds appCds = null;
+  private boolean recordStartup = false;
 
   /**
    * Parameterized constructor for TestProcess.
@@ -46,8 +65,8 @@ public class TestProcess extends TestCase {
         .redirectOutput(Redirect.INHERIT)
         .redirectError(Redirect.INHERIT);
 
-    TestLogger.info("directory: " + workPath.toFile());
-    TestLogger.info("command: " + Arrays.toString(cmd));
+    TestLogger.info("directory: {}", workPath);
+    TestLogger.info("command: {}", (Object) cmd);
   }
 
   /**
@@ -64,7 +83,7 @@ public class TestProcess extends TestCase {
         .redirectOutput(Redirect.INHERIT)
         .redirectError(Redirect.INHERIT);
 
-    TestLogger.info("directory: " + workPath.toFile());
+    TestLogger.info("directory: {}", workPath);
     TestLogger.info("command: ");
 
     for (String s : cmd) {
@@ -86,7 +105,7 @@ public class TestProcess extends TestCase {
         .redirectOutput(Redirect.INHERIT)
         .redirectError(Redirect.INHERIT);
 
-    TestLogger.info("directory: " + workPath.toFile());
+    TestLogger.info("directory: {}", workPath);
     TestLogger.info("command: ");
 
     for (String s : cmd) {
@@ -95,30 +114,71 @@ public class TestProcess extends TestCase {
   }
 
   /**
-   * This method used for Iot Platform SDK Docker services make UP/DOWN.
+   * Run an executable jar with the JVM that runs the tests. With -Dfdo.appcds=true the launches
+   * share an AppCDS archive created by the first one, which shortens JVM startup. In capture
+   * mode the time from spawn to the first line of output is recorded as the
+   * {@link LatencyRecorder#PHASE_JVM_STARTUP} phase.
+   *
+   * @param workPath   : working directory of the process
+   * @param jar        : executable jar; always launched by its absolute path
+   * @param jvmOptions : options for the JVM, e.g. system properties
+   * @param args       : arguments for the application
    */
-  public static void execute_dockerCmd(String directory, String command) {
-    List<String> commands = new ArrayList<>();
-    commands.add("bash");
-    commands.add("-c");
-    commands.add(command);
-
-    ProcessBuilder builder = new ProcessBuilder().inheritIO();
-    builder.command(commands);
-    File path1 = new File(directory);
-    TestLogger.info("=====> File(directory): " + path1.toString());
-    builder.directory(new File(directory));
-    String path = System.getenv("PATH");
-    builder.environment().put("PATH", "/usr/bin:" + path);
-    builder.redirectErrorStream(true);
-    builder.redirectError(Redirect.INHERIT);
+  public static TestProcess javaJar(Path workPath, Path jar, List<String> jvmOptions,
+      List<String> args) throws IOException {
+    List<String> cmd = new ArrayList<>();
+    cmd.add(AppCds.javaExecutable().toString());
+    cmd.addAll(jvmOptions);
+    cmd.add("-jar");
+    cmd.add(jar.toAbsolutePath().normalize().toString());
+    cmd.addAll(args);
 
-    try {
-      builder.start();
-    } catch (Exception e) {
-      e.printStackTrace();
+    TestProcess process = new TestProcess(workPath, cmd);
+    process.recordStartup = true;
+    if (AppCds.isEnabled()) {
+      process.appCds = AppCds.forJar(jar);
     }
+    return process;
+  }
+
+  /**
+   * Capture stdout and stderr instead of passing them through to the console. The output is
+   * written to the given file, and the last lines are kept in memory, see
+   * {@link Handle#getOutput()}.
+   *
+   * @param logFile : file receiving the output; null to keep it in memory only
+   */
+  public TestProcess captureOutput(Path logFile) {
+    return captureOutput(logFile, CAPTURE_LINES);
+  }
+
+  /**
+   * Capture stdout and stderr instead of passing them through to the console.
+   *
+   * @param logFile   : file receiving the output; null to keep it in memory only
+   * @param lastLines : number of most recent lines kept in memory
+   */
+  public TestProcess captureOutput(Path logFile, int lastLines) {
+    capture = true;
+    captureFile = logFile;
+    captureLines = lastLines;
+    builder.redirectErrorStream(true).redirectOutput(Redirect.PIPE);
+    return this;
+  }
 
+  /**
+   * Call a listener for every line of output, e.g. to react to a protocol marker. Listeners run
+   * on the pump thread and should return quickly. Enables capture mode without a log file if
+   * it is not enabled yet.
+   *
+   * @param listener : called with each line, without the line terminator
+   */
+  public TestProcess addLineListener(Consumer<String> listener) {
+    if (!capture) {
+      captureOutput(null);
+    }
+    lineListeners.add(listener);
+    return this;
   }
 
   /**
@@ -128,7 +188,76 @@ public class TestProcess extends TestCase {
    * @throws IOException if an I/O exception occurs
    */
   public Handle start() throws IOException {
-    return new Handle(builder.start());
+    AppCds.Launch launch = null;
+    List<String> command = builder.command();
+    if (appCds != null) {
+      launch = appCds.prepare();
+      List<String> withArchive = new ArrayList<>(command);
+      withArchive.addAll(1, launch.getOptions());
+      builder.command(withArchive);
+    }
+
+    long startNanos = System.nanoTime();
+    Process process;
+    try {
+      process = builder.start();
+    } catch (IOException e) {
+      if (launch != null) {
+        launch.exited(-1);
+      }
+      throw e;
+    } finally {
+      builder.command(command);
+    }
+    if (launch != null) {
+      final AppCds.Launch exited = launch;
+      process.onExit().thenAccept(p -> exited.exited(p.exitValue()));
+    }
+    record(process, startNanos);
+
+    ProcessOutput output = null;
+    if (capture) {
+      output = new ProcessOutput(captureFile, captureLines, lineListeners);
+      if (recordStartup) {
+        output.firstLine().thenAccept(nanos -> LatencyRecorder.getInstance().record(
+            LatencyRecorder.PHASE_JVM_STARTUP, Duration.ofNanos(nanos - startNanos)));
+      }
+      try {
+        output.pump(process.getInputStream());
+      } catch (IOException e) {
+        kill(process);
+        throw e;
+      }
+    }
+    return new Handle(process, output);
+  }
+
+  /**
+   * Count the spawn of the process and record it in the event stream now, and its exit later,
+   * with the device and phase of the thread that started it.
+   */
+  private void record(Process process, long startNanos) {
+    // The jar of a Java launch, else the executable
+    List<String> command = builder.command();
+    int jar = command.indexOf("-jar");
+    String path = command.get(jar >= 0 && jar + 1 < command.size() ? jar + 1 : 0);
+    String program = path.substring(path.lastIndexOf('/') + 1);
+    spawns.inc(program);
+    process.onExit().thenAccept(p -> {
+      if (p.exitValue() != 0) {
+        failedExits.inc(program);
+      }
+    });
+
+    EventStream events = EventStream.getInstance();
+    if (!events.isOpen()) {
+      return;
+    }
+    events.event(EventStream.SPAWN).field("pid", process.pid()).field("program", program).emit();
+    String device = events.getDevice();
+    String phase = events.getPhase();
+    process.onExit().thenAccept(p -> events.event(EventStream.EXIT).device(device).phase(phase)
+        .since(startNanos).field("pid", p.pid()).field("exitValue", p.exitValue()).emit());
   }
 
   /**
@@ -154,14 +283,30 @@ public class TestProcess extends TestCase {
   public class Handle implements AutoCloseable {
 
     Process process;
+    ProcessOutput output;
 
     /**
      * Constructor for Handle.
      *
-     * @param p argument of type Process
+     * @param p      argument of type Process
+     * @param output captured output, or null if the output is not captured
      */
-    private Handle(Process p) {
+    private Handle(Process p, ProcessOutput output) {
       process = p;
+      this.output = output;
+    }
+
+    /**
+     * Output of the subprocess in capture mode.
+     *
+     * @return the captured output
+     * @throws IllegalStateException if the output is not captured
+     */
+    public ProcessOutput getOutput() {
+      if (output == null) {
+        throw new IllegalStateException("output is not captured, see captureOutput()");
+      }
+      return output;
     }
 
     /**
@@ -173,7 +318,24 @@ public class TestProcess extends TestCase {
      * @throws InterruptedException when another thread interrupts (not caught)
      */
     public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
-      return process.waitFor(timeout, unit);
+      long start = System.nanoTime();
+      boolean exited = process.waitFor(timeout, unit);
+      if (!exited) {
+        waitTimeouts.inc("process");
+      }
+      EventStream.getInstance().event(EventStream.WAIT).since(start).field("pid", process.pid())
+          .field("outcome", exited ? "exited" : "timeout").emit();
+      return exited;
+    }
+
+    /**
+     * Future completed when the subprocess exits, e.g. to wait for either the exit or a log
+     * marker.
+     *
+     * @return future completed with the subprocess
+     */
+    public CompletableFuture<Process> onExit() {
+      return process.onExit();
     }
 
     /**
@@ -196,6 +358,9 @@ public class TestProcess extends TestCase {
         while (!process.waitFor(shortTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
           kill(process);
         }
+        if (output != null) {
+          output.awaitEnd(shortTimeout);
+        }
       } catch (InterruptedException e) {
         kill(process);
       }
@@ -6,15 +6,23 @@ package org.fidoalliance.fdo.test.common;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
  * Utilities for the FIDO-iot smoketest.
  */
 public class TestUtil {
 
+  private static final String APP_DATA = "app-data";
+
   /**
    * Send a command or series of commands to the command line.
    *
@@ -22,7 +30,7 @@ public class TestUtil {
    * @return the process executing the command(s)
    */
   public static Process executeCommand(String[] command) {
-    TestLogger.info("Command: " + Arrays.toString(command));
+    TestLogger.info("Command: {}", (Object) command);
     Process process = null;
     ProcessBuilder pb = new ProcessBuilder(command);
     pb.redirectErrorStream(true);
@@ -37,7 +45,8 @@ public class TestUtil {
   }
 
   /**
-   * Determine if a file contains a specific string.
+   * Determine if a file contains a specific string. The string is a regular expression; use
+   * {@link LogScanner} to search for literals, or for many patterns in one pass.
    *
    * @param file         string containing the name of the file to be searched
    * @param stringToFind the string to find
@@ -49,8 +58,7 @@ public class TestUtil {
   public static boolean fileContainsString(String file, String stringToFind, boolean findFirst)
       throws IOException, InterruptedException {
     boolean stringFound = false;
-    Pattern pattern = Pattern.compile(stringToFind);
-    Matcher matcher = pattern.matcher("");
+    Matcher matcher = LogScanner.compile(stringToFind).matcher("");
     BufferedReader br = null;
     String line;
     try {
@@ -63,7 +71,7 @@ public class TestUtil {
         matcher.reset(line);
         if (matcher.find()) {
           stringFound = true;
-          TestLogger.info("String found in file:  " + file + " in line containing: " + line);
+          TestLogger.info("String found in file:  {} in line containing: {}", file, line);
           if (findFirst) {
             break;
           }
@@ -76,4 +84,57 @@ public class TestUtil {
 
     return stringFound;
   }
+
+  /**
+   * Delete a file or a directory and everything below it.
+   *
+   * @param path file or directory to delete
+   * @throws IOException if an entry could not be deleted
+   */
+  public static void deleteRecursively(Path path) throws IOException {
+    try (Stream<Path> walk = Files.walk(path)) {
+      for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+        Files.deleteIfExists(p);
+      }
+    }
+  }
+
+  /**
+   * Create a working directory for a device from the device directory. Jars are linked where
+   * possible, other files are copied, and app-data starts empty, so devices run from their own
+   * copies do not share credentials or result files.
+   *
+   * @param deviceDir directory holding the device executable and its configuration
+   * @param workDir   directory to create; must not exist yet
+   * @throws IOException if a file could not be copied
+   */
+  public static void copyDeviceDirectory(Path deviceDir, Path workDir) throws IOException {
+    Files.walkFileTree(deviceDir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+          throws IOException {
+        if (dir.getFileName().toString().equals(APP_DATA) && !dir.equals(deviceDir)) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        Files.createDirectories(workDir.resolve(deviceDir.relativize(dir)));
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Path target = workDir.resolve(deviceDir.relativize(file));
+        if (file.toString().endsWith(".jar")) {
+          try {
+            Files.createSymbolicLink(target, file.toAbsolutePath());
+            return FileVisitResult.CONTINUE;
+          } catch (UnsupportedOperationException | IOException e) {
+            // Fall through and copy, e.g. on Windows without symlink privilege.
+          }
+        }
+        Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    Files.createDirectories(workDir.resolve(APP_DATA));
+  }
 }
@@ -4,6 +4,13 @@
 package org.fidoalliance.fdo.test.common;
 
 import java.io.Serializable;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import org.apache.logging.log4j.core.Layout;
 import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.appender.AbstractAppender;
@@ -13,34 +20,141 @@ import org.apache.logging.log4j.core.config.plugins.PluginElement;
 import org.apache.logging.log4j.core.config.plugins.PluginFactory;
 import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
 import org.apache.logging.log4j.core.layout.AbstractStringLayout;
+import org.testng.ITestResult;
 import org.testng.Reporter;
 
 /**
  * This module defines an appender for TestNG.
+ *
+ * <p>{@link Reporter#log(String)} is synchronized, so rather than calling it for every event the
+ * appender queues the formatted lines together with the test they belong to, and a background
+ * thread hands them to the reporter in batches, one call per test. Do not wrap this appender in
+ * an Async appender: the test is taken from the logging thread.
  */
 
 @Plugin(name = "TestNGReporter", category = "Core", elementType = "appender", printObject = true)
 public class TestngAppender extends AbstractAppender {
 
+  private static final int DEFAULT_BATCH_SIZE = 256;
+  private static final long FLUSH_INTERVAL_MS = 100;
+  private static final Set<TestngAppender> appenders = new CopyOnWriteArraySet<>();
+
+  private final int batchSize;
+  private final Queue<Line> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private Thread flusher;
+
   protected TestngAppender(String name, Layout<?> layout) {
+    this(name, layout, DEFAULT_BATCH_SIZE);
+  }
+
+  protected TestngAppender(String name, Layout<?> layout, int batchSize) {
     super(name, null, layout, false);
+    this.batchSize = batchSize;
   }
 
+  /**
+   * Create the appender from the log4j2 configuration.
+   */
   @PluginFactory
   public static TestngAppender createAppender(
       @PluginAttribute("name") @Required(message =
           "A name for the Appender must be specified") String name,
+      @PluginAttribute(value = "batchSize", defaultInt = DEFAULT_BATCH_SIZE) int batchSize,
       @PluginElement("Layout") Layout<? extends Serializable> layout) {
-    return new TestngAppender(name, layout);
+    return new TestngAppender(name, layout, Math.max(1, batchSize));
+  }
+
+  /**
+   * Hand everything queued so far to the TestNG reporter, e.g. before the reports are written.
+   */
+  public static void flushAll() {
+    for (TestngAppender appender : appenders) {
+      appender.flush();
+    }
+  }
+
+  @Override
+  public void start() {
+    super.start();
+    appenders.add(this);
+    flusher = new Thread(this::runFlusher, "testng-appender-" + getName());
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  @Override
+  public boolean stop(long timeout, TimeUnit timeUnit) {
+    setStopping();
+    appenders.remove(this);
+    if (flusher != null) {
+      flusher.interrupt();
+    }
+    flush();
+    return super.stop(timeout, timeUnit);
   }
 
   @Override
   public void append(final LogEvent event) {
+    // Format now: with garbage-free logging the event object is reused after this call.
     final Layout<? extends Serializable> layout = getLayout();
+    String text;
     if (layout != null && layout instanceof AbstractStringLayout) {
-      Reporter.log((String)(layout).toSerializable(event));
+      text = (String) (layout).toSerializable(event);
     } else {
-      Reporter.log(event.getMessage().getFormattedMessage());
+      text = event.getMessage().getFormattedMessage();
+    }
+    queue.add(new Line(Reporter.getCurrentTestResult(), text));
+    if (queued.incrementAndGet() >= batchSize && flusher != null) {
+      LockSupport.unpark(flusher);
+    }
+  }
+
+  private void runFlusher() {
+    while (!Thread.currentThread().isInterrupted()) {
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS));
+      flush();
+    }
+  }
+
+  /**
+   * Log queued lines, joining consecutive lines of the same test into one reporter call. The
+   * reporter attaches output to the current test of the calling thread, so that is set to the
+   * test each batch came from.
+   */
+  private synchronized void flush() {
+    ITestResult previous = Reporter.getCurrentTestResult();
+    StringBuilder batch = new StringBuilder();
+    ITestResult batchResult = null;
+    Line line;
+    while ((line = queue.poll()) != null) {
+      queued.decrementAndGet();
+      if (batch.length() > 0 && line.result != batchResult) {
+        report(batchResult, batch);
+      }
+      batchResult = line.result;
+      batch.append(line.text);
+    }
+    if (batch.length() > 0) {
+      report(batchResult, batch);
+    }
+    Reporter.setCurrentTestResult(previous);
+  }
+
+  private static void report(ITestResult result, StringBuilder batch) {
+    Reporter.setCurrentTestResult(result);
+    Reporter.log(batch.toString());
+    batch.setLength(0);
+  }
+
+  private static class Line {
+
+    private final ITestResult result;
+    private final String text;
+
+    Line(ITestResult result, String text) {
+      this.result = result;
+      this.text = text;
     }
   }
 }
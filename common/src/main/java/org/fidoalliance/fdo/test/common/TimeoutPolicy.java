@@ -0,0 +1,296 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Timeouts learned from how long each phase took in earlier runs, per device type, e.g. DI of
+ * the component sample.
+ *
+ * <p>The durations of phases that completed are kept across runs in a history file,
+ * -Dfdo.timeouts.file (default fdo-timeouts/history.tsv in the temporary directory), which
+ * holds the last {@value #HISTORY_SIZE} durations of each phase. Once a phase has
+ * {@value #MIN_SAMPLES} durations, its timeout is the -Dfdo.timeouts.percentile (default 99)
+ * percentile times {@value #FACTOR} plus -Dfdo.timeouts.margin seconds (default 5), kept
+ * between a floor and a ceiling. The ceiling is the configured timeout of the test, unless
+ * -Dfdo.timeout.PHASE.ceiling=S sets it; the floor is -Dfdo.timeout.PHASE.floor=S, else
+ * -Dfdo.timeouts.floor=S (default 5). So a broken run fails soon after a healthy one would have
+ * finished, and no run waits longer than it did before.
+ *
+ * <p>A phase that times out below its ceiling adds the timeout to its history, so the timeout
+ * grows back towards the ceiling if the environment has become slower. With
+ * -Dfdo.timeouts.adaptive=false the ceiling is always used.
+ */
+public class TimeoutPolicy {
+
+  // Device types; AIO is the PRI device onboarding with the all-in-one server
+  public static final String COMPONENT_SAMPLE = "component-sample";
+  public static final String AIO = "aio";
+  public static final String CLIENT_SDK = "client-sdk";
+
+  static final int HISTORY_SIZE = 100;
+  static final int MIN_SAMPLES = 5;
+  static final double FACTOR = 1.5;
+
+  private static final String ADAPTIVE_PROPERTY = "fdo.timeouts.adaptive";
+  private static final String FILE_PROPERTY = "fdo.timeouts.file";
+  private static final String PERCENTILE_PROPERTY = "fdo.timeouts.percentile";
+  private static final String MARGIN_PROPERTY = "fdo.timeouts.margin";
+  private static final String FLOOR_PROPERTY = "fdo.timeouts.floor";
+  private static final String PHASE_PROPERTY = "fdo.timeout.";
+
+  private static final TimeoutPolicy instance = new TimeoutPolicy();
+
+  // Durations in milliseconds by "deviceType/phase", oldest first
+  private final Map<String, Deque<Long>> history = new TreeMap<>();
+  // Durations observed by this JVM and not saved yet
+  private final Map<String, List<Long>> observed = new TreeMap<>();
+  private boolean loaded;
+
+  /**
+   * Policy shared by all tests in the JVM.
+   */
+  public static TimeoutPolicy getInstance() {
+    return instance;
+  }
+
+  /**
+   * Whether timeouts are learned; -Dfdo.timeouts.adaptive=false turns it off.
+   */
+  public static boolean isAdaptive() {
+    return Boolean.parseBoolean(System.getProperty(ADAPTIVE_PROPERTY, "true"));
+  }
+
+  /**
+   * Start timing a phase against its timeout.
+   *
+   * @param deviceType : e.g. {@link #COMPONENT_SAMPLE}
+   * @param phase      : e.g. {@link LatencyRecorder#PHASE_DI}
+   * @param configured : timeout configured by the test, the ceiling unless one is set
+   * @return the running deadline
+   */
+  public Deadline start(String deviceType, String phase, Duration configured) {
+    return new Deadline(deviceType, phase, configured, timeout(deviceType, phase, configured));
+  }
+
+  /**
+   * Timeout for a phase from its history, or the ceiling if there is not enough history.
+   *
+   * @param deviceType : e.g. {@link #COMPONENT_SAMPLE}
+   * @param phase      : e.g. {@link LatencyRecorder#PHASE_DI}
+   * @param configured : timeout configured by the test, the ceiling unless one is set
+   * @return the timeout
+   */
+  public synchronized Duration timeout(String deviceType, String phase, Duration configured) {
+    Duration ceiling = ceiling(phase, configured);
+    if (!isAdaptive()) {
+      return ceiling;
+    }
+    load();
+    Deque<Long> durations = history.get(key(deviceType, phase));
+    if (durations == null || durations.size() < MIN_SAMPLES) {
+      return ceiling;
+    }
+    long[] sorted = durations.stream().mapToLong(Long::longValue).sorted().toArray();
+    double percentile = Double.parseDouble(System.getProperty(PERCENTILE_PROPERTY, "99"));
+    int rank = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+    long learned = (long) (sorted[Math.max(0, Math.min(rank, sorted.length - 1))] * FACTOR)
+        + seconds(MARGIN_PROPERTY, 5).toMillis();
+    Duration floor = floor(phase, ceiling);
+    return Duration.ofMillis(Math.max(floor.toMillis(), Math.min(learned, ceiling.toMillis())));
+  }
+
+  /**
+   * Add the duration of a phase to its history.
+   */
+  public synchronized void record(String deviceType, String phase, Duration duration) {
+    load();
+    String key = key(deviceType, phase);
+    add(history, key, duration.toMillis());
+    observed.computeIfAbsent(key, k -> new ArrayList<>()).add(duration.toMillis());
+  }
+
+  /**
+   * Append the durations observed by this JVM to the history file. The file is locked while it
+   * is rewritten, so test runs sharing it do not lose each other's durations.
+   *
+   * @throws IOException if the history file cannot be written
+   */
+  public synchronized void save() throws IOException {
+    if (observed.isEmpty()) {
+      return;
+    }
+    Path file = historyFile();
+    Files.createDirectories(file.toAbsolutePath().getParent());
+    Path lockFile = file.resolveSibling(file.getFileName() + ".lock");
+    try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+        FileLock lock = channel.lock()) {
+      // Other runs may have saved since this one loaded the file
+      Map<String, Deque<Long>> merged = read(file);
+      observed.forEach((key, durations) -> durations.forEach(d -> add(merged, key, d)));
+      List<String> lines = new ArrayList<>();
+      merged.forEach((key, durations) -> lines.add(key + "\t" + durations.stream()
+          .map(String::valueOf).collect(Collectors.joining(","))));
+      Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+      Files.write(temp, lines, StandardCharsets.UTF_8);
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      history.clear();
+      history.putAll(merged);
+      observed.clear();
+    }
+    TestLogger.info("=====> Phase durations saved to {}", file);
+  }
+
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    Path file = historyFile();
+    try {
+      history.putAll(read(file));
+      TestLogger.debug("TimeoutPolicy: loaded {} phases from {}", history.size(), file);
+    } catch (IOException e) {
+      TestLogger.warn("=====> Cannot read phase durations from {}: {}", file, e.getMessage());
+    }
+  }
+
+  private static Map<String, Deque<Long>> read(Path file) throws IOException {
+    Map<String, Deque<Long>> durations = new TreeMap<>();
+    if (!Files.exists(file)) {
+      return durations;
+    }
+    for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+      String[] fields = line.split("\t");
+      if (fields.length != 2) {
+        continue;
+      }
+      try {
+        for (long d : Arrays.stream(fields[1].split(",")).mapToLong(Long::parseLong).toArray()) {
+          add(durations, fields[0], d);
+        }
+      } catch (NumberFormatException e) {
+        TestLogger.warn("=====> Ignoring bad line in {}: {}", file, line);
+      }
+    }
+    return durations;
+  }
+
+  private static void add(Map<String, Deque<Long>> durations, String key, long millis) {
+    Deque<Long> d = durations.computeIfAbsent(key, k -> new ArrayDeque<>());
+    d.addLast(millis);
+    while (d.size() > HISTORY_SIZE) {
+      d.removeFirst();
+    }
+  }
+
+  private static Path historyFile() {
+    return Paths.get(System.getProperty(FILE_PROPERTY,
+        Paths.get(System.getProperty("java.io.tmpdir"), "fdo-timeouts", "history.tsv")
+            .toString()));
+  }
+
+  private static Duration ceiling(String phase, Duration configured) {
+    String ceiling = System.getProperty(PHASE_PROPERTY + phase + ".ceiling");
+    return ceiling != null ? Duration.ofMillis((long) (Double.parseDouble(ceiling) * 1000))
+        : configured;
+  }
+
+  private static Duration floor(String phase, Duration ceiling) {
+    String floor = System.getProperty(PHASE_PROPERTY + phase + ".floor");
+    Duration d = floor != null ? Duration.ofMillis((long) (Double.parseDouble(floor) * 1000))
+        : seconds(FLOOR_PROPERTY, 5);
+    return d.compareTo(ceiling) < 0 ? d : ceiling;
+  }
+
+  private static Duration seconds(String property, double defaultSeconds) {
+    double seconds = Double.parseDouble(System.getProperty(property,
+        Double.toString(defaultSeconds)));
+    return Duration.ofMillis((long) (seconds * 1000));
+  }
+
+  private static String key(String deviceType, String phase) {
+    return deviceType + "/" + phase;
+  }
+
+  /**
+   * A phase being timed against its timeout.
+   */
+  public class Deadline {
+
+    private final String deviceType;
+    private final String phase;
+    private final Duration ceiling;
+    private final Duration timeout;
+    private final long start = System.nanoTime();
+
+    private Deadline(String deviceType, String phase, Duration configured, Duration timeout) {
+      this.deviceType = deviceType;
+      this.phase = phase;
+      this.ceiling = ceiling(phase, configured);
+      this.timeout = timeout;
+      if (timeout.compareTo(ceiling) < 0) {
+        TestLogger.info("=====> {} {} timeout {} ms (learned; ceiling {} ms)", deviceType, phase,
+            timeout.toMillis(), ceiling.toMillis());
+      }
+    }
+
+    public Duration getTimeout() {
+      return timeout;
+    }
+
+    /**
+     * Time left until the deadline, never negative.
+     */
+    public Duration remaining() {
+      return Duration.ofNanos(Math.max(0, start + timeout.toNanos() - System.nanoTime()));
+    }
+
+    /**
+     * The phase ended before the deadline. Only a successful phase adds its duration to the
+     * history, so a device failing fast does not shorten the timeout.
+     *
+     * @param success : whether the phase succeeded
+     */
+    public void complete(boolean success) {
+      if (success) {
+        record(deviceType, phase, Duration.ofNanos(System.nanoTime() - start));
+      }
+    }
+
+    /**
+     * The phase ran out of time. A learned timeout is added to the history, so it grows if the
+     * phase has become slower.
+     */
+    public void expire() {
+      boolean learned = timeout.compareTo(ceiling) < 0;
+      TestLogger.warn("=====> {} {} timed out after {} ms{}", deviceType, phase,
+          timeout.toMillis(), learned ? " (learned timeout; ceiling " + ceiling.toMillis()
+              + " ms)" : "");
+      if (learned) {
+        record(deviceType, phase, timeout);
+      }
+    }
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Waits for the owner to register a device with the rendezvous server (TO0) before the device
+ * starts TO, instead of sleeping a fixed time.
+ *
+ * <p>The owner state of the device is polled with exponential backoff until it reports a TO0
+ * expiry, i.e. the rendezvous server has accepted the registration. An owner that does not
+ * report TO0 state (no state endpoint, or no expiry field) cannot be observed; the wait then
+ * sleeps until the deadline, as the tests did before.
+ */
+public class To0Wait {
+
+  // Field of the owner state set once the rendezvous server accepted the registration
+  public static final String EXPIRY_FIELD = "to0Expiry";
+
+  private static final Duration initialBackoff = Duration.of(200, ChronoUnit.MILLIS);
+  private static final Duration maxBackoff = Duration.of(5, ChronoUnit.SECONDS);
+
+  private static final MetricsRegistry.Counter waitTimeouts =
+      MetricsRegistry.getInstance().waitTimeouts();
+
+  private final FdoRestClient owner;
+  private String completionField = EXPIRY_FIELD;
+
+  /**
+   * Parameterized constructor for To0Wait.
+   *
+   * @param owner : client of the owner REST API
+   */
+  public To0Wait(FdoRestClient owner) {
+    this.owner = owner;
+  }
+
+  /**
+   * Set the field of the owner state that is set once TO0 is complete.
+   */
+  public To0Wait setCompletionField(String completionField) {
+    this.completionField = completionField;
+    return this;
+  }
+
+  /**
+   * Wait until the owner reports TO0 complete for a device, or the deadline passes. A completed
+   * wait adds its duration to the deadline's history; a wait that ran out of time expires it.
+   *
+   * @param guid     : device GUID, see {@link ArtifactStore#getGuid(String)}
+   * @param deadline : deadline of the wait, e.g. from {@link TimeoutPolicy#start}
+   * @return true if TO0 completed, false if it could not be confirmed before the deadline
+   * @throws InterruptedException when another thread interrupts (not caught)
+   */
+  public boolean await(String guid, TimeoutPolicy.Deadline deadline)
+      throws InterruptedException {
+    long start = System.nanoTime();
+    long backoff = initialBackoff.toMillis();
+    int attempts = 0;
+    while (true) {
+      attempts++;
+      Boolean complete = isComplete(guid);
+      if (complete == null) {
+        TestLogger.warn("=====> Owner does not report TO0 state; waiting {} ms for TO0",
+            deadline.remaining().toMillis());
+        Thread.sleep(deadline.remaining().toMillis());
+        waitEvent(start, "unobservable", attempts);
+        return false;
+      }
+      if (complete) {
+        TestLogger.info("=====> TO0 of {} complete after {} ms ({} attempts)", guid,
+            Duration.ofNanos(System.nanoTime() - start).toMillis(), attempts);
+        deadline.complete(true);
+        waitEvent(start, "complete", attempts);
+        return true;
+      }
+      long remaining = deadline.remaining().toMillis();
+      if (remaining <= 0) {
+        deadline.expire();
+        waitTimeouts.inc("to0");
+        waitEvent(start, "timeout", attempts);
+        return false;
+      }
+      Thread.sleep(Math.min(backoff, remaining));
+      backoff = Math.min(backoff * 2, maxBackoff.toMillis());
+    }
+  }
+
+  /**
+   * Whether the owner state reports TO0 complete; null if the owner does not report it.
+   */
+  private Boolean isComplete(String guid) throws InterruptedException {
+    FdoRestClient.Response state;
+    try {
+      state = owner.getOwnerState(guid);
+    } catch (IOException e) {
+      TestLogger.debug("To0Wait: cannot fetch owner state of {}: {}", guid, e.getMessage());
+      return false;
+    }
+    if (state.getStatus() == 404 || state.getStatus() == 405 || state.getStatus() == 501) {
+      return null;
+    }
+    if (!state.isSuccess()) {
+      return false;
+    }
+    String expiry = field(state.getBodyAsString(), completionField);
+    if (expiry == null) {
+      return null;
+    }
+    return !expiry.isEmpty() && !expiry.equals("null") && !expiry.equals("0");
+  }
+
+  /**
+   * Value of the first string, number or literal field of the name in a JSON body, without
+   * quotes; null if there is none. Escapes in strings are kept as they are.
+   */
+  static String field(String body, String name) {
+    Matcher matcher = Pattern.compile("\"" + Pattern.quote(name)
+        + "\"\\s*:\\s*(?:\"((?:[^\"\\\\]|\\\\.)*)\"|([^\\s,}\\]]+))").matcher(body);
+    if (!matcher.find()) {
+      return null;
+    }
+    return matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+  }
+
+  private static void waitEvent(long start, String outcome, int attempts) {
+    EventStream.getInstance().event(EventStream.WAIT).since(start).field("probe", "to0")
+        .field("outcome", outcome).field("attempts", attempts).emit();
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Two isolated AIO stacks started through StackManager with the stub docker of src/test/bin.
+ * Listeners on the allocated ports stand in for the containers.
+ */
+public class AioStackTest {
+
+  private Path testDir;
+  private Path dbDir;
+  private Path aioDir;
+  private final List<AutoCloseable> resources = new ArrayList<>();
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    testDir = Files.createTempDirectory("fdo-aio-stack");
+    dbDir = Files.createDirectories(testDir.resolve("binaries/pri-fidoiot/db"));
+    aioDir = Files.createDirectories(testDir.resolve("binaries/pri-fidoiot/aio"));
+    Files.write(dbDir.resolve("docker-compose.yml"), "services: {}\n".getBytes());
+    Files.write(aioDir.resolve("docker-compose.yml"), "services: {}\n".getBytes());
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void tearDown() throws Exception {
+    Collections.reverse(resources);
+    for (AutoCloseable resource : resources) {
+      resource.close();
+    }
+    resources.clear();
+    try (Stream<Path> walk = Files.walk(testDir)) {
+      for (Path path : walk.sorted(Collections.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  /**
+   * Isolated stack N with something listening on its database and HTTP ports.
+   */
+  private AioStack isolated(int index) throws Exception {
+    PortAllocator.PortRange ports = PortAllocator.getInstance().allocate(AioStack.PORT_COUNT);
+    resources.add(ports);
+    AioStack stack = AioStack.isolated(testDir.toString(), index, ports);
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+    ServerSocket db = new ServerSocket(stack.getDbPort(), 50, loopback);
+    resources.add(db);
+    HttpServer aio = HttpServer.create(new InetSocketAddress(loopback, stack.getHttpPort()), 0);
+    aio.createContext("/health", exchange -> {
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+    });
+    aio.start();
+    resources.add(() -> aio.stop(0));
+    return stack;
+  }
+
+  private static List<String> calls(Path dir) throws Exception {
+    return Files.readAllLines(dir.resolve(".docker-calls"), StandardCharsets.UTF_8);
+  }
+
+  private static String override(Path dir, String project) throws Exception {
+    return new String(Files.readAllBytes(dir.resolve(".fdo-stack/" + project + "-override.yml")),
+        StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void twoStacksGetOverridesOfTheirOwn() throws Exception {
+    AioStack first = isolated(1);
+    AioStack second = isolated(2);
+    Assert.assertNotEquals(first.getHttpPort(), second.getHttpPort());
+
+    StackManager manager = new StackManager();
+    Path logDir = Files.createDirectories(testDir.resolve("logs"));
+    try (StackManager.Lease lease1 = manager.acquire(first.getStacks(), logDir,
+            Duration.ofSeconds(10));
+        StackManager.Lease lease2 = manager.acquire(second.getStacks(), logDir,
+            Duration.ofSeconds(10))) {
+      Assert.assertEquals(lease1.getStackNames(), List.of("aio-1", "db-1"));
+      Assert.assertEquals(lease2.getStackNames(), List.of("aio-2", "db-2"));
+    }
+
+    String db = "-f docker-compose.yml -f .fdo-stack/fdo-%d-db-override.yml";
+    String aio = "-f docker-compose.yml -f .fdo-stack/fdo-%d-aio-override.yml";
+    Assert.assertEquals(calls(dbDir), List.of(
+        "compose --project-name fdo-1-db " + String.format(db, 1) + " up --detach --build",
+        "compose --project-name fdo-2-db " + String.format(db, 2) + " up --detach --build",
+        "compose --project-name fdo-2-db " + String.format(db, 2) + " logs --no-color",
+        "compose --project-name fdo-2-db " + String.format(db, 2) + " down",
+        "compose --project-name fdo-1-db " + String.format(db, 1) + " logs --no-color",
+        "compose --project-name fdo-1-db " + String.format(db, 1) + " down"));
+    Assert.assertEquals(calls(aioDir), List.of(
+        "compose --project-name fdo-1-aio " + String.format(aio, 1) + " up --detach --build",
+        "compose --project-name fdo-2-aio " + String.format(aio, 2) + " up --detach --build",
+        "compose --project-name fdo-2-aio " + String.format(aio, 2) + " logs --no-color",
+        "compose --project-name fdo-2-aio " + String.format(aio, 2) + " down",
+        "compose --project-name fdo-1-aio " + String.format(aio, 1) + " logs --no-color",
+        "compose --project-name fdo-1-aio " + String.format(aio, 1) + " down"));
+
+    for (AioStack stack : List.of(first, second)) {
+      int n = stack == first ? 1 : 2;
+      Assert.assertEquals(override(dbDir, "fdo-" + n + "-db"), ""
+          + "# Generated for isolated AIO stack " + n + "\n"
+          + "services:\n"
+          + "  db:\n"
+          + "    container_name: fdo-" + n + "-db\n"
+          + "    ports: !override\n"
+          + "      - \"" + stack.getDbPort() + ":3306\"\n"
+          + "    networks:\n"
+          + "      stack:\n"
+          + "        aliases:\n"
+          + "          - db\n"
+          + "          - host.docker.internal\n"
+          + "networks:\n"
+          + "  stack:\n"
+          + "    name: fdo-" + n + "\n");
+      Assert.assertEquals(override(aioDir, "fdo-" + n + "-aio"), ""
+          + "# Generated for isolated AIO stack " + n + "\n"
+          + "services:\n"
+          + "  aio:\n"
+          + "    container_name: fdo-" + n + "-aio\n"
+          + "    ports: !override\n"
+          + "      - \"" + stack.getHttpPort() + ":8080\"\n"
+          + "      - \"" + stack.getHttpsPort() + ":8443\"\n"
+          + "    extra_hosts: !reset []\n"
+          + "    networks:\n"
+          + "      - stack\n"
+          + "networks:\n"
+          + "  stack:\n"
+          + "    name: fdo-" + n + "\n"
+          + "    external: true\n");
+    }
+  }
+}
@@ -0,0 +1,117 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Emptying output directories: every file goes, only credentials and vouchers are archived.
+ */
+public class ArtifactCleanerTest {
+
+  private Path root;
+  private Path device;
+  private Path owner;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("fdo-cleaner");
+    device = Files.createDirectories(root.resolve("tmp/deviceOutputDir"));
+    owner = Files.createDirectories(root.resolve("tmp/ownerOutputDir"));
+    write(device.resolve("device.oc"), "credential");
+    write(device.resolve("device.log"), "log");
+    write(owner.resolve("owner.op"), "voucher");
+    write(owner.resolve("owner.txt"), "text");
+    Files.createDirectories(owner.resolve("keep"));
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void tearDown() throws IOException {
+    TestUtil.deleteRecursively(root);
+  }
+
+  private static void write(Path file, String content) throws IOException {
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private ArtifactCleaner cleaner() {
+    return new ArtifactCleaner(root.resolve("tmp"), Arrays.asList(device, owner,
+        root.resolve("tmp/missing")));
+  }
+
+  private static List<String> list(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.map(f -> f.getFileName().toString()).sorted().collect(Collectors.toList());
+    }
+  }
+
+  private static Set<String> entries(Path zip) throws IOException {
+    Set<String> names = new TreeSet<>();
+    try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip))) {
+      for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+        names.add(entry.getName() + "=" + new String(in.readAllBytes(), StandardCharsets.UTF_8));
+      }
+    }
+    return names;
+  }
+
+  @Test
+  public void emptiesDirectoriesAndArchivesOnlyCredentials() throws Exception {
+    Path archive = root.resolve("logs/credentials.zip");
+    cleaner().setBackground(false).clean(archive).get();
+
+    Assert.assertEquals(list(device), Collections.emptyList());
+    Assert.assertEquals(list(owner), List.of("keep"));
+    Assert.assertEquals(entries(archive), new TreeSet<>(List.of(
+        "deviceOutputDir/device.oc=credential", "ownerOutputDir/owner.op=voucher")));
+    Assert.assertEquals(list(root.resolve("tmp/.trash")), Collections.emptyList());
+  }
+
+  @Test
+  public void cleansUpInTheBackground() throws Exception {
+    Path archive = root.resolve("logs/credentials.zip");
+    cleaner().setBackground(true).clean(archive).get(10, TimeUnit.SECONDS);
+
+    Assert.assertEquals(list(device), Collections.emptyList());
+    Assert.assertEquals(list(owner), List.of("keep"));
+    Assert.assertEquals(entries(archive).size(), 2);
+    Assert.assertEquals(list(root.resolve("tmp/.trash")), Collections.emptyList());
+  }
+
+  @Test
+  public void logsCredentialsWithoutAnArchive() throws Exception {
+    cleaner().setBackground(false).clean(null).get();
+
+    Assert.assertEquals(list(device), Collections.emptyList());
+    Assert.assertEquals(list(owner), List.of("keep"));
+    Assert.assertFalse(Files.exists(root.resolve("logs")));
+  }
+
+  @Test
+  public void discardsATree() throws Exception {
+    Path tree = root.resolve("tmp/runs/row-1");
+    write(Files.createDirectories(tree.resolve("sub")).resolve("file"), "x");
+    ArtifactCleaner.discard(root.resolve("tmp"), tree).get(10, TimeUnit.SECONDS);
+
+    Assert.assertFalse(Files.exists(tree));
+    Assert.assertEquals(list(root.resolve("tmp/.trash")), Collections.emptyList());
+  }
+}
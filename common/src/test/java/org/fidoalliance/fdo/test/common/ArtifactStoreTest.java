@@ -0,0 +1,132 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * ArtifactStore on a temporary directory; a second store on the same directory stands in for
+ * another JVM.
+ */
+public class ArtifactStoreTest {
+
+  private Path dir;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("fdo-artifacts").toAbsolutePath();
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void tearDown() throws IOException {
+    TestUtil.deleteRecursively(dir);
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private long indexLines() throws IOException {
+    return Files.readAllLines(dir.resolve("index")).size();
+  }
+
+  @Test
+  public void putsAndGetsArtifacts() throws Exception {
+    ArtifactStore store = ArtifactStore.openUnshared(dir);
+    Assert.assertNull(store.get("0", ArtifactStore.Kind.VOUCHER));
+    store.put("0", ArtifactStore.Kind.VOUCHER, bytes("v1"));
+    store.put("0", ArtifactStore.Kind.VOUCHER, bytes("v2"));
+    store.put("0", ArtifactStore.Kind.CREDENTIAL, bytes("c"));
+
+    Assert.assertEquals(store.get("0", ArtifactStore.Kind.VOUCHER), bytes("v2"));
+    Assert.assertEquals(store.get("0", ArtifactStore.Kind.CREDENTIAL), bytes("c"));
+    Assert.assertTrue(store.contains("0", ArtifactStore.Kind.VOUCHER));
+    Assert.assertFalse(store.contains("0", ArtifactStore.Kind.EXTENDED_VOUCHER));
+    Assert.assertEquals(store.getSerials(), Set.of("0"));
+  }
+
+  @Test
+  public void findsSerialsByGuid() throws Exception {
+    ArtifactStore store = ArtifactStore.openUnshared(dir);
+    store.putGuid("0", "g1");
+    store.putGuid("1", "g2");
+    Assert.assertEquals(store.getGuid("0"), "g1");
+    Assert.assertEquals(store.findSerial("g2"), "1");
+
+    store.putGuid("0", "g3");
+    Assert.assertEquals(store.getGuid("0"), "g3");
+    Assert.assertEquals(store.findSerial("g3"), "0");
+    Assert.assertNull(store.findSerial("g1"));
+    Assert.assertNull(store.getGuid("2"));
+  }
+
+  @Test
+  public void escapesSerials() throws Exception {
+    Assert.assertEquals(ArtifactStore.escape("ab-1_2.x"), "ab-1_2.x");
+    Assert.assertEquals(ArtifactStore.escape(".hidden"), "%2Ehidden");
+    Assert.assertEquals(ArtifactStore.escape("a/b\tc"), "a%2Fb%09c");
+    Assert.assertEquals(ArtifactStore.escape("é"), "%C3%A9");
+    for (String serial : new String[] {"ab-1_2.x", ".hidden", "a/b\tc", "é", "..", "%41"}) {
+      Assert.assertEquals(ArtifactStore.unescape(ArtifactStore.escape(serial)), serial);
+    }
+
+    ArtifactStore store = ArtifactStore.openUnshared(dir);
+    store.put("../x", ArtifactStore.Kind.VOUCHER, bytes("v"));
+    store.putGuid("a\tb", "g");
+    Assert.assertTrue(store.getPath("../x", ArtifactStore.Kind.VOUCHER)
+        .startsWith(dir.resolve("devices")));
+    ArtifactStore reloaded = ArtifactStore.openUnshared(dir);
+    Assert.assertEquals(reloaded.get("../x", ArtifactStore.Kind.VOUCHER), bytes("v"));
+    Assert.assertEquals(reloaded.findSerial("g"), "a\tb");
+  }
+
+  @Test
+  public void reloadsFromTheIndex() throws Exception {
+    ArtifactStore store = ArtifactStore.openUnshared(dir);
+    store.put("0", ArtifactStore.Kind.EXTENDED_VOUCHER, bytes("ext"));
+    store.putGuid("0", "g0");
+    // A line cut short by a crash is skipped
+    Files.write(dir.resolve("index"), bytes("1\tguid"), StandardOpenOption.APPEND);
+
+    ArtifactStore reloaded = ArtifactStore.openUnshared(dir);
+    Assert.assertEquals(reloaded.get("0", ArtifactStore.Kind.EXTENDED_VOUCHER), bytes("ext"));
+    Assert.assertEquals(reloaded.getGuid("0"), "g0");
+    Assert.assertEquals(reloaded.findSerial("g0"), "0");
+    Assert.assertEquals(reloaded.getSerials(), Set.of("0"));
+  }
+
+  @Test
+  public void compactsWithoutLosingAnotherStoresAppends() throws Exception {
+    ArtifactStore other = ArtifactStore.openUnshared(dir);
+    for (int i = 0; i < 3; i++) {
+      other.put("0", ArtifactStore.Kind.VOUCHER, bytes("v" + i));
+      other.putGuid("0", "g" + i);
+    }
+    Assert.assertEquals(indexLines(), 6);
+
+    ArtifactStore compacting = ArtifactStore.openUnshared(dir);
+    Assert.assertEquals(indexLines(), 2);
+    Assert.assertEquals(compacting.getGuid("0"), "g2");
+
+    // The store opened before the compaction still appends to the live index
+    other.put("1", ArtifactStore.Kind.VOUCHER, bytes("w"));
+    other.putGuid("1", "h");
+    Assert.assertEquals(indexLines(), 4);
+
+    ArtifactStore reloaded = ArtifactStore.openUnshared(dir);
+    Assert.assertEquals(reloaded.get("0", ArtifactStore.Kind.VOUCHER), bytes("v2"));
+    Assert.assertEquals(reloaded.getGuid("0"), "g2");
+    Assert.assertEquals(reloaded.get("1", ArtifactStore.Kind.VOUCHER), bytes("w"));
+    Assert.assertEquals(reloaded.findSerial("h"), "1");
+  }
+}
@@ -0,0 +1,155 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * RFC 4180 parsing of CsvReader and the shard-filtering row iterator of CsvUtils.
+ */
+public class CsvReaderTest {
+
+  private Path dir;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("fdo-csv");
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void tearDown() throws IOException {
+    TestUtil.deleteRecursively(dir);
+  }
+
+  private static List<List<String>> parse(String text) throws IOException {
+    List<List<String>> records = new ArrayList<>();
+    try (CsvReader reader = new CsvReader(new StringReader(text))) {
+      while (reader.hasNext()) {
+        records.add(List.of(reader.next()));
+      }
+    }
+    return records;
+  }
+
+  @Test
+  public void parsesQuotedFields() throws Exception {
+    Assert.assertEquals(parse("a,\"b,c\",d\n"), List.of(List.of("a", "b,c", "d")));
+    Assert.assertEquals(parse("\"say \"\"hi\"\"\",x\n"), List.of(List.of("say \"hi\"", "x")));
+    Assert.assertEquals(parse("\"\",\"\"\"\"\n"), List.of(List.of("", "\"")));
+    // A quote inside an unquoted field is kept as it is
+    Assert.assertEquals(parse("a\"b,c\n"), List.of(List.of("a\"b", "c")));
+  }
+
+  @Test
+  public void keepsLineBreaksInQuotedFields() throws Exception {
+    Assert.assertEquals(parse("1,\"line1\r\nline2\",3\r\n4,5,6\r\n"),
+        List.of(List.of("1", "line1\r\nline2", "3"), List.of("4", "5", "6")));
+    Assert.assertEquals(parse("\"a\nb\"\n"), List.of(List.of("a\nb")));
+  }
+
+  @Test
+  public void keepsEmptyFields() throws Exception {
+    Assert.assertEquals(parse("a,b,\n"), List.of(List.of("a", "b", "")));
+    Assert.assertEquals(parse("a,b,"), List.of(List.of("a", "b", "")));
+    Assert.assertEquals(parse(",\n"), List.of(List.of("", "")));
+    Assert.assertEquals(parse("a,,c"), List.of(List.of("a", "", "c")));
+  }
+
+  @Test
+  public void skipsBlankLinesAndCountsLines() throws Exception {
+    try (CsvReader reader = new CsvReader(new StringReader("a\n\n\r\n\"b\nc\"\nd"))) {
+      Assert.assertEquals(reader.next(), new String[] {"a"});
+      Assert.assertEquals(reader.getLineNumber(), 2);
+      Assert.assertEquals(reader.next(), new String[] {"b\nc"});
+      Assert.assertEquals(reader.next(), new String[] {"d"});
+      Assert.assertFalse(reader.hasNext());
+    }
+    Assert.assertEquals(parse(""), List.of());
+    Assert.assertEquals(parse("\n\n"), List.of());
+  }
+
+  @Test
+  public void parsesRecordsAcrossBufferBoundaries() throws Exception {
+    String longField = "x".repeat(10000);
+    Assert.assertEquals(parse("\"" + longField + "\"\"\",y\r\nz\n"),
+        List.of(List.of(longField + "\"", "y"), List.of("z")));
+  }
+
+  @Test(expectedExceptions = UncheckedIOException.class,
+      expectedExceptionsMessageRegExp = ".*starting on line 2.*")
+  public void rejectsUnterminatedQuote() throws Exception {
+    parse("a\n\"b,c\n");
+  }
+
+  private Path write(String text) throws IOException {
+    Path file = dir.resolve("rows.csv");
+    Files.write(file, text.getBytes(Charset.defaultCharset()));
+    return file;
+  }
+
+  private static List<List<String>> rows(Iterator<Object[]> it) {
+    List<List<String>> rows = new ArrayList<>();
+    while (it.hasNext()) {
+      rows.add(List.of((String[]) it.next()));
+    }
+    return rows;
+  }
+
+  @Test
+  public void iteratesRowsOfTheFile() throws Exception {
+    Path file = write("testName,enabled,device\nr1,true,\"a,b\"\nr2,false\n");
+    Assert.assertEquals(rows(CsvUtils.getDataIterator(file.toString(), new Shard(0, 1))),
+        List.of(List.of("r1", "true", "a,b"), List.of("r2", "false", "")));
+  }
+
+  @Test
+  public void splitsRowsOverShards() throws Exception {
+    StringBuilder csv = new StringBuilder("testName,enabled\n");
+    for (int i = 0; i < 200; i++) {
+      csv.append("row-").append(i).append(",true\n");
+    }
+    Path file = write(csv.toString());
+    Set<String> seen = new TreeSet<>();
+    int total = 0;
+    for (int index = 0; index < 3; index++) {
+      for (List<String> row : rows(CsvUtils.getDataIterator(file.toString(),
+          new Shard(index, 3)))) {
+        Assert.assertTrue(new Shard(index, 3).contains(row.toArray(new String[0])));
+        seen.add(row.get(0));
+        total++;
+      }
+    }
+    Assert.assertEquals(total, 200);
+    Assert.assertEquals(seen.size(), 200);
+  }
+
+  @Test
+  public void parsesRowsAsTheyAreRequested() throws Exception {
+    // The broken last row is only reached after the good rows have been handed out
+    Path file = write("testName,enabled\nr1,true\nr2,true\n\"r3,true\n");
+    Iterator<Object[]> it = CsvUtils.getDataIterator(file.toString(), new Shard(0, 1));
+    Assert.assertEquals(it.next(), new String[] {"r1", "true"});
+    Assert.assertEquals(it.next(), new String[] {"r2", "true"});
+    Assert.assertThrows(UncheckedIOException.class, it::hasNext);
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void rejectsFileWithoutHeader() throws Exception {
+    CsvUtils.getDataIterator(write("").toString(), new Shard(0, 1));
+  }
+}
@@ -0,0 +1,43 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Which digest challenges DigestAuthenticator answers, and how.
+ */
+public class DigestAuthenticatorTest {
+
+  @Test
+  public void answersAuthFromQopList() {
+    DigestAuthenticator digest = new DigestAuthenticator("apiUser", "secret");
+    Assert.assertTrue(digest.update("Digest realm=\"fdo\", nonce=\"n1\", qop=\"auth-int, auth\""));
+    String header = digest.authorization("GET", "/api/v1/vouchers/0");
+    Assert.assertTrue(header.contains(", qop=auth, nc=00000001,"), header);
+  }
+
+  @Test
+  public void answersWithoutQopWhenNoneOffered() {
+    DigestAuthenticator digest = new DigestAuthenticator("apiUser", "secret");
+    Assert.assertTrue(digest.update("Digest realm=\"fdo\", nonce=\"n1\""));
+    Assert.assertFalse(digest.authorization("GET", "/").contains("qop="));
+  }
+
+  @Test
+  public void rejectsAuthIntOnly() {
+    DigestAuthenticator digest = new DigestAuthenticator("apiUser", "secret");
+    Assert.assertThrows(IllegalStateException.class,
+        () -> digest.update("Digest realm=\"fdo\", nonce=\"n1\", qop=\"auth-int\""));
+    Assert.assertFalse(digest.hasChallenge());
+  }
+
+  @Test
+  public void ignoresOtherSchemes() {
+    DigestAuthenticator digest = new DigestAuthenticator("apiUser", "secret");
+    Assert.assertFalse(digest.update("Basic realm=\"fdo\""));
+    Assert.assertNull(digest.authorization("GET", "/"));
+  }
+}
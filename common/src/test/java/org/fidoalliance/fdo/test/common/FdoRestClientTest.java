@@ -0,0 +1,94 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * FdoRestClient against a stub server that asks for digest credentials.
+ */
+public class FdoRestClientTest {
+
+  private HttpServer server;
+  private final List<String> requests = new CopyOnWriteArrayList<>();
+  private final AtomicLong received = new AtomicLong();
+  private Path dir;
+
+  @BeforeMethod
+  public void startServer() throws Exception {
+    requests.clear();
+    received.set(0);
+    dir = Files.createTempDirectory("fdo-rest-client");
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", exchange -> {
+      String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+      requests.add(exchange.getRequestMethod() + (authorization == null ? "" : " auth"));
+      // Read in full either way, so the connection can be kept alive
+      long length;
+      try (InputStream in = exchange.getRequestBody()) {
+        length = in.transferTo(OutputStream.nullOutputStream());
+      }
+      if (authorization == null) {
+        exchange.getResponseHeaders().add("WWW-Authenticate",
+            "Digest realm=\"fdo\", nonce=\"n1\", qop=\"auth\"");
+        exchange.sendResponseHeaders(401, -1);
+      } else {
+        received.addAndGet(length);
+        exchange.sendResponseHeaders(200, -1);
+      }
+      exchange.close();
+    });
+    server.start();
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void stopServer() throws Exception {
+    server.stop(0);
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  private FdoRestClient client() {
+    return new FdoRestClient("http://localhost:" + server.getAddress().getPort(), "apiUser",
+        "secret");
+  }
+
+  @Test
+  public void largeUploadGetsChallengeWithHead() throws Exception {
+    long size = 3 * FdoRestClient.LARGE_BODY;
+    Path payload = PayloadGenerator.generate(dir.resolve("payload.bin"), size);
+    FdoRestClient.Response response = client().uploadResource("payload.bin", payload);
+    Assert.assertTrue(response.isSuccess(), response.toString());
+    Assert.assertEquals(requests, List.of("HEAD", "POST auth"));
+    Assert.assertEquals(received.get(), size);
+    Assert.assertEquals(response.getSentBytes(), size);
+  }
+
+  @Test
+  public void smallRequestAnswersChallengeOnce() throws Exception {
+    FdoRestClient client = client();
+    Assert.assertTrue(client.postSvi("[]").isSuccess());
+    Assert.assertTrue(client.postSvi("[]").isSuccess());
+    // The nonce is kept, so only the first request pays the 401
+    Assert.assertEquals(requests, List.of("POST", "POST auth", "POST auth"));
+  }
+}
@@ -0,0 +1,54 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Snapshots of LatencyRecorder taken while other threads record.
+ */
+public class LatencyRecorderTest {
+
+  @Test
+  public void snapshotWhileRecording() throws Exception {
+    LatencyRecorder recorder = new LatencyRecorder();
+    int threads = 4;
+    int samples = 20_000;
+    CountDownLatch started = new CountDownLatch(threads);
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      Thread worker = new Thread(() -> {
+        started.countDown();
+        for (int i = 1; i <= samples; i++) {
+          recorder.record("phase", Duration.ofMillis(i % 100 + 1));
+        }
+      });
+      worker.start();
+      workers.add(worker);
+    }
+    started.await();
+    long previous = 0;
+    while (workers.stream().anyMatch(Thread::isAlive)) {
+      LatencyHistogram h = recorder.snapshot().get("phase");
+      long count = h == null ? 0 : h.getTotalCount();
+      Assert.assertTrue(count >= previous, count + " after " + previous);
+      if (h != null) {
+        Assert.assertTrue(h.getMax() <= 100_000, "max " + h.getMax());
+      }
+      previous = count;
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    LatencyHistogram h = recorder.snapshot().get("phase");
+    Assert.assertEquals(h.getTotalCount(), (long) threads * samples);
+    Assert.assertEquals(h.getMin(), 1_000);
+    Assert.assertEquals(h.getMax(), 100_000);
+  }
+}
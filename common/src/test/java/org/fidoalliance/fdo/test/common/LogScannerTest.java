@@ -0,0 +1,185 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * LogScanner against hand-checked cases and against a naive search of the same text, for files
+ * read in one go and files that are memory-mapped.
+ */
+public class LogScannerTest {
+
+  private Path dir;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("fdo-log-scanner");
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void tearDown() throws IOException {
+    TestUtil.deleteRecursively(dir);
+  }
+
+  private Path write(String name, String text) throws IOException {
+    return Files.write(dir.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void countsOverlappingMatches() throws Exception {
+    LogScanner.Result result = new LogScanner().addLiteral("aa").addLiteral("aaa")
+        .scan(write("a.log", "aaaa"));
+    Assert.assertEquals(result.getCount("aa"), 3);
+    Assert.assertEquals(result.getOffsets("aa"), new long[] {0, 1, 2});
+    Assert.assertEquals(result.getOffsets("aaa"), new long[] {0, 1});
+  }
+
+  @Test
+  public void findsPatternsThatAreSuffixesOfEachOther() throws Exception {
+    LogScanner.Result result = new LogScanner().addLiteral("he").addLiteral("she")
+        .addLiteral("his").addLiteral("hers").scan(write("a.log", "ushers and his\n"));
+    Assert.assertEquals(result.getOffsets("she"), new long[] {1});
+    Assert.assertEquals(result.getOffsets("he"), new long[] {2});
+    Assert.assertEquals(result.getOffsets("hers"), new long[] {2});
+    Assert.assertEquals(result.getOffsets("his"), new long[] {11});
+  }
+
+  @Test
+  public void givesByteOffsetsOfRegexMatches() throws Exception {
+    // "é" is two bytes, so the second line starts at byte 8 and its match at byte 13
+    LogScanner.Result result = new LogScanner().addRegex("TO[12] done").addLiteral("done")
+        .scan(write("a.log", "é TO1 \nnext TO2 done\nTO1 done"));
+    Assert.assertEquals(result.getOffsets("TO[12] done"), new long[] {13, 22});
+    Assert.assertEquals(result.getOffsets("done"), new long[] {17, 26});
+    Assert.assertEquals(result.getCounts(), Map.of("done", 2L, "TO[12] done", 2L));
+  }
+
+  @Test
+  public void keepsExactCountsBeyondMaxOffsets() throws Exception {
+    LogScanner.Result result = new LogScanner().addLiteral("x").setMaxOffsets(3)
+        .scan(write("a.log", "x".repeat(50)));
+    Assert.assertEquals(result.getCount("x"), 50);
+    Assert.assertEquals(result.getOffsets("x"), new long[] {0, 1, 2});
+  }
+
+  @Test
+  public void matchesNaiveSearchInSmallAndMappedFiles() throws Exception {
+    String[] literals = {"ERROR", "ERR", "RROR", "TO2 complete", "é", "\n\n"};
+    String[] regexes = {"device-\\d+ failed", "^TO1", "é\\w"};
+    for (int size : new int[] {1000, 64 * 1024, 64 * 1024 + 1, 300_000}) {
+      String text = randomLog(size, new Random(size));
+      Path file = write("log-" + size, text);
+      LogScanner scanner = new LogScanner().setMaxOffsets(Integer.MAX_VALUE);
+      for (String literal : literals) {
+        scanner.addLiteral(literal);
+      }
+      for (String regex : regexes) {
+        scanner.addRegex(regex);
+      }
+      LogScanner.Result result = scanner.scan(file);
+      byte[] bytes = Files.readAllBytes(file);
+      for (String literal : literals) {
+        Assert.assertEquals(result.getOffsets(literal), naive(bytes, literal),
+            literal + " in " + bytes.length + " bytes");
+      }
+      for (String regex : regexes) {
+        Assert.assertEquals(result.getOffsets(regex), naiveRegex(text, regex),
+            regex + " in " + bytes.length + " bytes");
+      }
+    }
+  }
+
+  @Test
+  public void scansManyFilesAndAddsUp() throws Exception {
+    LogScanner scanner = new LogScanner().addLiteral("ERROR").addRegex("TO\\d");
+    Path a = write("a.log", "ERROR TO1\n");
+    Path b = write("b.log", "TO2 ERROR ERROR\n");
+    Map<Path, LogScanner.Result> results = scanner.scanAll(List.of(a, dir.resolve("none"), b));
+    Assert.assertEquals(new ArrayList<>(results.keySet()), List.of(a, b));
+    Assert.assertEquals(scanner.totals(results.values()), Map.of("ERROR", 3L, "TO\\d", 2L));
+    Assert.assertThrows(IllegalStateException.class, () -> scanner.addLiteral("late"));
+  }
+
+  @Test
+  public void rejectsDuplicateAndEmptyPatterns() {
+    Assert.assertThrows(IllegalArgumentException.class,
+        () -> new LogScanner().addLiteral("a").addRegex("a"));
+    Assert.assertThrows(IllegalArgumentException.class, () -> new LogScanner().addLiteral(""));
+  }
+
+  @Test
+  public void fileContainsStringUsesTheCompileCache() throws Exception {
+    Path file = write("a.log", "start\nTO2 complete for device-7\nend\n");
+    Assert.assertTrue(TestUtil.fileContainsString(file.toString(), "device-\\d+", true));
+    Assert.assertTrue(TestUtil.fileContainsString(file.toString(), "complete", false));
+    Assert.assertFalse(TestUtil.fileContainsString(file.toString(), "^complete", false));
+    Assert.assertSame(LogScanner.compile("device-\\d+"), LogScanner.compile("device-\\d+"));
+  }
+
+  private static String randomLog(int size, Random random) {
+    String[] words = {"ERROR", "ERR", "RROR", "TO1", "TO2", "complete", "device-", "failed", "é",
+        "\n", "\n", " ", "ok", "ROR"};
+    StringBuilder text = new StringBuilder();
+    while (text.toString().getBytes(StandardCharsets.UTF_8).length < size) {
+      for (int i = 0; i < 1000; i++) {
+        String word = words[random.nextInt(words.length)];
+        text.append(word.equals("device-") ? word + random.nextInt(10) + " " : word);
+        if (random.nextInt(3) == 0) {
+          text.append(' ');
+        }
+      }
+    }
+    byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+    // Cut on a character boundary at or just after the size
+    int end = size;
+    while (end < bytes.length && (bytes[end] & 0xc0) == 0x80) {
+      end++;
+    }
+    return new String(bytes, 0, end, StandardCharsets.UTF_8);
+  }
+
+  private static long[] naive(byte[] text, String literal) {
+    byte[] pattern = literal.getBytes(StandardCharsets.UTF_8);
+    List<Long> offsets = new ArrayList<>();
+    for (int i = 0; i + pattern.length <= text.length; i++) {
+      int j = 0;
+      while (j < pattern.length && text[i + j] == pattern[j]) {
+        j++;
+      }
+      if (j == pattern.length) {
+        offsets.add((long) i);
+      }
+    }
+    return offsets.stream().mapToLong(Long::longValue).toArray();
+  }
+
+  private static long[] naiveRegex(String text, String regex) {
+    Pattern pattern = Pattern.compile(regex);
+    List<Long> offsets = new ArrayList<>();
+    long lineStart = 0;
+    for (String line : text.split("\n", -1)) {
+      Matcher m = pattern.matcher(line);
+      while (m.find()) {
+        offsets.add(lineStart
+            + line.substring(0, m.start()).getBytes(StandardCharsets.UTF_8).length);
+      }
+      lineStart += line.getBytes(StandardCharsets.UTF_8).length + 1;
+    }
+    return offsets.stream().mapToLong(Long::longValue).toArray();
+  }
+}
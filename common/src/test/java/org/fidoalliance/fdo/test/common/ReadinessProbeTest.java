@@ -0,0 +1,99 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * ReadinessProbe against a stub HTTP server whose status the tests set.
+ */
+public class ReadinessProbeTest {
+
+  private HttpServer server;
+  private final AtomicInteger requests = new AtomicInteger();
+  // Status of each request in turn; the last one repeats
+  private volatile int[] statuses;
+
+  @BeforeMethod
+  public void startServer() throws Exception {
+    requests.set(0);
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/health", exchange -> {
+      int n = requests.getAndIncrement();
+      exchange.sendResponseHeaders(statuses[Math.min(n, statuses.length - 1)], -1);
+      exchange.close();
+    });
+    server.start();
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private ReadinessProbe probe() {
+    return ReadinessProbe.http("stub", "localhost", server.getAddress().getPort(), "/health");
+  }
+
+  @Test
+  public void readyOnceServiceUnavailableTurnsOk() throws Exception {
+    statuses = new int[] {503, 503, 200};
+    Duration elapsed = probe().await(Duration.ofSeconds(10));
+    Assert.assertEquals(requests.get(), 3);
+    // Slept the first two backoffs, 200 and 400 ms
+    Assert.assertTrue(elapsed.toMillis() >= 3 * ReadinessProbe.initialBackoff.toMillis(),
+        "elapsed " + elapsed);
+  }
+
+  @Test
+  public void badGatewayIsNotReady() {
+    statuses = new int[] {502};
+    Assert.assertFalse(probe().isReady());
+  }
+
+  @Test
+  public void unauthorizedIsReady() {
+    statuses = new int[] {401};
+    Assert.assertTrue(probe().isReady());
+  }
+
+  @Test
+  public void timesOutWhileBadGateway() throws Exception {
+    statuses = new int[] {502};
+    Assert.assertThrows(TimeoutException.class, () -> probe().await(Duration.ofMillis(700)));
+    Assert.assertTrue(requests.get() >= 2, "requests " + requests.get());
+  }
+
+  @Test
+  public void tcpProbeFollowsListener() throws Exception {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      port = socket.getLocalPort();
+      Assert.assertTrue(ReadinessProbe.tcp("stub", "localhost", port).isReady());
+    }
+    Assert.assertFalse(ReadinessProbe.tcp("stub", "localhost", port).isReady());
+  }
+
+  @Test
+  public void backoffDoublesUpToCap() {
+    long cap = ReadinessProbe.maxBackoff.toMillis();
+    long backoff = ReadinessProbe.initialBackoff.toMillis();
+    Assert.assertEquals(ReadinessProbe.nextBackoff(backoff), 2 * backoff);
+    for (int i = 0; i < 20; i++) {
+      backoff = ReadinessProbe.nextBackoff(backoff);
+      Assert.assertTrue(backoff <= cap, "backoff " + backoff);
+    }
+    Assert.assertEquals(backoff, cap);
+  }
+}
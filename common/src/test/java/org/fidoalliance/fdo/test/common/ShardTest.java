@@ -0,0 +1,140 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Splitting rows over shards, and merging the shard reports back together.
+ */
+public class ShardTest {
+
+  private static List<String[]> rows(int n) {
+    List<String[]> rows = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      rows.add(new String[] {"row-" + i, "true", i % 2 == 0 ? "component-sample" : "client-sdk"});
+    }
+    return rows;
+  }
+
+  @Test
+  public void everyRowIsInExactlyOneShard() {
+    List<String[]> rows = rows(1000);
+    for (int count : new int[] {1, 2, 3, 7}) {
+      int[] owners = new int[rows.size()];
+      int[] sizes = new int[count];
+      for (int index = 0; index < count; index++) {
+        Shard shard = new Shard(index, count);
+        for (int r = 0; r < rows.size(); r++) {
+          if (shard.contains(rows.get(r))) {
+            owners[r]++;
+            sizes[index]++;
+          }
+        }
+      }
+      for (int r = 0; r < owners.length; r++) {
+        Assert.assertEquals(owners[r], 1, "row " + r + " of " + count + " shards");
+      }
+      for (int size : sizes) {
+        // Roughly even: no shard gets less than half its share
+        Assert.assertTrue(size > rows.size() / count / 2, count + " shards: " + size);
+      }
+    }
+  }
+
+  @Test
+  public void hashIsStable() {
+    String[] row = {"row-0", "true", "component-sample"};
+    Assert.assertEquals(Shard.rowHash(row), Shard.rowHash(row.clone()));
+    // Pinned, so a change to the hash that would reshuffle the splits of CI agents is noticed
+    Assert.assertEquals(Long.toHexString(Shard.rowHash(row)), "32945b4225035aa9");
+    Assert.assertTrue(new Shard(1, 4).contains(row));
+    Assert.assertEquals(Long.toHexString(Shard.rowHash(new String[0])), "cbf29ce484222325");
+    Assert.assertEquals(Long.toHexString(Shard.rowHash(new String[] {"a"})),
+        Long.toHexString(fnv1a(new byte[] {'a', 0x1f})));
+    // Field boundaries count: "ab","c" is not "a","bc"
+    Assert.assertNotEquals(Shard.rowHash(new String[] {"ab", "c"}),
+        Shard.rowHash(new String[] {"a", "bc"}));
+  }
+
+  private static long fnv1a(byte[] bytes) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : bytes) {
+      hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void rejectsIndexOutsideCount() {
+    new Shard(2, 2);
+  }
+
+  private static void writeShard(Path dir, List<String> results, LatencyHistogram histogram)
+      throws IOException {
+    Files.createDirectories(dir);
+    List<String> csv = new ArrayList<>();
+    csv.add("shard,name,status,durationMs,parameters");
+    csv.addAll(results);
+    Files.write(dir.resolve(ShardReport.RESULTS_FILE), csv);
+    Files.write(dir.resolve("latency.hist"), List.of("TO\t" + histogram.encode()));
+  }
+
+  private static Map<String, String> summary(Path dir) throws IOException {
+    Map<String, String> lines = new TreeMap<>();
+    for (String line : Files.readAllLines(dir.resolve("latency.csv"))) {
+      lines.put(line.substring(0, line.indexOf(',')), line);
+    }
+    return lines;
+  }
+
+  @Test
+  public void mergesShardReports() throws Exception {
+    Path root = Files.createTempDirectory("fdo-shards");
+    try {
+      LatencyHistogram fast = new LatencyHistogram();
+      LatencyHistogram slow = new LatencyHistogram();
+      LatencyHistogram all = new LatencyHistogram();
+      for (int i = 0; i < 90; i++) {
+        fast.record(10_000);
+        all.record(10_000);
+      }
+      for (int i = 0; i < 10; i++) {
+        slow.record(1_000_000);
+        all.record(1_000_000);
+      }
+      writeShard(root.resolve("run/shard-0-of-2"), List.of("0/2,row-2,PASS,10,\"a,b;c\""), fast);
+      writeShard(root.resolve("run/shard-1-of-2"),
+          List.of("1/2,row-1,FAIL,30,x", "1/2,row-0,PASS,20,y"), slow);
+
+      Path merged = root.resolve("merged");
+      Assert.assertEquals(ShardReport.merge(merged, List.of(root.resolve("run"))), 3);
+
+      Assert.assertEquals(Files.readAllLines(merged.resolve(ShardReport.RESULTS_FILE)), List.of(
+          "shard,name,status,durationMs,parameters",
+          "0/2,row-2,PASS,10,\"a,b;c\"",
+          "1/2,row-0,PASS,20,y",
+          "1/2,row-1,FAIL,30,x"));
+
+      // Bucket by bucket: the same as one histogram of every sample, not a blend of the shards
+      Path expected = root.resolve("expected");
+      LatencyRecorder.writeSummary(Map.of("TO", all), expected);
+      Assert.assertEquals(summary(merged), summary(expected));
+      String[] to = summary(merged).get("TO").split(",");
+      Assert.assertEquals(to[1], "100");
+      Assert.assertTrue(Double.parseDouble(to[4]) < 11, "p90 " + to[4]);
+      Assert.assertTrue(Double.parseDouble(to[5]) > 990, "p99 " + to[5]);
+    } finally {
+      TestUtil.deleteRecursively(root);
+    }
+  }
+}
@@ -0,0 +1,178 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * StackManager with the stub docker of src/test/bin, which records its calls in the stack
+ * directory. A stub HTTP server stands in for the containers: a project answers once the stub
+ * has run "up" for it.
+ */
+public class StackManagerTest {
+
+  private Path dir;
+  private Path logDir;
+  private HttpServer server;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("fdo-stack");
+    logDir = Files.createDirectories(dir.resolve(".logs"));
+    Files.write(dir.resolve("docker-compose.yml"), "services: {}\n".getBytes());
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", exchange -> {
+      String project = exchange.getRequestURI().getPath().substring(1);
+      boolean running = Files.exists(dir.resolve(".running-" + project));
+      exchange.sendResponseHeaders(running ? 200 : 503, -1);
+      exchange.close();
+    });
+    server.start();
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void tearDown() throws Exception {
+    server.stop(0);
+    try (Stream<Path> walk = Files.walk(dir)) {
+      for (Path path : walk.sorted(Collections.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  /**
+   * Stack of the temporary directory; null project for the default one.
+   */
+  private DockerStack stack(String project) {
+    String name = project == null ? "default" : project;
+    return new DockerStack(name, dir, Collections.singletonList(
+        ReadinessProbe.http(name, "localhost", server.getAddress().getPort(), "/" + name)),
+        project, null);
+  }
+
+  private StackManager.Lease acquire(StackManager manager, DockerStack stack)
+      throws Exception {
+    return manager.acquire(Collections.singletonList(stack), logDir, Duration.ofSeconds(10));
+  }
+
+  /**
+   * Calls made to the stub docker so far, without the leading "compose".
+   */
+  private List<String> calls() throws IOException {
+    Path file = dir.resolve(".docker-calls");
+    if (!Files.exists(file)) {
+      return new ArrayList<>();
+    }
+    return Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+        .map(line -> line.replaceFirst("^compose ", ""))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void countsReferencesAndStopsAtZero() throws Exception {
+    StackManager manager = new StackManager();
+    DockerStack stack = stack(null);
+    StackManager.Lease first = acquire(manager, stack);
+    StackManager.Lease second = acquire(manager, stack);
+    Assert.assertEquals(manager.getReferences(stack), 2);
+    Assert.assertEquals(calls(), List.of("up --detach --build"));
+
+    first.close();
+    first.close();
+    Assert.assertEquals(manager.getReferences(stack), 1);
+    Assert.assertEquals(calls().size(), 1, calls().toString());
+
+    second.close();
+    Assert.assertEquals(manager.getReferences(stack), 0);
+    Assert.assertEquals(calls(), List.of("up --detach --build", "logs --no-color", "down"));
+  }
+
+  @Test
+  public void rebuildsOnlyWhenInputsChange() throws Exception {
+    StackManager manager = new StackManager();
+    DockerStack stack = stack(null);
+    acquire(manager, stack).close();
+    acquire(manager, stack).close();
+    Files.write(dir.resolve("docker-compose.yml"), "services: {}\n# changed\n".getBytes());
+    acquire(manager, stack).close();
+    List<String> ups = calls().stream().filter(call -> call.startsWith("up"))
+        .collect(Collectors.toList());
+    Assert.assertEquals(ups, List.of("up --detach --build", "up --detach",
+        "up --detach --build"));
+  }
+
+  @Test
+  public void reusesRunningStackWithUnchangedInputs() throws Exception {
+    StackManager manager = new StackManager();
+    DockerStack stack = stack(null);
+    System.setProperty("fdo.docker.keep", "true");
+    try {
+      acquire(manager, stack).close();
+      acquire(manager, stack).close();
+    } finally {
+      System.clearProperty("fdo.docker.keep");
+    }
+    Assert.assertEquals(calls(), List.of("up --detach --build"));
+  }
+
+  @Test
+  public void failsWhenUpFails() throws Exception {
+    StackManager manager = new StackManager();
+    DockerStack stack = stack(null);
+    Files.write(dir.resolve(".docker-fail"), "3".getBytes());
+    IOException e = Assert.expectThrows(IOException.class, () -> acquire(manager, stack));
+    Assert.assertTrue(e.getMessage().contains("failed with exit value 3"), e.getMessage());
+    Assert.assertTrue(e.getMessage().contains("stub docker failing as asked"), e.getMessage());
+    Assert.assertEquals(manager.getReferences(stack), 0);
+  }
+
+  @Test
+  public void slowStackDoesNotHoldUpOthers() throws Exception {
+    StackManager manager = new StackManager();
+    // Never answers: its probe path is not a project the stub docker starts
+    DockerStack slow = new DockerStack("slow", dir, Collections.singletonList(
+        ReadinessProbe.http("slow", "localhost", server.getAddress().getPort(), "/never")),
+        "slow", null);
+    CompletableFuture<Void> slowAcquire = CompletableFuture.runAsync(() -> {
+      try {
+        manager.acquire(Collections.singletonList(slow), logDir, Duration.ofSeconds(4));
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    // Let the slow stack start and begin waiting
+    while (!calls().contains("--project-name slow up --detach --build")) {
+      Thread.sleep(20);
+    }
+    long start = System.nanoTime();
+    DockerStack other = stack("other");
+    try (StackManager.Lease lease = acquire(manager, other)) {
+      Assert.assertEquals(manager.getReferences(other), 1);
+    }
+    Assert.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 3,
+        "other stack waited for the slow one");
+    Assert.assertFalse(slowAcquire.isDone());
+    Throwable failure = Assert.expectThrows(Exception.class, slowAcquire::join).getCause();
+    Assert.assertTrue(failure.getCause() instanceof TimeoutException, failure.toString());
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * The harness's REST calls and TO0 wait against the in-JVM stand-in server.
+ */
+public class StandInServerTest {
+
+  // Device type of the deadlines, so no learned history of real runs applies
+  private static final String DEVICE_TYPE = "stand-in-test";
+
+  private StandInServer server;
+  private FdoRestClient client;
+
+  @BeforeMethod
+  public void startServer() throws Exception {
+    server = new StandInServer();
+    server.start(0);
+    client = new FdoRestClient(server.getApiUrl(), "apiUser", "secret");
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void stopServer() {
+    server.close();
+  }
+
+  private static void assertSuccess(FdoRestClient.Response response) {
+    Assert.assertTrue(response.isSuccess(), response.toString());
+  }
+
+  @Test
+  public void answersTheClientCalls() throws Exception {
+    FdoRestClient.Response voucher = client.getVoucher("0");
+    assertSuccess(voucher);
+    Assert.assertEquals(voucher.getBody(), client.getVoucher("0").getBody());
+    Assert.assertNotEquals(voucher.getBody(), client.getVoucher("1").getBody());
+
+    FdoRestClient.Response guid = client.uploadVoucher(voucher.getBody());
+    assertSuccess(guid);
+    Assert.assertTrue(guid.getBodyAsString().matches("[0-9a-f]{32}"), guid.getBodyAsString());
+    Assert.assertEquals(client.uploadVoucher(voucher.getBody()).getBodyAsString(),
+        guid.getBodyAsString());
+
+    assertSuccess(client.postRvInfo("[{\"dns\":\"localhost\"}]"));
+    Assert.assertEquals(server.getRvInfo(), "[{\"dns\":\"localhost\"}]");
+    assertSuccess(client.postOwnerRedirect("[[null,\"localhost\",8042,3]]"));
+    Assert.assertEquals(server.getOwnerRedirect(), "[[null,\"localhost\",8042,3]]");
+
+    byte[] script = "echo hello\n".getBytes(StandardCharsets.UTF_8);
+    assertSuccess(client.uploadResource("linux64.sh", script));
+    Assert.assertEquals(server.getResource("linux64.sh"), script);
+    Assert.assertEquals(client.post("/api/v1/owner/resource", FdoRestClient.TEXT_PLAIN, script)
+        .getStatus(), 400);
+
+    assertSuccess(client.postSvi("[{\"filedesc\":\"linux64.sh\"}]"));
+    Assert.assertEquals(server.getSvi(), "[{\"filedesc\":\"linux64.sh\"}]");
+    String query = "module=fdo_sys&var=active&guid=" + guid.getBodyAsString() + "&priority=0";
+    assertSuccess(client.putDeviceSvi(query, new byte[0]));
+    Assert.assertEquals(server.getDeviceSvi(), List.of(query));
+
+    Assert.assertEquals(client.get("/api/v1/unknown").getStatus(), 404);
+    Assert.assertEquals(server.getRequestCount(), 12);
+  }
+
+  @Test
+  public void delaysResponsesByTheLatency() throws Exception {
+    server.setLatency(Duration.ofMillis(200))
+        .setLatency("/api/v1/owner/vouchers", Duration.ofMillis(600));
+    FdoRestClient.Response voucher = client.getVoucher("0");
+    Assert.assertTrue(voucher.getElapsed().toMillis() >= 200, voucher.toString());
+    Assert.assertTrue(voucher.getElapsed().toMillis() < 600, voucher.toString());
+    FdoRestClient.Response guid = client.uploadVoucher(voucher.getBody());
+    Assert.assertTrue(guid.getElapsed().toMillis() >= 600, guid.toString());
+  }
+
+  @Test
+  public void to0WaitSeesTheTo0Delay() throws Exception {
+    server.setTo0Delay(Duration.ofMillis(1000));
+    String guid = client.uploadVoucher(client.getVoucher("0").getBody()).getBodyAsString();
+    FdoRestClient.Response state = client.getOwnerState(guid);
+    assertSuccess(state);
+    Assert.assertEquals(To0Wait.field(state.getBodyAsString(), To0Wait.EXPIRY_FIELD), "null");
+
+    TimeoutPolicy.Deadline deadline = new TimeoutPolicy().start(DEVICE_TYPE,
+        LatencyRecorder.PHASE_TO0_WAIT, Duration.ofSeconds(10));
+    long start = System.nanoTime();
+    Assert.assertTrue(new To0Wait(client).await(guid, deadline));
+    long elapsed = Duration.ofNanos(System.nanoTime() - start).toMillis();
+    Assert.assertTrue(elapsed >= 900 && elapsed < 5000, elapsed + " ms");
+    Assert.assertNotEquals(To0Wait.field(client.getOwnerState(guid).getBodyAsString(),
+        To0Wait.EXPIRY_FIELD), "null");
+  }
+
+  @Test
+  public void to0WaitTimesOutBeforeTheTo0Delay() throws Exception {
+    server.setTo0Delay(Duration.ofSeconds(30));
+    String guid = client.uploadVoucher(client.getVoucher("0").getBody()).getBodyAsString();
+    TimeoutPolicy.Deadline deadline = new TimeoutPolicy().start(DEVICE_TYPE,
+        LatencyRecorder.PHASE_TO0_WAIT, Duration.ofMillis(800));
+    Assert.assertFalse(new To0Wait(client).await(guid, deadline));
+  }
+}
@@ -0,0 +1,31 @@
+// Copyright 2023 Intel Corporation
+// SPDX-License-Identifier: Apache 2.0
+
+package org.fidoalliance.fdo.test.common;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Extraction of the TO0 field from owner state bodies.
+ */
+public class To0WaitTest {
+
+  @Test
+  public void readsStringNumberAndLiteralFields() {
+    Assert.assertEquals(To0Wait.field("{\"guid\":\"a\",\"to0Expiry\":\"2026-10-18\"}",
+        "to0Expiry"), "2026-10-18");
+    Assert.assertEquals(To0Wait.field("{ \"to0Expiry\" : 3600 }", "to0Expiry"), "3600");
+    Assert.assertEquals(To0Wait.field("{\"to0Expiry\":null,\"x\":1}", "to0Expiry"), "null");
+    Assert.assertEquals(To0Wait.field("{\"to0Expiry\":\"\"}", "to0Expiry"), "");
+    Assert.assertEquals(To0Wait.field("{\"note\":\"say \\\"hi\\\"\",\"to0Expiry\":0}",
+        "to0Expiry"), "0");
+  }
+
+  @Test
+  public void missingFieldIsNull() {
+    Assert.assertNull(To0Wait.field("{\"guid\":\"to0Expiry\"}", "to0Expiry"));
+    Assert.assertNull(To0Wait.field("not json", "to0Expiry"));
+    Assert.assertNull(To0Wait.field("", "to0Expiry"));
+  }
+}
@@ -3,21 +3,48 @@
 
 package org.fidoalliance.fdo.test;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import static org.fidoalliance.fdo.test.common.LatencyRecorder.PHASE_DI;
+import static org.fidoalliance.fdo.test.common.LatencyRecorder.PHASE_SVI_UPLOAD;
+import static org.fidoalliance.fdo.test.common.LatencyRecorder.PHASE_TO;
+import static org.fidoalliance.fdo.test.common.LatencyRecorder.PHASE_TO0_WAIT;
+import static org.fidoalliance.fdo.test.common.LatencyRecorder.PHASE_VOUCHER_GET;
+import static org.fidoalliance.fdo.test.common.LatencyRecorder.PHASE_VOUCHER_POST;
+
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
+import org.fidoalliance.fdo.test.common.AioStack;
+import org.fidoalliance.fdo.test.common.AioStackPool;
+import org.fidoalliance.fdo.test.common.ArtifactStore;
 import org.fidoalliance.fdo.test.common.CsvUtils;
+import org.fidoalliance.fdo.test.common.DeviceFleet;
+import org.fidoalliance.fdo.test.common.DockerStack;
+import org.fidoalliance.fdo.test.common.FdoRestClient;
+import org.fidoalliance.fdo.test.common.HttpRecorder;
+import org.fidoalliance.fdo.test.common.HttpTrace;
+import org.fidoalliance.fdo.test.common.LatencyRecorder;
+import org.fidoalliance.fdo.test.common.LoadScenario;
+import org.fidoalliance.fdo.test.common.LogScanner;
+import org.fidoalliance.fdo.test.common.LogWatcher;
 import org.fidoalliance.fdo.test.common.PropertiesUtils;
+import org.fidoalliance.fdo.test.common.ScenarioRunner;
 import org.fidoalliance.fdo.test.common.TestCase;
 import org.fidoalliance.fdo.test.common.TestLogger;
 import org.fidoalliance.fdo.test.common.TestProcess;
-import org.fidoalliance.fdo.test.common.TestUtil;
+import org.fidoalliance.fdo.test.common.TimeoutPolicy;
+import org.fidoalliance.fdo.test.common.To0Wait;
 import org.testng.Assert;
 import org.testng.SkipException;
 import org.testng.annotations.*;
@@ -29,76 +56,34 @@ import org.testng.annotations.Test;
  */
 public class PriSmokeTest extends TestCase {
 
-  @DataProvider(name = "FdoTestData")
-  public static Object[][] getData() throws Exception {
+  @DataProvider(name = "FdoTestData", parallel = true)
+  public static Iterator<Object[]> getData() throws Exception {
     TestLogger.info("=====> Reading csv data file.");
     String dataFile = "priTest.csv";
     URL resource = PriSmokeTest.class.getClassLoader().getResource(dataFile);
     Assert.assertNotNull(resource, "File " + dataFile + " does not exist;");
     String resourcePath = Paths.get(resource.toURI()).toString();
     TestLogger.info("=====> resourcePath: " + Paths.get(resource.toURI()));
-    return CsvUtils.getDataArray(resourcePath);
+    return CsvUtils.getDataIterator(resourcePath);
   }
 
   /**
-   * This method is used to start docker container for PRI-FIDO components.
+   * This method is used to start docker container for PRI-FIDO components, unless they are
+   * already running.
    */
-  @BeforeGroups("fdo_pri_smoketest")
-  public void startFdoDockerService() throws IOException, InterruptedException {
-    TestLogger.info("=====> Starting FDO Docker Service");
-
-//    try {
-//      mfgApiPass = PropertiesUtils.getProperty(
-//          testDir + "/binaries/pri-fidoiot/manufacturer/creds.env",
-//          "manufacturer_api_password");
-//
-//      ownerApiPass = PropertiesUtils.getProperty(
-//          testDir + "/binaries/pri-fidoiot/owner/creds.env",
-//          "owner_api_password");
-//    } catch (IOException ex) {
-//      Assert.fail("Couldn't read API Password.");
-//      throw ex;
-//    }
-
-    Path mfgDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/manufacturer");
-    Path ownerDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/owner");
-    Path rvDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/rv");
-    Path aioDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/aio");
-    Path dbDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/db");
-
-    try {
-//      TestProcess.execute_dockerCmd(mfgDockerPath.toString(), runDockerService);
-//      TestProcess.execute_dockerCmd(rvDockerPath.toString(), runDockerService);
-//      TestProcess.execute_dockerCmd(ownerDockerPath.toString(), runDockerService);
-      TestProcess.execute_dockerCmd(aioDockerPath.toString(), runDockerService);
-      TestProcess.execute_dockerCmd(dbDockerPath.toString(), runDockerService);
-      Thread.sleep(fdoDockerUpTimeout.toMillis());
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+  private void startFdoDockerService() throws Exception {
+    // Start db before aio and wait until each answers rather than sleeping a fixed time.
+    requireStacks(DockerStack.db(testDir), DockerStack.aio(testDir));
   }
 
   /**
-   * This method is used to stop docker container for PRI-FIDO components.
+   * This method is used to stop docker container for PRI-FIDO components once no other test
+   * class or test run uses them.
    */
-  @AfterGroups("fdo_pri_smoketest")
+  @AfterGroups(value = "fdo_pri_smoketest", alwaysRun = true)
   public void stopFdoDockerService() {
-    TestLogger.info("=====> Stopping FDO Docker Service");
-    Path mfgDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/manufacturer");
-    Path ownerDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/owner");
-    Path rvDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/rv");
-    Path aioDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/aio");
-    Path dbDockerPath = Paths.get(testDir + "/binaries/pri-fidoiot/db");
-    try {
-//      TestProcess.execute_dockerCmd(mfgDockerPath.toString(), downDockerService);
-//      TestProcess.execute_dockerCmd(ownerDockerPath.toString(), downDockerService);
-//      TestProcess.execute_dockerCmd(rvDockerPath.toString(), downDockerService);
-      TestProcess.execute_dockerCmd(aioDockerPath.toString(), downDockerService);
-      TestProcess.execute_dockerCmd(dbDockerPath.toString(), downDockerService);
-      Thread.sleep(dockerDownTimeout.toMillis());
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+    TestLogger.info("=====> Releasing FDO Docker Service");
+    releaseStacks();
   }
 
   private void componentSampleTest(String sviEnabled) throws Exception {
@@ -106,27 +91,33 @@ public class PriSmokeTest extends TestCase {
     TestLogger.info("=====> testDir: " + testDir);
     Assert.assertNotNull(testDir,
         "The environment variable TEST_DIR must be set for tests to execute properly.");
-    Path testPath = Paths.get(testDir);
-    Path testDevicePath = Paths.get(testDir + "binaries/pri-fidoiot/device/");
-
-    String[] deviceDiCmd = {"java", D_JAVA_LIBRARY_PATH + testDir,
-        "-Dfidoalliance.fdo.pem.dev=binaries/pri-fidoiot/device/device.pem",
-        "-jar", "binaries/pri-fidoiot/device/device.jar"};
-
-    TestProcess deviceDi = new TestProcess(testPath, deviceDiCmd);
+    startFdoDockerService();
+    Path deviceJar = Paths.get(testDir, "binaries/pri-fidoiot/device/device.jar");
+    // The device runs from this row's own copy of the device directory.
+    Path devicePath = context().getDeviceCopy(deviceJar.getParent());
+    String devicePem = "-Dfidoalliance.fdo.pem.dev=" + devicePath.resolve("device.pem");
+
+    TestProcess deviceDi = deviceProcess(devicePath, deviceJar, "di",
+        D_JAVA_LIBRARY_PATH + testDir, devicePem);
     int deviceResultDi = -1;
-    try (TestProcess.Handle hDeviceDi = deviceDi.start()) {
-      if (hDeviceDi.waitFor(longTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+    try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_DI);
+        TestProcess.Handle hDeviceDi = deviceDi.start()) {
+      TimeoutPolicy.Deadline deadline =
+          timeoutPolicy.start(TimeoutPolicy.COMPONENT_SAMPLE, PHASE_DI, longTimeout);
+      if (hDeviceDi.waitFor(deadline.remaining().toMillis(), TimeUnit.MILLISECONDS)) {
         deviceResultDi = hDeviceDi.exitValue();
+        deadline.complete(deviceResultDi == 0);
+      } else {
+        deadline.expire();
       }
     }
 
     if (deviceResultDi != 0) {
       TestLogger.error(
-          "Device DI did not complete successfully.Most likely cause is a timeout.Exit value: "
-              + deviceResultDi);
+          "Device DI did not complete successfully.Most likely cause is a timeout.Exit value: {}",
+              deviceResultDi);
     } else {
-      TestLogger.info("Device DI completed successfully.Exit value: " + deviceResultDi);
+      TestLogger.info("Device DI completed successfully.Exit value: {}", deviceResultDi);
     }
     // Confirm device completed successfully.
     Assert.assertEquals(deviceResultDi, 0,
@@ -134,93 +125,88 @@ public class PriSmokeTest extends TestCase {
 
     Thread.sleep(shortTimeout.toMillis());
 
-    String[] shellCmdVoucher = {"bash", "-cx",
-        "curl -D - --digest -u apiUser:" + mfgApiPass + " "
-            + "-XGET http://localhost:8039/api/v1/vouchers/0 "
-            + "-o ext_voucher"};
-    TestProcess shellVoucher = new TestProcess(testPath, shellCmdVoucher);
-    try (TestProcess.Handle hShellCmd = shellVoucher.start()) {
-      hShellCmd.waitFor(1000, TimeUnit.MILLISECONDS);
+    FdoRestClient mfgClient = new FdoRestClient(mfgApiUrl, apiUser, mfgApiPass);
+    FdoRestClient ownerClient = new FdoRestClient(ownerApiUrl, apiUser, ownerApiPass);
+
+    // Serial number the device was built with, for the manufacturer; the shared store keys the
+    // device by invocation, since parallel rows onboard devices with the same serial number
+    String serial = "0";
+    String device = serial + "-" + context().getId();
+    FdoRestClient.Response voucher;
+    try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_VOUCHER_GET)) {
+      voucher = mfgClient.getVoucher(serial);
     }
+    assertSuccess(voucher, "Voucher fetch from manufacturer");
+    artifactStore.put(device, ArtifactStore.Kind.EXTENDED_VOUCHER, voucher.getBody());
 
-    String[] shellCmdTo = {"bash", "-cx",
-        "curl -D - --digest -u apiUser:" + ownerApiPass + " "
-            + "--header \"Content-Type: application/cbor\" "
-            + "--data-binary @ext_voucher http://localhost:8042/api/v1/owner/vouchers/ -o guid"};
-    TestProcess shellTo = new TestProcess(testPath, shellCmdTo);
-    try (TestProcess.Handle hShellCmdTo = shellTo.start()) {
-      hShellCmdTo.waitFor(1000, TimeUnit.MILLISECONDS);
+    FdoRestClient.Response guidResponse;
+    try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_VOUCHER_POST)) {
+      guidResponse = ownerClient.uploadVoucher(voucher.getBody());
     }
+    assertSuccess(guidResponse, "Voucher upload to owner");
+    artifactStore.putGuid(device, guidResponse.getBodyAsString().trim());
 
     if (sviEnabled.toLowerCase().equals("true")) {
-      BufferedReader br = new BufferedReader(new FileReader(Paths.get(testDir + "/guid").toFile()));
-      String guid = br.readLine();
-
-      String[] shellCmdServiceInfoActivate = {"bash", "-cx",
-          "curl --location --digest -u apiUser:" + ownerApiPass + " "
-          + "--request PUT 'http://localhost:8042/api/v1/device/svi?module=fdo_sys&"
-          + "var=active&priority=0&bytes=F5' --header 'Content-Type: application/octet-stream'"};
-      TestProcess shellServiceInfo = new TestProcess(testPath, shellCmdServiceInfoActivate);
-      try (TestProcess.Handle hShellCmd = shellServiceInfo.start()) {
-        hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
-      }
-
-      String[] shellCmdServiceInfoFileTransfer = {"bash", "-cx",
-          "curl --location --digest -u apiUser:" + ownerApiPass + " "
-              + "--request PUT 'http://localhost:8042/api/v1/device/svi?module=fdo_sys&"
-              + "var=filedesc&priority=1&filename=linux64.sh&guid=" + guid
-              + "' --header 'Content-Type: application/octet-stream' --data-binary "
-              + "'@common/src/main/resources/linux64.sh'"};
-
-      TestProcess shellServiceInfoFileTransfer = new TestProcess(testPath,
-          shellCmdServiceInfoFileTransfer);
-      try (TestProcess.Handle hShellCmd = shellServiceInfoFileTransfer.start()) {
-        hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
+      String guid = artifactStore.getGuid(device);
+
+      try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_SVI_UPLOAD)) {
+        assertSuccess(ownerClient.putDeviceSvi(
+            "module=fdo_sys&var=active&priority=0&bytes=F5", new byte[0]),
+            "ServiceInfo activate");
+
+        assertSuccess(ownerClient.putDeviceSvi(
+            "module=fdo_sys&var=filedesc&priority=1&filename=linux64.sh&guid=" + guid,
+            Files.readAllBytes(Paths.get(testDir, "common/src/main/resources/linux64.sh"))),
+            "ServiceInfo file transfer");
+
+        assertSuccess(ownerClient.putDeviceSvi(
+            "module=fdo_sys&var=exec&guid=" + guid + "&priority=2&"
+                + "bytes=82672F62696E2F73686A6C696E757836342E7368", new byte[0]),
+            "ServiceInfo exec");
       }
+    }
 
-      String[] shellCmdServiceInfoExec = {"bash", "-cx",
-          "curl --location --digest -u apiUser:" + ownerApiPass + " "
-              + "--request PUT 'http://localhost:8042/api/v1/device/svi?module=fdo_sys&"
-              + "var=exec&guid=" + guid + "&priority=2&"
-              + "bytes=82672F62696E2F73686A6C696E757836342E7368' "
-              + "--header 'Content-Type: application/octet-stream'"};
-      TestProcess shellServiceInfoExec = new TestProcess(testPath, shellCmdServiceInfoExec);
-      try (TestProcess.Handle hShellCmd = shellServiceInfoExec.start()) {
-        hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
+    // Start TO as soon as the owner has registered the device with the RV server
+    try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_TO0_WAIT)) {
+      if (!new To0Wait(ownerClient).await(artifactStore.getGuid(device),
+          timeoutPolicy.start(TimeoutPolicy.COMPONENT_SAMPLE, PHASE_TO0_WAIT, fdoToWait))) {
+        TestLogger.warn("=====> TO0 of device {} not confirmed; starting TO anyway", device);
       }
-
     }
 
-    Thread.sleep(fdoToWait.toMillis());
-
-    String[] deviceToCmd = {"java", D_JAVA_LIBRARY_PATH + testDir,
-        "-Dfidoalliance.fdo.pem.dev=binaries/pri-fidoiot/device/device.pem",
-        "-jar", "binaries/pri-fidoiot/device/device.jar"};
+    CompletableFuture<LogWatcher.Match> sviResult = null;
+    if (sviEnabled.toLowerCase().equals("true")) {
+      sviResult = watchServiceInfoResult(devicePath.resolve(resultFile));
+    }
 
-    TestProcess deviceTo = new TestProcess(testPath, deviceToCmd);
+    TestProcess deviceTo = deviceProcess(devicePath, deviceJar, "to",
+        D_JAVA_LIBRARY_PATH + testDir, devicePem);
     int deviceResultTo = -1;
-    try (TestProcess.Handle hDeviceTo = deviceTo.start()) {
-      if (hDeviceTo.waitFor(longTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+    try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_TO);
+        TestProcess.Handle hDeviceTo = deviceTo.start()) {
+      TimeoutPolicy.Deadline deadline =
+          timeoutPolicy.start(TimeoutPolicy.COMPONENT_SAMPLE, PHASE_TO, longTimeout);
+      if (waitForDevice(hDeviceTo, sviResult, deadline.remaining())) {
         deviceResultTo = hDeviceTo.exitValue();
+        deadline.complete(deviceResultTo == 0);
+      } else {
+        deadline.expire();
       }
     }
 
     if (deviceResultTo != 0) {
       TestLogger.error(
-          "Device TO did not complete successfully.Most likely cause is a timeout.Exit value: "
-              + deviceResultTo);
+          "Device TO did not complete successfully.Most likely cause is a timeout.Exit value: {}",
+              deviceResultTo);
     } else {
-      TestLogger.info("Device TO completed successfully.Exit value: " + deviceResultTo);
+      TestLogger.info("Device TO completed successfully.Exit value: {}", deviceResultTo);
     }
 
     Assert.assertEquals(deviceResultTo, 0,
         "ERROR: Device TO did not exit properly. Exit value: " + deviceResultTo + "; ");
 
-    if (sviEnabled.toLowerCase().equals("true")) {
-      String logFileDevice = Paths.get(testDir, resultFile).toString();
-      Assert.assertTrue(
-          TestUtil.fileContainsString(logFileDevice, "Device onboarded successfully.", true),
-          "ERROR: Device: ServiceInfo not processed successfully.");
+    if (sviResult != null) {
+      assertServiceInfoResult(sviResult);
     }
   }
 
@@ -229,116 +215,248 @@ public class PriSmokeTest extends TestCase {
     TestLogger.info("=====> testDir: " + testDir);
     Assert.assertNotNull(testDir,
             "The environment variable TEST_DIR must be set for tests to execute properly.");
-    Path testPath = Paths.get(testDir);
-    Path testDevicePath = Paths.get(testDir + "/binaries/pri-fidoiot/device/");
+    Path deviceJar = Paths.get(testDir, "binaries/pri-fidoiot/device/device.jar");
+    // The device runs from this row's own copy of the device directory.
+    Path testDevicePath = context().getDeviceCopy(deviceJar.getParent());
     boolean updateRVinfo = true;
 
+    // The row takes the next AIO stack and points its device copy at it.
+    AioStack aio = requireAioStack();
+    if (HttpRecorder.isEnabled()) {
+      // Device and REST traffic go through a proxy that records them for HttpReplayer.
+      HttpRecorder recorder = context().register(new HttpRecorder(aio.getApiUrl(),
+          context().getLogDir().resolve(HttpTrace.TRACE_FILE)));
+      aio = aio.withHttpPort(recorder.start(0));
+    }
+    aio.configureDevice(testDevicePath);
+    FdoRestClient aioClient = new FdoRestClient(aio.getApiUrl(), apiUser, "");
     if (updateRVinfo) {
-      String[] shellCmdRvInfo = {"bash", "-cx", "curl --location --request " +
-            " POST 'http://localhost:8080/api/v1/rvinfo' --header 'Content-Type: text/plain' " +
-            " --data-raw '[[[5, \"127.0.0.1\"], [3, 8080], [12, 1], [2, \"127.0.0.1\"], [4, 8443]]]' "};
-
-      TestProcess shellRvInfProcess = new TestProcess(testPath,
-                shellCmdRvInfo);
-      try (TestProcess.Handle hShellCmd = shellRvInfProcess.start()) {
-        hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
-      }
-
-      String[] shellCmdOwnerRedirect = {"bash", "-cx", "curl -D - --digest -u apiUser: " +
-      "--location --request POST 'http://localhost:8080/api/v1/owner/redirect' " +
-      "--header 'Content-Type: text/plain' " +
-      "--data-raw '[[\"127.0.0.1\",\"127.0.0.1\",8080,3]]' "};
-
-      TestProcess shellOwnerRedirect = new TestProcess(testPath,
-            shellCmdOwnerRedirect);
-      try (TestProcess.Handle hShellCmd = shellOwnerRedirect.start()) {
-      hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
-      }
-
+      updateAioRvInfo(aioClient, aio);
     }
 
-    String[] deviceDiCmd = {"bash", "-cx", "java -jar device.jar"};
-
-    TestProcess deviceDi = new TestProcess(testDevicePath, deviceDiCmd);
+    TestProcess deviceDi = deviceProcess(testDevicePath, deviceJar,
+        "aio-di");
     int deviceResultDi = -1;
-    try (TestProcess.Handle hDeviceDi = deviceDi.start()) {
-      if (hDeviceDi.waitFor(longTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+    try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_DI);
+        TestProcess.Handle hDeviceDi = deviceDi.start()) {
+      TimeoutPolicy.Deadline deadline =
+          timeoutPolicy.start(TimeoutPolicy.AIO, PHASE_DI, longTimeout);
+      if (hDeviceDi.waitFor(deadline.remaining().toMillis(), TimeUnit.MILLISECONDS)) {
         deviceResultDi = hDeviceDi.exitValue();
+        deadline.complete(deviceResultDi == 0);
+      } else {
+        deadline.expire();
       }
     }
 
     if (deviceResultDi != 0) {
       TestLogger.error(
-              "Device DI did not complete successfully.Most likely cause is a timeout.Exit value: "
-                      + deviceResultDi);
+              "Device DI did not complete successfully.Most likely cause is a timeout."
+                      + "Exit value: {}", deviceResultDi);
     } else {
-      TestLogger.info("Device DI completed successfully.Exit value: " + deviceResultDi);
+      TestLogger.info("Device DI completed successfully.Exit value: {}", deviceResultDi);
     }
     // Confirm device completed successfully.
     Assert.assertEquals(deviceResultDi, 0,
             "ERROR: Device DI did not exit properly. Exit value: " + deviceResultDi + "; ");
 
+    // The AIO server runs TO0 itself and the row has no GUID to poll its state with, so this
+    // stays a fixed pause; it is not a TO0 wait latency.
     Thread.sleep(shortTimeout.toMillis());
 
 
+    FdoRestClient.Response payloadUpload = null;
     if (sviEnabled.toLowerCase().equals("true")) {
-
-      String[] shellCmdServiceInfoFileTransfer1 = {"bash", "-cx", "curl -D - --digest -u apiUser: " +
-              "--location --request POST 'http://localhost:8080/api/v1/owner/resource?filename=payload.bin' " +
-              "--header 'Content-Type: text/plain' --data-binary '@common/src/main/resources/payload.bin'"};
-
-      TestProcess shellServiceInfoFileTransfer1 = new TestProcess(testPath,
-              shellCmdServiceInfoFileTransfer1);
-      try (TestProcess.Handle hShellCmd = shellServiceInfoFileTransfer1.start()) {
-        hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
-      }
-
-      String[] shellCmdServiceInfoFileTransfer2 = {"bash", "-cx", "curl -D - --digest -u apiUser: " +
-              "--location --request POST 'http://localhost:8080/api/v1/owner/resource?filename=linux64.sh' " +
-              "--header 'Content-Type: text/plain' --data-binary '@common/src/main/resources/linux64.sh'"};
-
-      TestProcess shellServiceInfoFileTransfer2 = new TestProcess(testPath,
-              shellCmdServiceInfoFileTransfer2);
-      try (TestProcess.Handle hShellCmd = shellServiceInfoFileTransfer2.start()) {
-        hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
-      }
-
-      String[] shellCmdServiceInfoExec = {"bash", "-cx","curl --location --request POST 'http://localhost:8080/api/v1/owner/svi' --header 'Content-Type: text/plain' --data-raw '[{\"filedesc\" : \"payload.bin\",\"resource\" : \"payload.bin\"},{\"filedesc\" : \"linux64.sh\",\"resource\" : \"linux64.sh\"},{\"exec\" : [\"/bin/bash\",\"linux64.sh\"]}]'"};
-    
-      TestProcess shellServiceInfoExec = new TestProcess(testPath, shellCmdServiceInfoExec);
-      try (TestProcess.Handle hShellCmd = shellServiceInfoExec.start()) {
-        hShellCmd.waitFor(2000, TimeUnit.MILLISECONDS);
+      try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_SVI_UPLOAD)) {
+        payloadUpload = uploadAioServiceInfo(aioClient);
       }
-
     }
 
-    String[] deviceToCmd = {"bash", "-cx", "java -jar device.jar"};
+    CompletableFuture<LogWatcher.Match> sviResult = null;
+    if (sviEnabled.toLowerCase().equals("true")) {
+      sviResult = watchServiceInfoResult(testDevicePath.resolve("app-data").resolve(resultFile));
+    }
 
-    TestProcess deviceTo = new TestProcess(testDevicePath, deviceToCmd);
+    TestProcess deviceTo = deviceProcess(testDevicePath, deviceJar,
+        "aio-to");
     int deviceResultTo = -1;
-    try (TestProcess.Handle hDeviceTo = deviceTo.start()) {
-      if (hDeviceTo.waitFor(longTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+    long toStart = System.nanoTime();
+    try (LatencyRecorder.Sample sample = latencyRecorder.start(PHASE_TO);
+        TestProcess.Handle hDeviceTo = deviceTo.start()) {
+      TimeoutPolicy.Deadline deadline =
+          timeoutPolicy.start(TimeoutPolicy.AIO, PHASE_TO, longTimeout);
+      if (waitForDevice(hDeviceTo, sviResult, deadline.remaining())) {
         deviceResultTo = hDeviceTo.exitValue();
+        deadline.complete(deviceResultTo == 0);
+      } else {
+        deadline.expire();
       }
     }
 
     if (deviceResultTo != 0) {
       TestLogger.error(
-              "Device TO did not complete successfully.Most likely cause is a timeout.Exit value: "
-                      + deviceResultTo);
+              "Device TO did not complete successfully.Most likely cause is a timeout."
+                      + "Exit value: {}", deviceResultTo);
     } else {
-      TestLogger.info("Device TO completed successfully.Exit value: " + deviceResultTo);
+      TestLogger.info("Device TO completed successfully.Exit value: {}", deviceResultTo);
     }
 
     Assert.assertEquals(deviceResultTo, 0,
             "ERROR: Device TO did not exit properly. Exit value: " + deviceResultTo + "; ");
 
+    if (sviResult != null) {
+      assertServiceInfoResult(sviResult);
+      reportSviTransfer(payloadUpload, Duration.ofNanos(System.nanoTime() - toStart));
+    }
+  }
+
+  /**
+   * Device JVM for one protocol step. Its output is kept in the log directory of the row and
+   * logged at debug level with the row and step as prefix, so the lines of rows running in
+   * parallel can be told apart. Its startup time is recorded apart from the step. Set
+   * -Dfdo.appcds=true to launch it from an AppCDS archive.
+   */
+  private TestProcess deviceProcess(Path workPath, Path jar, String step, String... jvmOptions)
+      throws IOException {
+    String prefix = context().getName() + "/" + step;
+    return TestProcess.javaJar(workPath, jar, Arrays.asList(jvmOptions), Collections.emptyList())
+        .captureOutput(context().getLogDir().resolve("device-" + step + ".log"))
+        .addLineListener(line -> TestLogger.debug("[{}] {}", prefix, line));
+  }
+
+  private void updateAioRvInfo(FdoRestClient aioClient, AioStack aio) throws Exception {
+    assertSuccess(aioClient.postRvInfo(aio.getRvInfo()), "rvinfo update");
+
+    assertSuccess(aioClient.postOwnerRedirect(aio.getOwnerRedirect()),
+        "Owner redirect update");
+  }
+
+  /**
+   * Upload the ServiceInfo resources and instructions; returns the response to the payload
+   * upload.
+   */
+  private FdoRestClient.Response uploadAioServiceInfo(FdoRestClient aioClient) throws Exception {
+    // Streamed from disk, so the payload can be as large as -Dfdo.svi.payloadSize asks for.
+    Path payload = sviPayload();
+    FdoRestClient.Response payloadUpload = aioClient.uploadResource("payload.bin", payload);
+    assertSuccess(payloadUpload, "Resource upload payload.bin");
+
+    assertSuccess(aioClient.uploadResource("linux64.sh", sviScript(payload)),
+        "Resource upload linux64.sh");
+
+    assertSuccess(aioClient.postSvi(
+        "[{\"filedesc\" : \"payload.bin\",\"resource\" : \"payload.bin\"},"
+        + "{\"filedesc\" : \"linux64.sh\",\"resource\" : \"linux64.sh\"},"
+        + "{\"exec\" : [\"/bin/bash\",\"linux64.sh\"]}]"),
+        "ServiceInfo update");
+    return payloadUpload;
+  }
+
+  /**
+   * Onboard a fleet of devices concurrently against the AIO stacks. The fleet size and the
+   * number of devices running at once are read from the fdo.fleet.devices and
+   * fdo.fleet.concurrency system properties; with -Dfdo.aio.stacks=K the devices are spread
+   * over K isolated stacks.
+   */
+  private void aioFleetTest(String sviEnabled) throws Exception {
+
+    TestLogger.info("=====> testDir: " + testDir);
+    Assert.assertNotNull(testDir,
+        "The environment variable TEST_DIR must be set for tests to execute properly.");
+    Path testDevicePath = Paths.get(testDir + "/binaries/pri-fidoiot/device/");
+    int devices = Integer.getInteger("fdo.fleet.devices", 10);
+    int concurrency = Integer.getInteger("fdo.fleet.concurrency",
+        Runtime.getRuntime().availableProcessors());
+
+    List<AioStack> stacks = AioStackPool.getInstance(testDir).getStacks();
+    for (AioStack aio : stacks) {
+      requireStacks(aio.getStacks().toArray(new DockerStack[0]));
+      FdoRestClient aioClient = new FdoRestClient(aio.getApiUrl(), apiUser, "");
+      updateAioRvInfo(aioClient, aio);
+      if (sviEnabled.toLowerCase().equals("true")) {
+        uploadAioServiceInfo(aioClient);
+      }
+    }
+
+    // Kept after the row, unlike its working directory, so the device logs can be inspected.
+    Path fleetDir = Paths.get(testDir, "tmp", "fleet", context().getName());
+    DeviceFleet fleet = new DeviceFleet(testDevicePath, fleetDir,
+        "device.jar", Collections.emptyList())
+        .setConcurrency(concurrency)
+        .setProtocolTimeout(longTimeout)
+        .setToDelay(shortTimeout)
+        .setStacks(stacks);
+    if (sviEnabled.toLowerCase().equals("true")) {
+      fleet.setSuccessMarker(resultFile, sviSuccessMarker);
+    }
+
+    DeviceFleet.Result result = fleet.run(devices);
+    result.writeCsv(context().getLogDir().resolve("fleet-results.csv"));
+
     if (sviEnabled.toLowerCase().equals("true")) {
-      String logFileDevice = Paths.get(testDevicePath.toString(), "app-data", resultFile).toString();
-      Assert.assertTrue(
-              TestUtil.fileContainsString(logFileDevice, "Device onboarded successfully.", true),
-              "ERROR: Device: ServiceInfo not processed successfully.");
+      // One pass over every device result file for both ServiceInfo outcomes.
+      LogScanner scanner = new LogScanner().addLiteral(sviSuccessMarker)
+          .addLiteral(sviFailureMarker);
+      List<Path> resultFiles = new ArrayList<>();
+      for (DeviceFleet.DeviceResult device : result.getDevices()) {
+        resultFiles.add(device.getWorkDir().resolve("app-data").resolve(resultFile));
+      }
+      TestLogger.info("=====> Fleet ServiceInfo results: "
+          + scanner.totals(scanner.scanAll(resultFiles).values()));
     }
+
+    Assert.assertEquals(result.getOnboardedCount(), devices,
+        "ERROR: Not all fleet devices onboarded. " + result + "; ");
+  }
+
+  private void aioScenarioTest(String deviceType, String sviEnabled) throws Exception {
+
+    TestLogger.info("=====> testDir: " + testDir);
+    Assert.assertNotNull(testDir,
+        "The environment variable TEST_DIR must be set for tests to execute properly.");
+    // The row's deviceType and sviEnabled are the mix unless -Dfdo.scenario.mix is set.
+    LoadScenario scenario = LoadScenario.fromProperties(deviceType,
+        sviEnabled.toLowerCase().equals("true"));
+    boolean anySvi = scenario.getMix().stream().anyMatch(LoadScenario.Mix::isSviEnabled);
+
+    List<AioStack> stacks = AioStackPool.getInstance(testDir).getStacks();
+    for (AioStack aio : stacks) {
+      requireStacks(aio.getStacks().toArray(new DockerStack[0]));
+      FdoRestClient aioClient = new FdoRestClient(aio.getApiUrl(), apiUser, "");
+      updateAioRvInfo(aioClient, aio);
+      if (anySvi) {
+        uploadAioServiceInfo(aioClient);
+      }
+    }
+
+    Path scenarioDir = Paths.get(testDir, "tmp", "scenario", context().getName());
+    ScenarioRunner runner = new ScenarioRunner(scenario)
+        .setMaxInFlight(Integer.getInteger("fdo.scenario.maxInFlight", 0));
+    for (LoadScenario.Mix mix : scenario.getMix()) {
+      Path fleetDir = scenarioDir.resolve(mix.getDeviceType());
+      DeviceFleet fleet;
+      if (mix.getDeviceType().equals("component-sample")) {
+        fleet = new DeviceFleet(Paths.get(testDir, "binaries/pri-fidoiot/device"), fleetDir,
+            "device.jar", Collections.emptyList());
+      } else if (mix.getDeviceType().equals("client-sdk")) {
+        fleet = new DeviceFleet(Paths.get(testDir, "binaries/client-sdk-fidoiot"), fleetDir,
+            Arrays.asList("bash", "-cx", "./linux-client"));
+      } else {
+        throw new SkipException("Skipping scenario with unknown device type " + mix);
+      }
+      fleet.setProtocolTimeout(longTimeout).setToDelay(shortTimeout).setStacks(stacks);
+      if (mix.isSviEnabled()) {
+        fleet.setSuccessMarker(resultFile, sviSuccessMarker);
+      }
+      runner.setFleet(mix, fleet);
+    }
+
+    ScenarioRunner.Result result = runner.run();
+    result.writeCsv(context().getLogDir().resolve("scenario-results.csv"));
+    result.writeTimeline(context().getLogDir().resolve("scenario-timeline.csv"));
+
+    Assert.assertEquals(result.getOnboardedCount(), result.getOutcomes().size(),
+        "ERROR: Not all scenario devices onboarded. " + result + "; ");
   }
 
   @Test(groups = {"fdo_pri_smoketest"}, dataProvider = "FdoTestData")
@@ -360,6 +478,10 @@ public class PriSmokeTest extends TestCase {
       componentSampleTest(sviEnabled);
     } else if (testName.equals("aio-test")) {
       aioTest(sviEnabled);
+    } else if (testName.equals("aio-fleet-test")) {
+      aioFleetTest(sviEnabled);
+    } else if (testName.equals("aio-scenario-test")) {
+      aioScenarioTest(deviceType, sviEnabled);
     } else {
       throw new SkipException("Skipping tests for unknown device type " + deviceType);
     }